@@ -0,0 +1,214 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray;
+
+
+/**
+ *  An axis aligned bounding box. <p>
+ *
+ *  Bounds are immutable.  Axes are numbered 0 (X), 1 (Y) and 2 (Z).
+ */
+public final class Bounds
+{
+  /** Empty bounds; the union of anything with these bounds is the other bounds. */
+  public static final Bounds EMPTY = new Bounds(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                                                Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY);
+
+  /** Minimum corner. */
+  private final double[] min;
+
+  /** Maximum corner. */
+  private final double[] max;
+
+  /**
+   *  Constructor.
+   *  @param min The minimum corner.
+   *  @param max The maximum corner.
+   */
+  public Bounds(Vector min, Vector max)
+  {
+    this(min.getX(), min.getY(), min.getZ(), max.getX(), max.getY(), max.getZ());
+  }
+
+  /**
+   *  Constructor.
+   */
+  public Bounds(double minX, double minY, double minZ, double maxX, double maxY, double maxZ)
+  {
+    this.min = new double[] { minX, minY, minZ };
+    this.max = new double[] { maxX, maxY, maxZ };
+  }
+
+  /**
+   *  Get the minimum value along the given axis.
+   *  @param axis The axis (0, 1 or 2).
+   *  @return The minimum value.
+   */
+  public double getMin(int axis)
+  {
+    return this.min[axis];
+  }
+
+  /**
+   *  Get the maximum value along the given axis.
+   *  @param axis The axis (0, 1 or 2).
+   *  @return The maximum value.
+   */
+  public double getMax(int axis)
+  {
+    return this.max[axis];
+  }
+
+  /**
+   *  Get the minimum corner.
+   */
+  public Vector getMin()
+  {
+    return new Vector(min[0], min[1], min[2]);
+  }
+
+  /**
+   *  Get the maximum corner.
+   */
+  public Vector getMax()
+  {
+    return new Vector(max[0], max[1], max[2]);
+  }
+
+  /**
+   *  Get the centre of the bounds along the given axis.
+   *  @param axis The axis (0, 1 or 2).
+   *  @return The centre value.
+   */
+  public double getCentre(int axis)
+  {
+    return 0.5d * (this.min[axis] + this.max[axis]);
+  }
+
+  /**
+   *  Get the extent of the bounds along the given axis.
+   *  @param axis The axis (0, 1 or 2).
+   *  @return The extent, or zero for empty bounds.
+   */
+  public double getExtent(int axis)
+  {
+    return isEmpty() ? 0 : this.max[axis] - this.min[axis];
+  }
+
+  /**
+   *  Get the axis along which the bounds are longest.
+   *  @return The axis (0, 1 or 2).
+   */
+  public int getLongestAxis()
+  {
+    final double x = getExtent(0);
+    final double y = getExtent(1);
+    final double z = getExtent(2);
+
+    if (x >= y && x >= z)
+    {
+      return 0;
+    }
+    else
+    {
+      return (y >= z) ? 1 : 2;
+    }
+  }
+
+  /**
+   *  Get the surface area of the bounds.
+   *  @return The surface area, or zero for empty bounds.
+   */
+  public double getSurfaceArea()
+  {
+    final double x = getExtent(0);
+    final double y = getExtent(1);
+    final double z = getExtent(2);
+
+    return 2.0d * (x * y + y * z + z * x);
+  }
+
+  /**
+   *  Are the bounds empty?
+   *  @return True if the bounds contain no points.
+   */
+  public boolean isEmpty()
+  {
+    return min[0] > max[0] || min[1] > max[1] || min[2] > max[2];
+  }
+
+  /**
+   *  Get the smallest bounds enclosing both these bounds and the given bounds.
+   *  @param that The other bounds.
+   *  @return The union.
+   */
+  public Bounds union(Bounds that)
+  {
+    return new Bounds(Math.min(this.min[0], that.min[0]),
+                      Math.min(this.min[1], that.min[1]),
+                      Math.min(this.min[2], that.min[2]),
+                      Math.max(this.max[0], that.max[0]),
+                      Math.max(this.max[1], that.max[1]),
+                      Math.max(this.max[2], that.max[2]));
+  }
+
+  /**
+   *  Get the region common to both these bounds and the given bounds.
+   *  @param that The other bounds.
+   *  @return The intersection, which may be empty.
+   */
+  public Bounds intersection(Bounds that)
+  {
+    return new Bounds(Math.max(this.min[0], that.min[0]),
+                      Math.max(this.min[1], that.min[1]),
+                      Math.max(this.min[2], that.min[2]),
+                      Math.min(this.max[0], that.max[0]),
+                      Math.min(this.max[1], that.max[1]),
+                      Math.min(this.max[2], that.max[2]));
+  }
+
+  /**
+   *  Do these bounds overlap the given bounds?
+   *  @param that The other bounds.
+   *  @return True if the bounds share at least one point.
+   */
+  public boolean intersects(Bounds that)
+  {
+    return this.min[0] <= that.max[0] && this.max[0] >= that.min[0] &&
+           this.min[1] <= that.max[1] && this.max[1] >= that.min[1] &&
+           this.min[2] <= that.max[2] && this.max[2] >= that.min[2];
+  }
+
+  /**
+   *  Get a string representation.
+   */
+  @Override
+  public String toString()
+  {
+    return "Bounds[min: " + getMin() + "; max: " + getMax() + "]";
+  }
+}
@@ -109,6 +109,46 @@ public final class Camera
     return this.right;
   }
  
+  /**
+   *  Are the cameras equivalent?
+   */
+  @Override
+  public boolean equals(Object o)
+  {
+    if (this == o)
+    {
+      return true;
+    }
+    else
+    {
+      if (o instanceof Camera)
+      {
+        final Camera that = (Camera) o;
+        
+        return this.position.equals(that.position) &&
+               this.direction.equals(that.direction) &&
+               this.up.equals(that.up) &&
+               this.right.equals(that.right);
+      }
+      else
+      {
+        return false;
+      }
+    }
+  }
+  
+  /**
+   *  Compute the hashcode.
+   */
+  @Override
+  public int hashCode()
+  {
+    return 1 * this.position.hashCode() +
+           3 * this.direction.hashCode() +
+           5 * this.up.hashCode() +
+           7 * this.right.hashCode();
+  }
+  
   /**
    *  Get a string representation.
    */
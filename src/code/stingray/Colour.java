@@ -27,7 +27,9 @@
 package stingray;
 
 /**
- *  A colour, with RGB components specified as floats between 0.0 and 1.0.
+ *  A colour, with RGB components specified as floats.  Components run from 0.0 to 1.0 for
+ *  displayable colours, but arithmetic doesn't clamp them, so light that adds up to more
+ *  than 1.0 is kept until output (<code>asARGB</code>, or a rendering's tone mapper).
  */
 public final class Colour
 {
@@ -53,9 +55,9 @@ public final class Colour
   
   /**
    *  Constructor.
-   *  @param red The red component (0.0 - 1.0).
-   *  @param green The green component (0.0 - 1.0).
-   *  @param blue The blue component (0.0 - 1.0).
+   *  @param red The red component (usually 0.0 - 1.0).
+   *  @param green The green component (usually 0.0 - 1.0).
+   *  @param blue The blue component (usually 0.0 - 1.0).
    */
   public Colour(float red, float green, float blue)
   {
@@ -74,12 +76,12 @@ public final class Colour
     g = (argb & 0x0000FF00) >>>  8;
     b = (argb & 0x000000FF) >>>  0;
     
-    return new Colour(r / 0xFF, g / 0xFF, b / 0xFF);
+    return new Colour(r / 255.0f, g / 255.0f, b / 255.0f);
   }
   
   /**
    *  Get an ARGB integer.
-   *  @return The colour packed into an ARGB integer.
+   *  @return The colour, clamped between 0.0 and 1.0, packed into an ARGB integer.
    */
   public int asARGB()
   {
@@ -87,9 +89,9 @@ public final class Colour
     int g;                                                 // green component
     int b;                                                 // blue component
     
-    r = (int) (0xFF * red);                                // calculate red ...
-    g = (int) (0xFF * green);                              // ... green
-    b = (int) (0xFF * blue);                               // ... blue
+    r = (int) (0xFF * clamp(red));                         // calculate red ...
+    g = (int) (0xFF * clamp(green));                       // ... green
+    b = (int) (0xFF * clamp(blue));                        // ... blue
     
     return 0xFF000000 | r << 16 | g << 8 | b << 0;         // pack into an ARGB integer
   }
@@ -101,16 +103,16 @@ public final class Colour
    */
   public Colour add(Colour c)
   {
-    return new Colour(clamp(this.red + c.red),
-                      clamp(this.green + c.green),
-                      clamp(this.blue + c.blue));
+    return new Colour(this.red + c.red,
+                      this.green + c.green,
+                      this.blue + c.blue);
   }
   
   public Colour multiply(Colour c)
   {
-    return new Colour(clamp(this.red * c.red),
-                      clamp(this.green * c.green),
-                      clamp(this.blue * c.blue));
+    return new Colour(this.red * c.red,
+                      this.green * c.green,
+                      this.blue * c.blue);
   }
   
   /**
@@ -130,9 +132,9 @@ public final class Colour
    */
   public Colour multiply(float f)
   {
-    return new Colour(clamp(this.red * f),
-                      clamp(this.green * f),
-                      clamp(this.blue * f));
+    return new Colour(this.red * f,
+                      this.green * f,
+                      this.blue * f);
   }
   
   /**
@@ -140,7 +142,7 @@ public final class Colour
    *  @param value The value to clamp.
    *  @return The clamped value.
    */
-  private static final float clamp(float value)
+  static final float clamp(float value)
   {
     return clamp(value, 0.0f, 1.0f);
   }
@@ -192,6 +194,44 @@ public final class Colour
     return this.blue;
   }
   
+  /**
+   *  Are the colours equivalent?
+   */
+  @Override
+  public boolean equals(Object o)
+  {
+    if (this == o)
+    {
+      return true;
+    }
+    else
+    {
+      if (o instanceof Colour)
+      {
+        final Colour that = (Colour) o;
+        
+        return Float.floatToIntBits(this.red) == Float.floatToIntBits(that.red) &&
+               Float.floatToIntBits(this.green) == Float.floatToIntBits(that.green) &&
+               Float.floatToIntBits(this.blue) == Float.floatToIntBits(that.blue);
+      }
+      else
+      {
+        return false;
+      }
+    }
+  }
+  
+  /**
+   *  Compute the hashcode.
+   */
+  @Override
+  public int hashCode()
+  {
+    return 1 * Float.floatToIntBits(this.red) +
+           3 * Float.floatToIntBits(this.green) +
+           5 * Float.floatToIntBits(this.blue);
+  }
+  
   /**
    *  Get a string representation.
    */
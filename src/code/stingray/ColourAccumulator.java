@@ -0,0 +1,142 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray;
+
+/**
+ *  A mutable colour, for summing light without allocating.  Shading adds each light's
+ *  contribution to an accumulator instead of chaining <code>Colour</code> operations, each
+ *  of which makes a new colour.  Like <code>Colour</code>, nothing is clamped: that is left
+ *  to the output. <p>
+ *
+ *  An accumulator belongs to one thread; each render context holds one.
+ */
+public final class ColourAccumulator
+{
+  /** Red component. */
+  private float red;
+  
+  /** Green component. */
+  private float green;
+  
+  /** Blue component. */
+  private float blue;
+  
+  /**
+   *  Constructor: a black accumulator.
+   */
+  public ColourAccumulator()
+  {
+    ;
+  }
+  
+  /**
+   *  Set the accumulated colour.
+   *  @param red The red component.
+   *  @param green The green component.
+   *  @param blue The blue component.
+   */
+  public void set(float red, float green, float blue)
+  {
+    this.red = red;
+    this.green = green;
+    this.blue = blue;
+  }
+  
+  /**
+   *  Set the accumulated colour.
+   *  @param c The colour.
+   */
+  public void set(Colour c)
+  {
+    set(c.getRed(), c.getGreen(), c.getBlue());
+  }
+  
+  /**
+   *  Add to the accumulated colour.
+   *  @param red The red component to add.
+   *  @param green The green component to add.
+   *  @param blue The blue component to add.
+   */
+  public void add(float red, float green, float blue)
+  {
+    this.red += red;
+    this.green += green;
+    this.blue += blue;
+  }
+  
+  /**
+   *  Add a scaled colour to the accumulated colour.
+   *  @param c The colour.
+   *  @param f The value to scale it by.
+   */
+  public void add(Colour c, float f)
+  {
+    add(c.getRed() * f, c.getGreen() * f, c.getBlue() * f);
+  }
+
+  /**
+   *  Get the red component.
+   */
+  public float getRed()
+  {
+    return this.red;
+  }
+
+  /**
+   *  Get the green component.
+   */
+  public float getGreen()
+  {
+    return this.green;
+  }
+
+  /**
+   *  Get the blue component.
+   */
+  public float getBlue()
+  {
+    return this.blue;
+  }
+  
+  /**
+   *  Get the accumulated colour.
+   *  @return A new colour.
+   */
+  public Colour toColour()
+  {
+    return new Colour(this.red, this.green, this.blue);
+  }
+  
+  /**
+   *  Get a string representation.
+   */
+  @Override
+  public String toString()
+  {
+    return String.format("(r:%.2f, g:%.2f, b:%.2f)", red, green, blue);
+  }
+}
@@ -44,9 +44,6 @@ public class Editor extends StingrayFrame
 {
   private static final long serialVersionUID = 1L;
 
-  /** Script engine manager. */
-  private static final ScriptEngineManager manager = new ScriptEngineManager();
-  
   /** Preference key: last used directory. */
   private static final String PREF_DIR = "PREF_DIR";
   /** Preference key: last loaded file. */
@@ -359,55 +356,17 @@ public class Editor extends StingrayFrame
       @Override
       public void actionPerformed(ActionEvent e)
       {
-        ScriptEngine engine;
-       
-        engine = manager.getEngineByName("JavaScript");
-        
         try
         {
-          Object result;
-          engine.eval(ta.getText());
+          final Stage stage = SceneScript.evaluate(ta.getText());
           
-          final Invocable invocable = (Invocable) engine;
-          result = invocable.invokeFunction("setup");
-          if (result instanceof Stage)
-          {
-            final Stage stage = (Stage) result;
-            final String name;
-            
-            if (file != null)
-            {
-              if (file.getName().endsWith(".sray"))
-              {
-                name = file.getName().substring(0, file.getName().length() - ".sray".length());
-              }
-              else
-              {
-                name = file.getName();
-              }
-            }
-            else
-            {
-              name = "default";
-            }
-            
-            listener. handleStage(stage, name);
-          }
-          else
-          {
-            JOptionPane.showMessageDialog(Editor.this, "Script must return a stage.", "Script exception", JOptionPane.ERROR_MESSAGE);
-          }
+          listener.handleStage(stage, (file != null) ? SceneScript.getName(file) : "default");
         }
         catch (ScriptException ex)
         {
           System.err.println("Exception: " + ex);
           JOptionPane.showMessageDialog(Editor.this, "Exception: " + ex, "Script exception", JOptionPane.ERROR_MESSAGE);
         }
-        catch (NoSuchMethodException ex)
-        {
-          System.err.println("Exception: " + ex);
-          JOptionPane.showMessageDialog(Editor.this, "Exception: " + ex, "Script exception", JOptionPane.ERROR_MESSAGE);
-        }
       }
     };
   }
@@ -0,0 +1,451 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray;
+
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+
+import javax.imageio.*;
+
+import stingray.geometry.*;
+import stingray.texture.*;
+
+
+/**
+ *  A geometry buffer: the primary hit of every pixel, as found by the visibility pass of a
+ *  deferred render. <p>
+ *  
+ *  For each pixel it holds the hit distance down the primary ray, the id of the geometry hit,
+ *  the surface normal, the id of the material (texture) hit and a sample of that texture at
+ *  the hit point, in arrays indexed
+ *  by <code>y * width + x</code> (with y increasing upwards, as for <code>Rendering</code>).
+ *  Pixels whose primary ray missed have a geometry and material id of <code>MISS</code>, and
+ *  an infinite distance.  Ids index the tables returned by <code>getGeometry</code> and
+ *  <code>getMaterial</code>. <p>
+ *  
+ *  Nothing in the buffer depends on the lights, so it can be reused to relight an unchanged
+ *  camera and geometry. <p>
+ *  
+ *  The buffer can be exported for compositing: distances and normals as PFM (portable float
+ *  map) images, and ids as PNG images with the id in the RGB channels.
+ */
+public final class GBuffer
+{
+  /** Id of a pixel whose primary ray missed. */
+  public static final int MISS = -1;
+  
+  /** Dimensions. */
+  private final int width;
+  private final int height;
+  
+  /** Hit distances. */
+  private final double[] distances;
+  
+  /** Geometry ids. */
+  private final int[] geometryIds;
+  
+  /** Surface normals, three components per pixel. */
+  private final double[] normals;
+  
+  /** Material ids. */
+  private final int[] materialIds;
+  
+  /** Pigment colours sampled at the hits, three components per pixel. */
+  private final float[] pigments;
+  
+  /** Finishes sampled at the hits. */
+  private final Finish[] finishes;
+  
+  /** Geometry hit, by pixel, until ids are assigned. */
+  private Geometry[] hits;
+  
+  /** Geometry, by id. */
+  private final List<Geometry> geometry;
+  
+  /** Materials, by id. */
+  private final List<Texture> materials;
+  
+  /** The material table the first ids were taken from (or null). */
+  private MaterialTable table;
+  
+  /**
+   *  Constructor.
+   *  @param width The width, in pixels.
+   *  @param height The height, in pixels.
+   */
+  public GBuffer(int width, int height)
+  {
+    this.width = width;
+    this.height = height;
+    this.distances = new double[width * height];
+    this.geometryIds = new int[width * height];
+    this.normals = new double[width * height * 3];
+    this.materialIds = new int[width * height];
+    this.pigments = new float[width * height * 3];
+    this.finishes = new Finish[width * height];
+    this.hits = new Geometry[width * height];
+    this.geometry = new ArrayList<Geometry>();
+    this.materials = new ArrayList<Texture>();
+    
+    Arrays.fill(this.distances, Double.POSITIVE_INFINITY);
+    Arrays.fill(this.geometryIds, MISS);
+    Arrays.fill(this.materialIds, MISS);
+  }
+  
+  /**
+   *  Record the primary hit of a pixel.  Pixels may be recorded from several threads at once,
+   *  provided each pixel is recorded by only one, and <code>assignIds</code> is called once
+   *  they have all finished.
+   *  @param x The pixel's x coordinate.
+   *  @param y The pixel's y coordinate.
+   *  @param hit The closest intersection of the pixel's primary ray.
+   */
+  public void set(int x, int y, Intersection hit)
+  {
+    set(x, y, hit, null);
+  }
+  
+  /**
+   *  Record the primary hit of a pixel, sampling its pigment over the pixel's footprint.
+   *  @param x The pixel's x coordinate.
+   *  @param y The pixel's y coordinate.
+   *  @param hit The closest intersection of the pixel's primary ray.
+   *  @param context The render context, which gives the footprint (or null to sample the
+   *                 pigment at a point).
+   *  @see #set(int, int, Intersection)
+   */
+  public void set(int x, int y, Intersection hit, RenderContext context)
+  {
+    final int p = y * this.width + x;
+    final Geometry g = hit.getGeometry();
+    final Vector normal = g.getSurfaceNormal(hit);
+    final Vector point = hit.asVector();
+    final SimpleTexture sample = g.getTexture().getTextureAt(point);
+    final Colour pigment = sample.getPigment().getColourAt(point, (context == null) ? 0 : context.getFootprint(hit, normal));
+    
+    this.distances[p] = hit.getLength();
+    this.hits[p] = g;
+    this.normals[p * 3    ] = normal.getX();
+    this.normals[p * 3 + 1] = normal.getY();
+    this.normals[p * 3 + 2] = normal.getZ();
+    this.pigments[p * 3    ] = pigment.getRed();
+    this.pigments[p * 3 + 1] = pigment.getGreen();
+    this.pigments[p * 3 + 2] = pigment.getBlue();
+    this.finishes[p] = sample.getFinish();
+  }
+  
+  /**
+   *  Assign geometry and material ids to the recorded hits.  Materials are numbered in the
+   *  order they are first hit, by texture object.
+   */
+  public void assignIds()
+  {
+    assignIds(null);
+  }
+  
+  /**
+   *  Assign geometry and material ids to the recorded hits, taking material ids from a stage's
+   *  material table, so that equal textures share an id.  Textures missing from the table are
+   *  numbered after its materials, in the order they are first hit, so a hit never shares the
+   *  id of a miss.
+   *  @param table The material table (or null to number materials in the order they are
+   *               first hit).
+   */
+  public void assignIds(MaterialTable table)
+  {
+    this.table = table;
+    if (table != null)
+    {
+      for (int id = 0; id < table.size(); id++)
+      {
+        this.materials.add(table.getTexture(id));
+      }
+    }
+    
+    final Map<Geometry, Integer> geometryIndex = new IdentityHashMap<Geometry, Integer>();
+    final Map<Texture, Integer> materialIndex = new IdentityHashMap<Texture, Integer>();
+    Geometry last = null;
+    int lastGeometry = MISS;
+    int lastMaterial = MISS;
+    
+    for (int p = 0; p < this.hits.length; p++)
+    {
+      final Geometry g = this.hits[p];
+      
+      if (g != null && g != last)                                    // neighbours usually hit the same thing
+      {
+        lastGeometry = index(geometryIndex, this.geometry, g);
+        lastMaterial = (table != null) ? table.getId(g) : MaterialTable.NONE;
+        if (lastMaterial == MaterialTable.NONE)                      // (not in the table)
+        {
+          lastMaterial = index(materialIndex, this.materials, g.getTexture());
+        }
+        last = g;
+      }
+      
+      if (g != null)
+      {
+        this.geometryIds[p] = lastGeometry;
+        this.materialIds[p] = lastMaterial;
+      }
+    }
+    
+    this.hits = null;
+  }
+  
+  private static <T> int index(Map<T, Integer> index, List<T> table, T item)
+  {
+    Integer id = index.get(item);
+    
+    if (id == null)
+    {
+      id = table.size();
+      table.add(item);
+      index.put(item, id);
+    }
+    
+    return id;
+  }
+  
+  public int getWidth()
+  {
+    return this.width;
+  }
+  
+  public int getHeight()
+  {
+    return this.height;
+  }
+  
+  /**
+   *  Get the hit distance of a pixel.
+   *  @param p The pixel's index.
+   *  @return The distance, or positive infinity if the primary ray missed.
+   */
+  public double getDistance(int p)
+  {
+    return this.distances[p];
+  }
+  
+  /**
+   *  Get the id of the geometry hit by a pixel.
+   *  @param p The pixel's index.
+   *  @return The id, or <code>MISS</code>.
+   */
+  public int getGeometryId(int p)
+  {
+    return this.geometryIds[p];
+  }
+  
+  /**
+   *  Get the id of the material hit by a pixel.
+   *  @param p The pixel's index.
+   *  @return The id, or <code>MISS</code>.
+   */
+  public int getMaterialId(int p)
+  {
+    return this.materialIds[p];
+  }
+  
+  /**
+   *  Get a component of the surface normal at a pixel's hit.
+   *  @param p The pixel's index.
+   *  @param axis The axis (0 for x, 1 for y, 2 for z).
+   */
+  public double getNormal(int p, int axis)
+  {
+    return this.normals[p * 3 + axis];
+  }
+  
+  /**
+   *  Get the pigment colour sampled at a pixel's hit.
+   *  @param p The pixel's index.
+   *  @return The colour.
+   */
+  public Colour getPigment(int p)
+  {
+    return new Colour(this.pigments[p * 3], this.pigments[p * 3 + 1], this.pigments[p * 3 + 2]);
+  }
+  
+  /**
+   *  Get a component of the pigment colour sampled at a pixel's hit.
+   *  @param p The pixel's index.
+   *  @param channel The component (0 for red, 1 for green, 2 for blue).
+   *  @return The component.
+   */
+  public float getPigment(int p, int channel)
+  {
+    return this.pigments[p * 3 + channel];
+  }
+  
+  /**
+   *  Get the finish sampled at a pixel's hit.
+   *  @param p The pixel's index.
+   *  @return The finish, or null if the primary ray missed.
+   */
+  public Finish getFinish(int p)
+  {
+    return this.finishes[p];
+  }
+  
+  /**
+   *  Get the geometry with the given id.
+   */
+  public Geometry getGeometry(int id)
+  {
+    return this.geometry.get(id);
+  }
+  
+  /**
+   *  Get the material with the given id.
+   */
+  public Texture getMaterial(int id)
+  {
+    return this.materials.get(id);
+  }
+  
+  /**
+   *  Get the material table that material ids were taken from.  Ids below its size are ids in
+   *  the table.
+   *  @return The table, or null if materials were numbered in the order they were first hit.
+   */
+  public MaterialTable getMaterialTable()
+  {
+    return this.table;
+  }
+  
+  /**
+   *  Get the number of materials: those hit, or every material in the table the ids were
+   *  taken from.
+   */
+  public int getMaterialCount()
+  {
+    return this.materials.size();
+  }
+  
+  /**
+   *  Get the pixels ordered by material id, so they can be shaded a material at a time.
+   *  Pixels that missed come first.
+   *  @return The pixel indices.
+   */
+  public int[] getPixelsByMaterial()
+  {
+    final int[] start = new int[this.materials.size() + 2];
+    final int[] order = new int[this.materialIds.length];
+    
+    for (int p = 0; p < this.materialIds.length; p++)                // counting sort, on id + 1
+    {
+      start[this.materialIds[p] + 2]++;
+    }
+    
+    for (int m = 1; m < start.length; m++)
+    {
+      start[m] += start[m - 1];
+    }
+    
+    for (int p = 0; p < this.materialIds.length; p++)
+    {
+      order[start[this.materialIds[p] + 1]++] = p;
+    }
+    
+    return order;
+  }
+  
+  /**
+   *  Write the hit distances as a greyscale PFM image.  Misses are written as infinity.
+   *  @param out The output stream to use.
+   *  @throws IOException 
+   */
+  public void writeDistancesPFM(OutputStream out) throws IOException
+  {
+    writePFM(out, this.distances, 1);
+  }
+  
+  /**
+   *  Write the surface normals as a colour PFM image.  Misses are written as zero.
+   *  @param out The output stream to use.
+   *  @throws IOException 
+   */
+  public void writeNormalsPFM(OutputStream out) throws IOException
+  {
+    writePFM(out, this.normals, 3);
+  }
+  
+  /**
+   *  Write the geometry ids as a PNG image, with the id plus one in the RGB channels (so
+   *  misses are black).
+   *  @param out The output stream to use.
+   *  @throws IOException 
+   */
+  public void writeGeometryIdsPNG(OutputStream out) throws IOException
+  {
+    writeIds(out, this.geometryIds);
+  }
+  
+  /**
+   *  Write the material ids as a PNG image, with the id plus one in the RGB channels (so
+   *  misses are black).
+   *  @param out The output stream to use.
+   *  @throws IOException 
+   */
+  public void writeMaterialIdsPNG(OutputStream out) throws IOException
+  {
+    writeIds(out, this.materialIds);
+  }
+  
+  /**
+   *  Write a PFM image.  Rows are written bottom first, as the format requires, in little
+   *  endian order.
+   */
+  private void writePFM(OutputStream out, double[] values, int channels) throws IOException
+  {
+    final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+    
+    data.writeBytes((channels == 3 ? "PF" : "Pf") + "\n" + this.width + " " + this.height + "\n-1.0\n");
+    for (int i = 0; i < values.length; i++)
+    {
+      data.writeInt(Integer.reverseBytes(Float.floatToIntBits((float) values[i])));
+    }
+    data.flush();
+  }
+  
+  private void writeIds(OutputStream out, int[] ids) throws IOException
+  {
+    final BufferedImage image = new BufferedImage(this.width, this.height, BufferedImage.TYPE_INT_RGB);
+    
+    for (int y = 0; y < this.height; y++)
+    {
+      for (int x = 0; x < this.width; x++)
+      {
+        image.setRGB(x, this.height - 1 - y, ids[y * this.width + x] + 1);
+      }
+    }
+    
+    ImageIO.write(image, "png", out);
+  }
+}
@@ -0,0 +1,230 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray;
+
+import java.util.*;
+
+
+/**
+ *  The lights that may illuminate a point, with their visibility from it. <p>
+ *  
+ *  For each candidate light, the normalised direction from the point to the light and the
+ *  distance to it are held in primitive arrays, and whether the light is visible (not in
+ *  shadow) is held as a bitmask.  The direction and distance are found once, by the shadow
+ *  test, and reused by the shading calculation.  When lights are sampled rather than all
+ *  tested, each carries a weight to scale its contribution by.  An illumination is reusable:
+ *  a render context holds one for each level of recursion.
+ */
+public final class Illumination
+{
+  /** Candidate lights. */
+  private Light[] lights;
+  
+  /** Normalised directions to the lights, three components per light. */
+  private double[] directions;
+  
+  /** Distances to the lights. */
+  private double[] distances;
+  
+  /** Weights of the lights' contributions. */
+  private double[] weights;
+  
+  /** Visibility bitmask, one bit per light. */
+  private long[] visible;
+  
+  /** Number of candidate lights. */
+  private int size;
+  
+  /**
+   *  Constructor.
+   */
+  public Illumination()
+  {
+    this.lights = new Light[4];
+    this.directions = new double[4 * 3];
+    this.distances = new double[4];
+    this.weights = new double[4];
+    this.visible = new long[1];
+  }
+  
+  /**
+   *  Remove all lights, for reuse at another point.
+   */
+  public void clear()
+  {
+    Arrays.fill(this.visible, 0, ((this.size + 63) >>> 6), 0L);
+    this.size = 0;
+  }
+  
+  /**
+   *  Add a candidate light.
+   *  @param light The light.
+   *  @param direction The normalised direction from the point to the light.
+   *  @param distance The distance from the point to the light.
+   *  @param isVisible Is the light visible from the point?
+   */
+  public void add(Light light, Vector direction, double distance, boolean isVisible)
+  {
+    add(light, direction, distance, isVisible, 1.0d);
+  }
+  
+  /**
+   *  Add a candidate light, whose contribution is to be weighted.
+   *  @param light The light.
+   *  @param direction The normalised direction from the point to the light.
+   *  @param distance The distance from the point to the light.
+   *  @param isVisible Is the light visible from the point?
+   *  @param weight The weight to scale the light's contribution by.
+   */
+  public void add(Light light, Vector direction, double distance, boolean isVisible, double weight)
+  {
+    if (this.size == this.lights.length)
+    {
+      this.lights = Arrays.copyOf(this.lights, this.size * 2);
+      this.directions = Arrays.copyOf(this.directions, this.size * 2 * 3);
+      this.distances = Arrays.copyOf(this.distances, this.size * 2);
+      this.weights = Arrays.copyOf(this.weights, this.size * 2);
+    }
+    
+    if ((this.size >>> 6) == this.visible.length)
+    {
+      this.visible = Arrays.copyOf(this.visible, this.visible.length * 2);
+    }
+    
+    final int i = this.size++;
+    
+    this.lights[i] = light;
+    this.directions[i * 3    ] = direction.getX();
+    this.directions[i * 3 + 1] = direction.getY();
+    this.directions[i * 3 + 2] = direction.getZ();
+    this.distances[i] = distance;
+    this.weights[i] = weight;
+    
+    if (isVisible)
+    {
+      this.visible[i >>> 6] |= 1L << i;                              // shifts are modulo 64
+    }
+  }
+  
+  /**
+   *  Get the number of candidate lights.
+   */
+  public int size()
+  {
+    return this.size;
+  }
+  
+  /**
+   *  Get a candidate light.
+   *  @param i The light's index.
+   */
+  public Light getLight(int i)
+  {
+    return this.lights[i];
+  }
+  
+  /**
+   *  Is a light visible from the point?
+   *  @param i The light's index.
+   */
+  public boolean isVisible(int i)
+  {
+    return (this.visible[i >>> 6] & (1L << i)) != 0;
+  }
+  
+  /**
+   *  Get the next visible light.
+   *  @param from The index to start looking from.
+   *  @return The index of the first visible light at or after the given index, or -1 if
+   *          there are none.
+   */
+  public int nextVisible(int from)
+  {
+    int word = from >>> 6;
+    
+    if (word >= this.visible.length)
+    {
+      return -1;
+    }
+    
+    long bits = this.visible[word] & (-1L << from);
+    while (bits == 0)
+    {
+      if (++word >= this.visible.length)
+      {
+        return -1;
+      }
+      bits = this.visible[word];
+    }
+    
+    final int i = (word << 6) + Long.numberOfTrailingZeros(bits);
+    return (i < this.size) ? i : -1;
+  }
+  
+  /**
+   *  Get the number of visible lights.
+   */
+  public int countVisible()
+  {
+    int count = 0;
+    
+    for (int w = 0; w < this.visible.length; w++)
+    {
+      count += Long.bitCount(this.visible[w]);
+    }
+    
+    return count;
+  }
+  
+  /**
+   *  Get a component of the normalised direction to a light.
+   *  @param i The light's index.
+   *  @param axis The axis (0 for x, 1 for y, 2 for z).
+   */
+  public double getDirection(int i, int axis)
+  {
+    return this.directions[i * 3 + axis];
+  }
+  
+  /**
+   *  Get the distance to a light.
+   *  @param i The light's index.
+   */
+  public double getDistance(int i)
+  {
+    return this.distances[i];
+  }
+  
+  /**
+   *  Get the weight of a light's contribution.
+   *  @param i The light's index.
+   */
+  public double getWeight(int i)
+  {
+    return this.weights[i];
+  }
+}
@@ -33,24 +33,50 @@ import stingray.geometry.*;
 
 /**
  *  An ordered set of intersections.
- *  Closest intersection appears first.
+ *  Closest intersection appears first. <p>
+ *  
+ *  Intersections are held in parallel arrays sorted by length, and are only wrapped in
+ *  <code>Intersection</code> objects on request.  As with a sorted set, an intersection at
+ *  the same length as an existing one is ignored.  A list can be reused for another ray by
+ *  resetting it.
  */
 public final class IntersectionList implements Iterable<Intersection>
 {
   /** The ray this is associated with. */
-  private final Ray ray;
+  private Ray ray;
   
-  /** Intersections. */
-  private final SortedSet<Intersection> intersections;
+  /** Intersected geometry, ordered by length. */
+  private Geometry[] geometry;
+  
+  /** Intersection lengths, in ascending order. */
+  private double[] lengths;
+  
+  /** Number of intersections. */
+  private int size;
+  
+  /** The closest intersection, once requested. */
+  private Intersection closest;
   
   /**
    *  Constructor.
    *  @param ray The rays that the intersections will be for.
    */
   public IntersectionList(Ray ray)
+  {
+    this.geometry = new Geometry[4];
+    this.lengths = new double[4];
+    reset(ray);
+  }
+  
+  /**
+   *  Empty the list, for reuse with another ray.
+   *  @param ray The ray that the intersections will be for.
+   */
+  public void reset(Ray ray)
   {
     this.ray = ray;
-    this.intersections = new TreeSet<Intersection>();
+    this.size = 0;
+    this.closest = null;
   }
   
   /**
@@ -62,17 +88,53 @@ public final class IntersectionList implements Iterable<Intersection>
   {
     if (length > Rays.eps)                                           // if the hit is not right at the ray start
     {
-      this.intersections.add(new Intersection(this.ray, g, length)); // ... add it
+      int i = this.size;
+      
+      while (i > 0 && this.lengths[i - 1] > length)                  // find where it belongs ...
+      {
+        i--;
+      }
+      
+      if (i > 0 && this.lengths[i - 1] == length)                    // ... ignoring duplicates
+      {
+        return;
+      }
+      
+      if (this.size == this.lengths.length)
+      {
+        this.geometry = Arrays.copyOf(this.geometry, this.size * 2);
+        this.lengths = Arrays.copyOf(this.lengths, this.size * 2);
+      }
+      
+      System.arraycopy(this.geometry, i, this.geometry, i + 1, this.size - i);
+      System.arraycopy(this.lengths, i, this.lengths, i + 1, this.size - i);
+      this.geometry[i] = g;                                          // ... add it
+      this.lengths[i] = length;
+      this.size++;
+      
+      if (i == 0)
+      {
+        this.closest = null;
+      }
     }
   }
   
+  /**
+   *  Get the ray the intersections are for.
+   *  @return The ray.
+   */
+  public Ray getRay()
+  {
+    return this.ray;
+  }
+  
   /**
    *  Get the number of intersections recorded.
    *  @return The number of intersections.
    */
   public int size()
   {
-    return this.intersections.size();
+    return this.size;
   }
   
   /**
@@ -81,7 +143,7 @@ public final class IntersectionList implements Iterable<Intersection>
    */
   public boolean isEmpty()
   {
-    return this.intersections.size() == 0;
+    return this.size == 0;
   }
   
   /**
@@ -91,7 +153,26 @@ public final class IntersectionList implements Iterable<Intersection>
    */
   public Intersection closest() throws NoSuchElementException
   {
-    return this.intersections.first();
+    if (this.size == 0)
+    {
+      throw new NoSuchElementException();
+    }
+    
+    if (this.closest == null)
+    {
+      this.closest = new Intersection(this.ray, this.geometry[0], this.lengths[0]);
+    }
+    
+    return this.closest;
+  }
+  
+  /**
+   *  Get the length down the ray of the closest intersection.
+   *  @return The length, or positive infinity if the list is empty.
+   */
+  public double closestLength()
+  {
+    return (this.size == 0) ? Double.POSITIVE_INFINITY : this.lengths[0];
   }
 
   /**
@@ -100,6 +181,33 @@ public final class IntersectionList implements Iterable<Intersection>
   @Override
   public Iterator<Intersection> iterator()
   {
-    return this.intersections.iterator();
+    return new Iterator<Intersection>()
+    {
+      private int next = 0;
+      
+      @Override
+      public boolean hasNext()
+      {
+        return this.next < size;
+      }
+      
+      @Override
+      public Intersection next()
+      {
+        if (this.next >= size)
+        {
+          throw new NoSuchElementException();
+        }
+        
+        final int i = this.next++;
+        return (i == 0) ? closest() : new Intersection(ray, geometry[i], lengths[i]);
+      }
+      
+      @Override
+      public void remove()
+      {
+        throw new UnsupportedOperationException();
+      }
+    };
   }
 }
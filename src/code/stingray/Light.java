@@ -28,7 +28,16 @@ package stingray;
 
 
 /**
- *  A point lightsource.
+ *  A lightsource: a point, or an area light that is a rectangle or a sphere. <p>
+ *  
+ *  A light may be attenuated with distance, by a factor of <code>1 / (c + l*d + q*d*d)</code>
+ *  for constant, linear and quadratic coefficients <code>c</code>, <code>l</code> and
+ *  <code>q</code>, and may have a cutoff radius beyond which it has no effect.  Distances are
+ *  measured from the light's position (the centre of an area light).  By default a light is
+ *  unattenuated and unlimited in range. <p>
+ *  
+ *  Area lights cast soft shadows: their visibility from a point is estimated by shadow
+ *  testing sample points across the light.
  */
 public final class Light
 {
@@ -38,6 +47,25 @@ public final class Light
   /** Light's colour. */
   private final Colour colour;
   
+  /** Constant attenuation coefficient. */
+  private final double constant;
+  
+  /** Linear attenuation coefficient. */
+  private final double linear;
+  
+  /** Quadratic attenuation coefficient. */
+  private final double quadratic;
+  
+  /** Cutoff radius. */
+  private final double radius;
+  
+  /** Edges of a rectangular light, centred on the position (or null). */
+  private final Vector edge1;
+  private final Vector edge2;
+  
+  /** Radius of a spherical light (or zero). */
+  private final double size;
+  
   /**
    *  Constructor.
    *  @param position The light's position.
@@ -45,8 +73,98 @@ public final class Light
    */
   public Light(Vector position, Colour colour)
   {
+    this(position, colour, 1, 0, 0, Double.POSITIVE_INFINITY);
+  }
+  
+  /**
+   *  Constructor.
+   *  @param position The light's position.
+   *  @param colour The colour of the light.
+   *  @param constant The constant attenuation coefficient.
+   *  @param linear The linear attenuation coefficient.
+   *  @param quadratic The quadratic attenuation coefficient.
+   *  @param radius The cutoff radius (which may be infinite).
+   *  @throws IllegalArgumentException If a coefficient is negative or they are all zero, or
+   *                                   the radius is not positive.
+   */
+  public Light(Vector position, Colour colour, double constant, double linear, double quadratic, double radius) 
+    throws IllegalArgumentException
+  {
+    this(position, colour, constant, linear, quadratic, radius, null, null, 0);
+  }
+  
+  /**
+   *  Constructor.
+   */
+  private Light(Vector position, Colour colour, double constant, double linear, double quadratic, double radius,
+                Vector edge1, Vector edge2, double size) throws IllegalArgumentException
+  {
+    if (! (constant >= 0 && linear >= 0 && quadratic >= 0) || constant + linear + quadratic == 0)
+    {
+      throw new IllegalArgumentException("attenuation coefficients must be non-negative, and not all zero; were: " + 
+                                         constant + ", " + linear + ", " + quadratic);
+    }
+    
+    if (! (radius > 0))
+    {
+      throw new IllegalArgumentException("radius must be positive; was: " + radius);
+    }
+    
     this.position = position;
     this.colour = colour;
+    this.constant = constant;
+    this.linear = linear;
+    this.quadratic = quadratic;
+    this.radius = radius;
+    this.edge1 = edge1;
+    this.edge2 = edge2;
+    this.size = size;
+  }
+  
+  /**
+   *  Create a rectangular area light.
+   *  @param centre The centre of the rectangle.
+   *  @param edge1 One edge of the rectangle.
+   *  @param edge2 The other edge of the rectangle.
+   *  @param colour The colour of the light.
+   *  @return The light.
+   */
+  public static Light rectangular(Vector centre, Vector edge1, Vector edge2, Colour colour)
+  {
+    return new Light(centre, colour, 1, 0, 0, Double.POSITIVE_INFINITY, edge1, edge2, 0);
+  }
+  
+  /**
+   *  Create a spherical area light.
+   *  @param centre The centre of the sphere.
+   *  @param size The radius of the sphere.
+   *  @param colour The colour of the light.
+   *  @return The light.
+   *  @throws IllegalArgumentException If the size is not positive.
+   */
+  public static Light spherical(Vector centre, double size, Colour colour) throws IllegalArgumentException
+  {
+    if (! (size > 0))
+    {
+      throw new IllegalArgumentException("size must be positive; was: " + size);
+    }
+    
+    return new Light(centre, colour, 1, 0, 0, Double.POSITIVE_INFINITY, null, null, size);
+  }
+  
+  /**
+   *  Get a copy of this light with the given attenuation and cutoff radius.
+   *  @param constant The constant attenuation coefficient.
+   *  @param linear The linear attenuation coefficient.
+   *  @param quadratic The quadratic attenuation coefficient.
+   *  @param radius The cutoff radius (which may be infinite).
+   *  @return The new light.
+   *  @throws IllegalArgumentException If a coefficient is negative or they are all zero, or
+   *                                   the radius is not positive.
+   */
+  public Light withAttenuation(double constant, double linear, double quadratic, double radius) throws IllegalArgumentException
+  {
+    return new Light(this.position, this.colour, constant, linear, quadratic, radius, this.edge1, this.edge2, this.size);
   }
 
   /**
@@ -64,4 +182,118 @@ public final class Light
   {
     return this.colour;
   }
+  
+  /**
+   *  Get the light's cutoff radius.
+   */
+  public double getRadius()
+  {
+    return this.radius;
+  }
+  
+  /**
+   *  Get the attenuation factor at the given distance from the light.
+   *  @param distance The distance.
+   *  @return The factor to scale the light's contribution by.
+   */
+  public double getAttenuation(double distance)
+  {
+    return 1.0d / (this.constant + (this.linear * distance) + (this.quadratic * distance * distance));
+  }
+  
+  /**
+   *  Is this an area light?
+   */
+  public boolean isArea()
+  {
+    return this.edge1 != null || this.size > 0;
+  }
+  
+  /**
+   *  Get a point on the light, as seen from the given point.  For a rectangular light, the
+   *  sample coordinates map across the rectangle; for a spherical light, they map across the
+   *  disc of the sphere facing the point (uniformly by area).  A point light is its own sample.
+   *  @param from The point the light is seen from.
+   *  @param u The first sample coordinate, in [0, 1).
+   *  @param v The second sample coordinate, in [0, 1).
+   *  @return The point on the light.
+   */
+  public Vector getSamplePoint(Vector from, double u, double v)
+  {
+    if (this.edge1 != null)
+    {
+      return this.position.add(this.edge1.scale(u - 0.5d)).add(this.edge2.scale(v - 0.5d));
+    }
+    else if (this.size > 0)
+    {
+      final Vector axis = from.subtract(this.position).normalise();
+      final Vector helper = (Math.abs(axis.getX()) < 0.9d) ? Vector.X_NORMAL : Vector.Y_NORMAL;
+      final Vector a = axis.cross(helper).normalise();
+      final Vector b = axis.cross(a);
+      final double r = this.size * Math.sqrt(u);
+      final double theta = 2 * Math.PI * v;
+      
+      return this.position.add(a.scale(r * Math.cos(theta))).add(b.scale(r * Math.sin(theta)));
+    }
+    else
+    {
+      return this.position;
+    }
+  }
+  
+  /**
+   *  Are the lights equivalent?
+   */
+  @Override
+  public boolean equals(Object o)
+  {
+    if (this == o)
+    {
+      return true;
+    }
+    else
+    {
+      if (o instanceof Light)
+      {
+        final Light that = (Light) o;
+        
+        return this.position.equals(that.position) &&
+               this.colour.equals(that.colour) &&
+               Double.doubleToLongBits(this.constant) == Double.doubleToLongBits(that.constant) &&
+               Double.doubleToLongBits(this.linear) == Double.doubleToLongBits(that.linear) &&
+               Double.doubleToLongBits(this.quadratic) == Double.doubleToLongBits(that.quadratic) &&
+               Double.doubleToLongBits(this.radius) == Double.doubleToLongBits(that.radius) &&
+               (this.edge1 == null ? that.edge1 == null : this.edge1.equals(that.edge1)) &&
+               (this.edge2 == null ? that.edge2 == null : this.edge2.equals(that.edge2)) &&
+               Double.doubleToLongBits(this.size) == Double.doubleToLongBits(that.size);
+      }
+      else
+      {
+        return false;
+      }
+    }
+  }
+  
+  /**
+   *  Compute the hashcode.
+   */
+  @Override
+  public int hashCode()
+  {
+    return 1 * this.position.hashCode() +
+           3 * this.colour.hashCode() +
+           5 * hashCode(this.radius) +
+           7 * hashCode(this.size);
+  }
+  
+  /**
+   *  Double hash code calculation.
+   *  @param value The double value to calculate the hashcode for.
+   *  @return The hashcode for the double value.
+   */
+  private static final int hashCode(double value)
+  {
+    long bits = Double.doubleToLongBits(value);
+    return (int) (bits ^ (bits >>> 32));
+  }
 }
@@ -0,0 +1,497 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray;
+
+import java.util.*;
+
+
+/**
+ *  A bounding volume hierarchy over the lights, for choosing which lights to shadow test when
+ *  there are too many to test them all. <p>
+ *  
+ *  Each node records the bounds of its lights' positions, their total power (the sum of
+ *  their colour components) and their largest cutoff radius.  A node's importance to a point
+ *  is its power divided by the squared distance to it, or zero if the point is out of range.
+ *  Selection works in two parts:
+ *  <ol>
+ *    <li>the most significant lights are found best first, by expanding the node with the
+ *        greatest importance bound (using the nearest point of its bounds) until enough single
+ *        lights have been reached; and</li>
+ *    <li>the lights that remain are exactly those under the unexpanded nodes, and are sampled
+ *        stochastically: a node is picked in proportion to its estimated importance, then
+ *        descended choosing children likewise.  Each sample is weighted by the reciprocal of
+ *        its probability, so the estimate of the remaining lights' contribution is unbiased.</li>
+ *  </ol>
+ *  Nodes are flattened into arrays in depth first order, as for <code>accel.Bvh</code>: the
+ *  first child of a node immediately follows it.
+ */
+public final class LightTree
+{
+  /** Squared distances are clamped to at least this, so importance stays finite. */
+  private static final double MIN_DISTANCE_SQUARED = 1e-6;
+  
+  /** Lights, in leaf order. */
+  private final Light[] lights;
+  
+  /** Node bounds, six per node (min x, y, z then max x, y, z). */
+  private final double[] bounds;
+  
+  /** Node power. */
+  private final double[] power;
+  
+  /** Node cutoff radius. */
+  private final double[] radius;
+  
+  /** For a leaf, the index of its light; for an interior node, the index of its second child. */
+  private final int[] offsets;
+  
+  /** Is the node a leaf? */
+  private final boolean[] leaves;
+  
+  /** Number of nodes built so far. */
+  private int nodeCount;
+  
+  /**
+   *  Constructor.
+   *  @param lights The lights.
+   */
+  public LightTree(List<Light> lights)
+  {
+    final int n = lights.size();
+    final int size = Math.max(0, 2 * n - 1);
+    
+    this.lights = lights.toArray(new Light[n]);
+    this.bounds = new double[size * 6];
+    this.power = new double[size];
+    this.radius = new double[size];
+    this.offsets = new int[size];
+    this.leaves = new boolean[size];
+    
+    if (n > 0)
+    {
+      build(0, n);
+    }
+  }
+  
+  /**
+   *  Build the subtree over lights <code>start</code> (inclusive) to <code>end</code> (exclusive),
+   *  reordering them so that each leaf's light is in leaf order.
+   *  @return The subtree's root node.
+   */
+  private int build(int start, int end)
+  {
+    final int node = this.nodeCount++;
+    final int b = node * 6;
+    
+    for (int a = 0; a < 3; a++)
+    {
+      this.bounds[b + a] = Double.POSITIVE_INFINITY;
+      this.bounds[b + 3 + a] = Double.NEGATIVE_INFINITY;
+    }
+    
+    for (int i = start; i < end; i++)
+    {
+      final Vector p = this.lights[i].getPosition();
+      
+      include(b, 0, p.getX());
+      include(b, 1, p.getY());
+      include(b, 2, p.getZ());
+      this.power[node] += power(this.lights[i]);
+      this.radius[node] = Math.max(this.radius[node], this.lights[i].getRadius());
+    }
+    
+    if (end - start == 1)
+    {
+      this.leaves[node] = true;
+      this.offsets[node] = start;
+    }
+    else                                                             // split at the median of the longest axis
+    {
+      int axis = 0;
+      for (int a = 1; a < 3; a++)
+      {
+        if (extent(b, a) > extent(b, axis))
+        {
+          axis = a;
+        }
+      }
+      
+      final int axisToSort = axis;
+      Arrays.sort(this.lights, start, end, new Comparator<Light>()
+      {
+        @Override
+        public int compare(Light l1, Light l2)
+        {
+          return Double.compare(coordinate(l1.getPosition(), axisToSort), coordinate(l2.getPosition(), axisToSort));
+        }
+      });
+      
+      final int mid = (start + end) >>> 1;
+      build(start, mid);
+      this.offsets[node] = build(mid, end);
+    }
+    
+    return node;
+  }
+  
+  private void include(int b, int axis, double value)
+  {
+    this.bounds[b + axis] = Math.min(this.bounds[b + axis], value);
+    this.bounds[b + 3 + axis] = Math.max(this.bounds[b + 3 + axis], value);
+  }
+  
+  private double extent(int b, int axis)
+  {
+    return this.bounds[b + 3 + axis] - this.bounds[b + axis];
+  }
+  
+  private static double coordinate(Vector v, int axis)
+  {
+    switch (axis)
+    {
+      case 0:  return v.getX();
+      case 1:  return v.getY();
+      default: return v.getZ();
+    }
+  }
+  
+  /**
+   *  Get the power of a light: the sum of its colour components.
+   */
+  static double power(Light light)
+  {
+    final Colour c = light.getColour();
+    return (double) c.getRed() + c.getGreen() + c.getBlue();
+  }
+  
+  /**
+   *  Get the number of lights.
+   */
+  public int size()
+  {
+    return this.lights.length;
+  }
+  
+  /**
+   *  Get the number of nodes.
+   */
+  public int getNodeCount()
+  {
+    return this.nodeCount;
+  }
+  
+  /**
+   *  Choose lights to shadow test from a point.
+   *  @param x The point's x coordinate.
+   *  @param y The point's y coordinate.
+   *  @param z The point's z coordinate.
+   *  @param significant The number of most significant lights to choose.
+   *  @param sampled The number of samples to take of the remaining lights.
+   *  @param random The source of randomness for sampling.
+   *  @param selection Receives the chosen lights and their weights.
+   */
+  public void select(double x, double y, double z, int significant, int sampled, Random random, Selection selection)
+  {
+    selection.reset(this.nodeCount);
+    
+    if (this.nodeCount == 0)
+    {
+      return;
+    }
+    
+    // Best first expansion, until enough single lights have been chosen.  The nodes left
+    // in the heap then cover exactly the lights that were not chosen.
+    
+    push(selection, 0, x, y, z);
+    while (selection.chosen < significant && selection.heapSize > 0)
+    {
+      final int node = selection.pop();
+      
+      if (this.leaves[node])
+      {
+        selection.choose(this.lights[this.offsets[node]], 1.0d);
+      }
+      else
+      {
+        push(selection, node + 1, x, y, z);
+        push(selection, this.offsets[node], x, y, z);
+      }
+    }
+    
+    if (selection.heapSize == 0 || sampled == 0)
+    {
+      return;
+    }
+    
+    // Stochastic sampling of the remainder.
+    
+    double total = 0;
+    for (int h = 0; h < selection.heapSize; h++)
+    {
+      selection.estimates[h] = estimate(selection.heap[h], x, y, z);
+      total += selection.estimates[h];
+    }
+    
+    if (! (total > 0))                                               // nothing left that gives off light
+    {
+      return;
+    }
+    
+    for (int s = 0; s < sampled; s++)
+    {
+      double u = random.nextDouble() * total;
+      int h = 0;
+      
+      while (h < selection.heapSize - 1 && u >= selection.estimates[h])
+      {
+        u -= selection.estimates[h++];
+      }
+      
+      int node = selection.heap[h];
+      double probability = selection.estimates[h] / total;
+      
+      while (! this.leaves[node])
+      {
+        final int left = node + 1;
+        final int right = this.offsets[node];
+        final double l = estimate(left, x, y, z);
+        final double r = estimate(right, x, y, z);
+        
+        if (! (l + r > 0))                                           // nothing under here is in range
+        {
+          break;
+        }
+        
+        if (random.nextDouble() * (l + r) < l)
+        {
+          probability *= l / (l + r);
+          node = left;
+        }
+        else
+        {
+          probability *= r / (l + r);
+          node = right;
+        }
+      }
+      
+      if (this.leaves[node])
+      {
+        selection.choose(this.lights[this.offsets[node]], 1.0d / (sampled * probability));
+      }
+    }
+  }
+  
+  /**
+   *  Add a node to the selection's heap, unless none of its lights can reach the point.
+   */
+  private void push(Selection selection, int node, double x, double y, double z)
+  {
+    final double bound = bound(node, x, y, z);
+    
+    if (bound > 0)
+    {
+      selection.push(node, bound);
+    }
+  }
+  
+  /**
+   *  An upper bound on a node's importance: its power over the squared distance to the nearest
+   *  point of its bounds.
+   */
+  private double bound(int node, double x, double y, double z)
+  {
+    final double d2 = nearest(node, x, y, z);
+    
+    if (d2 > this.radius[node] * this.radius[node])
+    {
+      return 0;
+    }
+    
+    return this.power[node] / Math.max(MIN_DISTANCE_SQUARED, d2);
+  }
+  
+  /**
+   *  Get the squared distance from a point to the nearest point of a node's bounds.
+   */
+  private double nearest(int node, double x, double y, double z)
+  {
+    final int b = node * 6;
+    final double dx = Math.max(0, Math.max(this.bounds[b    ] - x, x - this.bounds[b + 3]));
+    final double dy = Math.max(0, Math.max(this.bounds[b + 1] - y, y - this.bounds[b + 4]));
+    final double dz = Math.max(0, Math.max(this.bounds[b + 2] - z, z - this.bounds[b + 5]));
+    
+    return dx * dx + dy * dy + dz * dz;
+  }
+  
+  /**
+   *  An estimate of a node's importance: its power over the squared distance to the centre of
+   *  its bounds, or over the squared half diagonal of its bounds if that is greater.  As for
+   *  the bound, it is zero if the point is out of range.
+   */
+  private double estimate(int node, double x, double y, double z)
+  {
+    if (nearest(node, x, y, z) > this.radius[node] * this.radius[node])
+    {
+      return 0;
+    }
+    
+    final int b = node * 6;
+    final double hx = (this.bounds[b + 3] - this.bounds[b    ]) / 2;
+    final double hy = (this.bounds[b + 4] - this.bounds[b + 1]) / 2;
+    final double hz = (this.bounds[b + 5] - this.bounds[b + 2]) / 2;
+    final double dx = this.bounds[b    ] + hx - x;
+    final double dy = this.bounds[b + 1] + hy - y;
+    final double dz = this.bounds[b + 2] + hz - z;
+    final double d2 = Math.max(dx * dx + dy * dy + dz * dz, hx * hx + hy * hy + hz * hz);
+    
+    return this.power[node] / Math.max(MIN_DISTANCE_SQUARED, d2);
+  }
+  
+  /**
+   *  Scratch storage for selection, and its result: the chosen lights and their weights.  A
+   *  selection is reusable, but not thread safe.
+   */
+  public static final class Selection
+  {
+    /** Chosen lights. */
+    private Light[] lights = new Light[0];
+    
+    /** Weights of the chosen lights. */
+    private double[] weights = new double[0];
+    
+    /** Number of chosen lights. */
+    private int chosen;
+    
+    /** Heap of nodes, ordered by importance bound (greatest first). */
+    private int[] heap = new int[0];
+    
+    /** Importance bounds of the heap's nodes. */
+    private double[] keys = new double[0];
+    
+    /** Importance estimates of the heap's nodes, when sampling. */
+    private double[] estimates = new double[0];
+    
+    /** Number of nodes in the heap. */
+    private int heapSize;
+    
+    void reset(int nodes)
+    {
+      if (this.heap.length < nodes)
+      {
+        this.heap = new int[nodes];
+        this.keys = new double[nodes];
+        this.estimates = new double[nodes];
+      }
+      
+      this.chosen = 0;
+      this.heapSize = 0;
+    }
+    
+    void choose(Light light, double weight)
+    {
+      if (this.chosen == this.lights.length)
+      {
+        this.lights = Arrays.copyOf(this.lights, Math.max(4, this.chosen * 2));
+        this.weights = Arrays.copyOf(this.weights, Math.max(4, this.chosen * 2));
+      }
+      
+      this.lights[this.chosen] = light;
+      this.weights[this.chosen++] = weight;
+    }
+    
+    void push(int node, double key)
+    {
+      int i = this.heapSize++;
+      
+      while (i > 0 && this.keys[(i - 1) >>> 1] < key)                // sift up
+      {
+        this.heap[i] = this.heap[(i - 1) >>> 1];
+        this.keys[i] = this.keys[(i - 1) >>> 1];
+        i = (i - 1) >>> 1;
+      }
+      
+      this.heap[i] = node;
+      this.keys[i] = key;
+    }
+    
+    int pop()
+    {
+      final int top = this.heap[0];
+      final int last = this.heap[--this.heapSize];
+      final double key = this.keys[this.heapSize];
+      int i = 0;
+      
+      while (2 * i + 1 < this.heapSize)                              // sift down
+      {
+        int child = 2 * i + 1;
+        if (child + 1 < this.heapSize && this.keys[child + 1] > this.keys[child])
+        {
+          child++;
+        }
+        
+        if (this.keys[child] <= key)
+        {
+          break;
+        }
+        
+        this.heap[i] = this.heap[child];
+        this.keys[i] = this.keys[child];
+        i = child;
+      }
+      
+      this.heap[i] = last;
+      this.keys[i] = key;
+      return top;
+    }
+    
+    /**
+     *  Get the number of chosen lights.
+     */
+    public int size()
+    {
+      return this.chosen;
+    }
+    
+    /**
+     *  Get a chosen light.  A light may be chosen more than once.
+     *  @param i The index.
+     */
+    public Light getLight(int i)
+    {
+      return this.lights[i];
+    }
+    
+    /**
+     *  Get the weight of a chosen light's contribution.
+     *  @param i The index.
+     */
+    public double getWeight(int i)
+    {
+      return this.weights[i];
+    }
+  }
+}
@@ -26,8 +26,6 @@
 
 package stingray;
 
-import java.util.*;
-
 import stingray.texture.*;
 
 
@@ -40,29 +38,46 @@ public abstract class Lighting
                                        int recurseNo,
                                        Intersection intersection, 
                                        Vector surfaceNormal, 
-                                       List<Light> lights, 
+                                       Illumination illumination, 
                                        Texture texture)
   {
     final Vector intersect = intersection.asVector();
-    final Finish finish = texture.getFinishAt(intersect);
+    final SimpleTexture sample = texture.getTextureAt(intersect);    // evaluate the texture once
   
-    if (finish.getReflection() > 0)
+    if (sample.getFinish().getReflection() > 0)                      // (mirrors are not lit, so cast no shadow rays)
     {
-      return mirror(context, recurseNo, intersection, surfaceNormal, lights, texture);
+      return getReflectedColour(context, recurseNo, intersection, surfaceNormal);
     }
     else
     {
-      return regular(context, recurseNo, intersection, surfaceNormal, lights, texture);
+      final Colour pigment = sample.getPigment().getColourAt(intersect, context.getFootprint(intersection, surfaceNormal));
+      final ColourAccumulator colour = context.getColourAccumulator();
+      
+      shade(intersection, 
+            surfaceNormal, 
+            (illumination != null) ? illumination : Rays.getIllumination(context, recurseNo, intersect), 
+            pigment.getRed(), 
+            pigment.getGreen(), 
+            pigment.getBlue(), 
+            sample.getFinish(), 
+            colour);
+      return colour.toColour();
     }
   }
   
   
-  private static final Colour mirror(RenderContext context,
-                                     int recurseNo,
-                                     Intersection intersection, 
-                                     Vector surfaceNormal, 
-                                     List<Light> lights, 
-                                     Texture texture)
+  /**
+   *  Get the colour of a mirrored surface: the colour seen along the reflected ray.
+   *  @param context The render context.
+   *  @param recurseNo Recursion count.
+   *  @param intersection The intersection.
+   *  @param surfaceNormal The surface normal at the intersection.
+   *  @return The colour.
+   */
+  public static final Colour getReflectedColour(RenderContext context,
+                                                int recurseNo,
+                                                Intersection intersection, 
+                                                Vector surfaceNormal)
   {
     final Vector intersect = intersection.asVector();
     final Vector reflection;                                       // reflected sight say direction
@@ -73,57 +88,107 @@ public abstract class Lighting
     return context.getStage().getColourFor(context, r, recurseNo + 1, Colour.BLACK);
   }
   
-  private static final Colour regular(RenderContext context,
-                                      int recurseNo,
-                                      Intersection intersection, 
-                                      Vector surfaceNormal, 
-                                      List<Light> lights, 
-                                      Texture texture)
+  /**
+   *  Shade a non reflective surface, from a texture sample already taken at the intersection,
+   *  into an accumulator.  Nothing is allocated.
+   *  @param intersection The intersection.
+   *  @param surfaceNormal The surface normal at the intersection.
+   *  @param illumination The lights, and their visibility.
+   *  @param red The red component of the pigment colour at the intersection.
+   *  @param green The green component of the pigment colour.
+   *  @param blue The blue component of the pigment colour.
+   *  @param finish The finish at the intersection, which must not be reflective.
+   *  @param colour The accumulator, which is set to the colour.
+   */
+  public static final void shade(Intersection intersection, 
+                                 Vector surfaceNormal, 
+                                 Illumination illumination, 
+                                 float red, 
+                                 float green, 
+                                 float blue, 
+                                 Finish finish, 
+                                 ColourAccumulator colour)
   { 
-    final Vector intersect = intersection.asVector();
-    final Pigment pigment = texture.getPigmentAt(intersect);
-    final Finish finish = texture.getFinishAt(intersect);
-    Colour colour;
+    shade(intersection, surfaceNormal, illumination, red, green, blue, finish.getAmbient(), finish.getDiffuse(), finish.getShininess(), colour);
+  }
+  
+  /**
+   *  Shade a non reflective surface into an accumulator, from its pigment colour and finish
+   *  parameters (as held by a material table).  Nothing is allocated.
+   *  @param intersection The intersection.
+   *  @param surfaceNormal The surface normal at the intersection.
+   *  @param illumination The lights, and their visibility.
+   *  @param red The red component of the pigment colour at the intersection.
+   *  @param green The green component of the pigment colour.
+   *  @param blue The blue component of the pigment colour.
+   *  @param ambient The finish's ambient amount.
+   *  @param diffuse The finish's diffuse amount (the specular amount is the rest).
+   *  @param shininess The finish's shininess.
+   *  @param colour The accumulator, which is set to the colour.
+   *  @see Finish
+   */
+  public static final void shade(Intersection intersection, 
+                                 Vector surfaceNormal, 
+                                 Illumination illumination, 
+                                 float red, 
+                                 float green, 
+                                 float blue, 
+                                 double ambient, 
+                                 double diffuse, 
+                                 double shininess, 
+                                 ColourAccumulator colour)
+  { 
+    final double specular = 1.0d - diffuse;                          // (as Finish.getSpecular)
+    
+    colour.set(red * (float) ambient, green * (float) ambient, blue * (float) ambient);
     
-    colour = pigment.getColourAt(intersect).multiply(finish.getAmbient());
+    final Vector rayDirection = intersection.getRay().getDirection();
+    final double nx = surfaceNormal.getX();
+    final double ny = surfaceNormal.getY();
+    final double nz = surfaceNormal.getZ();
     
-    for (Light light : lights)                                       // for each point of illumination ...
+    for (int l = illumination.nextVisible(0); l >= 0; l = illumination.nextVisible(l + 1))   // for each point of illumination ...
     {
+      final Colour light = illumination.getLight(l).getColour();
+      final double weight = illumination.getWeight(l);              // (one unless the light was sampled)
       double dot;                                                    // simple light/surface normal angle calculation
-      final Vector lightDirection;
-      final Vector reflection;                                       // reflected light direction
+      final double lx = illumination.getDirection(l, 0);             // light direction (normalised by the shadow test)
+      final double ly = illumination.getDirection(l, 1);
+      final double lz = illumination.getDirection(l, 2);
 
-      // Calculate the direction of the light source, normalising the result.  Then, apply "dot" vector
-      // multiplication to calculate the "angle" of the light and the sphere's surface normal.
+      // Apply "dot" vector multiplication to calculate the "angle" of the light and the surface normal.
+      // Then reflect the light direction about the normal: r = l - 2(n.l)n.
 
-      lightDirection = light.getPosition().subtract(intersect).normalise();
-      reflection = lightDirection.getReflectedDirection(surfaceNormal);
+      dot = (nx * lx) + (ny * ly) + (nz * lz);
+      
+      final double scale = 2.0d * dot;
+      final double rx = lx - (nx * scale);                           // reflected light direction
+      final double ry = ly - (ny * scale);
+      final double rz = lz - (nz * scale);
 
       // Diffuse lighting ... 
      
-      dot = surfaceNormal.dot(lightDirection);
-
       if (dot > 0)                                                   // if the surface is facing the light ...
       {
-        final double diffuseBrightness;
+        final float diffuseBrightness;
         
-        diffuseBrightness = (dot * finish.getDiffuse());             // ... accumulate the intensity
-        colour = colour.add(light.getColour().multiply(diffuseBrightness).multiply(pigment.getColourAt(intersect)));
+        diffuseBrightness = (float) ((dot * diffuse) * weight);      // ... accumulate the intensity
+        colour.add((light.getRed() * diffuseBrightness) * red,
+                   (light.getGreen() * diffuseBrightness) * green,
+                   (light.getBlue() * diffuseBrightness) * blue);
       }
       
       // Specular lighting ...
 
-      dot = intersection.getRay().getDirection().dot(reflection);
+      dot = (rayDirection.getX() * rx) + (rayDirection.getY() * ry) + (rayDirection.getZ() * rz);
       if (dot > 0)
       {
         final double specularBrightness;
       
-        specularBrightness = Math.pow(dot, finish.getShininess()) * finish.getSpecular();   // ... accumulate the intensity
-        colour = colour.add(light.getColour().multiply(specularBrightness));
+        specularBrightness = Math.pow(dot, shininess) * specular * weight;   // ... accumulate the intensity
+        colour.add(light, (float) specularBrightness);
       }
     }
-    
-    return colour;
   }
   
   /** Private constructor. */
@@ -0,0 +1,242 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray;
+
+import java.util.*;
+
+import stingray.geometry.*;
+import stingray.texture.*;
+
+
+/**
+ *  The materials (textures) of a frozen stage, interned, and numbered with compact integer
+ *  ids. <p>
+ *  
+ *  Scripts tend to create a new texture for every object, even where the parameters are the
+ *  same.  Textures that are equal are given the same id, so work can be grouped by material
+ *  however many texture objects describe it.  Geometry keeps its own texture reference
+ *  (geometry is immutable, and may be shared between stages); the table maps each texture
+ *  object to its id. <p>
+ *  
+ *  Materials that are uniform (a simple texture with a solid pigment) have their colour and
+ *  finish parameters stored in arrays indexed by id, which deferred shading reads instead of
+ *  the texture objects.
+ */
+public final class MaterialTable
+{
+  /** Id of no material. */
+  public static final int NONE = -1;
+  
+  /** Ids, by texture object. */
+  private final Map<Texture, Integer> ids;
+  
+  /** Textures, by id (the first of each set of equal textures). */
+  private final Texture[] textures;
+  
+  /** Is each material uniform? */
+  private final boolean[] uniform;
+  
+  /** Pigment colours of the uniform materials, by id. */
+  private final float[] reds;
+  private final float[] greens;
+  private final float[] blues;
+  
+  /** Finish parameters of the uniform materials, by id. */
+  private final double[] ambients;
+  private final double[] diffuses;
+  private final double[] shininesses;
+  private final double[] reflections;
+  
+  /**
+   *  Build the table of the materials of some geometry.
+   *  @param geometry The geometry.
+   *  @return The table.
+   */
+  public static MaterialTable build(List<Geometry> geometry)
+  {
+    final Map<Texture, Integer> interned = new HashMap<Texture, Integer>();
+    final Map<Texture, Integer> ids = new IdentityHashMap<Texture, Integer>();
+    final List<Texture> textures = new ArrayList<Texture>();
+    
+    for (Geometry g : geometry)
+    {
+      add(g, interned, ids, textures);
+    }
+    
+    return new MaterialTable(ids, textures.toArray(new Texture[textures.size()]));
+  }
+  
+  /**
+   *  Add the texture of a piece of geometry to the table being built, and those of its CSG
+   *  operands (whose surfaces are what a CSG object's rays hit).
+   */
+  private static void add(Geometry g, Map<Texture, Integer> interned, Map<Texture, Integer> ids, List<Texture> textures)
+  {
+    final Texture texture = g.getTexture();
+    
+    if (! ids.containsKey(texture))
+    {
+      Integer id = interned.get(texture);
+      
+      if (id == null)
+      {
+        id = textures.size();
+        textures.add(texture);
+        interned.put(texture, id);
+      }
+      ids.put(texture, id);
+    }
+    
+    if (g instanceof CsgDifference)
+    {
+      add(((CsgDifference) g).getPrimary(), interned, ids, textures);
+      add(((CsgDifference) g).getClip(), interned, ids, textures);
+    }
+    else if (g instanceof CsgIntersection)
+    {
+      add(((CsgIntersection) g).getFirst(), interned, ids, textures);
+      add(((CsgIntersection) g).getSecond(), interned, ids, textures);
+    }
+  }
+  
+  /**
+   *  Constructor.
+   */
+  private MaterialTable(Map<Texture, Integer> ids, Texture[] textures)
+  {
+    final int n = textures.length;
+    
+    this.ids = ids;
+    this.textures = textures;
+    this.uniform = new boolean[n];
+    this.reds = new float[n];
+    this.greens = new float[n];
+    this.blues = new float[n];
+    this.ambients = new double[n];
+    this.diffuses = new double[n];
+    this.shininesses = new double[n];
+    this.reflections = new double[n];
+    
+    for (int id = 0; id < n; id++)
+    {
+      if (textures[id] instanceof SimpleTexture && ((SimpleTexture) textures[id]).getPigment() instanceof SolidPigment)
+      {
+        final SimpleTexture texture = (SimpleTexture) textures[id];
+        final Colour colour = ((SolidPigment) texture.getPigment()).getColour();
+        final Finish finish = texture.getFinish();
+        
+        this.uniform[id] = true;
+        this.reds[id] = colour.getRed();
+        this.greens[id] = colour.getGreen();
+        this.blues[id] = colour.getBlue();
+        this.ambients[id] = finish.getAmbient();
+        this.diffuses[id] = finish.getDiffuse();
+        this.shininesses[id] = finish.getShininess();
+        this.reflections[id] = finish.getReflection();
+      }
+    }
+  }
+  
+  /**
+   *  Get the id of a piece of geometry's material.
+   *  @return The id, or <code>NONE</code> if the geometry's texture is not in the table.
+   */
+  public int getId(Geometry geometry)
+  {
+    return getId(geometry.getTexture());
+  }
+  
+  /**
+   *  Get the id of a texture.
+   *  @return The id, or <code>NONE</code> if the texture object is not in the table.
+   */
+  public int getId(Texture texture)
+  {
+    final Integer id = this.ids.get(texture);
+    return (id == null) ? NONE : id;
+  }
+  
+  /**
+   *  Get the number of materials.
+   */
+  public int size()
+  {
+    return this.textures.length;
+  }
+  
+  /**
+   *  Get a material's texture.
+   */
+  public Texture getTexture(int id)
+  {
+    return this.textures[id];
+  }
+  
+  /**
+   *  Is a material uniform: the same colour and finish at every point?  The colour and finish
+   *  parameters are available only for uniform materials.
+   */
+  public boolean isUniform(int id)
+  {
+    return this.uniform[id];
+  }
+  
+  public float getRed(int id)
+  {
+    return this.reds[id];
+  }
+  
+  public float getGreen(int id)
+  {
+    return this.greens[id];
+  }
+  
+  public float getBlue(int id)
+  {
+    return this.blues[id];
+  }
+  
+  public double getAmbient(int id)
+  {
+    return this.ambients[id];
+  }
+  
+  public double getDiffuse(int id)
+  {
+    return this.diffuses[id];
+  }
+  
+  public double getShininess(int id)
+  {
+    return this.shininesses[id];
+  }
+  
+  public double getReflection(int id)
+  {
+    return this.reflections[id];
+  }
+}
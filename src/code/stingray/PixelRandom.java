@@ -0,0 +1,126 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray;
+
+import java.util.*;
+
+
+/**
+ *  A counter based source of randomness, keyed by frame, pixel and sample. <p>
+ *
+ *  Each (frame, pixel, sample) key names its own stream: the <i>n</i>th number of a stream
+ *  is a hash of the key and <i>n</i>, so it doesn't depend on what was drawn for any other
+ *  pixel.  A render draws the same numbers for a pixel whichever thread shades it, and in
+ *  whatever order the tiles are taken, so it is the same for any number of threads.  A
+ *  stream is selected with <code>setPixel</code>. <p>
+ *
+ *  This extends <code>Random</code> so that it can be passed wherever one is taken, but only
+ *  <code>next</code> is replaced: nothing is synchronised, and an instance must be used by
+ *  one thread.
+ */
+public final class PixelRandom extends Random
+{
+  private static final long serialVersionUID = 1L;
+  
+  /** Golden ratio increment, for stepping through a stream. */
+  private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+  
+  /** Frame number. */
+  private final int frame;
+  
+  /** Hash of the current stream's key. */
+  private long key;
+  
+  /** Numbers drawn from the current stream. */
+  private long counter;
+  
+  /**
+   *  Constructor.
+   *  @param frame The frame number, which keys every stream.
+   */
+  public PixelRandom(int frame)
+  {
+    this.frame = frame;
+    setPixel(0, 0, 0);
+  }
+  
+  /**
+   *  Select the stream for a pixel sample, from its start.
+   *  @param x The pixel's x coordinate.
+   *  @param y The pixel's y coordinate.
+   *  @param sample The sample index, within the pixel.
+   */
+  public void setPixel(int x, int y, int sample)
+  {
+    long k = mix(GOLDEN_GAMMA + this.frame);
+    k = mix(k + (((long) x << 32) | (y & 0xFFFFFFFFL)));
+    k = mix(k + sample);
+    
+    this.key = k;
+    this.counter = 0;
+  }
+  
+  /**
+   *  Get the frame number.
+   */
+  public int getFrame()
+  {
+    return this.frame;
+  }
+  
+  /**
+   *  Select a stream keyed by the seed alone.  (This is called by the superclass constructor.)
+   *  @param seed The seed.
+   */
+  @Override
+  public void setSeed(long seed)
+  {
+    this.key = mix(seed);
+    this.counter = 0;
+  }
+  
+  /**
+   *  Get the next number of the current stream.
+   *  @param bits The number of random bits wanted.
+   *  @return The number, in its lowest bits.
+   */
+  @Override
+  protected int next(int bits)
+  {
+    return (int) (mix(this.key + GOLDEN_GAMMA * ++this.counter) >>> (64 - bits));
+  }
+  
+  /**
+   *  Scramble a value: the finaliser of MurmurHash3 (with Stafford's "mix13" constants).
+   */
+  private static long mix(long z)
+  {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+}
@@ -44,9 +44,32 @@ public final class Ray
    *  @param direction The ray's direction (will be normalised internally).
    */
   public Ray(Vector origin, Vector direction)
+  {
+    this(origin, direction.normalise(), true);
+  }
+  
+  /**
+   *  Constructor.
+   *  @param origin The ray's origin.
+   *  @param direction The ray's direction, already normalised.
+   *  @param normalised Distinguishes this constructor.
+   */
+  private Ray(Vector origin, Vector direction, boolean normalised)
   {
     this.origin = origin;
-    this.direction = direction.normalise();
+    this.direction = direction;
+  }
+  
+  /**
+   *  Create a ray from a direction that is already a unit vector, such as that of another
+   *  ray.  The direction is used as is: normalising it again could perturb it slightly.
+   *  @param origin The ray's origin.
+   *  @param direction The ray's direction, as a unit vector.
+   *  @return The ray.
+   */
+  public static Ray withUnitDirection(Vector origin, Vector direction)
+  {
+    return new Ray(origin, direction, true);
   }
   
   /**
@@ -0,0 +1,421 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray;
+
+import java.util.*;
+
+import stingray.geometry.*;
+
+
+/**
+ *  A queue of rays awaiting tracing, for the wavefront renderer. <p>
+ *  
+ *  Rays are held as structures of arrays: origin and direction components, the length down
+ *  each ray to consider, the pixel each ray contributes to, and for shadow rays the light
+ *  being tested.  Results (the closest hit of an extension ray, or whether a shadow ray is
+ *  blocked) are stored alongside.  Before tracing, a queue can be sorted by direction octant
+ *  and then by origin, along a Morton curve, or along a Morton curve through both origin and
+ *  direction, so that neighbouring rays take similar paths through the acceleration structure.
+ */
+public final class RayQueue
+{
+  /** Bits per axis of the quantised origins used as sort keys, when sorting by octant and origin. */
+  private static final int ORIGIN_BITS = 9;
+  
+  /** Bits per axis of the quantised origins and directions, when sorting by both. */
+  private static final int RAY_BITS = 5;
+  
+  /** Origins. */
+  private double[] ox;
+  private double[] oy;
+  private double[] oz;
+  
+  /** Directions (unit vectors). */
+  private double[] dx;
+  private double[] dy;
+  private double[] dz;
+  
+  /** Length down each ray to consider. */
+  private double[] limits;
+  
+  /** Pixel (index) each ray contributes to. */
+  private int[] pixels;
+  
+  /** Light each shadow ray tests (null for extension rays). */
+  private Light[] lights;
+  
+  /** Closest geometry hit by each ray (or null), once traced. */
+  private Geometry[] hits;
+  
+  /** Length down each ray of its closest hit, once traced. */
+  private double[] lengths;
+  
+  /** Whether each shadow ray is blocked, once traced. */
+  private boolean[] blocked;
+  
+  /** Position of each ray after sorting, by its position when added. */
+  private int[] ranks;
+  
+  /** Number of rays. */
+  private int size;
+  
+  /**
+   *  Constructor.
+   */
+  public RayQueue()
+  {
+    allocate(64);
+  }
+  
+  private void allocate(int capacity)
+  {
+    this.ox = Arrays.copyOf(this.ox == null ? new double[0] : this.ox, capacity);
+    this.oy = Arrays.copyOf(this.oy == null ? new double[0] : this.oy, capacity);
+    this.oz = Arrays.copyOf(this.oz == null ? new double[0] : this.oz, capacity);
+    this.dx = Arrays.copyOf(this.dx == null ? new double[0] : this.dx, capacity);
+    this.dy = Arrays.copyOf(this.dy == null ? new double[0] : this.dy, capacity);
+    this.dz = Arrays.copyOf(this.dz == null ? new double[0] : this.dz, capacity);
+    this.limits = Arrays.copyOf(this.limits == null ? new double[0] : this.limits, capacity);
+    this.pixels = Arrays.copyOf(this.pixels == null ? new int[0] : this.pixels, capacity);
+    this.lights = Arrays.copyOf(this.lights == null ? new Light[0] : this.lights, capacity);
+  }
+  
+  /**
+   *  Add a ray.
+   *  @param ray The ray.
+   *  @param limit The length down the ray to consider.
+   *  @param pixel The pixel the ray contributes to.
+   *  @param light The light a shadow ray tests (or null for an extension ray).
+   */
+  public void add(Ray ray, double limit, int pixel, Light light)
+  {
+    if (this.size == this.pixels.length)
+    {
+      allocate(this.size * 2);
+    }
+    
+    final Vector o = ray.getOrigin();
+    final Vector d = ray.getDirection();
+    final int i = this.size++;
+    
+    this.ox[i] = o.getX();
+    this.oy[i] = o.getY();
+    this.oz[i] = o.getZ();
+    this.dx[i] = d.getX();
+    this.dy[i] = d.getY();
+    this.dz[i] = d.getZ();
+    this.limits[i] = limit;
+    this.pixels[i] = pixel;
+    this.lights[i] = light;
+    this.ranks = null;
+  }
+  
+  /**
+   *  Add all the rays of another queue, in order.
+   *  @param that The other queue.
+   */
+  public void addAll(RayQueue that)
+  {
+    if (this.size + that.size > this.pixels.length)
+    {
+      allocate(Math.max(this.size + that.size, this.size * 2));
+    }
+    
+    System.arraycopy(that.ox, 0, this.ox, this.size, that.size);
+    System.arraycopy(that.oy, 0, this.oy, this.size, that.size);
+    System.arraycopy(that.oz, 0, this.oz, this.size, that.size);
+    System.arraycopy(that.dx, 0, this.dx, this.size, that.size);
+    System.arraycopy(that.dy, 0, this.dy, this.size, that.size);
+    System.arraycopy(that.dz, 0, this.dz, this.size, that.size);
+    System.arraycopy(that.limits, 0, this.limits, this.size, that.size);
+    System.arraycopy(that.pixels, 0, this.pixels, this.size, that.size);
+    System.arraycopy(that.lights, 0, this.lights, this.size, that.size);
+    this.size += that.size;
+    this.ranks = null;
+  }
+  
+  /**
+   *  Remove the rays added after the first few.
+   *  @param size The number of rays to keep.
+   */
+  public void truncate(int size)
+  {
+    for (int i = size; i < this.size; i++)
+    {
+      this.lights[i] = null;
+    }
+    this.size = Math.min(this.size, size);
+  }
+  
+  /**
+   *  Get the number of rays.
+   */
+  public int size()
+  {
+    return this.size;
+  }
+  
+  /**
+   *  Sort the rays by direction octant, then by origin along a Morton curve through the
+   *  bounds of the origins.  Ties keep the order the rays were added in.
+   */
+  public void sort()
+  {
+    final double[] bounds = getOriginBounds();
+    final long[] keys = new long[this.size];                         // key in the high bits, index in the low
+    
+    for (int i = 0; i < this.size; i++)
+    {
+      final long octant = (this.dx[i] < 0 ? 1 : 0) | (this.dy[i] < 0 ? 2 : 0) | (this.dz[i] < 0 ? 4 : 0);
+      final long morton = spread(quantise(this.ox[i], bounds[0], bounds[3], ORIGIN_BITS), ORIGIN_BITS, 3) | 
+                          spread(quantise(this.oy[i], bounds[1], bounds[4], ORIGIN_BITS), ORIGIN_BITS, 3) << 1 | 
+                          spread(quantise(this.oz[i], bounds[2], bounds[5], ORIGIN_BITS), ORIGIN_BITS, 3) << 2;
+      
+      keys[i] = (octant << (3 * ORIGIN_BITS) | morton) << 32 | i;
+    }
+    
+    sort(keys);
+  }
+  
+  /**
+   *  Put the rays in the order of their keys.
+   *  @param keys The keys, with each ray's index in their low 32 bits.
+   */
+  private void sort(long[] keys)
+  {
+    Arrays.sort(keys);
+    
+    final int[] order = new int[this.size];
+    this.ranks = new int[this.size];
+    for (int k = 0; k < this.size; k++)
+    {
+      order[k] = (int) keys[k];
+      this.ranks[order[k]] = k;
+    }
+    
+    this.ox = permute(this.ox, order);
+    this.oy = permute(this.oy, order);
+    this.oz = permute(this.oz, order);
+    this.dx = permute(this.dx, order);
+    this.dy = permute(this.dy, order);
+    this.dz = permute(this.dz, order);
+    this.limits = permute(this.limits, order);
+    
+    final int[] pixels = new int[this.pixels.length];
+    final Light[] lights = new Light[this.lights.length];
+    for (int k = 0; k < this.size; k++)
+    {
+      pixels[k] = this.pixels[order[k]];
+      lights[k] = this.lights[order[k]];
+    }
+    this.pixels = pixels;
+    this.lights = lights;
+  }
+  
+  /**
+   *  Sort the rays along a Morton curve through both origin and direction: a six dimensional
+   *  curve through the bounds of the origins and the cube of unit directions.  Rays that start
+   *  close together and head the same way end up together.  Ties keep the order the rays were
+   *  added in.
+   */
+  public void sortByOriginAndDirection()
+  {
+    final double[] bounds = getOriginBounds();
+    final long[] keys = new long[this.size];                         // key in the high bits, index in the low
+    
+    for (int i = 0; i < this.size; i++)
+    {
+      final long morton = spread(quantise(this.ox[i], bounds[0], bounds[3], RAY_BITS), RAY_BITS, 6) | 
+                          spread(quantise(this.oy[i], bounds[1], bounds[4], RAY_BITS), RAY_BITS, 6) << 1 | 
+                          spread(quantise(this.oz[i], bounds[2], bounds[5], RAY_BITS), RAY_BITS, 6) << 2 | 
+                          spread(quantise(this.dx[i], -1, 1, RAY_BITS), RAY_BITS, 6) << 3 | 
+                          spread(quantise(this.dy[i], -1, 1, RAY_BITS), RAY_BITS, 6) << 4 | 
+                          spread(quantise(this.dz[i], -1, 1, RAY_BITS), RAY_BITS, 6) << 5;
+      
+      keys[i] = morton << 32 | i;
+    }
+    
+    sort(keys);
+  }
+  
+  /**
+   *  Get the bounds of the origins (min x, y, z then max x, y, z).
+   */
+  private double[] getOriginBounds()
+  {
+    final double[] bounds = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                              Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+    
+    for (int i = 0; i < this.size; i++)
+    {
+      bounds[0] = Math.min(bounds[0], this.ox[i]);
+      bounds[1] = Math.min(bounds[1], this.oy[i]);
+      bounds[2] = Math.min(bounds[2], this.oz[i]);
+      bounds[3] = Math.max(bounds[3], this.ox[i]);
+      bounds[4] = Math.max(bounds[4], this.oy[i]);
+      bounds[5] = Math.max(bounds[5], this.oz[i]);
+    }
+    
+    return bounds;
+  }
+  
+  /**
+   *  Quantise a coordinate to the given number of bits.
+   */
+  private static long quantise(double value, double min, double max, int bits)
+  {
+    final int cells = 1 << bits;
+    return (max > min) ? Math.max(0, Math.min(cells - 1, (long) ((value - min) / (max - min) * cells))) : 0;
+  }
+  
+  /**
+   *  Spread out the bits of a quantised coordinate, leaving room to interleave others.
+   *  @param value The coordinate.
+   *  @param bits The number of bits in the coordinate.
+   *  @param stride The number of coordinates to be interleaved.
+   */
+  private static long spread(long value, int bits, int stride)
+  {
+    long result = 0;
+    for (int b = 0; b < bits; b++)
+    {
+      result |= ((value >> b) & 1) << (stride * b);
+    }
+    return result;
+  }
+  
+  private static double[] permute(double[] values, int[] order)
+  {
+    final double[] result = new double[values.length];
+    for (int k = 0; k < order.length; k++)
+    {
+      result[k] = values[order[k]];
+    }
+    return result;
+  }
+  
+  /**
+   *  Get the position of a ray after the last sort.
+   *  @param i The ray's position when it was added.
+   *  @return Its position now.
+   */
+  public int getRank(int i)
+  {
+    return (this.ranks == null) ? i : this.ranks[i];
+  }
+  
+  /**
+   *  Get a ray.
+   *  @param i The ray's index.
+   *  @return The ray.
+   */
+  public Ray getRay(int i)
+  {
+    return Ray.withUnitDirection(new Vector(this.ox[i], this.oy[i], this.oz[i]), new Vector(this.dx[i], this.dy[i], this.dz[i]));
+  }
+  
+  /**
+   *  Get the length down a ray to consider.
+   */
+  public double getLimit(int i)
+  {
+    return this.limits[i];
+  }
+  
+  /**
+   *  Get the pixel a ray contributes to.
+   */
+  public int getPixel(int i)
+  {
+    return this.pixels[i];
+  }
+  
+  /**
+   *  Get the light a shadow ray tests.
+   */
+  public Light getLight(int i)
+  {
+    return this.lights[i];
+  }
+  
+  /**
+   *  Prepare to record the results of tracing.
+   */
+  public void clearResults()
+  {
+    this.hits = new Geometry[this.size];
+    this.lengths = new double[this.size];
+    this.blocked = new boolean[this.size];
+  }
+  
+  /**
+   *  Record the closest hit of an extension ray.  Results for different rays may be recorded
+   *  from several threads at once.
+   *  @param i The ray's index.
+   *  @param hit The closest geometry hit, or null.
+   *  @param length The length down the ray of the hit.
+   */
+  public void setHit(int i, Geometry hit, double length)
+  {
+    this.hits[i] = hit;
+    this.lengths[i] = length;
+  }
+  
+  /**
+   *  Get the geometry hit by an extension ray.
+   *  @return The geometry, or null if the ray hit nothing.
+   */
+  public Geometry getHit(int i)
+  {
+    return this.hits[i];
+  }
+  
+  /**
+   *  Get the length down an extension ray of its hit.
+   */
+  public double getLength(int i)
+  {
+    return this.lengths[i];
+  }
+  
+  /**
+   *  Record whether a shadow ray is blocked.  Results for different rays may be recorded
+   *  from several threads at once.
+   */
+  public void setBlocked(int i, boolean blocked)
+  {
+    this.blocked[i] = blocked;
+  }
+  
+  /**
+   *  Is a shadow ray blocked?
+   */
+  public boolean isBlocked(int i)
+  {
+    return this.blocked[i];
+  }
+}
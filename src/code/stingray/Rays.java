@@ -37,6 +37,15 @@ public abstract class Rays
 {
   public static final double eps = 0.00001;
   
+  /** When lights are sampled, one shadow ray in this many is spent on random samples. */
+  private static final int SAMPLED_SHARE = 4;
+  
+  /** Area lights are first shadow tested with this many by this many stratified samples ... */
+  private static final int AREA_STRATA = 2;
+  
+  /** ... and, if those disagree (the point is in penumbra), with this many by this many more. */
+  private static final int PENUMBRA_STRATA = 4;
+  
 //  private static final Vector[] aa = { new Vector(-0.5d,  0.5d, 0.0d),
 //                                       new Vector( 0.5d,  0.5d, 0.0d), 
 //                                       new Vector(-0.5d, -0.5d, 0.0d), 
@@ -63,60 +72,158 @@ public abstract class Rays
     
     for (Ray ray : rays)
     {
-      final IntersectionList intersections = new IntersectionList(ray);
-      for (Geometry g : stage.getGeometry())
-      {
-        g.intersect(ray, intersections);
-      }
+      final IntersectionList intersections = context.getIntersections(0, ray);
+      stage.intersect(context, ray, intersections);
 
       if (intersections.size() > 0)
       {
         Intersection i = intersections.closest();
-        r.set(x, y, i.getGeometry().getColourAt(context, 0, i, Rays.getIlluminatingLights(stage, 
-                                                                                          stage.getLights(), 
-                                                                                          i.asVector())));
+        r.set(x, y, i.getGeometry().getColourAt(context, 0, i, Rays.getIllumination(context, 
+                                                                                    0, 
+                                                                                    stage.getLights(), 
+                                                                                    i.asVector())));
       }
     }
   }
   
-  // FIXME: change this approach
-  public static final List<Light> getIlluminatingLights(Stage stage, List<Light> candidates, Vector intersection)
+  /**
+   *  Determine which of the stage's lights illuminate a point.  For primary hits, only the
+   *  current tile's candidate lights are considered.  If there are more lights than the stage's
+   *  shadow ray budget, the most significant lights are shadow tested along with a weighted
+   *  random sample of the rest; otherwise every light is.
+   *  @param context The render context.
+   *  @param recurseNo Recursion count; the returned illumination is the context's scratch
+   *                   illumination for this depth, and is reused by the next call at the same depth.
+   *  @param intersection The point.
+   *  @return The lights tested, with their directions, distances, visibility and weights.
+   */
+  public static final Illumination getIllumination(RenderContext context, int recurseNo, Vector intersection)
   {
-    // First, determine which light sources are actually lighting this point ...
+    final Stage stage = context.getStage();
+    final LightTree tree = stage.getLightTree();
+    final int budget = stage.getShadowRayBudget();
+    final List<Light> candidates = (recurseNo == 0 && context.getTileLights() != null) ? context.getTileLights() : stage.getLights();
     
-    final List<Light> illuminating = new ArrayList<Light>();
-    for (Light light : candidates)
+    if (budget == 0 || candidates.size() <= budget)
     {
-      final Vector direction = light.getPosition().subtract(intersection);
-      final Ray shadowRay = new Ray(intersection, direction);
-      final IntersectionList intersections = new IntersectionList(shadowRay);
-      
-      for (Geometry g : stage.getGeometry())
-      {
-        g.intersect(shadowRay, intersections);
-      }
+      return getIllumination(context, recurseNo, candidates, intersection);
+    }
+    
+    final int sampled = Math.max(1, budget / SAMPLED_SHARE);         // spend most of the budget on the most significant lights
+    final LightTree.Selection selection = context.getLightSelection();
+    final Illumination illumination = context.getIllumination(recurseNo);
+    
+    tree.select(intersection.getX(), intersection.getY(), intersection.getZ(), budget - sampled, sampled, context.getRandom(), selection);
+    for (int l = 0; l < selection.size(); l++)
+    {
+      test(context, illumination, selection.getLight(l), intersection, selection.getWeight(l));
+    }
+    
+    return illumination;
+  }
+  
+  /**
+   *  Determine which of the candidate lights illuminate a point.
+   *  @param context The render context.
+   *  @param recurseNo Recursion count; the returned illumination is the context's scratch
+   *                   illumination for this depth, and is reused by the next call at the same depth.
+   *  @param candidates The candidate lights.
+   *  @param intersection The point.
+   *  @return The candidate lights, with their directions, distances and visibility.
+   */
+  public static final Illumination getIllumination(RenderContext context, int recurseNo, List<Light> candidates, Vector intersection)
+  {
+    final Illumination illumination = context.getIllumination(recurseNo);
+    for (int l = 0; l < candidates.size(); l++)
+    {
+      test(context, illumination, candidates.get(l), intersection, 1.0d);
+    }
+    
+    return illumination;
+  }
+  
+  /**
+   *  Shadow test a light, adding it to the illumination.  Lights out of range of the point
+   *  are skipped without a shadow ray.
+   */
+  private static void test(RenderContext context, Illumination illumination, Light light, Vector intersection, double weight)
+  {
+    final Vector direction = light.getPosition().subtract(intersection);
+    final double distance = direction.length();
+    
+    if (distance > light.getRadius())
+    {
+      return;
+    }
+    
+    if (light.isArea())
+    {
+      testArea(context, illumination, light, intersection, direction, distance, weight);
+      return;
+    }
+    
+    final Ray shadowRay = new Ray(intersection, direction);            // (normalises the direction)
+    
+    context.getStatistics().incShadowRaysCast();
+    illumination.add(light,
+                     shadowRay.getDirection(),
+                     distance,
+                     ! context.getStage().isOccluded(context, light, shadowRay, distance),   // visible if nothing is closer than the light
+                     weight * light.getAttenuation(distance));
+  }
+  
+  /**
+   *  Shadow test an area light, adding it to the illumination weighted by the fraction of
+   *  samples that are visible.  A few samples are tried first, and more only if they disagree.
+   */
+  private static void testArea(RenderContext context, Illumination illumination, Light light, Vector intersection, 
+                               Vector direction, double distance, double weight)
+  {
+    int samples = AREA_STRATA * AREA_STRATA;
+    int visible = sample(context, light, intersection, AREA_STRATA);
+    
+    if (visible > 0 && visible < samples)                            // in penumbra: refine
+    {
+      samples += PENUMBRA_STRATA * PENUMBRA_STRATA;
+      visible += sample(context, light, intersection, PENUMBRA_STRATA);
+    }
+    
+    final Ray towards = new Ray(intersection, direction);            // (normalises the direction to the centre)
+    
+    illumination.add(light,
+                     towards.getDirection(),
+                     distance,
+                     visible > 0,
+                     weight * light.getAttenuation(distance) * visible / samples);
+  }
+  
+  /**
+   *  Shadow test a stratified grid of sample points across an area light.
+   *  @param strata The number of strata along each side of the grid.
+   *  @return The number of sample points visible.
+   */
+  private static int sample(RenderContext context, Light light, Vector intersection, int strata)
+  {
+    final Random random = context.getRandom();
+    int visible = 0;
+    
+    for (int i = 0; i < strata * strata; i++)
+    {
+      final Vector target = light.getSamplePoint(intersection, 
+                                                 ((i % strata) + random.nextDouble()) / strata, 
+                                                 ((i / strata) + random.nextDouble()) / strata);
+      final Vector direction = target.subtract(intersection);
       
-      if (intersections.isEmpty())                                 // if we didn't hit anything ...
+      context.getStatistics().incShadowRaysCast();
+      if (! context.getStage().isOccluded(context, light, new Ray(intersection, direction), direction.length()))
       {
-        illuminating.add(light);                                   // ... light gets through
-      }
-      else                                                         // we hit something ...
-      {
-        final Intersection closest = intersections.closest();
-        final double lightDist;
-        
-        lightDist = direction.length();                            // determine the distance to the light ...
-        if (closest.getLength() > lightDist)                       // was the hit beyond where the light was?
-        {
-          illuminating.add(light);                                 // ... yes, light is closer
-        }
+        visible++;
       }
     }
     
-    return illuminating;
+    return visible;
   }
   
-  
   /** Private constructor. */
   private Rays() { ; }
 }
@@ -26,17 +26,76 @@
 
 package stingray;
 
+import java.util.*;
+
+import stingray.accel.*;
+import stingray.geometry.*;
+
 
 /**
- *  A collection of objects required for the render.
+ *  A collection of objects required for the render. <p>
+ *  
+ *  A context belongs to a single rendering thread.  Besides the stage, it carries that
+ *  thread's statistics and scratch storage that is reused from one ray to the next: an
+ *  intersection list and an illumination for each level of recursion, an intersection list
+ *  for shadow rays, a ray packet, the current tile's candidate lights, the last occluder
+ *  found for each light, light selection state, and the acceleration structure traversal
+ *  state.  It also carries the thread's source of randomness for sampling.
+ *  Contexts are not thread safe; statistics from each thread's context are merged when the
+ *  render ends.
  */
 public final class RenderContext
 {
+  /** Footprints stretch no further than at this cosine between ray and surface normal. */
+  private static final double MIN_FOOTPRINT_COS = 0.05d;
+  
   /** Render statistics. */
   private final Statistics statistics;
   
   /** The stage. */
   private final Stage stage;
+  
+  /** Acceleration structure traversal scratch. */
+  private final Traversal traversal;
+  
+  /** Intersection lists, by recursion depth. */
+  private IntersectionList[] intersections;
+  
+  /** Illuminations, by recursion depth. */
+  private final List<Illumination> illuminations;
+  
+  /** Intersection list for shadow rays. */
+  private final IntersectionList shadowIntersections;
+  
+  /** Primary ray packet (created on first use). */
+  private RayPacket packet;
+  
+  /** Candidate lights for the current tile's primary hits, or null if every light is a candidate. */
+  private List<Light> tileLights;
+  
+  /** Storage for tile candidate lights. */
+  private final List<Light> tileLightList;
+  
+  /** Record of the secondary rays traced for each tile (or null if not recording). */
+  private TileDependencies dependencies;
+  
+  /** The tile being rendered. */
+  private int tile;
+  
+  /** The last object found blocking each light. */
+  private final Map<Light, Geometry> occluders;
+  
+  /** Light selection scratch. */
+  private final LightTree.Selection lightSelection;
+  
+  /** Source of randomness for sampling, keyed by the pixel being rendered. */
+  private final PixelRandom random;
+  
+  /** Angle subtended by a pixel of the render. */
+  private final double pixelSpread;
+  
+  /** Colour accumulator for shading. */
+  private final ColourAccumulator colour;
 
   /**
    *  Constructor.
@@ -45,6 +104,16 @@ public final class RenderContext
   {
     this.stage = stage;
     this.statistics = statistics;
+    this.traversal = new Traversal();
+    this.intersections = new IntersectionList[0];
+    this.illuminations = new ArrayList<Illumination>();
+    this.shadowIntersections = new IntersectionList(null);
+    this.tileLightList = new ArrayList<Light>();
+    this.occluders = new IdentityHashMap<Light, Geometry>();
+    this.lightSelection = new LightTree.Selection();
+    this.random = new PixelRandom(stage.getFrame());
+    this.pixelSpread = stage.getPixelSpread();
+    this.colour = new ColourAccumulator();
   }
 
   /**
@@ -62,4 +131,230 @@ public final class RenderContext
   {
     return this.stage;
   }
+  
+  /**
+   *  @return The acceleration structure traversal scratch.
+   */
+  public Traversal getTraversal()
+  {
+    return this.traversal;
+  }
+  
+  /**
+   *  Get an empty intersection list for a ray.  The list is reused by the next request at the
+   *  same recursion depth.
+   *  @param recurseNo The recursion depth.
+   *  @param ray The ray.
+   *  @return The intersection list.
+   */
+  public IntersectionList getIntersections(int recurseNo, Ray ray)
+  {
+    if (recurseNo >= this.intersections.length)
+    {
+      final int old = this.intersections.length;
+      
+      this.intersections = Arrays.copyOf(this.intersections, recurseNo + 1);
+      for (int i = old; i < this.intersections.length; i++)
+      {
+        this.intersections[i] = new IntersectionList(null);
+      }
+    }
+    
+    final IntersectionList list = this.intersections[recurseNo];
+    list.reset(ray);
+    return list;
+  }
+  
+  /**
+   *  Get an empty intersection list for a shadow ray.  The list is reused by the next request.
+   *  @param ray The shadow ray.
+   *  @return The intersection list.
+   */
+  public IntersectionList getShadowIntersections(Ray ray)
+  {
+    this.shadowIntersections.reset(ray);
+    return this.shadowIntersections;
+  }
+  
+  /**
+   *  Get an empty illumination.  The illumination is reused by the next request at the same
+   *  recursion depth.
+   *  @param recurseNo The recursion depth.
+   *  @return The illumination.
+   */
+  public Illumination getIllumination(int recurseNo)
+  {
+    while (recurseNo >= this.illuminations.size())
+    {
+      this.illuminations.add(new Illumination());
+    }
+    
+    final Illumination illumination = this.illuminations.get(recurseNo);
+    illumination.clear();
+    return illumination;
+  }
+  
+  /**
+   *  Set the candidate lights for primary hits in the tile being rendered.
+   *  @param tileLights The candidate lights, or null if every light is a candidate.
+   */
+  public void setTileLights(List<Light> tileLights)
+  {
+    this.tileLights = tileLights;
+  }
+  
+  /**
+   *  Get the candidate lights for primary hits in the tile being rendered.
+   *  @return The candidate lights, or null if every light is a candidate.
+   */
+  public List<Light> getTileLights()
+  {
+    return this.tileLights;
+  }
+  
+  /**
+   *  Set the record to keep of the secondary rays traced for each tile.
+   *  @param dependencies The record, or null to keep none.
+   */
+  public void setDependencies(TileDependencies dependencies)
+  {
+    this.dependencies = dependencies;
+  }
+  
+  /**
+   *  Get the record kept of the secondary rays traced for each tile.
+   *  @return The record, or null if none is kept.
+   */
+  public TileDependencies getDependencies()
+  {
+    return this.dependencies;
+  }
+  
+  /**
+   *  Get the footprint of a pixel at an intersection: roughly, the width of surface that the
+   *  pixel's colour there should average over.  The footprint grows with the length of the
+   *  ray that found the intersection, and stretches as the ray grazes the surface; it does
+   *  not account for earlier reflections.
+   *  @param intersection The intersection.
+   *  @param surfaceNormal The surface normal at the intersection.
+   *  @return The footprint width.
+   */
+  public double getFootprint(Intersection intersection, Vector surfaceNormal)
+  {
+    final double cos = Math.abs(intersection.getRay().getDirection().dot(surfaceNormal));
+    
+    return intersection.getLength() * this.pixelSpread / Math.max(cos, MIN_FOOTPRINT_COS);
+  }
+  
+  /**
+   *  Set the tile being rendered, to which secondary rays are attributed.
+   *  @param tile The tile.
+   */
+  public void setTile(int tile)
+  {
+    this.tile = tile;
+  }
+  
+  /**
+   *  Get the tile being rendered.
+   */
+  public int getTile()
+  {
+    return this.tile;
+  }
+  
+  /**
+   *  Record a secondary (reflection or shadow) ray against the tile being rendered.
+   *  @param ray The ray.
+   *  @param length The length down the ray that was considered (which may be infinite).
+   */
+  public void recordSecondaryRay(Ray ray, double length)
+  {
+    if (this.dependencies != null)
+    {
+      this.dependencies.include(this.tile, ray, length);
+    }
+  }
+  
+  /**
+   *  Get an empty list to hold a tile's candidate lights.  The list is reused by the next
+   *  request.
+   *  @return The list.
+   */
+  public List<Light> getTileLightList()
+  {
+    this.tileLightList.clear();
+    return this.tileLightList;
+  }
+  
+  /**
+   *  Get the last object found blocking a light.
+   *  @param light The light.
+   *  @return The occluder, or null if none has been found.
+   */
+  public Geometry getOccluder(Light light)
+  {
+    return this.occluders.get(light);
+  }
+  
+  /**
+   *  Record the last object found blocking a light.
+   *  @param light The light.
+   *  @param occluder The occluder.
+   */
+  public void setOccluder(Light light, Geometry occluder)
+  {
+    this.occluders.put(light, occluder);
+  }
+  
+  /**
+   *  @return The light selection scratch.
+   */
+  public LightTree.Selection getLightSelection()
+  {
+    return this.lightSelection;
+  }
+  
+  /**
+   *  Set the pixel sample being rendered, which selects the random numbers it is sampled with.
+   *  @param x The pixel's x coordinate.
+   *  @param y The pixel's y coordinate.
+   *  @param sample The sample index, within the pixel.
+   */
+  public void setPixel(int x, int y, int sample)
+  {
+    this.random.setPixel(x, y, sample);
+  }
+  
+  /**
+   *  @return The source of randomness for sampling the current pixel.
+   */
+  public PixelRandom getRandom()
+  {
+    return this.random;
+  }
+  
+  /**
+   *  Get the colour accumulator for shading.  The accumulator is reused by the next request, so
+   *  it must be read before shading anything else.
+   *  @return The accumulator.
+   */
+  public ColourAccumulator getColourAccumulator()
+  {
+    return this.colour;
+  }
+  
+  /**
+   *  Get the primary ray packet.
+   *  @param capacity The number of rays the packet must hold.
+   *  @return The packet.
+   */
+  public RayPacket getPacket(int capacity)
+  {
+    if (this.packet == null || this.packet.getCapacity() < capacity)
+    {
+      this.packet = new RayPacket(capacity);
+    }
+    return this.packet;
+  }
 }
@@ -33,17 +33,33 @@ import java.io.*;
 import javax.imageio.*;
 
 /**
- *  The rendered result.
+ *  The rendered result. <p>
+ *  
+ *  Pixels accumulate samples of linear colour in floating point, unclamped, with a count of
+ *  the samples taken; a pixel's colour is the average of its samples.  An 8-bit image is
+ *  kept up to date for display through a tone mapper, which can be changed without
+ *  rendering again.  The floating point colour can be written out as a PFM image.
  */
 public final class Rendering
 {
   /** Rendering name. */
   private final String name;
   
+  /** Dimensions. */
+  private final int width;
+  private final int height;
+  
+  /** Sums of the samples, three components per pixel, indexed by <code>y * width + x</code>. */
+  private final float[] sums;
+  
+  /** Numbers of samples, by pixel. */
+  private final int[] samples;
+  
+  /** Maps colour to the image. */
+  private volatile ToneMapper toneMapper;
+  
   /** Buffered image. */
   private final BufferedImage image;
-  
-  private boolean[][] filled;
  
   /**
    *  Constructor.
@@ -51,6 +67,11 @@ public final class Rendering
   public Rendering(String name, int width, int height)
   {
     this.name = name;
+    this.width = width;
+    this.height = height;
+    this.sums = new float[width * height * 3];
+    this.samples = new int[width * height];
+    this.toneMapper = ToneMapper.CLAMP;
     
     this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
     for (int x = 0; x < width; x++)
@@ -60,43 +81,130 @@ public final class Rendering
         this.image.setRGB(x, y, 0xFF000000);
       }
     }
-    
-    filled = new boolean[width][height];
   }
   
+  /**
+   *  Add a sample to a pixel.  Pixels may be set from several threads at once, provided each
+   *  pixel is set by only one.
+   *  @param x The pixel's x coordinate.
+   *  @param y The pixel's y coordinate.
+   *  @param colour The sample.
+   */
   public void set(int x, int y, Colour colour)
   {
-    if (filled[x][y])
+    set(x, y, colour.getRed(), colour.getGreen(), colour.getBlue());
+  }
+  
+  /**
+   *  Add an accumulated sample to a pixel.
+   *  @param x The pixel's x coordinate.
+   *  @param y The pixel's y coordinate.
+   *  @param colour The sample.
+   *  @see #set(int, int, Colour)
+   */
+  public void set(int x, int y, ColourAccumulator colour)
+  {
+    set(x, y, colour.getRed(), colour.getGreen(), colour.getBlue());
+  }
+  
+  private void set(int x, int y, float red, float green, float blue)
+  {
+    final int p = y * this.width + x;
+    
+    this.sums[p * 3    ] += red;
+    this.sums[p * 3 + 1] += green;
+    this.sums[p * 3 + 2] += blue;
+    this.samples[p]++;
+    
+    update(x, y);
+  }
+  
+  /**
+   *  Get the colour of a pixel: the average of its samples.
+   *  @return The colour (black if the pixel has no samples).
+   */
+  public Colour getColour(int x, int y)
+  {
+    final int p = y * this.width + x;
+    final float n = Math.max(1, this.samples[p]);
+    
+    return new Colour(this.sums[p * 3] / n, this.sums[p * 3 + 1] / n, this.sums[p * 3 + 2] / n);
+  }
+  
+  /**
+   *  Get the number of samples taken of a pixel.
+   */
+  public int getSamples(int x, int y)
+  {
+    return this.samples[y * this.width + x];
+  }
+  
+  /**
+   *  Copy a rectangle of pixels, and their samples, from another rendering of the same size.
+   *  @param that The rendering to copy from.
+   *  @param x0 The left edge (inclusive).
+   *  @param y0 The bottom edge (inclusive).
+   *  @param x1 The right edge (exclusive).
+   *  @param y1 The top edge (exclusive).
+   */
+  public void copy(Rendering that, int x0, int y0, int x1, int y1)
+  {
+    for (int x = x0; x < x1; x++)
     {
-      Colour original = Colour.fromARGB(getRGB(x, y));
-
-      Colour newColour = original.multiply(0.5f).add(colour.multiply(0.5f));
-
-      // System.out.println("Blending original: " + original + " with new: " + colour + " to produce: " + newColour);
-      
-      setRGB(x, y, newColour.asARGB());
+      for (int y = y0; y < y1; y++)
+      {
+        final int p = y * this.width + x;
+        
+        System.arraycopy(that.sums, p * 3, this.sums, p * 3, 3);
+        this.samples[p] = that.samples[p];
+        update(x, y);
+      }
     }
-    else
+  }
+  
+  /**
+   *  Set the tone mapper, and redraw the image with it.
+   *  @param toneMapper The tone mapper.
+   */
+  public void setToneMapper(ToneMapper toneMapper)
+  {
+    this.toneMapper = toneMapper;
+    
+    for (int x = 0; x < this.width; x++)
     {
-      // System.out.println("Setting first time: " + colour);
-      setRGB(x, y, colour.asARGB());
-      filled[x][y] = true;
+      for (int y = 0; y < this.height; y++)
+      {
+        update(x, y);
+      }
     }
   }
   
-  private final void setRGB(int x, int y, int argb)
+  /**
+   *  Get the tone mapper.
+   */
+  public ToneMapper getToneMapper()
   {
-    this.image.setRGB(x, transY(y), argb);
+    return this.toneMapper;
   }
   
-  private final int getRGB(int x, int y)
+  /**
+   *  Redraw a pixel of the image.
+   */
+  private void update(int x, int y)
   {
-    return this.image.getRGB(x, transY(y));
+    final int p = y * this.width + x;
+    
+    if (this.samples[p] > 0)
+    {
+      final float n = this.samples[p];
+      
+      this.image.setRGB(x, transY(y), this.toneMapper.toARGB(this.sums[p * 3] / n, this.sums[p * 3 + 1] / n, this.sums[p * 3 + 2] / n));
+    }
   }
   
   private final int transY(int y)
   {
-    return this.image.getHeight() - 1 - y;
+    return this.height - 1 - y;
   }
   
   public String getName()
@@ -104,6 +212,45 @@ public final class Rendering
     return this.name;
   }
   
+  /**
+   *  Get the width, in pixels.
+   */
+  public int getWidth()
+  {
+    return this.width;
+  }
+  
+  /**
+   *  Get the height, in pixels.
+   */
+  public int getHeight()
+  {
+    return this.height;
+  }
+  
+  /**
+   *  Write the colour of every pixel (the average of its samples, unclamped) as a PFM image.
+   *  Rows are written bottom first, as the format requires, in little endian order.
+   *  @param out The output stream to use.
+   *  @throws IOException 
+   */
+  public void writePFM(OutputStream out) throws IOException
+  {
+    final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+    
+    data.writeBytes("PF\n" + this.width + " " + this.height + "\n-1.0\n");
+    for (int p = 0; p < this.samples.length; p++)
+    {
+      final float n = Math.max(1, this.samples[p]);
+      
+      for (int c = 0; c < 3; c++)
+      {
+        data.writeInt(Integer.reverseBytes(Float.floatToIntBits(this.sums[p * 3 + c] / n)));
+      }
+    }
+    data.flush();
+  }
+  
   /**
    *  Write the image data out as a PNG.
    *  @param out The output stream to use.
@@ -0,0 +1,108 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray;
+
+import java.io.*;
+
+import javax.script.*;
+
+
+/**
+ *  Scene scripts: JavaScript sources (<code>.sray</code> files) that build a stage.  A script
+ *  must define a function <code>setup()</code>, returning the stage.
+ */
+public abstract class SceneScript
+{
+  /** Script engine manager. */
+  private static final ScriptEngineManager manager = new ScriptEngineManager();
+  
+  /**
+   *  Evaluate a scene script.
+   *  @param source The script source.
+   *  @return The stage built by the script.
+   *  @throws ScriptException If the script fails, or doesn't return a stage.
+   */
+  public static Stage evaluate(String source) throws ScriptException
+  {
+    return evaluate(new StringReader(source));
+  }
+  
+  /**
+   *  Evaluate a scene script.
+   *  @param source The script source.
+   *  @return The stage built by the script.
+   *  @throws ScriptException If the script fails, or doesn't return a stage.
+   */
+  public static Stage evaluate(Reader source) throws ScriptException
+  {
+    final ScriptEngine engine;
+    
+    synchronized (manager)
+    {
+      engine = manager.getEngineByName("JavaScript");
+    }
+    
+    if (engine == null)
+    {
+      throw new ScriptException("no JavaScript engine available");
+    }
+    
+    final Object result;
+    
+    engine.eval(source);
+    try
+    {
+      result = ((Invocable) engine).invokeFunction("setup");
+    }
+    catch (NoSuchMethodException ex)
+    {
+      throw new ScriptException("script must define a setup() function");
+    }
+    
+    if (! (result instanceof Stage))
+    {
+      throw new ScriptException("script must return a stage; was: " + result);
+    }
+    
+    return (Stage) result;
+  }
+  
+  /**
+   *  Get the name of a scene script file, without its <code>.sray</code> extension.
+   *  @param file The file.
+   *  @return The name.
+   */
+  public static String getName(File file)
+  {
+    final String name = file.getName();
+    
+    return name.endsWith(".sray") ? name.substring(0, name.length() - ".sray".length()) : name;
+  }
+  
+  /** Private constructor. */
+  private SceneScript() { ; }
+}
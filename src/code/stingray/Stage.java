@@ -27,8 +27,12 @@
 package stingray;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
+import stingray.accel.*;
 import stingray.geometry.*;
+import stingray.texture.*;
 
 
 /**
@@ -37,7 +41,16 @@ import stingray.geometry.*;
 public final class Stage
 {
   /** Max recursion depth. */
-  private final static int MAX_RECURSE = 8;
+  final static int MAX_RECURSE = 8;
+  
+  /** Largest permitted packet size (in pixels along each side). */
+  private final static int MAX_PACKET_SIZE = 16;
+  
+  /** Images are rendered in square tiles of about this many pixels along each side. */
+  private final static int TILE_SIZE = 32;
+  
+  /** Deferred shading shades pixels in chunks of this many, taken in material order. */
+  private final static int SHADING_CHUNK = 1024;
   
   // private static final Vector[] aa = { new Vector( 0.0d,  0.0d, 0.0d) };
   
@@ -50,6 +63,60 @@ public final class Stage
   /** Lighting. */
   private final List<Light> lights;
   
+  /** Geometry without bounds, which must be tested against every ray (built on freezing). */
+  private Geometry[] unbounded;
+  
+  /** The kind of acceleration structure to build. */
+  private Acceleration acceleration;
+  
+  /** Primary rays are traced in square packets of this many pixels along each side (or singly if zero). */
+  private int packetSize;
+  
+  /** Number of rendering threads. */
+  private int threads;
+  
+  /** Maximum shadow rays per hit (or zero for one per light). */
+  private int shadowRayBudget;
+  
+  /** Hierarchy over the lights, for choosing which to shadow test (built on freezing). */
+  private LightTree lightTree;
+  
+  /** Largest light cutoff radius (found on freezing). */
+  private double maxRadius;
+  
+  /** Render in separate visibility and shading passes? */
+  private boolean deferred;
+  
+  /** Render a generation of rays at a time, instead of each pixel depth first? */
+  private boolean wavefront;
+  
+  /** Sort each tile's secondary rays before tracing them? */
+  private boolean secondarySorting;
+  
+  /** Frame number, which keys the random sampling of every pixel. */
+  private int frame;
+  
+  /** G-buffer of the last deferred render (or null). */
+  private volatile GBuffer gbuffer;
+  
+  /** The last render (or null). */
+  private volatile Rendering rendering;
+  
+  /** Record of the secondary rays traced by each tile of the last render (or null). */
+  private volatile TileDependencies dependencies;
+  
+  /** Interned materials (built on freezing). */
+  private volatile MaterialTable materials;
+  
+  /** Angle subtended by a pixel of the current render. */
+  private volatile double pixelSpread;
+  
+  /** Time taken to build the acceleration structure, in milliseconds. */
+  private long buildDuration;
+  
+  /** Acceleration structure over the bounded geometry (built on freezing, after <code>unbounded</code>). */
+  private volatile Accelerator accelerator;
+  
   /**
    *  Constructor.
    */
@@ -58,66 +125,658 @@ public final class Stage
     this.camera = camera;
     this.geometry = new ArrayList<Geometry>();
     this.lights = new ArrayList<Light>();
+    this.acceleration = Acceleration.BVH;
+    this.threads = Runtime.getRuntime().availableProcessors();
   }
   
   /**
-   *  Render the stage, with the given dimensions.
+   *  Render the stage, with the given dimensions. <p>
+   *  
+   *  The image is divided into tiles, which worker threads take in turn.  Each worker has its
+   *  own render context, and the workers' statistics are merged once all tiles are done.  When
+   *  deferred shading is set, rendering instead runs as separate visibility and shading passes.
    *  @param name The name for the rendering.
    *  @param width The width, in pixels.
    *  @param height The height, in pixels.
    *  @return A rendering of the stage.
    */
   public Rendering render(String name, int width, int height)
+  {
+    return render(name, width, height, null);
+  }
+  
+  /**
+   *  Render the stage, with the given dimensions, reusing the last render of a previous stage
+   *  where possible. <p>
+   *  
+   *  If the previous stage was rendered at the same size, and has an equivalent camera and
+   *  lights, only the tiles that may see its changed geometry are rendered again, and the rest are copied from its last render.
+   *  Otherwise, if the previous stage was rendered deferred, at the same size, and has an
+   *  equivalent camera and geometry, the primary hits in its G-buffer are reused: only the
+   *  shadow rays and shading are redone, for the lights of this stage.  Otherwise this stage
+   *  is rendered deferred, so that it may in turn be relit.
+   *  @param name The name for the rendering.
+   *  @param width The width, in pixels.
+   *  @param height The height, in pixels.
+   *  @param previous The previous stage (or null to render as usual).
+   *  @return A rendering of the stage.
+   */
+  public Rendering render(String name, final int width, final int height, Stage previous)
   {
     final Rendering r = new Rendering(name, width, height);
-    final RenderContext context = new RenderContext(this, new Statistics());
-    
-    context.getStatistics().start();
-    
-    // The basis of the viewplane is this: caculations are done with the camera at the origin.
-    // The centre point of the viewplane is (width / 2) units in the positive Z direction.
-    // We calculate where each pixel would be on this viewplane, and then rotate based on the
-    // look at point.
+    final Statistics statistics = new Statistics();
     
-    final Vector virtualCentre = new Vector(0, 0, width / 2);
-    final Vector virtualBottomLeft = virtualCentre.subtract(new Vector(width / 2, height / 2, 0));
- 
-    final Vector xzdir = new Vector(camera.getDirection().getX(),
-                                    0,
-                                    camera.getDirection().getZ()).normalise();
-    final double xzangle = Math.acos(xzdir.dot(Vector.Z_NORMAL));
-    // System.out.println("Rendering.render(): xzangle: " + Math.toDegrees(xzangle) + " degrees rotation.");
+    statistics.start();
+    freeze();
+    statistics.setBuildDuration(this.buildDuration);
     
-    final Vector ydir = new Vector(0, 
-                                   camera.getDirection().getY(), 
-                                   camera.getDirection().getZ()).normalise();
-    final double yangle = Math.acos(ydir.dot(Vector.Z_NORMAL));
-    // System.out.println("Rendering.render(): yangle: " + Math.toDegrees(yangle) + " degrees rotation.");
+    final ViewPlane view = new ViewPlane(camera, width, height);
+    this.pixelSpread = view.getPixelSpread();
+    final int tileSize = (this.packetSize > 0) ? this.packetSize * ((TILE_SIZE + this.packetSize - 1) / this.packetSize) : TILE_SIZE;
+    final int across = (width + tileSize - 1) / tileSize;
+    final int tiles = across * ((height + tileSize - 1) / tileSize);
+    final boolean[] dirty = (previous == null) ? null : getDirtyTiles(previous, view, width, height, tileSize, across, tiles);
+    final Wavefront sorted = this.secondarySorting ? new Wavefront(this, view, width, tileSize, across, null) : null;
+    final TileDependencies dependencies;
     
-    for (int x = 0; x < width; x++)
+    if (dirty != null)
     {
-      for (int y = 0; y < width; y++)
+      dependencies = new TileDependencies(previous.dependencies);
+      this.gbuffer = canRelight(previous, width, height) ? previous.gbuffer : null;
+      
+      final int[] redo = new int[tiles];
+      int count = 0;
+      
+      for (int tile = 0; tile < tiles; tile++)
       {
-        final Vector dir1;
-        final Vector dir2;
-        final Vector dir3;
+        final int x0 = (tile % across) * tileSize;
+        final int y0 = (tile / across) * tileSize;
         
-        dir1 = virtualBottomLeft.add(new Vector(x, y, 0));
-        dir2 = dir1.rotate(Vector.X_NORMAL, yangle);
-        dir3 = dir2.rotate(Vector.Y_NORMAL, xzangle);
-        
-        final Ray ray = new Ray(camera.getPosition(), dir3);
-        context.getStatistics().incRaysCast();
-        r.set(x, y, getColourFor(context, ray, 0, Colour.BLACK));
+        if (dirty[tile])
+        {
+          dependencies.clear(tile);
+          redo[count++] = tile;
+        }
+        else
+        {
+          r.copy(previous.rendering, x0, y0, Math.min(x0 + tileSize, width), Math.min(y0 + tileSize, height));
+        }
       }
+      
+      statistics.setTilesRendered(count, tiles);
+      runWorkers(statistics, dependencies, count, new Job()
+      {
+        @Override
+        public void run(RenderContext context, int i)
+        {
+          final int x0 = (redo[i] % across) * tileSize;
+          final int y0 = (redo[i] / across) * tileSize;
+          
+          context.setTile(redo[i]);
+          renderTile(context, view, sorted, r, x0, y0, Math.min(x0 + tileSize, width), Math.min(y0 + tileSize, height));
+        }
+      });
+    }
+    else if (previous != null && canRelight(previous, width, height))
+    {
+      dependencies = new TileDependencies(width, height, tileSize);
+      this.gbuffer = previous.gbuffer;
+      shade(statistics, dependencies, view, r, this.gbuffer, getTileLights(view, width, height, tileSize, across, tiles), tileSize, across);
+    }
+    else if (this.wavefront)
+    {
+      dependencies = new TileDependencies(width, height, tileSize);
+      this.gbuffer = null;
+      new Wavefront(this, view, width, tileSize, across, getTileLights(view, width, height, tileSize, across, tiles)).render(statistics, dependencies, r, height);
+    }
+    else if (this.deferred || previous != null)
+    {
+      final GBuffer buffer = new GBuffer(width, height);
+      
+      dependencies = new TileDependencies(width, height, tileSize);
+      runWorkers(statistics, null, tiles, new Job()
+      {
+        @Override
+        public void run(RenderContext context, int tile)
+        {
+          final int x0 = (tile % across) * tileSize;
+          final int y0 = (tile / across) * tileSize;
+          
+          traceTile(context, view, buffer, x0, y0, Math.min(x0 + tileSize, width), Math.min(y0 + tileSize, height));
+        }
+      });
+      
+      buffer.assignIds(this.materials);
+      shade(statistics, dependencies, view, r, buffer, getTileLights(view, width, height, tileSize, across, tiles), tileSize, across);
+      this.gbuffer = buffer;
+    }
+    else
+    {
+      dependencies = new TileDependencies(width, height, tileSize);
+      this.gbuffer = null;
+      runWorkers(statistics, dependencies, tiles, new Job()
+      {
+        @Override
+        public void run(RenderContext context, int tile)
+        {
+          final int x0 = (tile % across) * tileSize;
+          final int y0 = (tile / across) * tileSize;
+          
+          context.setTile(tile);
+          renderTile(context, view, sorted, r, x0, y0, Math.min(x0 + tileSize, width), Math.min(y0 + tileSize, height));
+        }
+      });
     }
     
-    context.getStatistics().end();
-    System.out.println(context.getStatistics());
+    this.rendering = r;
+    this.dependencies = dependencies;
+    
+    statistics.end();
+    System.out.println(statistics);
     
     return r;
   }
   
+  /**
+   *  Find the tiles that must be rendered again to update a previous stage's last render for
+   *  this stage.  Geometry in both stages (by identity or value) is unchanged; the rest has
+   *  been removed, added or changed.  A tile must be rendered again if the old or new bounds
+   *  of a changed object project onto it, or meet its record of secondary rays.
+   *  @return Whether each tile must be rendered again, or null if the previous render can't
+   *          be updated (such as when the camera or lights have changed).
+   */
+  private boolean[] getDirtyTiles(Stage previous, ViewPlane view, int width, int height, int tileSize, int across, int tiles)
+  {
+    final TileDependencies record = previous.dependencies;
+    
+    if (record == null || 
+        record.getWidth() != width ||                                // (the same number of tiles may be laid out differently)
+        record.getHeight() != height ||
+        record.getTileSize() != tileSize || 
+        previous.shadowRayBudget != this.shadowRayBudget ||
+        previous.frame != this.frame ||                              // (tiles copied would have been sampled differently)
+        ! this.camera.equals(previous.camera) || 
+        ! this.lights.equals(previous.lights))
+    {
+      return null;
+    }
+    
+    final Map<Geometry, Integer> unmatched = new HashMap<Geometry, Integer>();
+    final List<Bounds> changed = new ArrayList<Bounds>();
+    
+    for (Geometry g : previous.geometry)
+    {
+      final Integer count = unmatched.get(g);
+      unmatched.put(g, (count == null) ? 1 : count + 1);
+    }
+    
+    for (Geometry g : this.geometry)
+    {
+      final Integer count = unmatched.get(g);
+      
+      if (count == null || count == 0)                               // new, or changed
+      {
+        changed.add(g.getBounds());
+      }
+      else
+      {
+        unmatched.put(g, count - 1);
+      }
+    }
+    
+    for (Map.Entry<Geometry, Integer> entry : unmatched.entrySet())  // removed, or changed
+    {
+      for (int i = 0; i < entry.getValue(); i++)
+      {
+        changed.add(entry.getKey().getBounds());
+      }
+    }
+    
+    final boolean[] dirty = new boolean[tiles];
+    
+    for (Bounds b : changed)
+    {
+      final int[] rectangle = (b == null) ? null : getScreenRectangle(view, b);
+      
+      if (rectangle == null)                                         // unbounded, or not wholly in front of the camera
+      {
+        return null;
+      }
+      
+      for (int ty = Math.max(0, rectangle[1] / tileSize); ty <= Math.min(height - 1, rectangle[3]) / tileSize; ty++)
+      {
+        for (int tx = Math.max(0, rectangle[0] / tileSize); tx <= Math.min(width - 1, rectangle[2]) / tileSize; tx++)
+        {
+          dirty[ty * across + tx] = true;
+        }
+      }
+      
+      for (int tile = 0; tile < tiles; tile++)
+      {
+        dirty[tile] = dirty[tile] || record.intersects(tile, b);
+      }
+    }
+    
+    return dirty;
+  }
+  
+  /**
+   *  Get the pixels whose primary rays may meet the given bounds.
+   *  @return The left, bottom, right and top pixels (inclusive), or null if the bounds are not
+   *          wholly in front of the camera.
+   */
+  private static int[] getScreenRectangle(ViewPlane view, Bounds b)
+  {
+    final int[] rectangle = { Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE };
+    
+    for (int corner = 0; corner < 8; corner++)
+    {
+      final double[] pixel = view.project(new Vector(((corner & 1) == 0) ? b.getMin(0) : b.getMax(0),
+                                                     ((corner & 2) == 0) ? b.getMin(1) : b.getMax(1),
+                                                     ((corner & 4) == 0) ? b.getMin(2) : b.getMax(2)));
+      if (pixel == null)
+      {
+        return null;
+      }
+      
+      rectangle[0] = Math.min(rectangle[0], (int) Math.floor(pixel[0]) - 1);   // allow a pixel either side
+      rectangle[1] = Math.min(rectangle[1], (int) Math.floor(pixel[1]) - 1);
+      rectangle[2] = Math.max(rectangle[2], (int) Math.ceil(pixel[0]) + 1);
+      rectangle[3] = Math.max(rectangle[3], (int) Math.ceil(pixel[1]) + 1);
+    }
+    
+    return rectangle;
+  }
+  
+  /**
+   *  Can the G-buffer of a previous stage's last render be reused for this stage?
+   */
+  private boolean canRelight(Stage previous, int width, int height)
+  {
+    final GBuffer buffer = previous.gbuffer;
+    
+    return buffer != null &&
+           buffer.getWidth() == width &&
+           buffer.getHeight() == height &&
+           this.camera.equals(previous.camera) &&
+           this.geometry.equals(previous.geometry);
+  }
+  
+  /**
+   *  Shade the hits in a G-buffer, material by material, so that consecutive pixels share a
+   *  texture and code path.  Non reflective hits are shaded from the colour and finish of
+   *  their material in the material table if it is uniform, or else from the buffer's texture
+   *  sample; reflective ones trace their reflections as usual.
+   */
+  private void shade(Statistics statistics, TileDependencies dependencies, final ViewPlane view, final Rendering r, 
+                     final GBuffer buffer, final List<List<Light>> tileLights, final int tileSize, final int across)
+  {
+    final int[] pixels = buffer.getPixelsByMaterial();
+    final int width = buffer.getWidth();
+    final MaterialTable table = buffer.getMaterialTable();
+    final int tabled = (table != null) ? table.size() : 0;           // (ids past the table's are the buffer's own)
+    
+    runWorkers(statistics, dependencies, (pixels.length + SHADING_CHUNK - 1) / SHADING_CHUNK, new Job()
+    {
+      @Override
+      public void run(RenderContext context, int chunk)
+      {
+        for (int i = chunk * SHADING_CHUNK; i < Math.min(pixels.length, (chunk + 1) * SHADING_CHUNK); i++)
+        {
+          final int p = pixels[i];
+          final int x = p % width;
+          final int y = p / width;
+          final int material = buffer.getMaterialId(p);
+          
+          if (material == GBuffer.MISS)
+          {
+            r.set(x, y, Colour.BLACK);
+            continue;
+          }
+          
+          final Intersection hit = new Intersection(view.getRay(x, y), 
+                                                    buffer.getGeometry(buffer.getGeometryId(p)), 
+                                                    buffer.getDistance(p));
+          final Vector normal = new Vector(buffer.getNormal(p, 0), buffer.getNormal(p, 1), buffer.getNormal(p, 2));
+          final boolean uniform = material < tabled && table.isUniform(material);
+          final Finish finish = buffer.getFinish(p);
+          final int tile = (y / tileSize) * across + x / tileSize;
+          
+          context.setTile(tile);
+          context.setTileLights(tileLights.get(tile));
+          context.setPixel(x, y, r.getSamples(x, y));
+          if ((uniform ? table.getReflection(material) : finish.getReflection()) > 0)   // reflections must be traced
+          {
+            r.set(x, y, Lighting.getReflectedColour(context, 0, hit, normal));
+          }
+          else if (uniform)
+          {
+            final ColourAccumulator colour = context.getColourAccumulator();
+            
+            Lighting.shade(hit, 
+                           normal, 
+                           Rays.getIllumination(context, 0, hit.asVector()), 
+                           table.getRed(material), 
+                           table.getGreen(material), 
+                           table.getBlue(material), 
+                           table.getAmbient(material), 
+                           table.getDiffuse(material), 
+                           table.getShininess(material), 
+                           colour);
+            r.set(x, y, colour);
+          }
+          else
+          {
+            final ColourAccumulator colour = context.getColourAccumulator();
+            
+            Lighting.shade(hit, 
+                           normal, 
+                           Rays.getIllumination(context, 0, hit.asVector()), 
+                           buffer.getPigment(p, 0), 
+                           buffer.getPigment(p, 1), 
+                           buffer.getPigment(p, 2), 
+                           finish, 
+                           colour);
+            r.set(x, y, colour);
+          }
+        }
+      }
+    });
+  }
+  
+  /**
+   *  Find the candidate lights of every tile.
+   *  @return The candidate lights, by tile (with null where every light may illuminate a tile).
+   */
+  List<List<Light>> getTileLights(ViewPlane view, int width, int height, int tileSize, int across, int tiles)
+  {
+    final List<List<Light>> tileLights = new ArrayList<List<Light>>(tiles);
+    
+    for (int tile = 0; tile < tiles; tile++)
+    {
+      final int x0 = (tile % across) * tileSize;
+      final int y0 = (tile / across) * tileSize;
+      
+      tileLights.add(getTileLights(new ArrayList<Light>(), view, x0, y0, Math.min(x0 + tileSize, width), Math.min(y0 + tileSize, height)));
+    }
+    
+    return tileLights;
+  }
+  
+  /**
+   *  Trace the primary rays of a tile, recording their closest hits in the G-buffer.
+   */
+  private void traceTile(RenderContext context, ViewPlane view, GBuffer buffer, int x0, int y0, int x1, int y1)
+  {
+    if (this.packetSize > 0)
+    {
+      final RayPacket packet = context.getPacket(this.packetSize * this.packetSize);
+      
+      for (int x = x0; x < x1; x += this.packetSize)
+      {
+        for (int y = y0; y < y1; y += this.packetSize)
+        {
+          final int px1 = Math.min(x + this.packetSize, x1);
+          final int py1 = Math.min(y + this.packetSize, y1);
+          
+          tracePacket(context, view, packet, x, y, px1, py1);
+          
+          int i = 0;
+          for (int px = x; px < px1; px++)
+          {
+            for (int py = y; py < py1; py++)
+            {
+              final IntersectionList intersections = packet.getIntersections(i++);
+              
+              if (! intersections.isEmpty())
+              {
+                buffer.set(px, py, intersections.closest(), context);
+              }
+            }
+          }
+        }
+      }
+    }
+    else
+    {
+      for (int x = x0; x < x1; x++)
+      {
+        for (int y = y0; y < y1; y++)
+        {
+          final Ray ray = view.getRay(x, y);
+          final IntersectionList intersections = context.getIntersections(0, ray);
+          
+          context.getStatistics().incRaysCast();
+          intersect(context, ray, intersections);
+          if (! intersections.isEmpty())
+          {
+            buffer.set(x, y, intersections.closest(), context);
+          }
+        }
+      }
+    }
+  }
+  
+  /**
+   *  Run a number of jobs across the render threads.  Each worker has its own render context,
+   *  and takes jobs in turn; the workers' statistics are merged once all jobs are done.
+   *  @param statistics The statistics to merge into.
+   *  @param dependencies The record to merge the workers' secondary rays into (or null).
+   *  @param jobs The number of jobs.
+   *  @param job The job to run, given each index in turn.
+   */
+  void runWorkers(Statistics statistics, final TileDependencies dependencies, final int jobs, final Job job)
+  {
+    final AtomicInteger next = new AtomicInteger();
+    final List<FutureTask<RenderContext>> workers = new ArrayList<FutureTask<RenderContext>>();
+    
+    for (int w = 0; w < Math.min(this.threads, jobs); w++)
+    {
+      workers.add(new FutureTask<RenderContext>(new Callable<RenderContext>()
+      {
+        @Override
+        public RenderContext call()
+        {
+          final RenderContext context = new RenderContext(Stage.this, new Statistics());
+          
+          if (dependencies != null)
+          {
+            context.setDependencies(new TileDependencies(dependencies.getWidth(), dependencies.getHeight(), dependencies.getTileSize()));
+          }
+          
+          for (int i = next.getAndIncrement(); i < jobs; i = next.getAndIncrement())
+          {
+            job.run(context, i);
+          }
+          
+          return context;
+        }
+      }));
+    }
+    
+    for (int w = 1; w < workers.size(); w++)
+    {
+      final Thread thread = new Thread(workers.get(w), "Renderer " + w);
+      thread.setDaemon(true);
+      thread.start();
+    }
+    
+    if (! workers.isEmpty())
+    {
+      workers.get(0).run();                                          // the calling thread works too
+    }
+    
+    for (FutureTask<RenderContext> worker : workers)
+    {
+      final RenderContext context = join(worker);
+      
+      statistics.merge(context.getStatistics());
+      if (dependencies != null)
+      {
+        dependencies.merge(context.getDependencies());
+      }
+    }
+  }
+  
+  /**
+   *  A unit of work run by a render worker.
+   */
+  interface Job
+  {
+    /**
+     *  Run the job.
+     *  @param context The worker's render context.
+     *  @param index The job's index.
+     */
+    void run(RenderContext context, int index);
+  }
+  
+  /**
+   *  Wait for a render worker to finish.
+   *  @return The worker's render context.
+   */
+  private static RenderContext join(FutureTask<RenderContext> worker)
+  {
+    try
+    {
+      return worker.get();
+    }
+    catch (InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted while rendering", ex);
+    }
+    catch (ExecutionException ex)
+    {
+      if (ex.getCause() instanceof RuntimeException)
+      {
+        throw (RuntimeException) ex.getCause();
+      }
+      throw new IllegalStateException("render failed", ex.getCause());
+    }
+  }
+  
+  /**
+   *  Render a tile of pixels.
+   *  @param sorted The wavefront renderer to render the tile with, sorting its secondary rays
+   *                (or null to render each pixel depth first).
+   */
+  private void renderTile(RenderContext context, ViewPlane view, Wavefront sorted, Rendering r, int x0, int y0, int x1, int y1)
+  {
+    context.setTileLights(getTileLights(context.getTileLightList(), view, x0, y0, x1, y1));
+    
+    if (sorted != null)
+    {
+      sorted.renderTile(context, r, x0, y0, x1, y1);
+    }
+    else if (this.packetSize > 0)
+    {
+      final RayPacket packet = context.getPacket(this.packetSize * this.packetSize);
+      
+      for (int x = x0; x < x1; x += this.packetSize)
+      {
+        for (int y = y0; y < y1; y += this.packetSize)
+        {
+          renderPacket(context, view, r, packet, x, y, Math.min(x + this.packetSize, x1), Math.min(y + this.packetSize, y1));
+        }
+      }
+    }
+    else
+    {
+      for (int x = x0; x < x1; x++)
+      {
+        for (int y = y0; y < y1; y++)
+        {
+          final Ray ray = view.getRay(x, y);
+          context.getStatistics().incRaysCast();
+          context.setPixel(x, y, r.getSamples(x, y));
+          r.set(x, y, getColourFor(context, ray, 0, Colour.BLACK));
+        }
+      }
+    }
+  }
+  
+  /**
+   *  Find the lights that may illuminate a tile's primary hits: those whose range reaches
+   *  the tile's view frustum.
+   *  @param candidates An empty list, to fill with the candidate lights.
+   *  @return The candidate lights, or null if every light may.
+   */
+  private List<Light> getTileLights(List<Light> candidates, ViewPlane view, int x0, int y0, int x1, int y1)
+  {
+    if (this.maxRadius == Double.POSITIVE_INFINITY)                  // nothing can be culled
+    {
+      return null;
+    }
+    
+    final Vector[] normals = view.getFrustumNormals(x0 - 0.5d, y0 - 0.5d, x1 - 0.5d, y1 - 0.5d);
+    final Vector origin = camera.getPosition();
+    
+    for (int l = 0; l < this.lights.size(); l++)
+    {
+      final Light light = this.lights.get(l);
+      final Vector offset = light.getPosition().subtract(origin);
+      boolean reaches = true;
+      
+      for (int p = 0; p < normals.length && reaches; p++)
+      {
+        reaches = normals[p].dot(offset) >= -light.getRadius();    // not wholly outside this plane
+      }
+      
+      if (reaches)
+      {
+        candidates.add(light);
+      }
+    }
+    
+    return candidates;
+  }
+  
+  /**
+   *  Render a block of pixels, tracing their primary rays as a packet.  Reflected and shadow
+   *  rays are not coherent, so they are traced singly.
+   */
+  private void renderPacket(RenderContext context, ViewPlane view, Rendering r, RayPacket packet, 
+                            int x0, int y0, int x1, int y1)
+  {
+    tracePacket(context, view, packet, x0, y0, x1, y1);
+    
+    int i = 0;
+    for (int x = x0; x < x1; x++)
+    {
+      for (int y = y0; y < y1; y++)
+      {
+        context.setPixel(x, y, r.getSamples(x, y));
+        r.set(x, y, getColourFor(context, packet.getIntersections(i++), 0, Colour.BLACK));
+      }
+    }
+  }
+  
+  /**
+   *  Trace the primary rays of a block of pixels as a packet, column by column.
+   */
+  private void tracePacket(RenderContext context, ViewPlane view, RayPacket packet, int x0, int y0, int x1, int y1)
+  {
+    packet.reset(camera.getPosition());
+    for (int x = x0; x < x1; x++)
+    {
+      for (int y = y0; y < y1; y++)
+      {
+        packet.add(view.getRay(x, y));
+        context.getStatistics().incRaysCast();
+      }
+    }
+    
+    if (intersect(context, packet))
+    {
+      context.getStatistics().incPacketsCast();
+    }
+    else
+    {
+      context.getStatistics().incIncoherentPackets();
+    }
+  }
+  
   public Colour getColourFor(RenderContext context, Ray ray, int recurseNo, Colour miss)
   {
     if (recurseNo > MAX_RECURSE)
@@ -125,18 +784,33 @@ public final class Stage
       return miss;
     }
     
-    final IntersectionList intersections = new IntersectionList(ray);
-    for (Geometry g : getGeometry())
+    final IntersectionList intersections = context.getIntersections(recurseNo, ray);
+    intersect(context, ray, intersections);
+    
+    if (recurseNo > 0)
     {
-      g.intersect(ray, intersections);
+      context.getStatistics().incReflectionRaysCast();
+      context.recordSecondaryRay(ray, intersections.closestLength());
     }
-
+    
+    return getColourFor(context, intersections, recurseNo, miss);
+  }
+  
+  /**
+   *  Get the colour for a ray whose intersections have already been found.
+   *  @param context The render context.
+   *  @param intersections The ray's intersections.
+   *  @param recurseNo Recursion count.
+   *  @param miss The colour to use if the ray hit nothing.
+   *  @return The colour.
+   */
+  public Colour getColourFor(RenderContext context, IntersectionList intersections, int recurseNo, Colour miss)
+  {
     if (intersections.size() > 0)
     {
-      Intersection i = intersections.closest();
-      return i.getGeometry().getColourAt(context, recurseNo, i, Rays.getIlluminatingLights(this, 
-                                                                                           this.getLights(), 
-                                                                                           i.asVector()));
+      final Intersection i = intersections.closest();
+      
+      return i.getGeometry().getColourAt(context, recurseNo, i, null);   // (lights found as needed)
     }
     else
     {
@@ -220,24 +894,440 @@ public final class Stage
 //  }
   
   
+  /**
+   *  Test for ray intersections against all of the geometry in the scene, adding them to
+   *  the intersection list.  The closest intersection is always found; others may not be.
+   *  @param context The render context.
+   *  @param ray The ray.
+   *  @param intersections The intersection list.
+   */
+  public void intersect(RenderContext context, Ray ray, IntersectionList intersections)
+  {
+    if (this.accelerator == null)
+    {
+      freeze();
+    }
+    
+    for (Geometry g : this.unbounded)                                // test unbounded geometry first ...
+    {
+      g.intersect(ray, intersections);
+    }
+    
+    this.accelerator.intersect(context.getTraversal(), ray, intersections);   // ... so its hits can cull the search
+  }
+  
+  /**
+   *  Test for ray intersections for every ray in the packet, adding them to each ray's
+   *  intersection list.  The packet is traced as a unit if it is coherent and the acceleration
+   *  structure supports packets; otherwise its rays are traced singly.
+   *  @param context The render context.
+   *  @param packet The packet.
+   *  @return True if the packet was traced as a unit.
+   */
+  public boolean intersect(RenderContext context, RayPacket packet)
+  {
+    if (this.accelerator == null)
+    {
+      freeze();
+    }
+    
+    for (int i = 0; i < packet.size(); i++)
+    {
+      for (Geometry g : this.unbounded)
+      {
+        g.intersect(packet.getRay(i), packet.getIntersections(i));
+      }
+    }
+    
+    if (this.accelerator instanceof PacketAccelerator && packet.isCoherent())
+    {
+      ((PacketAccelerator) this.accelerator).intersect(context.getTraversal(), packet);
+      return true;
+    }
+    else
+    {
+      for (int i = 0; i < packet.size(); i++)
+      {
+        this.accelerator.intersect(context.getTraversal(), packet.getRay(i), packet.getIntersections(i));
+      }
+      return false;
+    }
+  }
+  
+  /**
+   *  Does any geometry in the scene intersect the ray no further than the given length down it?
+   *  @param context The render context.
+   *  @param ray The ray.
+   *  @param length The length down the ray to consider.
+   *  @return True if the ray is blocked.
+   */
+  public boolean isOccluded(RenderContext context, Ray ray, double length)
+  {
+    return findOccluder(context, ray, length) != null;
+  }
+  
+  /**
+   *  Is a shadow ray towards a light blocked?  The last object found blocking the light is
+   *  tested first, since neighbouring points are usually shadowed by the same object; only if
+   *  it does not block the ray is the whole scene searched.
+   *  @param context The render context, which holds the last occluder of each light.
+   *  @param light The light.
+   *  @param ray The shadow ray.
+   *  @param length The length down the ray to consider.
+   *  @return True if the ray is blocked.
+   */
+  public boolean isOccluded(RenderContext context, Light light, Ray ray, double length)
+  {
+    final Geometry cached = context.getOccluder(light);
+    
+    context.recordSecondaryRay(ray, length);
+    
+    if (cached != null)
+    {
+      final IntersectionList intersections = context.getShadowIntersections(ray);
+      
+      context.getStatistics().incOccluderCacheLookups();
+      cached.intersect(ray, intersections);
+      if (intersections.closestLength() <= length)
+      {
+        context.getStatistics().incOccluderCacheHits();
+        return true;
+      }
+    }
+    
+    final Geometry occluder = findOccluder(context, ray, length);
+    if (occluder != null)
+    {
+      context.setOccluder(light, occluder);
+    }
+    
+    return occluder != null;
+  }
+  
+  /**
+   *  Find an object that intersects the ray no further than the given length down it.
+   *  @param context The render context.
+   *  @param ray The ray.
+   *  @param length The length down the ray to consider.
+   *  @return The object found (not necessarily the closest), or null if the ray is not blocked.
+   */
+  private Geometry findOccluder(RenderContext context, Ray ray, double length)
+  {
+    if (this.accelerator == null)
+    {
+      freeze();
+    }
+    
+    final IntersectionList intersections = context.getShadowIntersections(ray);
+    for (Geometry g : this.unbounded)
+    {
+      g.intersect(ray, intersections);
+      
+      if (intersections.closestLength() <= length)
+      {
+        return g;
+      }
+    }
+    
+    if (this.accelerator.occluded(context.getTraversal(), ray, length))
+    {
+      return context.getTraversal().getOccluder();
+    }
+    
+    return null;
+  }
+  
+  /**
+   *  Freeze the stage, building the acceleration structures required for rendering and
+   *  compiling the textures.  The stage cannot be modified once frozen.  Freezing a frozen
+   *  stage has no effect.
+   */
+  public synchronized void freeze()
+  {
+    if (isFrozen())
+    {
+      return;
+    }
+    
+    final List<Geometry> bounded = new ArrayList<Geometry>();
+    final List<Geometry> others = new ArrayList<Geometry>();
+    
+    for (Geometry g : this.geometry)
+    {
+      TextureCompiler.compile(g.getTexture());
+      
+      if (g.getBounds() != null)
+      {
+        bounded.add(g);
+      }
+      else
+      {
+        others.add(g);
+      }
+    }
+    
+    final long start = System.currentTimeMillis();
+    final Accelerator built = this.acceleration.build(bounded);
+    
+    this.buildDuration = System.currentTimeMillis() - start;
+    this.lightTree = new LightTree(this.lights);
+    this.maxRadius = 0;
+    for (Light light : this.lights)
+    {
+      this.maxRadius = Math.max(this.maxRadius, light.getRadius());
+    }
+    this.unbounded = others.toArray(new Geometry[others.size()]);
+    this.materials = MaterialTable.build(this.geometry);
+    this.accelerator = built;
+  }
+  
+  /**
+   *  Has the stage been frozen?
+   *  @return True if frozen.
+   */
+  public boolean isFrozen()
+  {
+    return this.accelerator != null;
+  }
+  
+  /**
+   *  Get the stage's interned materials.
+   *  @return The material table, or null if the stage is not frozen.
+   */
+  public MaterialTable getMaterials()
+  {
+    return this.materials;
+  }
+  
+  /**
+   *  Get the angle subtended by a pixel of the current render.
+   */
+  double getPixelSpread()
+  {
+    return this.pixelSpread;
+  }
+  
   /**
    *  Add the given piece of geometry to the scene.
    *  @param g The geometry to add.
+   *  @throws IllegalStateException If the stage is frozen.
    */
-  public void addGeometry(Geometry g)
+  public void addGeometry(Geometry g) throws IllegalStateException
   {
+    checkNotFrozen();
     this.geometry.add(g);
   }
   
   /**
    *  Add the given light to the scene.
    *  @param l The light to add.
+   *  @throws IllegalStateException If the stage is frozen.
    */
-  public void addLight(Light l)
+  public void addLight(Light l) throws IllegalStateException
   {
+    checkNotFrozen();
     this.lights.add(l);
   }
   
+  private void checkNotFrozen() throws IllegalStateException
+  {
+    if (isFrozen())
+    {
+      throw new IllegalStateException("stage is frozen");
+    }
+  }
+  
+  /**
+   *  Set the kind of acceleration structure built when the stage is frozen.
+   *  @param acceleration The acceleration structure.
+   *  @throws IllegalStateException If the stage is frozen.
+   */
+  public void setAcceleration(Acceleration acceleration) throws IllegalStateException
+  {
+    checkNotFrozen();
+    this.acceleration = acceleration;
+  }
+  
+  /**
+   *  Get the kind of acceleration structure built when the stage is frozen.
+   *  @return The acceleration structure.
+   */
+  public Acceleration getAcceleration()
+  {
+    return this.acceleration;
+  }
+  
+  /**
+   *  Set the packet size for primary rays.  Neighbouring primary rays are coherent, so
+   *  tracing them together shares work.
+   *  @param packetSize The length of the side of each square packet, in pixels, or zero
+   *                    to trace primary rays singly.
+   *  @throws IllegalArgumentException If the size is negative or too large.
+   */
+  public void setPacketSize(int packetSize) throws IllegalArgumentException
+  {
+    if (packetSize < 0 || packetSize > MAX_PACKET_SIZE)
+    {
+      throw new IllegalArgumentException("packet size must be between 0 and " + MAX_PACKET_SIZE + "; was: " + packetSize);
+    }
+    
+    this.packetSize = packetSize;
+  }
+  
+  /**
+   *  Get the packet size for primary rays.
+   *  @return The length of the side of each square packet, or zero if packets are not used.
+   */
+  public int getPacketSize()
+  {
+    return this.packetSize;
+  }
+  
+  /**
+   *  Set the number of threads used to render.
+   *  @param threads The number of threads.
+   *  @throws IllegalArgumentException If the number is less than one.
+   */
+  public void setThreads(int threads) throws IllegalArgumentException
+  {
+    if (threads < 1)
+    {
+      throw new IllegalArgumentException("threads must be at least 1; was: " + threads);
+    }
+    
+    this.threads = threads;
+  }
+  
+  /**
+   *  Get the number of threads used to render.
+   *  @return The number of threads.
+   */
+  public int getThreads()
+  {
+    return this.threads;
+  }
+  
+  /**
+   *  Set the shadow ray budget.  When there are more lights than the budget, each hit shadow
+   *  tests only the most significant lights, plus a weighted random sample of the rest.
+   *  @param shadowRayBudget The maximum number of shadow rays per hit, or zero to shadow test
+   *                         every light.
+   *  @throws IllegalArgumentException If the budget is negative.
+   */
+  public void setShadowRayBudget(int shadowRayBudget) throws IllegalArgumentException
+  {
+    if (shadowRayBudget < 0)
+    {
+      throw new IllegalArgumentException("shadow ray budget must not be negative; was: " + shadowRayBudget);
+    }
+    
+    this.shadowRayBudget = shadowRayBudget;
+  }
+  
+  /**
+   *  Get the shadow ray budget.
+   *  @return The maximum number of shadow rays per hit, or zero if every light is shadow tested.
+   */
+  public int getShadowRayBudget()
+  {
+    return this.shadowRayBudget;
+  }
+  
+  /**
+   *  Set whether to use deferred shading.  A deferred render first traces every primary ray,
+   *  filling a G-buffer, then shades the hits grouped by material.  The image is the same
+   *  either way.
+   *  @param deferred True to render deferred.
+   */
+  public void setDeferred(boolean deferred)
+  {
+    this.deferred = deferred;
+  }
+  
+  /**
+   *  Is deferred shading in use?
+   */
+  public boolean isDeferred()
+  {
+    return this.deferred;
+  }
+  
+  /**
+   *  Set whether to use the wavefront renderer.  It traces a generation of rays at a time,
+   *  from sorted queues, instead of each pixel depth first.  The image is the same either way.
+   *  @param wavefront True to render a generation at a time.
+   */
+  public void setWavefront(boolean wavefront)
+  {
+    this.wavefront = wavefront;
+  }
+  
+  /**
+   *  Is the wavefront renderer in use?
+   */
+  public boolean isWavefront()
+  {
+    return this.wavefront;
+  }
+  
+  /**
+   *  Set whether to sort each tile's secondary rays.  A tile's reflection rays are gathered a
+   *  generation at a time, as are its shadow rays, and sorted along a Morton curve through
+   *  their origins and directions, so that rays traced one after another visit much the same
+   *  geometry.  Primary rays are traced singly in this mode, rather than in packets.  The image
+   *  is the same either way.
+   *  @param secondarySorting True to sort secondary rays.
+   */
+  public void setSecondarySorting(boolean secondarySorting)
+  {
+    this.secondarySorting = secondarySorting;
+  }
+  
+  /**
+   *  Are each tile's secondary rays sorted?
+   */
+  public boolean isSecondarySorting()
+  {
+    return this.secondarySorting;
+  }
+  
+  /**
+   *  Set the frame number.  Random sampling is keyed by frame, pixel and sample, so a frame
+   *  renders the same however many threads render it, and frames of an animation are sampled
+   *  differently.
+   *  @param frame The frame number.
+   */
+  public void setFrame(int frame)
+  {
+    this.frame = frame;
+  }
+  
+  /**
+   *  Get the frame number.
+   */
+  public int getFrame()
+  {
+    return this.frame;
+  }
+  
+  /**
+   *  Get the G-buffer filled by the last render.
+   *  @return The G-buffer, or null if the last render was not deferred.
+   */
+  public GBuffer getGBuffer()
+  {
+    return this.gbuffer;
+  }
+  
+  /**
+   *  Get the hierarchy over the lights.
+   *  @return The light tree, or null if the stage is not frozen.
+   */
+  public LightTree getLightTree()
+  {
+    return this.lightTree;
+  }
+  
   /**
    *  Get the camera object.
    *  @return The camera.
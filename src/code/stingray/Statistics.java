@@ -27,7 +27,8 @@
 package stingray;
 
 /**
- *  Statistics collation.
+ *  Statistics collation.  Statistics are not thread safe: each rendering thread collates
+ *  its own, and they are merged when the render ends.
  */
 public final class Statistics
 {
@@ -37,12 +38,36 @@ public final class Statistics
   /** Number of shadow rays cast. */
   private int shadowRaysCast;
   
+  /** Number of reflection rays cast. */
+  private int reflectionRaysCast;
+  
+  /** Number of ray packets traced as a unit. */
+  private int packetsCast;
+  
+  /** Number of ray packets that were too incoherent to trace as a unit. */
+  private int incoherentPackets;
+  
+  /** Number of shadow rays tested against a cached occluder. */
+  private int occluderCacheLookups;
+  
+  /** Number of shadow rays found blocked by their cached occluder. */
+  private int occluderCacheHits;
+  
+  /** Number of tiles rendered, when updating an earlier render (or zero). */
+  private int tilesRendered;
+  
+  /** Number of tiles in the image, when updating an earlier render (or zero). */
+  private int tiles;
+  
   /** Starting time. */
   private long startTime;
   
   /** End time. */
   private long endTime;
   
+  /** Time taken to build the acceleration structures, in milliseconds. */
+  private long buildDuration;
+  
   /**
    *  Constructor.
    */
@@ -62,6 +87,82 @@ public final class Statistics
     this.shadowRaysCast++;
   }
   
+  public void incReflectionRaysCast()
+  {
+    this.reflectionRaysCast++;
+  }
+  
+  public int getReflectionRaysCast()
+  {
+    return this.reflectionRaysCast;
+  }
+  
+  public void incOccluderCacheLookups()
+  {
+    this.occluderCacheLookups++;
+  }
+  
+  public int getOccluderCacheLookups()
+  {
+    return this.occluderCacheLookups;
+  }
+  
+  public void incOccluderCacheHits()
+  {
+    this.occluderCacheHits++;
+  }
+  
+  public int getOccluderCacheHits()
+  {
+    return this.occluderCacheHits;
+  }
+  
+  public void incPacketsCast()
+  {
+    this.packetsCast++;
+  }
+  
+  public void incIncoherentPackets()
+  {
+    this.incoherentPackets++;
+  }
+  
+  public int getPacketsCast()
+  {
+    return this.packetsCast;
+  }
+  
+  public int getIncoherentPackets()
+  {
+    return this.incoherentPackets;
+  }
+  
+  /**
+   *  Add the counts collated by another statistics object to this one's.
+   *  @param that The other statistics.
+   */
+  public void merge(Statistics that)
+  {
+    this.raysCast += that.raysCast;
+    this.shadowRaysCast += that.shadowRaysCast;
+    this.reflectionRaysCast += that.reflectionRaysCast;
+    this.packetsCast += that.packetsCast;
+    this.incoherentPackets += that.incoherentPackets;
+    this.occluderCacheLookups += that.occluderCacheLookups;
+    this.occluderCacheHits += that.occluderCacheHits;
+  }
+  
+  /**
+   *  Record how much of an earlier render was rendered again, when updating it.
+   *  @param tilesRendered The number of tiles rendered.
+   *  @param tiles The number of tiles in the image.
+   */
+  public void setTilesRendered(int tilesRendered, int tiles)
+  {
+    this.tilesRendered = tilesRendered;
+    this.tiles = tiles;
+  }
+  
   public void start()
   {
     this.startTime = System.currentTimeMillis();
@@ -72,6 +173,16 @@ public final class Statistics
     this.endTime = System.currentTimeMillis();
   }
   
+  public void setBuildDuration(long millis)
+  {
+    this.buildDuration = millis;
+  }
+  
+  public long getBuildDuration()
+  {
+    return this.buildDuration;
+  }
+  
   public long thisDuration()
   {
     return this.endTime - this.startTime;
@@ -95,7 +206,40 @@ public final class Statistics
   {
     final StringBuilder buff = new StringBuilder();
     
-    buff.append(String.format("Duration: %.3f secs; Rays: %,d", (thisDuration() / 1000d), getRaysCast()));
+    buff.append(String.format("Duration: %.3f secs; Build: %.3f secs; Rays: %,d; Shadow rays: %,d", 
+                              (thisDuration() / 1000d), 
+                              (getBuildDuration() / 1000d), 
+                              getRaysCast(),
+                              thisShadowRaysCast()));
+    
+    if (getReflectionRaysCast() > 0)
+    {
+      buff.append(String.format("; Reflection rays: %,d", getReflectionRaysCast()));
+    }
+    
+    if (thisDuration() > 0)
+    {
+      buff.append(String.format("; Rays/sec: %,.0f", 
+                                1000.0d * (getRaysCast() + thisShadowRaysCast() + getReflectionRaysCast()) / thisDuration()));
+    }
+    
+    if (getOccluderCacheLookups() > 0)
+    {
+      buff.append(String.format("; Occluder cache: %,d hits of %,d (%.1f%%)", 
+                                getOccluderCacheHits(), 
+                                getOccluderCacheLookups(), 
+                                100.0d * getOccluderCacheHits() / getOccluderCacheLookups()));
+    }
+    
+    if (this.tiles > 0)
+    {
+      buff.append(String.format("; Tiles: %,d of %,d", this.tilesRendered, this.tiles));
+    }
+    
+    if (getPacketsCast() > 0 || getIncoherentPackets() > 0)
+    {
+      buff.append(String.format("; Packets: %,d (%,d incoherent)", getPacketsCast() + getIncoherentPackets(), getIncoherentPackets()));
+    }
     
     return buff.toString();
   }
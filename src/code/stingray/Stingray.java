@@ -33,6 +33,9 @@ import javax.swing.*;
  */
 public class Stingray
 {
+  /** The last stage rendered, whose primary hits may be reused to relight the next. */
+  private static volatile Stage previous;
+  
   private static ProductionListener productionListener()
   {
     return new ProductionListener()
@@ -79,7 +82,8 @@ public class Stingray
 //      }
 //    }
     
-    final Rendering r = stage.render(name, width, height);
+    final Rendering r = stage.render(name, width, height, previous);
+    previous = stage;
     
     SwingUtilities.invokeLater(new Runnable()
     {
@@ -45,4 +45,12 @@ public interface Texture
    *  @return The finish.
    */
   public Finish getFinishAt(Vector point);
+
+  /**
+   *  Get the simple texture (the pigment and finish together) for the given point.  This
+   *  evaluates the texture once, where asking for the pigment and finish separately would
+   *  evaluate it twice.
+   *  @return The simple texture.
+   */
+  public SimpleTexture getTextureAt(Vector point);
 }
@@ -0,0 +1,197 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray;
+
+/**
+ *  A record, per tile, of the region of space the tile's pixels depend on beyond their
+ *  primary rays: the bounds of every reflection and shadow ray traced while rendering the
+ *  tile.  Shadow rays are bounded by their light, and reflection rays by their closest hit
+ *  (or not at all, if they missed). <p>
+ *  
+ *  If an object changes without its old or new bounds touching a tile's record, or its
+ *  projection on the screen, none of the tile's rays can hit it, and the tile's pixels are
+ *  unchanged.
+ */
+public final class TileDependencies
+{
+  /** Dimensions of the render, in pixels. */
+  private final int width;
+  private final int height;
+  
+  /** Tile size, in pixels along each side. */
+  private final int tileSize;
+  
+  /** Bounds of each tile's rays (min x, y, z then max x, y, z). */
+  private final double[] bounds;
+  
+  /**
+   *  Constructor; the record of each tile is empty.
+   *  @param width The width of the render, in pixels.
+   *  @param height The height of the render, in pixels.
+   *  @param tileSize The tile size, in pixels along each side.
+   */
+  public TileDependencies(int width, int height, int tileSize)
+  {
+    final int tiles = ((width + tileSize - 1) / tileSize) * ((height + tileSize - 1) / tileSize);
+    
+    this.width = width;
+    this.height = height;
+    this.tileSize = tileSize;
+    this.bounds = new double[tiles * 6];
+    
+    for (int tile = 0; tile < tiles; tile++)
+    {
+      clear(tile);
+    }
+  }
+  
+  /**
+   *  Copy constructor.
+   *  @param that The record to copy.
+   */
+  public TileDependencies(TileDependencies that)
+  {
+    this.width = that.width;
+    this.height = that.height;
+    this.tileSize = that.tileSize;
+    this.bounds = that.bounds.clone();
+  }
+  
+  /**
+   *  Get the width of the render, in pixels.
+   */
+  public int getWidth()
+  {
+    return this.width;
+  }
+  
+  /**
+   *  Get the height of the render, in pixels.
+   */
+  public int getHeight()
+  {
+    return this.height;
+  }
+  
+  /**
+   *  Get the number of tiles.
+   */
+  public int getTiles()
+  {
+    return this.bounds.length / 6;
+  }
+  
+  /**
+   *  Get the tile size, in pixels along each side.
+   */
+  public int getTileSize()
+  {
+    return this.tileSize;
+  }
+  
+  /**
+   *  Empty a tile's record.
+   *  @param tile The tile.
+   */
+  public void clear(int tile)
+  {
+    for (int a = 0; a < 3; a++)
+    {
+      this.bounds[tile * 6 + a] = Double.POSITIVE_INFINITY;
+      this.bounds[tile * 6 + 3 + a] = Double.NEGATIVE_INFINITY;
+    }
+  }
+  
+  /**
+   *  Record a ray traced for a tile.
+   *  @param tile The tile.
+   *  @param ray The ray.
+   *  @param length The length down the ray that was considered (which may be infinite).
+   */
+  public void include(int tile, Ray ray, double length)
+  {
+    final Vector o = ray.getOrigin();
+    final Vector d = ray.getDirection();
+    
+    include(tile, 0, o.getX(), d.getX(), length);
+    include(tile, 1, o.getY(), d.getY(), length);
+    include(tile, 2, o.getZ(), d.getZ(), length);
+  }
+  
+  private void include(int tile, int axis, double origin, double direction, double length)
+  {
+    final double end = (direction == 0) ? origin : origin + direction * length;
+    final int i = tile * 6 + axis;
+    
+    this.bounds[i] = Math.min(this.bounds[i], Math.min(origin, end));
+    this.bounds[i + 3] = Math.max(this.bounds[i + 3], Math.max(origin, end));
+  }
+  
+  /**
+   *  Merge another record into this one.
+   *  @param that The other record, which must have the same tiles.
+   */
+  public void merge(TileDependencies that)
+  {
+    for (int i = 0; i < this.bounds.length; i += 6)
+    {
+      for (int a = 0; a < 3; a++)
+      {
+        this.bounds[i + a] = Math.min(this.bounds[i + a], that.bounds[i + a]);
+        this.bounds[i + 3 + a] = Math.max(this.bounds[i + 3 + a], that.bounds[i + 3 + a]);
+      }
+    }
+  }
+  
+  /**
+   *  May any of a tile's rays have touched the given bounds?
+   *  @param tile The tile.
+   *  @param b The bounds.
+   *  @return True if the bounds meet the tile's record.
+   */
+  public boolean intersects(int tile, Bounds b)
+  {
+    for (int a = 0; a < 3; a++)
+    {
+      if (b.getMin(a) > this.bounds[tile * 6 + 3 + a] || b.getMax(a) < this.bounds[tile * 6 + a])
+      {
+        return false;
+      }
+    }
+    
+    return true;
+  }
+  
+  /**
+   *  Get a string representation.
+   */
+  @Override
+  public String toString()
+  {
+    return "TileDependencies[tiles: " + getTiles() + "; tile size: " + this.tileSize + "]";
+  }
+}
@@ -0,0 +1,134 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray;
+
+
+/**
+ *  Maps linear, high dynamic range colour to 8-bit output. <p>
+ *  
+ *  Colour is first scaled by the exposure (in stops), then optionally compressed with the
+ *  Reinhard operator, <i>c / (1 + c)</i>, which brings any brightness below 1.0, then clamped
+ *  between 0.0 and 1.0.  Finally it is either written linearly, as the renderer always has,
+ *  or encoded with the sRGB transfer curve, from a table computed on construction.
+ */
+public final class ToneMapper
+{
+  /** Linear output, clamped, with no exposure adjustment. */
+  public static final ToneMapper CLAMP = new ToneMapper(0, false, false);
+  
+  /** Number of entries in the sRGB table. */
+  private static final int TABLE_SIZE = 4096;
+  
+  /** Exposure, in stops. */
+  private final double exposure;
+  
+  /** Brightness scale for the exposure. */
+  private final float scale;
+  
+  /** Compress brightness with the Reinhard operator? */
+  private final boolean compress;
+  
+  /** Encode with the sRGB curve? */
+  private final boolean srgb;
+  
+  /** 8-bit sRGB values, by linear value scaled to the table (or null). */
+  private final int[] table;
+  
+  /**
+   *  Constructor.
+   *  @param exposure The exposure, in stops: each stop doubles brightness.
+   *  @param compress True to compress brightness with the Reinhard operator.
+   *  @param srgb True to encode output with the sRGB curve; false to write it linearly.
+   */
+  public ToneMapper(double exposure, boolean compress, boolean srgb)
+  {
+    this.exposure = exposure;
+    this.scale = (float) Math.pow(2, exposure);
+    this.compress = compress;
+    this.srgb = srgb;
+    this.table = srgb ? new int[TABLE_SIZE] : null;
+    
+    for (int i = 0; srgb && i < TABLE_SIZE; i++)
+    {
+      final double linear = i / (double) (TABLE_SIZE - 1);
+      final double encoded = (linear <= 0.0031308d) ? 12.92d * linear : 1.055d * Math.pow(linear, 1 / 2.4d) - 0.055d;
+      
+      this.table[i] = (int) Math.round(encoded * 0xFF);
+    }
+  }
+  
+  /**
+   *  Map a colour to an opaque ARGB integer.
+   *  @param red The red component.
+   *  @param green The green component.
+   *  @param blue The blue component.
+   *  @return The ARGB integer.
+   */
+  public int toARGB(float red, float green, float blue)
+  {
+    return 0xFF000000 | map(red) << 16 | map(green) << 8 | map(blue);
+  }
+  
+  /**
+   *  Map a component to 8 bits.
+   */
+  private int map(float value)
+  {
+    value *= this.scale;
+    if (this.compress && value > 0)
+    {
+      value = value / (1 + value);
+    }
+    value = Colour.clamp(value);
+    
+    return this.srgb ? this.table[(int) (value * (TABLE_SIZE - 1) + 0.5f)] : (int) (0xFF * value);
+  }
+  
+  /**
+   *  Get the exposure, in stops.
+   */
+  public double getExposure()
+  {
+    return this.exposure;
+  }
+  
+  /**
+   *  Is brightness compressed with the Reinhard operator?
+   */
+  public boolean isCompressing()
+  {
+    return this.compress;
+  }
+  
+  /**
+   *  Is output encoded with the sRGB curve?
+   */
+  public boolean isSRGB()
+  {
+    return this.srgb;
+  }
+}
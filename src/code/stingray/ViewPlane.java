@@ -0,0 +1,154 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray;
+
+
+/**
+ *  The view plane through which primary rays are cast. <p>
+ *
+ *  The basis of the viewplane is this: caculations are done with the camera at the origin.
+ *  The centre point of the viewplane is (width / 2) units in the positive Z direction.
+ *  We calculate where each pixel would be on this viewplane, and then rotate based on the
+ *  look at point.
+ */
+public final class ViewPlane
+{
+  /** Camera. */
+  private final Camera camera;
+
+  /** Bottom left corner of the virtual viewplane. */
+  private final Vector virtualBottomLeft;
+
+  /** Rotation around the X axis. */
+  private final double yangle;
+
+  /** Rotation around the Y axis. */
+  private final double xzangle;
+
+  /**
+   *  Constructor.
+   *  @param camera The camera.
+   *  @param width The width, in pixels.
+   *  @param height The height, in pixels.
+   */
+  public ViewPlane(Camera camera, int width, int height)
+  {
+    this.camera = camera;
+
+    final Vector virtualCentre = new Vector(0, 0, width / 2);
+    this.virtualBottomLeft = virtualCentre.subtract(new Vector(width / 2, height / 2, 0));
+
+    final Vector xzdir = new Vector(camera.getDirection().getX(),
+                                    0,
+                                    camera.getDirection().getZ()).normalise();
+    this.xzangle = Math.acos(xzdir.dot(Vector.Z_NORMAL));
+
+    final Vector ydir = new Vector(0,
+                                   camera.getDirection().getY(),
+                                   camera.getDirection().getZ()).normalise();
+    this.yangle = Math.acos(ydir.dot(Vector.Z_NORMAL));
+  }
+
+  /**
+   *  Get the primary ray for the given pixel.
+   *  @param x The pixel's x coordinate.
+   *  @param y The pixel's y coordinate.
+   *  @return The ray from the camera through the pixel.
+   */
+  public Ray getRay(double x, double y)
+  {
+    final Vector dir1;
+    final Vector dir2;
+    final Vector dir3;
+
+    dir1 = virtualBottomLeft.add(new Vector(x, y, 0));
+    dir2 = dir1.rotate(Vector.X_NORMAL, yangle);
+    dir3 = dir2.rotate(Vector.Y_NORMAL, xzangle);
+
+    return new Ray(camera.getPosition(), dir3);
+  }
+
+  /**
+   *  Get the angle subtended by a pixel at the centre of the view plane.  Surface seen
+   *  through a pixel at distance <i>d</i> is about <i>d</i> times this wide.
+   *  @return The angle, in radians.
+   */
+  public double getPixelSpread()
+  {
+    return 1.0d / virtualBottomLeft.getZ();
+  }
+
+  /**
+   *  Project a point onto the view plane: the inverse of <code>getRay</code>.
+   *  @param point The point.
+   *  @return The pixel coordinates (x, y) of the primary ray through the point, or null if
+   *          the point is not in front of the camera.
+   */
+  public double[] project(Vector point)
+  {
+    final Vector dir3 = point.subtract(camera.getPosition());
+    final Vector dir2 = dir3.rotate(Vector.Y_NORMAL, -xzangle);
+    final Vector dir1 = dir2.rotate(Vector.X_NORMAL, -yangle);
+
+    if (! (dir1.getZ() > 0))
+    {
+      return null;
+    }
+
+    final double scale = virtualBottomLeft.getZ() / dir1.getZ();
+    return new double[] { dir1.getX() * scale - virtualBottomLeft.getX(),
+                          dir1.getY() * scale - virtualBottomLeft.getY() };
+  }
+
+  /**
+   *  Get the planes bounding the primary rays through a rectangle of the view plane.  Primary
+   *  ray directions depend linearly on pixel coordinates, so the rays through the rectangle
+   *  fill a pyramid with its apex at the camera, bounded by four planes through the camera.
+   *  @param x0 The left edge.
+   *  @param y0 The bottom edge.
+   *  @param x1 The right edge.
+   *  @param y1 The top edge.
+   *  @return The unit normals of the four planes, each pointing into the pyramid.
+   */
+  public Vector[] getFrustumNormals(double x0, double y0, double x1, double y1)
+  {
+    final Vector[] corners = { getRay(x0, y0).getDirection(),
+                               getRay(x1, y0).getDirection(),
+                               getRay(x1, y1).getDirection(),
+                               getRay(x0, y1).getDirection() };
+    final Vector centre = getRay((x0 + x1) / 2, (y0 + y1) / 2).getDirection();
+    final Vector[] normals = new Vector[4];
+
+    for (int i = 0; i < 4; i++)
+    {
+      final Vector n = corners[i].cross(corners[(i + 1) % 4]).normalise();
+      normals[i] = (n.dot(centre) < 0) ? n.scale(-1) : n;
+    }
+
+    return normals;
+  }
+}
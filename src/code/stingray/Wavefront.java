@@ -0,0 +1,448 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray;
+
+import java.util.*;
+
+import stingray.geometry.*;
+import stingray.texture.*;
+
+
+/**
+ *  A wavefront renderer: an alternative to tracing each pixel depth first. <p>
+ *  
+ *  Rays are traced a generation at a time.  The primary rays of every pixel are queued, sorted
+ *  and traced in large batches across the render threads.  Each hit is then either mirrored,
+ *  queuing a reflection ray for the next generation, or queues a shadow ray for each of its
+ *  candidate lights.  The shadow rays are sorted and traced in batches in turn, and the hits
+ *  shaded from the results.  This repeats for the reflection rays until none remain. <p>
+ *  
+ *  The rays, lights and shading arithmetic are those of the recursive renderer, so the image
+ *  is the same.  Hits whose lights are sampled (by the shadow ray budget, or across area
+ *  lights) adapt their shadow rays to earlier results, so they are shadow tested as they are
+ *  shaded instead.
+ */
+final class Wavefront
+{
+  /** Rays are traced and shaded in batches of this many, taken by the render threads. */
+  private static final int BATCH = 4096;
+  
+  /** Stage. */
+  private final Stage stage;
+  
+  /** View plane. */
+  private final ViewPlane view;
+  
+  /** Image width, in pixels. */
+  private final int width;
+  
+  /** Tile size and number of tiles across the image, for finding tile candidate lights. */
+  private final int tileSize;
+  private final int across;
+  
+  /** Candidate lights by tile (or null when rendering single tiles, whose context holds them). */
+  private final List<List<Light>> tileLights;
+  
+  /**
+   *  Constructor.
+   */
+  Wavefront(Stage stage, ViewPlane view, int width, int tileSize, int across, List<List<Light>> tileLights)
+  {
+    this.stage = stage;
+    this.view = view;
+    this.width = width;
+    this.tileSize = tileSize;
+    this.across = across;
+    this.tileLights = tileLights;
+  }
+  
+  /**
+   *  Render the image.
+   *  @param statistics The statistics to merge into.
+   *  @param dependencies The record to keep of each tile's secondary rays.
+   *  @param r The rendering to fill.
+   *  @param height The image height, in pixels.
+   */
+  void render(Statistics statistics, TileDependencies dependencies, final Rendering r, int height)
+  {
+    RayQueue rays = new RayQueue();
+    
+    for (int y = 0; y < height; y++)
+    {
+      for (int x = 0; x < this.width; x++)
+      {
+        rays.add(this.view.getRay(x, y), Double.POSITIVE_INFINITY, y * this.width + x, null);
+      }
+    }
+    
+    for (int depth = 0; rays.size() > 0; depth++)
+    {
+      rays = trace(statistics, dependencies, r, rays, depth, null);
+    }
+  }
+  
+  /**
+   *  Render a tile on the calling thread.  The tile's primary rays are traced in pixel order,
+   *  and each later generation of rays, and the shadow rays, are sorted along a Morton curve
+   *  through their origins and directions before they are traced.
+   *  @param context The render context, with the tile's candidate lights set.
+   *  @param r The rendering to fill.
+   */
+  void renderTile(RenderContext context, Rendering r, int x0, int y0, int x1, int y1)
+  {
+    RayQueue rays = new RayQueue();
+    
+    for (int x = x0; x < x1; x++)
+    {
+      for (int y = y0; y < y1; y++)
+      {
+        rays.add(this.view.getRay(x, y), Double.POSITIVE_INFINITY, y * this.width + x, null);
+      }
+    }
+    
+    for (int depth = 0; rays.size() > 0; depth++)
+    {
+      rays = trace(context.getStatistics(), null, r, rays, depth, context);
+    }
+  }
+  
+  /**
+   *  Trace and shade a generation of rays.
+   *  @param context The render context to trace on the calling thread with, or null to trace
+   *                 across the render threads.
+   *  @return The next generation: the reflection rays.
+   */
+  private RayQueue trace(Statistics statistics, TileDependencies dependencies, final Rendering r, 
+                         final RayQueue rays, final int depth, RenderContext context)
+  {
+    if (context == null)
+    {
+      rays.sort();
+    }
+    else if (depth > 0)
+    {
+      rays.sortByOriginAndDirection();
+    }
+    rays.clearResults();
+    
+    final int batches = (rays.size() + BATCH - 1) / BATCH;
+    final Batch[] outputs = new Batch[batches];
+    
+    run(statistics, dependencies, batches, context, new Stage.Job()  // extend and mirror
+    {
+      @Override
+      public void run(RenderContext context, int batch)
+      {
+        outputs[batch] = extend(context, r, rays, depth, batch * BATCH, Math.min(rays.size(), (batch + 1) * BATCH));
+      }
+    });
+    
+    final RayQueue shadows = new RayQueue();
+    final RayQueue reflections = new RayQueue();
+    final int[] offsets = new int[batches];
+    
+    for (int b = 0; b < batches; b++)
+    {
+      offsets[b] = shadows.size();
+      shadows.addAll(outputs[b].shadows);
+      reflections.addAll(outputs[b].reflections);
+    }
+    
+    if (context == null)
+    {
+      shadows.sort();
+    }
+    else
+    {
+      shadows.sortByOriginAndDirection();
+    }
+    shadows.clearResults();
+    
+    final int shadowBatches = (shadows.size() + BATCH - 1) / BATCH;
+    
+    run(statistics, dependencies, shadowBatches, context, new Stage.Job()   // shadow test
+    {
+      @Override
+      public void run(RenderContext context, int batch)
+      {
+        for (int i = batch * BATCH; i < Math.min(shadows.size(), (batch + 1) * BATCH); i++)
+        {
+          context.setTile(getTile(context, shadows.getPixel(i)));
+          context.getStatistics().incShadowRaysCast();
+          shadows.setBlocked(i, Wavefront.this.stage.isOccluded(context, shadows.getLight(i), shadows.getRay(i), shadows.getLimit(i)));
+        }
+      }
+    });
+    
+    run(statistics, dependencies, batches, context, new Stage.Job()  // shade
+    {
+      @Override
+      public void run(RenderContext context, int batch)
+      {
+        shade(context, r, rays, shadows, outputs[batch], offsets[batch], depth);
+      }
+    });
+    
+    return reflections;
+  }
+  
+  /**
+   *  Run jobs on the given render context, or across the render threads if there is none.
+   */
+  private void run(Statistics statistics, TileDependencies dependencies, int jobs, RenderContext context, Stage.Job job)
+  {
+    if (context == null)
+    {
+      this.stage.runWorkers(statistics, dependencies, jobs, job);
+    }
+    else
+    {
+      for (int i = 0; i < jobs; i++)
+      {
+        job.run(context, i);
+      }
+    }
+  }
+  
+  /**
+   *  Find the closest hits of a batch of rays.  Mirrored hits queue their reflections, and
+   *  others their shadow rays; pixels whose rays miss, or are reflected too often, are black.
+   *  @return The batch's hits and rays.
+   */
+  private Batch extend(RenderContext context, Rendering r, RayQueue rays, int depth, int start, int end)
+  {
+    final Batch batch = new Batch();
+    
+    for (int i = start; i < end; i++)
+    {
+      final Ray ray = rays.getRay(i);
+      final int pixel = rays.getPixel(i);
+      final IntersectionList intersections = context.getIntersections(depth, ray);
+      
+      this.stage.intersect(context, ray, intersections);
+      if (depth == 0)
+      {
+        context.getStatistics().incRaysCast();
+      }
+      else
+      {
+        context.getStatistics().incReflectionRaysCast();
+        context.setTile(getTile(context, pixel));
+        context.recordSecondaryRay(ray, intersections.closestLength());
+      }
+      
+      if (intersections.isEmpty())
+      {
+        r.set(pixel % this.width, pixel / this.width, Colour.BLACK);
+        continue;
+      }
+      
+      final Intersection hit = intersections.closest();
+      final Geometry g = hit.getGeometry();
+      final Vector point = hit.asVector();
+      final Vector normal = g.getSurfaceNormal(hit);
+      final SimpleTexture sample = g.getTexture().getTextureAt(point);
+      final Finish finish = sample.getFinish();
+      
+      rays.setHit(i, g, hit.getLength());
+      
+      if (finish.getReflection() > 0)                                // mirrored
+      {
+        if (depth + 1 > Stage.MAX_RECURSE)
+        {
+          r.set(pixel % this.width, pixel / this.width, Colour.BLACK);
+        }
+        else
+        {
+          batch.reflections.add(new Ray(point, ray.getDirection().getReflectedDirection(normal)), 
+                                Double.POSITIVE_INFINITY, pixel, null);
+        }
+        continue;
+      }
+      
+      final List<Light> tile = (depth == 0) ? getTileLights(context, pixel) : null;
+      final List<Light> candidates = (tile != null) ? tile : this.stage.getLights();
+      final boolean sampled = this.stage.getShadowRayBudget() > 0 && candidates.size() > this.stage.getShadowRayBudget();
+      final int shadowStart = batch.shadows.size();
+      boolean adaptive = sampled;
+      
+      for (int l = 0; l < candidates.size() && ! adaptive; l++)
+      {
+        final Light light = candidates.get(l);
+        final Vector direction = light.getPosition().subtract(point);
+        final double distance = direction.length();
+        
+        if (light.isArea())
+        {
+          adaptive = true;
+        }
+        else if (distance <= light.getRadius())
+        {
+          batch.shadows.add(new Ray(point, direction), distance, pixel, light);
+        }
+      }
+      
+      if (adaptive)                                                  // shadow test as it is shaded
+      {
+        batch.shadows.truncate(shadowStart);
+      }
+      batch.add(i, normal, sample.getPigment().getColourAt(point, context.getFootprint(hit, normal)), finish, adaptive ? -1 : shadowStart, batch.shadows.size());
+    }
+    
+    return batch;
+  }
+  
+  /**
+   *  Shade a batch of hits from the results of their shadow rays.
+   */
+  private void shade(RenderContext context, Rendering r, RayQueue rays, RayQueue shadows, Batch batch, int offset, int depth)
+  {
+    for (int h = 0; h < batch.size; h++)
+    {
+      final int i = batch.rays[h];
+      final int pixel = rays.getPixel(i);
+      final Ray ray = rays.getRay(i);
+      final Intersection hit = new Intersection(ray, rays.getHit(i), rays.getLength(i));
+      final Illumination illumination;
+      
+      context.setPixel(pixel % this.width, pixel / this.width, r.getSamples(pixel % this.width, pixel / this.width));
+      
+      if (batch.shadowStarts[h] < 0)
+      {
+        context.setTile(getTile(context, pixel));
+        context.setTileLights(depth == 0 ? getTileLights(context, pixel) : null);
+        illumination = Rays.getIllumination(context, depth, hit.asVector());
+      }
+      else
+      {
+        illumination = context.getIllumination(depth);
+        for (int s = batch.shadowStarts[h]; s < batch.shadowEnds[h]; s++)
+        {
+          final int k = shadows.getRank(offset + s);
+          final Light light = shadows.getLight(k);
+          final double distance = shadows.getLimit(k);
+          
+          illumination.add(light, shadows.getRay(k).getDirection(), distance, ! shadows.isBlocked(k), light.getAttenuation(distance));
+        }
+      }
+      
+      final ColourAccumulator colour = context.getColourAccumulator();
+      
+      Lighting.shade(hit, 
+                     batch.getNormal(h), 
+                     illumination, 
+                     batch.pigments[h * 3], 
+                     batch.pigments[h * 3 + 1], 
+                     batch.pigments[h * 3 + 2], 
+                     batch.finishes[h], 
+                     colour);
+      r.set(pixel % this.width, pixel / this.width, colour);
+    }
+  }
+  
+  /**
+   *  Get the tile containing a pixel.
+   */
+  private int getTile(RenderContext context, int pixel)
+  {
+    if (this.tileLights == null)                                     // rendering a single tile
+    {
+      return context.getTile();
+    }
+    
+    return ((pixel / this.width) / this.tileSize) * this.across + (pixel % this.width) / this.tileSize;
+  }
+  
+  /**
+   *  Get the candidate lights for a pixel's primary hit.
+   *  @return The candidate lights, or null if every light is a candidate.
+   */
+  private List<Light> getTileLights(RenderContext context, int pixel)
+  {
+    return (this.tileLights == null) ? context.getTileLights() : this.tileLights.get(getTile(context, pixel));
+  }
+  
+  /**
+   *  The output of extending a batch of rays: the hits to shade, with their texture samples
+   *  and the range of their shadow rays, and the rays for the next stages.
+   */
+  private static final class Batch
+  {
+    /** Shadow rays, contiguous for each hit. */
+    final RayQueue shadows = new RayQueue();
+    
+    /** Reflection rays. */
+    final RayQueue reflections = new RayQueue();
+    
+    /** Index of each hit's ray. */
+    int[] rays = new int[16];
+    
+    /** Surface normals, three components per hit. */
+    double[] normals = new double[16 * 3];
+    
+    /** Texture samples: pigment colours, three components per hit, and finishes. */
+    float[] pigments = new float[16 * 3];
+    Finish[] finishes = new Finish[16];
+    
+    /** Range of each hit's shadow rays (or a start of -1 if they are cast as it is shaded). */
+    int[] shadowStarts = new int[16];
+    int[] shadowEnds = new int[16];
+    
+    /** Number of hits. */
+    int size;
+    
+    void add(int ray, Vector normal, Colour pigment, Finish finish, int shadowStart, int shadowEnd)
+    {
+      if (this.size == this.rays.length)
+      {
+        this.rays = Arrays.copyOf(this.rays, this.size * 2);
+        this.normals = Arrays.copyOf(this.normals, this.size * 2 * 3);
+        this.pigments = Arrays.copyOf(this.pigments, this.size * 2 * 3);
+        this.finishes = Arrays.copyOf(this.finishes, this.size * 2);
+        this.shadowStarts = Arrays.copyOf(this.shadowStarts, this.size * 2);
+        this.shadowEnds = Arrays.copyOf(this.shadowEnds, this.size * 2);
+      }
+      
+      this.rays[this.size] = ray;
+      this.normals[this.size * 3    ] = normal.getX();
+      this.normals[this.size * 3 + 1] = normal.getY();
+      this.normals[this.size * 3 + 2] = normal.getZ();
+      this.pigments[this.size * 3    ] = pigment.getRed();
+      this.pigments[this.size * 3 + 1] = pigment.getGreen();
+      this.pigments[this.size * 3 + 2] = pigment.getBlue();
+      this.finishes[this.size] = finish;
+      this.shadowStarts[this.size] = shadowStart;
+      this.shadowEnds[this.size] = shadowEnd;
+      this.size++;
+    }
+    
+    Vector getNormal(int h)
+    {
+      return new Vector(this.normals[h * 3], this.normals[h * 3 + 1], this.normals[h * 3 + 2]);
+    }
+  }
+}
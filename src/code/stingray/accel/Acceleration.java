@@ -0,0 +1,66 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.accel;
+
+import java.util.*;
+
+import stingray.geometry.*;
+
+
+/**
+ *  The available acceleration structures.  Which performs best depends on the scene; the
+ *  <code>AcceleratorBenchmark</code> can be used to compare them.
+ */
+public enum Acceleration
+{
+  /** Bounding volume hierarchy; a good default for most scenes. */
+  BVH
+  {
+    @Override
+    public Accelerator build(List<Geometry> geometry)
+    {
+      return Bvh.build(geometry);
+    }
+  },
+
+  /** Uniform grid; often faster for dense scenes of similarly sized objects. */
+  GRID
+  {
+    @Override
+    public Accelerator build(List<Geometry> geometry)
+    {
+      return Grid.build(geometry);
+    }
+  };
+
+  /**
+   *  Build the acceleration structure.
+   *  @param geometry The geometry, which must all be bounded.
+   *  @return The structure.
+   */
+  public abstract Accelerator build(List<Geometry> geometry);
+}
@@ -0,0 +1,60 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.accel;
+
+import stingray.*;
+
+
+/**
+ *  An acceleration structure, which reduces the number of ray/geometry intersection
+ *  tests required to find what a ray hits. <p>
+ *
+ *  An acceleration structure only holds bounded geometry; unbounded geometry (such as
+ *  planes) is tested directly by the stage.
+ */
+public interface Accelerator
+{
+  /**
+   *  Test for ray intersections against the geometry in the structure, adding them to the
+   *  intersection list.  Only intersections closer than the closest intersection already
+   *  in the list are guaranteed to be found.
+   *  @param traversal Scratch storage for the traversal.
+   *  @param ray The ray.
+   *  @param intersections The intersection list.
+   */
+  public void intersect(Traversal traversal, Ray ray, IntersectionList intersections);
+
+  /**
+   *  Does any geometry in the structure intersect the ray no further than the given length
+   *  down the ray?  If so, the object found is recorded as the traversal's occluder.
+   *  @param traversal Scratch storage for the traversal.
+   *  @param ray The ray.
+   *  @param length The length down the ray to consider.
+   *  @return True if an intersection was found.
+   */
+  public boolean occluded(Traversal traversal, Ray ray, double length);
+}
@@ -0,0 +1,288 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.accel;
+
+import java.io.*;
+import java.util.*;
+
+import javax.script.*;
+
+import stingray.*;
+import stingray.Vector;
+import stingray.geometry.*;
+import stingray.texture.*;
+
+
+/**
+ *  Compares acceleration structures by tracing the primary rays of a scene; the object graph
+ *  BVH is included as a baseline for the flattened one. <p>
+ *
+ *  Usage: <code>AcceleratorBenchmark [scene.sray ...]</code>.  Each named scene is loaded
+ *  (when a JavaScript engine is available), followed by a synthetic scene of one million
+ *  small spheres.
+ */
+public final class AcceleratorBenchmark
+{
+  /** Image size, in pixels. */
+  private static final int SIZE = 400;
+
+  /** Number of timed passes over the image. */
+  private static final int PASSES = 5;
+
+  /** Number of spheres in the synthetic scene. */
+  private static final int SPHERES = 1000000;
+
+  /**
+   *  Main method.
+   *  @param args Scene files to load.
+   */
+  public static void main(String[] args) throws Exception
+  {
+    for (String filename : args)
+    {
+      final Stage stage = load(new File(filename));
+
+      if (stage != null)
+      {
+        run(filename, stage);
+      }
+    }
+
+    run("synthetic (" + SPHERES + " spheres)", spheres(SPHERES));
+  }
+
+  /**
+   *  Benchmark each structure against the given stage.
+   */
+  private static void run(String name, Stage stage)
+  {
+    final List<Geometry> bounded = new ArrayList<Geometry>();
+    for (Geometry g : stage.getGeometry())
+    {
+      if (g.getBounds() != null)
+      {
+        bounded.add(g);
+      }
+    }
+
+    final Ray[] rays = new Ray[SIZE * SIZE];
+    final ViewPlane view = new ViewPlane(stage.getCamera(), SIZE, SIZE);
+    for (int i = 0; i < rays.length; i++)
+    {
+      rays[i] = view.getRay(i % SIZE, i / SIZE);
+    }
+
+    System.out.println(name + ": " + bounded.size() + " bounded objects");
+
+    long start = System.nanoTime();
+    final Accelerator object = ObjectBvh.build(bounded);
+    report("object graph BVH build", System.nanoTime() - start, 0);
+
+    time("object graph BVH", object, rays);
+
+    for (Acceleration acceleration : Acceleration.values())
+    {
+      start = System.nanoTime();
+      final Accelerator accelerator = acceleration.build(bounded);
+      report(acceleration + " build", System.nanoTime() - start, 0);
+      time(acceleration.toString(), accelerator, rays);
+
+      if (accelerator instanceof PacketAccelerator)
+      {
+        time(acceleration + " 4x4 packets", (PacketAccelerator) accelerator, stage.getCamera().getPosition(), rays, 4);
+        time(acceleration + " 8x8 packets", (PacketAccelerator) accelerator, stage.getCamera().getPosition(), rays, 8);
+      }
+    }
+  }
+
+  /**
+   *  Time closest hit tracing of the rays, after an untimed warm up pass.
+   */
+  private static void time(String name, Accelerator accelerator, Ray[] rays)
+  {
+    trace(accelerator, rays);
+
+    final long start = System.nanoTime();
+    double checksum = 0;
+    for (int pass = 0; pass < PASSES; pass++)
+    {
+      checksum = trace(accelerator, rays);
+    }
+
+    report(name + String.format(" (checksum %.3f)", checksum), System.nanoTime() - start, (long) rays.length * PASSES);
+  }
+
+  /**
+   *  Time closest hit tracing of the rays in square packets, after an untimed warm up pass.
+   */
+  private static void time(String name, PacketAccelerator accelerator, Vector origin, Ray[] rays, int size)
+  {
+    trace(accelerator, origin, rays, size);
+
+    final long start = System.nanoTime();
+    double checksum = 0;
+    for (int pass = 0; pass < PASSES; pass++)
+    {
+      checksum = trace(accelerator, origin, rays, size);
+    }
+
+    report(name + String.format(" (checksum %.3f)", checksum), System.nanoTime() - start, (long) rays.length * PASSES);
+  }
+
+  /**
+   *  Trace the rays in square packets, falling back to single rays for incoherent packets.
+   *  @return The sum of the closest hit lengths.
+   */
+  private static double trace(PacketAccelerator accelerator, Vector origin, Ray[] rays, int size)
+  {
+    final RayPacket packet = new RayPacket(size * size);
+    final Traversal traversal = new Traversal();
+    double checksum = 0;
+
+    for (int x0 = 0; x0 < SIZE; x0 += size)
+    {
+      for (int y0 = 0; y0 < SIZE; y0 += size)
+      {
+        packet.reset(origin);
+        for (int y = y0; y < Math.min(y0 + size, SIZE); y++)
+        {
+          for (int x = x0; x < Math.min(x0 + size, SIZE); x++)
+          {
+            packet.add(rays[y * SIZE + x]);
+          }
+        }
+
+        if (packet.isCoherent())
+        {
+          accelerator.intersect(traversal, packet);
+        }
+        else
+        {
+          for (int i = 0; i < packet.size(); i++)
+          {
+            accelerator.intersect(traversal, packet.getRay(i), packet.getIntersections(i));
+          }
+        }
+
+        for (int i = 0; i < packet.size(); i++)
+        {
+          if (! packet.getIntersections(i).isEmpty())
+          {
+            checksum += packet.getIntersections(i).closestLength();
+          }
+        }
+      }
+    }
+
+    return checksum;
+  }
+
+  /**
+   *  Trace the rays.
+   *  @return The sum of the closest hit lengths, to compare results across structures.
+   */
+  private static double trace(Accelerator accelerator, Ray[] rays)
+  {
+    final Traversal traversal = new Traversal();
+    final IntersectionList intersections = new IntersectionList(null);
+    double checksum = 0;
+
+    for (Ray ray : rays)
+    {
+      intersections.reset(ray);
+      accelerator.intersect(traversal, ray, intersections);
+
+      if (! intersections.isEmpty())
+      {
+        checksum += intersections.closestLength();
+      }
+    }
+
+    return checksum;
+  }
+
+  private static void report(String what, long nanos, long rays)
+  {
+    if (rays > 0)
+    {
+      System.out.println(String.format("  %-40s %9.1f ms  %6.2f Mrays/s", what, nanos / 1e6, rays / (nanos / 1e3)));
+    }
+    else
+    {
+      System.out.println(String.format("  %-40s %9.1f ms", what, nanos / 1e6));
+    }
+  }
+
+  /**
+   *  Load a scene.
+   *  @return The stage, or null if it could not be loaded.
+   */
+  private static Stage load(File file) throws IOException
+  {
+    final Reader in = new InputStreamReader(new FileInputStream(file), "UTF-8");
+    try
+    {
+      return SceneScript.evaluate(in);
+    }
+    catch (ScriptException ex)
+    {
+      System.out.println(file + ": skipped (" + ex + ")");
+      return null;
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+
+  /**
+   *  Build a stage filled with randomly placed, similarly sized spheres.
+   *  @param count The number of spheres.
+   *  @return The stage.
+   */
+  static Stage spheres(int count)
+  {
+    final Random random = new Random(42);
+    final Texture texture = new SimpleTexture(new SolidPigment(Colour.WHITE), new Finish(0.1, 0.6, 50, 0.0));
+    final Stage stage = new Stage(new Camera(new Vector(0, 0, -1500), new Vector(0, 0, 0)));
+
+    for (int i = 0; i < count; i++)
+    {
+      stage.addGeometry(new Sphere(new Vector(random.nextDouble() * 1000 - 500,
+                                              random.nextDouble() * 1000 - 500,
+                                              random.nextDouble() * 1000 - 500),
+                                   1 + random.nextDouble(),
+                                   texture));
+    }
+
+    stage.addLight(new Light(new Vector(-1000, 1000, -1000), Colour.WHITE));
+    return stage;
+  }
+
+  /** Private constructor. */
+  private AcceleratorBenchmark() { ; }
+}
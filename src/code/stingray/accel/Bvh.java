@@ -0,0 +1,419 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.accel;
+
+import java.util.*;
+
+import stingray.*;
+import stingray.Vector;
+import stingray.geometry.*;
+
+
+/**
+ *  A bounding volume hierarchy, flattened into primitive arrays. <p>
+ *
+ *  Nodes are stored in depth first order, so the first child of a node immediately
+ *  follows it.  Each node occupies six floats of bounds (min x, y, z then max x, y, z),
+ *  which are rounded outwards from the geometry's double precision bounds, and two ints:
+ *  <ul>
+ *    <li>for a leaf, the index of its first primitive; for an interior node, the index
+ *        of its second child; and</li>
+ *    <li>the primitive count shifted left by two, combined with the split axis.  A count
+ *        of zero marks an interior node.</li>
+ *  </ul>
+ *  Traversal uses a small fixed size stack, and descends into the child nearest the ray
+ *  origin first, so the closest hit found so far can cull the far child. <p>
+ *
+ *  Coherent packets traverse together.  A node is culled for the whole packet if interval
+ *  arithmetic over the packet's directions shows no ray can hit it; otherwise the packet
+ *  descends from the first ray that does hit it, and rays before that one are skipped for
+ *  the subtree.
+ */
+public final class Bvh implements PacketAccelerator
+{
+  /** Traversal stack size (must exceed the maximum tree depth). */
+  static final int STACK_SIZE = 64;
+
+  /** Primitives, in leaf order. */
+  private final Geometry[] primitives;
+
+  /** Node bounds, six per node. */
+  private final float[] bounds;
+
+  /** Node offsets and counts, two per node. */
+  private final int[] nodes;
+
+  /**
+   *  Build a hierarchy over the given geometry.
+   *  @param geometry The geometry, which must all be bounded.
+   *  @return The hierarchy.
+   */
+  public static Bvh build(List<Geometry> geometry)
+  {
+    final BvhBuilder builder = new BvhBuilder(geometry);
+    final BvhNode root = builder.build();
+
+    return new Bvh(root, builder.getOrderedGeometry());
+  }
+
+  /**
+   *  Constructor; flattens the given tree.
+   *  @param root The root node, or null for an empty hierarchy.
+   *  @param primitives The primitives, in the order referenced by the leaves.
+   */
+  Bvh(BvhNode root, Geometry[] primitives)
+  {
+    final int size = (root == null) ? 0 : root.size();
+
+    this.primitives = primitives;
+    this.bounds = new float[size * 6];
+    this.nodes = new int[size * 2];
+
+    if (root != null)
+    {
+      flatten(root, 0);
+    }
+  }
+
+  /**
+   *  Write the subtree at the given node index.
+   *  @return The index following the last node of the subtree.
+   */
+  private int flatten(BvhNode node, int index)
+  {
+    final Bounds b = node.getBounds();
+
+    for (int axis = 0; axis < 3; axis++)
+    {
+      bounds[index * 6 + axis] = roundDown(b.getMin(axis));
+      bounds[index * 6 + 3 + axis] = roundUp(b.getMax(axis));
+    }
+
+    if (node.isLeaf())
+    {
+      nodes[index * 2] = node.getFirst();
+      nodes[index * 2 + 1] = node.getCount() << 2;
+      return index + 1;
+    }
+    else
+    {
+      final int second = flatten(node.getLeft(), index + 1);
+
+      nodes[index * 2] = second;
+      nodes[index * 2 + 1] = node.getAxis();
+      return flatten(node.getRight(), second);
+    }
+  }
+
+  /**
+   *  Get the number of nodes.
+   */
+  public int getNodeCount()
+  {
+    return this.nodes.length / 2;
+  }
+
+  /**
+   *  Test for ray intersections against the geometry in the structure, adding them to the
+   *  intersection list.
+   *  @param traversal Scratch storage for the traversal.
+   *  @param ray The ray.
+   *  @param intersections The intersection list.
+   */
+  public void intersect(Traversal traversal, Ray ray, IntersectionList intersections)
+  {
+    traverse(traversal, ray, intersections, intersections.closestLength(), false);
+  }
+
+  /**
+   *  Does any geometry in the structure intersect the ray no further than the given length?
+   *  @param traversal Scratch storage for the traversal.
+   *  @param ray The ray.
+   *  @param length The length down the ray to consider.
+   *  @return True if an intersection was found.
+   */
+  public boolean occluded(Traversal traversal, Ray ray, double length)
+  {
+    return traverse(traversal, ray, traversal.hits(ray), length, true);
+  }
+
+  /**
+   *  Walk the hierarchy.
+   *  @param traversal Scratch storage for the traversal.
+   *  @param ray The ray.
+   *  @param intersections The intersection list to populate.
+   *  @param limit Nodes further down the ray than this are skipped.
+   *  @param any Stop at the first intersection within the limit?
+   *  @return True if stopped early because an intersection was found (in which case the
+   *          primitive found is recorded as the traversal's occluder).
+   */
+  private boolean traverse(Traversal traversal, Ray ray, IntersectionList intersections, double limit, boolean any)
+  {
+    if (nodes.length == 0)
+    {
+      return false;
+    }
+
+    final Vector origin = ray.getOrigin();
+    final Vector direction = ray.getDirection();
+    final double ox = origin.getX();
+    final double oy = origin.getY();
+    final double oz = origin.getZ();
+    final double ix = 1.0d / direction.getX();
+    final double iy = 1.0d / direction.getY();
+    final double iz = 1.0d / direction.getZ();
+    final int[] stack = traversal.stack;
+    int sp = 0;
+    int node = 0;
+
+    while (true)
+    {
+      if (hits(node, ox, oy, oz, ix, iy, iz, limit))
+      {
+        final int offset = nodes[node * 2];
+        final int meta = nodes[node * 2 + 1];
+        final int count = meta >>> 2;
+
+        if (count > 0)                                               // leaf: test the primitives
+        {
+          for (int i = offset; i < offset + count; i++)
+          {
+            primitives[i].intersect(ray, intersections);
+
+            if (any && intersections.closestLength() <= limit)
+            {
+              traversal.occluder = primitives[i];
+              return true;
+            }
+          }
+
+          if (! any)
+          {
+            limit = intersections.closestLength();                   // cull anything further away
+          }
+        }
+        else                                                         // interior: visit the near child first
+        {
+          final boolean negative;
+
+          switch (meta & 3)
+          {
+            case 0:  negative = ix < 0; break;
+            case 1:  negative = iy < 0; break;
+            default: negative = iz < 0; break;
+          }
+
+          if (negative)
+          {
+            stack[sp++] = node + 1;
+            node = offset;
+          }
+          else
+          {
+            stack[sp++] = offset;
+            node = node + 1;
+          }
+          continue;
+        }
+      }
+
+      if (sp == 0)
+      {
+        return false;
+      }
+      node = stack[--sp];
+    }
+  }
+
+  /**
+   *  Test for ray intersections for every ray in the packet.
+   *  @param traversal Scratch storage for the traversal.
+   *  @param packet The packet, which must be coherent.
+   */
+  public void intersect(Traversal traversal, RayPacket packet)
+  {
+    if (nodes.length == 0)
+    {
+      return;
+    }
+
+    final int n = packet.size();
+    final double[] ix = packet.ix;
+    final double[] iy = packet.iy;
+    final double[] iz = packet.iz;
+    final double[] limits = traversal.limits(n);
+    final Vector origin = packet.getOrigin();
+    final double ox = origin.getX();
+    final double oy = origin.getY();
+    final double oz = origin.getZ();
+    final double[] o = { ox, oy, oz };
+    final boolean[] negative = { ix[0] < 0, iy[0] < 0, iz[0] < 0 };  // the packet is coherent, so any ray will do
+    final int[] stack = traversal.stack;
+    final int[] firsts = traversal.firsts;
+    double limit = 0;                                                // furthest limit over the packet
+    int sp = 0;
+    int node = 0;
+    int first = 0;                                                   // first ray that may hit the node
+
+    for (int r = 0; r < n; r++)
+    {
+      limits[r] = packet.getIntersections(r).closestLength();
+      limit = Math.max(limit, limits[r]);
+    }
+
+    while (true)
+    {
+      if (! culled(node, packet.inverseRange, o, limit))
+      {
+        while (first < n && ! hits(node, ox, oy, oz, ix[first], iy[first], iz[first], limits[first]))
+        {
+          first++;                                                   // find the first active ray
+        }
+
+        if (first < n)
+        {
+          final int offset = nodes[node * 2];
+          final int meta = nodes[node * 2 + 1];
+          final int count = meta >>> 2;
+
+          if (count > 0)                                             // leaf: test the active rays
+          {
+            limit = 0;
+            for (int r = 0; r < n; r++)
+            {
+              if (r >= first && hits(node, ox, oy, oz, ix[r], iy[r], iz[r], limits[r]))
+              {
+                final IntersectionList intersections = packet.getIntersections(r);
+
+                for (int i = offset; i < offset + count; i++)
+                {
+                  primitives[i].intersect(packet.getRay(r), intersections);
+                }
+                limits[r] = intersections.closestLength();
+              }
+              limit = Math.max(limit, limits[r]);
+            }
+          }
+          else                                                       // interior: visit the near child first
+          {
+            firsts[sp] = first;
+            if (negative[meta & 3])
+            {
+              stack[sp++] = node + 1;
+              node = offset;
+            }
+            else
+            {
+              stack[sp++] = offset;
+              node = node + 1;
+            }
+            continue;
+          }
+        }
+      }
+
+      if (sp == 0)
+      {
+        return;
+      }
+      node = stack[--sp];
+      first = firsts[sp];
+    }
+  }
+
+  /**
+   *  Can the packet be shown to miss a node entirely?  For each axis, the ray length at which
+   *  any ray in the packet could enter or leave the node's slab lies between the values given by
+   *  the smallest and largest inverse direction.
+   */
+  private boolean culled(int node, double[] inverseRange, double[] o, double limit)
+  {
+    final int b = node * 6;
+    double near = 0;
+    double far = limit;
+
+    for (int a = 0; a < 3; a++)
+    {
+      final boolean negative = inverseRange[a] < 0;
+      final double entry = (negative ? bounds[b + 3 + a] : bounds[b + a]) - o[a];
+      final double exit = (negative ? bounds[b + a] : bounds[b + 3 + a]) - o[a];
+
+      near = Math.max(near, Math.min(entry * inverseRange[a], entry * inverseRange[3 + a]));
+      far = Math.min(far, Math.max(exit * inverseRange[a], exit * inverseRange[3 + a]));
+    }
+
+    return near > far;
+  }
+
+  /**
+   *  Slab test of a ray against a node's bounds.  Comparisons are arranged so that NaNs
+   *  (from a ray lying in a slab's plane) are ignored rather than reported as misses.
+   */
+  private boolean hits(int node, double ox, double oy, double oz, double ix, double iy, double iz, double limit)
+  {
+    final int b = node * 6;
+    double near = 0;
+    double far = limit;
+    double t0;
+    double t1;
+
+    t0 = ((ix < 0 ? bounds[b + 3] : bounds[b    ]) - ox) * ix;
+    t1 = ((ix < 0 ? bounds[b    ] : bounds[b + 3]) - ox) * ix;
+    near = (t0 > near) ? t0 : near;
+    far = (t1 < far) ? t1 : far;
+
+    t0 = ((iy < 0 ? bounds[b + 4] : bounds[b + 1]) - oy) * iy;
+    t1 = ((iy < 0 ? bounds[b + 1] : bounds[b + 4]) - oy) * iy;
+    near = (t0 > near) ? t0 : near;
+    far = (t1 < far) ? t1 : far;
+
+    t0 = ((iz < 0 ? bounds[b + 5] : bounds[b + 2]) - oz) * iz;
+    t1 = ((iz < 0 ? bounds[b + 2] : bounds[b + 5]) - oz) * iz;
+    near = (t0 > near) ? t0 : near;
+    far = (t1 < far) ? t1 : far;
+
+    return near <= far;
+  }
+
+  /**
+   *  Round a double to the largest float not greater than it.
+   */
+  static float roundDown(double value)
+  {
+    final float f = (float) value;
+    return (f > value) ? Math.nextAfter(f, Double.NEGATIVE_INFINITY) : f;
+  }
+
+  /**
+   *  Round a double to the smallest float not less than it.
+   */
+  static float roundUp(double value)
+  {
+    final float f = (float) value;
+    return (f < value) ? Math.nextAfter(f, Double.POSITIVE_INFINITY) : f;
+  }
+}
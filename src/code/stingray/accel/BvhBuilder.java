@@ -0,0 +1,516 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.accel;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import stingray.*;
+import stingray.geometry.*;
+
+
+/**
+ *  Builds a bounding volume hierarchy over bounded geometry. <p>
+ *
+ *  Splits are chosen with the surface area heuristic, evaluated over a fixed number of
+ *  centroid bins along each axis.  Where the heuristic cannot separate the primitives
+ *  (for example, when many share a centroid) the range is split at its median instead. <p>
+ *
+ *  Large subtrees are built in parallel.  A thread that needs the result of a subtree it
+ *  handed to the pool runs that subtree itself if no pool thread has started it yet, so
+ *  builders only ever wait for work that is in progress, and the build cannot deadlock.
+ */
+final class BvhBuilder
+{
+  /** Ranges of up to this many primitives always become leaves. */
+  static final int MIN_LEAF = 4;
+
+  /** Maximum number of primitives in a leaf, unless the depth limit is reached. */
+  static final int MAX_LEAF = 8;
+
+  /** Maximum tree depth; this bounds the traversal stack. */
+  static final int MAX_DEPTH = 60;
+
+  /** Number of bins evaluated per axis. */
+  private static final int BINS = 16;
+
+  /** Cost of traversing a node, relative to intersecting a primitive. */
+  private static final double TRAVERSAL_COST = 0.5d;
+
+  /** Subtrees with fewer primitives than this are built on the current thread. */
+  private static final int PARALLEL_THRESHOLD = 8192;
+
+  /** The geometry, in its original order. */
+  private final Geometry[] geometry;
+
+  /** Bounds of each piece of geometry, packed as min x, y, z then max x, y, z. */
+  private final double[] bounds;
+
+  /** Centroid of each piece of geometry, packed as x, y, z. */
+  private final double[] centroids;
+
+  /** Geometry indices, reordered as the tree is built. */
+  private final int[] order;
+
+  // The packed bounds and centroids are permuted along with the order, so that the build
+  // reads them sequentially rather than through the order indirection.
+
+  /** Pool for building subtrees, or null to build on the calling thread only. */
+  private ExecutorService pool;
+
+  /**
+   *  Constructor.
+   *  @param geometry The geometry, which must all be bounded.
+   */
+  BvhBuilder(List<Geometry> geometry)
+  {
+    final int n = geometry.size();
+
+    this.geometry = geometry.toArray(new Geometry[n]);
+    this.bounds = new double[n * 6];
+    this.centroids = new double[n * 3];
+    this.order = new int[n];
+
+    for (int i = 0; i < n; i++)
+    {
+      final Bounds b = this.geometry[i].getBounds();
+
+      if (b == null)
+      {
+        throw new IllegalArgumentException("geometry must be bounded: " + this.geometry[i]);
+      }
+
+      for (int axis = 0; axis < 3; axis++)
+      {
+        this.bounds[i * 6 + axis] = b.getMin(axis);
+        this.bounds[i * 6 + 3 + axis] = b.getMax(axis);
+        this.centroids[i * 3 + axis] = b.getCentre(axis);
+      }
+      this.order[i] = i;
+    }
+  }
+
+  /**
+   *  Build the tree, using all available processors for large inputs.
+   *  @return The root node, or null if there is no geometry.
+   */
+  BvhNode build()
+  {
+    final int threads = Runtime.getRuntime().availableProcessors();
+
+    if (order.length == 0)
+    {
+      return null;
+    }
+
+    if (threads > 1 && order.length >= PARALLEL_THRESHOLD)
+    {
+      this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory()
+      {
+        @Override
+        public Thread newThread(Runnable r)
+        {
+          final Thread thread = new Thread(r, "BVH builder");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+
+    try
+    {
+      return build(0, order.length, 0);
+    }
+    finally
+    {
+      if (this.pool != null)
+      {
+        this.pool.shutdown();
+        this.pool = null;
+      }
+    }
+  }
+
+  /**
+   *  Get the geometry, in the order referenced by the leaves of the built tree.
+   *  @return The ordered geometry.
+   */
+  Geometry[] getOrderedGeometry()
+  {
+    final Geometry[] ordered = new Geometry[order.length];
+
+    for (int i = 0; i < order.length; i++)
+    {
+      ordered[i] = geometry[order[i]];
+    }
+
+    return ordered;
+  }
+
+  /**
+   *  Build the subtree over the primitives <code>order[start]</code> to <code>order[end - 1]</code>.
+   */
+  private BvhNode build(final int start, final int end, final int depth)
+  {
+    final int count = end - start;
+    final double[] lo = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+    final double[] hi = { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+    final double[] clo = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+    final double[] chi = { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+
+    for (int i = start; i < end; i++)                                // gather the node and centroid bounds
+    {
+      for (int a = 0; a < 3; a++)
+      {
+        lo[a] = Math.min(lo[a], bounds[i * 6 + a]);
+        hi[a] = Math.max(hi[a], bounds[i * 6 + 3 + a]);
+        clo[a] = Math.min(clo[a], centroids[i * 3 + a]);
+        chi[a] = Math.max(chi[a], centroids[i * 3 + a]);
+      }
+    }
+
+    final Bounds nodeBounds = new Bounds(lo[0], lo[1], lo[2], hi[0], hi[1], hi[2]);
+
+    if (count <= MIN_LEAF || depth >= MAX_DEPTH)
+    {
+      return BvhNode.leaf(nodeBounds, start, count);
+    }
+
+    final Split split = findSplit(start, end, nodeBounds.getSurfaceArea(), clo, chi);
+    final int mid;
+    final int axis;
+
+    if (split != null)
+    {
+      if (count <= MAX_LEAF && split.cost >= count)                  // splitting doesn't pay for itself
+      {
+        return BvhNode.leaf(nodeBounds, start, count);
+      }
+
+      axis = split.axis;
+      mid = partition(start, end, split);
+    }
+    else                                                             // degenerate: fall back to the median
+    {
+      if (count <= MAX_LEAF)
+      {
+        return BvhNode.leaf(nodeBounds, start, count);
+      }
+
+      axis = new Bounds(clo[0], clo[1], clo[2], chi[0], chi[1], chi[2]).getLongestAxis();
+      mid = start + count / 2;
+      select(start, end, mid, axis);
+    }
+
+    if (pool != null && count >= PARALLEL_THRESHOLD)                 // hand the right subtree to the pool ...
+    {
+      final FutureTask<BvhNode> right = new FutureTask<BvhNode>(new Callable<BvhNode>()
+      {
+        @Override
+        public BvhNode call()
+        {
+          return build(mid, end, depth + 1);
+        }
+      });
+
+      pool.execute(right);
+      final BvhNode left = build(start, mid, depth + 1);
+      right.run();                                                   // ... running it here if it hasn't started
+
+      return BvhNode.interior(axis, left, join(right));
+    }
+    else
+    {
+      return BvhNode.interior(axis, build(start, mid, depth + 1), build(mid, end, depth + 1));
+    }
+  }
+
+  /**
+   *  Wait for a subtree to be built.
+   */
+  private static BvhNode join(FutureTask<BvhNode> task)
+  {
+    try
+    {
+      return task.get();
+    }
+    catch (InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted while building BVH", ex);
+    }
+    catch (ExecutionException ex)
+    {
+      if (ex.getCause() instanceof RuntimeException)
+      {
+        throw (RuntimeException) ex.getCause();
+      }
+      throw new IllegalStateException("failed to build BVH", ex.getCause());
+    }
+  }
+
+  /**
+   *  A candidate split.
+   */
+  private static final class Split
+  {
+    /** Split axis. */
+    int axis;
+
+    /** Primitives in bins up to and including this one go left. */
+    int bin;
+
+    /** Centroid bin mapping: bin = (centroid - offset) * scale. */
+    double offset;
+    double scale;
+
+    /** Estimated cost, in primitive intersections. */
+    double cost;
+  }
+
+  /**
+   *  Find the cheapest binned split according to the surface area heuristic.
+   *  @return The split, or null if the centroids cannot be separated by binning.
+   */
+  private Split findSplit(int start, int end, double area, double[] clo, double[] chi)
+  {
+    final int[] counts = new int[3 * BINS];
+    final double[] binBounds = new double[3 * BINS * 6];
+    final double[] scale = new double[3];
+    final double[] rightArea = new double[BINS];
+    final int[] rightCount = new int[BINS];
+    final double[] sweep = new double[6];
+    Split best = null;
+
+    for (int axis = 0; axis < 3; axis++)
+    {
+      final double extent = chi[axis] - clo[axis];
+
+      scale[axis] = (extent > 0) ? BINS * (1 - 1e-6) / extent : 0;
+      for (int b = 0; b < BINS; b++)
+      {
+        reset(binBounds, axis * BINS + b);
+      }
+    }
+
+    for (int i = start; i < end; i++)                                // bin the primitives by centroid, on every axis
+    {
+      for (int axis = 0; axis < 3; axis++)
+      {
+        final int b = axis * BINS + (int) ((centroids[i * 3 + axis] - clo[axis]) * scale[axis]);
+
+        counts[b]++;
+        for (int a = 0; a < 3; a++)
+        {
+          binBounds[b * 6 + a] = Math.min(binBounds[b * 6 + a], bounds[i * 6 + a]);
+          binBounds[b * 6 + 3 + a] = Math.max(binBounds[b * 6 + 3 + a], bounds[i * 6 + 3 + a]);
+        }
+      }
+    }
+
+    for (int axis = 0; axis < 3; axis++)
+    {
+      if (scale[axis] == 0)                                          // all centroids coincide on this axis
+      {
+        continue;
+      }
+
+      final int first = axis * BINS;
+      int n = 0;
+
+      reset(sweep, 0);                                               // sweep from the right ...
+      for (int b = BINS - 1; b > 0; b--)
+      {
+        grow(sweep, binBounds, first + b);
+        n += counts[first + b];
+        rightArea[b] = area(sweep);
+        rightCount[b] = n;
+      }
+
+      reset(sweep, 0);                                               // ... then from the left
+      n = 0;
+      for (int b = 0; b < BINS - 1; b++)
+      {
+        grow(sweep, binBounds, first + b);
+        n += counts[first + b];
+
+        if (n == 0 || rightCount[b + 1] == 0)
+        {
+          continue;
+        }
+
+        final double cost = TRAVERSAL_COST + (n * area(sweep) + rightCount[b + 1] * rightArea[b + 1]) / area;
+        if (best == null || cost < best.cost)
+        {
+          best = new Split();
+          best.axis = axis;
+          best.bin = b;
+          best.offset = clo[axis];
+          best.scale = scale[axis];
+          best.cost = cost;
+        }
+      }
+    }
+
+    return best;
+  }
+
+  /**
+   *  Partition the range so primitives left of the split come first.
+   *  @return The index of the first primitive on the right.
+   */
+  private int partition(int start, int end, Split split)
+  {
+    int i = start;
+    int j = end - 1;
+
+    while (i <= j)
+    {
+      if ((int) ((centroid(i, split.axis) - split.offset) * split.scale) <= split.bin)
+      {
+        i++;
+      }
+      else
+      {
+        swap(i, j);
+        j--;
+      }
+    }
+
+    return i;
+  }
+
+  /**
+   *  Partially sort <code>order[start..end)</code> so the element at <code>nth</code> is the one that
+   *  would be there if fully sorted by centroid, with smaller elements before it and larger ones after.
+   */
+  private void select(int start, int end, int nth, int axis)
+  {
+    int lo = start;
+    int hi = end - 1;
+
+    while (lo < hi)
+    {
+      final double pivot = centroid((lo + hi) >>> 1, axis);
+      int i = lo;
+      int j = hi;
+
+      while (i <= j)
+      {
+        while (centroid(i, axis) < pivot)
+        {
+          i++;
+        }
+        while (centroid(j, axis) > pivot)
+        {
+          j--;
+        }
+        if (i <= j)
+        {
+          swap(i, j);
+          i++;
+          j--;
+        }
+      }
+
+      if (nth <= j)
+      {
+        hi = j;
+      }
+      else if (nth >= i)
+      {
+        lo = i;
+      }
+      else
+      {
+        return;
+      }
+    }
+  }
+
+  /**
+   *  Get the centroid of the primitive at the given position in the build order.
+   */
+  private double centroid(int index, int axis)
+  {
+    return centroids[index * 3 + axis];
+  }
+
+  /**
+   *  Swap two primitives in the build order, along with their packed bounds and centroids.
+   */
+  private void swap(int i, int j)
+  {
+    final int tmp = order[i];
+    order[i] = order[j];
+    order[j] = tmp;
+
+    for (int a = 0; a < 6; a++)
+    {
+      final double b = bounds[i * 6 + a];
+      bounds[i * 6 + a] = bounds[j * 6 + a];
+      bounds[j * 6 + a] = b;
+    }
+
+    for (int a = 0; a < 3; a++)
+    {
+      final double c = centroids[i * 3 + a];
+      centroids[i * 3 + a] = centroids[j * 3 + a];
+      centroids[j * 3 + a] = c;
+    }
+  }
+
+  /** Reset the packed bounds at the given index to empty. */
+  private static void reset(double[] packed, int index)
+  {
+    for (int a = 0; a < 3; a++)
+    {
+      packed[index * 6 + a] = Double.POSITIVE_INFINITY;
+      packed[index * 6 + 3 + a] = Double.NEGATIVE_INFINITY;
+    }
+  }
+
+  /** Grow the packed bounds to enclose the packed bounds at the given index. */
+  private static void grow(double[] packed, double[] other, int index)
+  {
+    for (int a = 0; a < 3; a++)
+    {
+      packed[a] = Math.min(packed[a], other[index * 6 + a]);
+      packed[3 + a] = Math.max(packed[3 + a], other[index * 6 + 3 + a]);
+    }
+  }
+
+  /** Surface area of packed bounds. */
+  private static double area(double[] packed)
+  {
+    final double x = packed[3] - packed[0];
+    final double y = packed[4] - packed[1];
+    final double z = packed[5] - packed[2];
+
+    return (x < 0 || y < 0 || z < 0) ? 0 : 2.0d * (x * y + y * z + z * x);
+  }
+}
@@ -0,0 +1,141 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.accel;
+
+import stingray.*;
+
+
+/**
+ *  A bounding volume hierarchy node, as produced by the builder. <p>
+ *
+ *  Nodes form an ordinary object graph; they are flattened into a <code>Bvh</code> for
+ *  rendering.
+ */
+final class BvhNode
+{
+  /** Bounds of everything beneath this node. */
+  private final Bounds bounds;
+
+  /** Left child, or null for a leaf. */
+  private final BvhNode left;
+
+  /** Right child, or null for a leaf. */
+  private final BvhNode right;
+
+  /** The axis the children were split along. */
+  private final int axis;
+
+  /** Index of the first primitive (leaf only). */
+  private final int first;
+
+  /** Number of primitives (leaf only). */
+  private final int count;
+
+  /**
+   *  Constructor.
+   */
+  private BvhNode(Bounds bounds, BvhNode left, BvhNode right, int axis, int first, int count)
+  {
+    this.bounds = bounds;
+    this.left = left;
+    this.right = right;
+    this.axis = axis;
+    this.first = first;
+    this.count = count;
+  }
+
+  /**
+   *  Create a leaf node.
+   *  @param bounds The bounds of the primitives.
+   *  @param first The index of the first primitive.
+   *  @param count The number of primitives.
+   *  @return The leaf.
+   */
+  static BvhNode leaf(Bounds bounds, int first, int count)
+  {
+    return new BvhNode(bounds, null, null, 0, first, count);
+  }
+
+  /**
+   *  Create an interior node.
+   *  @param axis The axis the children were split along.
+   *  @param left The left child (lower along the axis).
+   *  @param right The right child.
+   *  @return The interior node.
+   */
+  static BvhNode interior(int axis, BvhNode left, BvhNode right)
+  {
+    return new BvhNode(left.getBounds().union(right.getBounds()), left, right, axis, 0, 0);
+  }
+
+  /**
+   *  Is this a leaf node?
+   */
+  boolean isLeaf()
+  {
+    return this.left == null;
+  }
+
+  Bounds getBounds()
+  {
+    return this.bounds;
+  }
+
+  BvhNode getLeft()
+  {
+    return this.left;
+  }
+
+  BvhNode getRight()
+  {
+    return this.right;
+  }
+
+  int getAxis()
+  {
+    return this.axis;
+  }
+
+  int getFirst()
+  {
+    return this.first;
+  }
+
+  int getCount()
+  {
+    return this.count;
+  }
+
+  /**
+   *  Count the nodes in this subtree.
+   *  @return The number of nodes, including this one.
+   */
+  int size()
+  {
+    return isLeaf() ? 1 : 1 + left.size() + right.size();
+  }
+}
@@ -0,0 +1,364 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.accel;
+
+import java.util.*;
+
+import stingray.*;
+import stingray.Vector;
+import stingray.geometry.*;
+
+
+/**
+ *  A uniform grid, traversed with a 3D digital differential analyser. <p>
+ *
+ *  The grid suits scenes of many similarly sized objects, such as particle systems.  Its
+ *  resolution is chosen from the number of primitives and the shape of the scene bounds,
+ *  aiming for a few primitives per cell.  Cell contents are stored in two flat arrays: the
+ *  primitives of cell <i>c</i> are <code>items[start[c]]</code> to <code>items[start[c + 1] - 1]</code>. <p>
+ *
+ *  A primitive spanning several cells is listed in each, so traversal keeps a mailbox of
+ *  the last ray each primitive was tested against (in the <code>Traversal</code>), and
+ *  skips repeated tests.
+ */
+public final class Grid implements Accelerator
+{
+  /** Target cells per primitive, scaled by the cube root of the primitive count. */
+  private static final double DENSITY = 3.0d;
+
+  /** Maximum cells along any axis. */
+  private static final int MAX_RESOLUTION = 128;
+
+  /** Primitives. */
+  private final Geometry[] primitives;
+
+  /** Grid bounds (min x, y, z then max x, y, z). */
+  private final double[] bounds;
+
+  /** Cells along each axis. */
+  private final int[] resolution;
+
+  /** Cell size along each axis. */
+  private final double[] cellSize;
+
+  /** Start of each cell's primitives in <code>items</code>, plus a final end marker. */
+  private final int[] start;
+
+  /** Primitive indices, grouped by cell. */
+  private final int[] items;
+
+  /**
+   *  Build a grid over the given geometry.
+   *  @param geometry The geometry, which must all be bounded.
+   *  @return The grid.
+   */
+  public static Grid build(List<Geometry> geometry)
+  {
+    return new Grid(geometry.toArray(new Geometry[geometry.size()]));
+  }
+
+  /**
+   *  Constructor.
+   *  @param primitives The geometry, which must all be bounded.
+   */
+  private Grid(Geometry[] primitives)
+  {
+    final int n = primitives.length;
+    final double[] packed = new double[n * 6];
+    Bounds all = Bounds.EMPTY;
+
+    for (int i = 0; i < n; i++)
+    {
+      final Bounds b = primitives[i].getBounds();
+
+      if (b == null)
+      {
+        throw new IllegalArgumentException("geometry must be bounded: " + primitives[i]);
+      }
+
+      all = all.union(b);
+      for (int a = 0; a < 3; a++)
+      {
+        packed[i * 6 + a] = b.getMin(a);
+        packed[i * 6 + 3 + a] = b.getMax(a);
+      }
+    }
+
+    this.primitives = primitives;
+    this.bounds = new double[6];
+    this.resolution = new int[3];
+    this.cellSize = new double[3];
+
+    final double maxExtent = all.getExtent(all.getLongestAxis());
+    final double cellsPerUnit = (maxExtent > 0) ? DENSITY * Math.cbrt(n) / maxExtent : 0;
+
+    for (int a = 0; a < 3; a++)
+    {
+      this.bounds[a] = (n > 0) ? all.getMin(a) : 0;
+      this.bounds[3 + a] = (n > 0) ? all.getMax(a) : 0;
+      this.resolution[a] = Math.max(1, Math.min(MAX_RESOLUTION, (int) Math.round(all.getExtent(a) * cellsPerUnit)));
+      this.cellSize[a] = (this.bounds[3 + a] - this.bounds[a]) / this.resolution[a];
+    }
+
+    // Two passes: count the primitives overlapping each cell, then fill them in.
+
+    this.start = new int[resolution[0] * resolution[1] * resolution[2] + 1];
+    for (int i = 0; i < n; i++)
+    {
+      final int[] range = cellRange(packed, i);
+
+      for (int z = range[2]; z <= range[5]; z++)
+      {
+        for (int y = range[1]; y <= range[4]; y++)
+        {
+          for (int x = range[0]; x <= range[3]; x++)
+          {
+            this.start[cell(x, y, z) + 1]++;
+          }
+        }
+      }
+    }
+
+    for (int c = 1; c < this.start.length; c++)
+    {
+      this.start[c] += this.start[c - 1];
+    }
+
+    final int[] fill = new int[this.start.length - 1];
+    this.items = new int[this.start[this.start.length - 1]];
+    for (int i = 0; i < n; i++)
+    {
+      final int[] range = cellRange(packed, i);
+
+      for (int z = range[2]; z <= range[5]; z++)
+      {
+        for (int y = range[1]; y <= range[4]; y++)
+        {
+          for (int x = range[0]; x <= range[3]; x++)
+          {
+            final int c = cell(x, y, z);
+            this.items[this.start[c] + fill[c]++] = i;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   *  Get the range of cells overlapped by a primitive, as min x, y, z then max x, y, z.
+   */
+  private int[] cellRange(double[] packed, int primitive)
+  {
+    final int[] range = new int[6];
+
+    for (int a = 0; a < 3; a++)
+    {
+      range[a] = toCell(a, packed[primitive * 6 + a]);
+      range[3 + a] = toCell(a, packed[primitive * 6 + 3 + a]);
+    }
+
+    return range;
+  }
+
+  /**
+   *  Get the cell along an axis containing the given coordinate, clamped to the grid.
+   */
+  private int toCell(int axis, double value)
+  {
+    final int c = (cellSize[axis] > 0) ? (int) ((value - bounds[axis]) / cellSize[axis]) : 0;
+    return Math.max(0, Math.min(resolution[axis] - 1, c));
+  }
+
+  private int cell(int x, int y, int z)
+  {
+    return (z * resolution[1] + y) * resolution[0] + x;
+  }
+
+  /**
+   *  Get the number of cells along the given axis.
+   */
+  public int getResolution(int axis)
+  {
+    return this.resolution[axis];
+  }
+
+  /**
+   *  Test for ray intersections against the geometry in the structure, adding them to the
+   *  intersection list.
+   *  @param traversal Scratch storage for the traversal.
+   *  @param ray The ray.
+   *  @param intersections The intersection list.
+   */
+  public void intersect(Traversal traversal, Ray ray, IntersectionList intersections)
+  {
+    traverse(traversal, ray, intersections, intersections.closestLength(), false);
+  }
+
+  /**
+   *  Does any geometry in the structure intersect the ray no further than the given length?
+   *  @param traversal Scratch storage for the traversal.
+   *  @param ray The ray.
+   *  @param length The length down the ray to consider.
+   *  @return True if an intersection was found.
+   */
+  public boolean occluded(Traversal traversal, Ray ray, double length)
+  {
+    return traverse(traversal, ray, traversal.hits(ray), length, true);
+  }
+
+  /**
+   *  Step through the cells pierced by the ray, nearest first.
+   *  @param traversal Scratch storage for the traversal.
+   *  @param ray The ray.
+   *  @param intersections The intersection list to populate.
+   *  @param limit Cells further down the ray than this are skipped.
+   *  @param any Stop at the first intersection within the limit?
+   *  @return True if stopped early because an intersection was found (in which case the
+   *          primitive found is recorded as the traversal's occluder).
+   */
+  private boolean traverse(Traversal traversal, Ray ray, IntersectionList intersections, double limit, boolean any)
+  {
+    if (primitives.length == 0)
+    {
+      return false;
+    }
+
+    final Vector o = ray.getOrigin();
+    final Vector d = ray.getDirection();
+    final double[] origin = traversal.origin;                        // (the walk's state is reused from ray to ray)
+    final double[] direction = traversal.direction;
+    double enter = 0;
+
+    origin[0] = o.getX();
+    origin[1] = o.getY();
+    origin[2] = o.getZ();
+    direction[0] = d.getX();
+    direction[1] = d.getY();
+    direction[2] = d.getZ();
+    double exit = limit;
+
+    for (int a = 0; a < 3; a++)                                      // clip the ray to the grid
+    {
+      final double inverse = 1.0d / direction[a];
+      final double t0 = ((inverse < 0 ? bounds[3 + a] : bounds[a]) - origin[a]) * inverse;
+      final double t1 = ((inverse < 0 ? bounds[a] : bounds[3 + a]) - origin[a]) * inverse;
+
+      enter = (t0 > enter) ? t0 : enter;
+      exit = (t1 < exit) ? t1 : exit;
+    }
+
+    if (enter > exit)
+    {
+      return false;
+    }
+
+    final int[] cell = traversal.cell;
+    final int[] step = traversal.step;
+    final int[] out = traversal.out;
+    final double[] next = traversal.next;                            // ray length at the next crossing on each axis
+    final double[] delta = traversal.delta;                          // ray length between crossings on each axis
+
+    for (int a = 0; a < 3; a++)
+    {
+      cell[a] = toCell(a, origin[a] + direction[a] * enter);
+
+      if (direction[a] > 0)
+      {
+        step[a] = 1;
+        out[a] = resolution[a];
+        next[a] = enter + (bounds[a] + (cell[a] + 1) * cellSize[a] - (origin[a] + direction[a] * enter)) / direction[a];
+        delta[a] = cellSize[a] / direction[a];
+      }
+      else if (direction[a] < 0)
+      {
+        step[a] = -1;
+        out[a] = -1;
+        next[a] = enter + (bounds[a] + cell[a] * cellSize[a] - (origin[a] + direction[a] * enter)) / direction[a];
+        delta[a] = -cellSize[a] / direction[a];
+      }
+      else
+      {
+        step[a] = 0;
+        out[a] = -1;
+        next[a] = Double.POSITIVE_INFINITY;
+        delta[a] = Double.POSITIVE_INFINITY;
+      }
+    }
+
+    final int[] stamps = traversal.stamps(this, primitives.length);
+    final int rayId = traversal.nextRay();
+
+    while (true)
+    {
+      final int c = cell(cell[0], cell[1], cell[2]);
+
+      for (int i = start[c]; i < start[c + 1]; i++)                  // test the cell's primitives ...
+      {
+        final int p = items[i];
+
+        if (stamps[p] != rayId)                                      // ... unless already tested against this ray
+        {
+          stamps[p] = rayId;
+          primitives[p].intersect(ray, intersections);
+
+          if (any && intersections.closestLength() <= limit)
+          {
+            traversal.occluder = primitives[p];
+            return true;
+          }
+        }
+      }
+
+      final int axis;                                                // the axis whose boundary is crossed first
+      if (next[0] < next[1])
+      {
+        axis = (next[0] < next[2]) ? 0 : 2;
+      }
+      else
+      {
+        axis = (next[1] < next[2]) ? 1 : 2;
+      }
+
+      if (! any && intersections.closestLength() <= next[axis])      // a hit within this cell can't be beaten
+      {
+        return false;
+      }
+
+      if (next[axis] > exit)
+      {
+        return false;
+      }
+
+      cell[axis] += step[axis];
+      if (cell[axis] == out[axis])
+      {
+        return false;
+      }
+      next[axis] += delta[axis];
+    }
+  }
+}
@@ -0,0 +1,163 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.accel;
+
+import java.util.*;
+
+import stingray.*;
+import stingray.Vector;
+import stingray.geometry.*;
+
+
+/**
+ *  A bounding volume hierarchy traversed directly as a graph of <code>BvhNode</code>s. <p>
+ *
+ *  This is the pointer chasing baseline that <code>Bvh</code> is benchmarked against; it
+ *  visits nodes in the same order, so both find the same intersections.
+ */
+final class ObjectBvh implements Accelerator
+{
+  /** Root node, or null if empty. */
+  private final BvhNode root;
+
+  /** Primitives, in leaf order. */
+  private final Geometry[] primitives;
+
+  /**
+   *  Build a hierarchy over the given geometry.
+   *  @param geometry The geometry, which must all be bounded.
+   *  @return The hierarchy.
+   */
+  static ObjectBvh build(List<Geometry> geometry)
+  {
+    final BvhBuilder builder = new BvhBuilder(geometry);
+    final BvhNode root = builder.build();
+
+    return new ObjectBvh(root, builder.getOrderedGeometry());
+  }
+
+  /**
+   *  Constructor.
+   */
+  ObjectBvh(BvhNode root, Geometry[] primitives)
+  {
+    this.root = root;
+    this.primitives = primitives;
+  }
+
+  public void intersect(Traversal traversal, Ray ray, IntersectionList intersections)
+  {
+    if (root != null)
+    {
+      final Vector d = ray.getDirection();
+
+      intersect(root, ray, 1.0d / d.getX(), 1.0d / d.getY(), 1.0d / d.getZ(), intersections);
+    }
+  }
+
+  public boolean occluded(Traversal traversal, Ray ray, double length)
+  {
+    final Vector d = ray.getDirection();
+
+    return root != null && occluded(traversal, root, ray, 1.0d / d.getX(), 1.0d / d.getY(), 1.0d / d.getZ(), traversal.hits(ray), length);
+  }
+
+  private void intersect(BvhNode node, Ray ray, double ix, double iy, double iz, IntersectionList intersections)
+  {
+    if (hits(node.getBounds(), ray.getOrigin(), ix, iy, iz, intersections.closestLength()))
+    {
+      if (node.isLeaf())
+      {
+        for (int i = node.getFirst(); i < node.getFirst() + node.getCount(); i++)
+        {
+          primitives[i].intersect(ray, intersections);
+        }
+      }
+      else if ((node.getAxis() == 0 ? ix : node.getAxis() == 1 ? iy : iz) < 0)
+      {
+        intersect(node.getRight(), ray, ix, iy, iz, intersections);
+        intersect(node.getLeft(), ray, ix, iy, iz, intersections);
+      }
+      else
+      {
+        intersect(node.getLeft(), ray, ix, iy, iz, intersections);
+        intersect(node.getRight(), ray, ix, iy, iz, intersections);
+      }
+    }
+  }
+
+  private boolean occluded(Traversal traversal, BvhNode node, Ray ray, double ix, double iy, double iz, IntersectionList intersections, double length)
+  {
+    if (! hits(node.getBounds(), ray.getOrigin(), ix, iy, iz, length))
+    {
+      return false;
+    }
+    else if (node.isLeaf())
+    {
+      for (int i = node.getFirst(); i < node.getFirst() + node.getCount(); i++)
+      {
+        primitives[i].intersect(ray, intersections);
+
+        if (intersections.closestLength() <= length)
+        {
+          traversal.occluder = primitives[i];
+          return true;
+        }
+      }
+      return false;
+    }
+    else
+    {
+      return occluded(traversal, node.getLeft(), ray, ix, iy, iz, intersections, length) ||
+             occluded(traversal, node.getRight(), ray, ix, iy, iz, intersections, length);
+    }
+  }
+
+  private static boolean hits(Bounds bounds, Vector origin, double ix, double iy, double iz, double limit)
+  {
+    final double ox = origin.getX();
+    final double oy = origin.getY();
+    final double oz = origin.getZ();
+    final double x0 = ((ix < 0 ? bounds.getMax(0) : bounds.getMin(0)) - ox) * ix;
+    final double x1 = ((ix < 0 ? bounds.getMin(0) : bounds.getMax(0)) - ox) * ix;
+    final double y0 = ((iy < 0 ? bounds.getMax(1) : bounds.getMin(1)) - oy) * iy;
+    final double y1 = ((iy < 0 ? bounds.getMin(1) : bounds.getMax(1)) - oy) * iy;
+    final double z0 = ((iz < 0 ? bounds.getMax(2) : bounds.getMin(2)) - oz) * iz;
+    final double z1 = ((iz < 0 ? bounds.getMin(2) : bounds.getMax(2)) - oz) * iz;
+    double near = 0;
+    double far = limit;
+
+    near = (x0 > near) ? x0 : near;
+    far = (x1 < far) ? x1 : far;
+    near = (y0 > near) ? y0 : near;
+    far = (y1 < far) ? y1 : far;
+    near = (z0 > near) ? z0 : near;
+    far = (z1 < far) ? z1 : far;
+
+    return near <= far;
+  }
+}
@@ -0,0 +1,199 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.accel;
+
+import stingray.*;
+import stingray.Vector;
+
+
+/**
+ *  A group of rays sharing an origin, traced together. <p>
+ *
+ *  A packet is <i>coherent</i> when, along each axis, every ray's direction has the same
+ *  (non zero) sign.  Coherent packets can traverse an acceleration structure as a unit,
+ *  sharing node visits; others must be traced one ray at a time.  Packets are reusable:
+ *  <code>reset</code> empties a packet for its next group of rays.
+ */
+public final class RayPacket
+{
+  /** Shared origin. */
+  private Vector origin;
+
+  /** Rays. */
+  private final Ray[] rays;
+
+  /** Intersections, one list per ray. */
+  private final IntersectionList[] intersections;
+
+  /** Number of rays in the packet. */
+  private int size;
+
+  /** Inverse direction components, per ray. */
+  final double[] ix;
+  final double[] iy;
+  final double[] iz;
+
+  /** Range of the inverse direction components over the packet (min x, y, z then max x, y, z). */
+  final double[] inverseRange;
+
+  /**
+   *  Constructor.
+   *  @param capacity The maximum number of rays.
+   */
+  public RayPacket(int capacity)
+  {
+    this.rays = new Ray[capacity];
+    this.intersections = new IntersectionList[capacity];
+    for (int i = 0; i < capacity; i++)
+    {
+      this.intersections[i] = new IntersectionList(null);
+    }
+    this.ix = new double[capacity];
+    this.iy = new double[capacity];
+    this.iz = new double[capacity];
+    this.inverseRange = new double[6];
+  }
+
+  /**
+   *  Empty the packet.
+   *  @param origin The origin shared by the rays that will be added.
+   */
+  public void reset(Vector origin)
+  {
+    this.origin = origin;
+    this.size = 0;
+
+    for (int a = 0; a < 3; a++)
+    {
+      this.inverseRange[a] = Double.POSITIVE_INFINITY;
+      this.inverseRange[3 + a] = Double.NEGATIVE_INFINITY;
+    }
+  }
+
+  /**
+   *  Add a ray to the packet.
+   *  @param ray The ray, which must start at the packet's origin.
+   *  @throws IllegalArgumentException If the ray does not start at the packet's origin.
+   *  @throws IllegalStateException If the packet is full.
+   */
+  public void add(Ray ray) throws IllegalArgumentException, IllegalStateException
+  {
+    final Vector o = ray.getOrigin();
+    if (o.getX() != origin.getX() || o.getY() != origin.getY() || o.getZ() != origin.getZ())
+    {
+      throw new IllegalArgumentException("ray does not start at the packet origin: " + ray);
+    }
+
+    if (this.size == this.rays.length)
+    {
+      throw new IllegalStateException("packet is full");
+    }
+
+    final Vector d = ray.getDirection();
+    final int i = this.size++;
+
+    this.rays[i] = ray;
+    this.intersections[i].reset(ray);
+    this.ix[i] = 1.0d / d.getX();
+    this.iy[i] = 1.0d / d.getY();
+    this.iz[i] = 1.0d / d.getZ();
+
+    include(0, this.ix[i]);
+    include(1, this.iy[i]);
+    include(2, this.iz[i]);
+  }
+
+  private void include(int axis, double inverse)
+  {
+    this.inverseRange[axis] = Math.min(this.inverseRange[axis], inverse);
+    this.inverseRange[3 + axis] = Math.max(this.inverseRange[3 + axis], inverse);
+  }
+
+  /**
+   *  Is the packet coherent enough to be traced as a unit?
+   *  @return True if the direction signs agree along every axis.
+   */
+  public boolean isCoherent()
+  {
+    for (int a = 0; a < 3; a++)
+    {
+      final boolean positive = inverseRange[a] > 0 && inverseRange[3 + a] < Double.POSITIVE_INFINITY;
+      final boolean negative = inverseRange[3 + a] < 0 && inverseRange[a] > Double.NEGATIVE_INFINITY;
+
+      if (! (positive || negative))
+      {
+        return false;
+      }
+    }
+
+    return this.size > 0;
+  }
+
+  /**
+   *  Get the shared origin.
+   */
+  public Vector getOrigin()
+  {
+    return this.origin;
+  }
+
+  /**
+   *  Get the maximum number of rays.
+   */
+  public int getCapacity()
+  {
+    return this.rays.length;
+  }
+
+  /**
+   *  Get the number of rays in the packet.
+   */
+  public int size()
+  {
+    return this.size;
+  }
+
+  /**
+   *  Get a ray.
+   *  @param i The ray's index.
+   *  @return The ray.
+   */
+  public Ray getRay(int i)
+  {
+    return this.rays[i];
+  }
+
+  /**
+   *  Get the intersections found for a ray.
+   *  @param i The ray's index.
+   *  @return The intersection list.
+   */
+  public IntersectionList getIntersections(int i)
+  {
+    return this.intersections[i];
+  }
+}
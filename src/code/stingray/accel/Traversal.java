@@ -0,0 +1,166 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.accel;
+
+import java.util.*;
+
+import stingray.*;
+import stingray.geometry.*;
+
+
+/**
+ *  Scratch storage for traversing acceleration structures. <p>
+ *
+ *  Traversal needs a node stack, per ray limits for packets, mailbox stamps, the state of a
+ *  walk through grid cells and somewhere to collect the hits of occlusion tests.  A <code>Traversal</code> holds these so they can
+ *  be reused from one ray to the next rather than allocated each time.  It is not thread
+ *  safe: each rendering thread should have its own.
+ */
+public final class Traversal
+{
+  /** Node stack. */
+  final int[] stack;
+
+  /** First active ray of each stacked node, for packets. */
+  final int[] firsts;
+
+  /** Per ray limits, for packets. */
+  private double[] limits;
+
+  /** Mailbox stamps: the last ray id each primitive was tested against. */
+  private int[] stamps;
+
+  /** The structure the stamps belong to. */
+  private Object stampOwner;
+
+  /** Last ray id issued. */
+  private int ray;
+
+  /** Grid walk: the ray's origin and direction, by axis. */
+  final double[] origin;
+  final double[] direction;
+
+  /** Grid walk: the current cell, the step to the next, and the cell beyond the grid, by axis. */
+  final int[] cell;
+  final int[] step;
+  final int[] out;
+
+  /** Grid walk: the ray length at the next cell boundary, and between boundaries, by axis. */
+  final double[] next;
+  final double[] delta;
+
+  /** Hits found by occlusion tests. */
+  private final IntersectionList hits;
+
+  /** The object found by the last successful occlusion test. */
+  Geometry occluder;
+
+  /**
+   *  Constructor.
+   */
+  public Traversal()
+  {
+    this.stack = new int[Bvh.STACK_SIZE];
+    this.firsts = new int[Bvh.STACK_SIZE];
+    this.limits = new double[0];
+    this.stamps = new int[0];
+    this.origin = new double[3];
+    this.direction = new double[3];
+    this.cell = new int[3];
+    this.step = new int[3];
+    this.out = new int[3];
+    this.next = new double[3];
+    this.delta = new double[3];
+    this.hits = new IntersectionList(null);
+  }
+
+  /**
+   *  Get storage for per ray limits.
+   *  @param n The number of rays.
+   *  @return An array of at least the given length, with unspecified contents.
+   */
+  double[] limits(int n)
+  {
+    if (this.limits.length < n)
+    {
+      this.limits = new double[n];
+    }
+    return this.limits;
+  }
+
+  /**
+   *  Get an empty list for collecting the hits of an occlusion test.
+   *  @param ray The ray being tested.
+   *  @return The list.
+   */
+  IntersectionList hits(Ray ray)
+  {
+    this.hits.reset(ray);
+    return this.hits;
+  }
+
+  /**
+   *  Get the object found by the last successful occlusion test.
+   *  @return The occluder.
+   */
+  public Geometry getOccluder()
+  {
+    return this.occluder;
+  }
+
+  /**
+   *  Get the mailbox stamps for a structure.  If the stamps last belonged to another
+   *  structure, they are cleared.
+   *  @param owner The structure.
+   *  @param primitives The number of primitives in the structure.
+   *  @return The stamps, indexed by primitive.
+   */
+  int[] stamps(Object owner, int primitives)
+  {
+    if (this.stampOwner != owner || this.stamps.length < primitives)
+    {
+      this.stamps = (this.stamps.length < primitives) ? new int[primitives] : this.stamps;
+      Arrays.fill(this.stamps, 0);
+      this.stampOwner = owner;
+      this.ray = 0;
+    }
+    return this.stamps;
+  }
+
+  /**
+   *  Issue a new ray id for the mailbox stamps.
+   */
+  int nextRay()
+  {
+    if (++this.ray == 0)                                             // on wrap around, forget all stamps
+    {
+      Arrays.fill(this.stamps, 0);
+      this.ray = 1;
+    }
+    return this.ray;
+  }
+}
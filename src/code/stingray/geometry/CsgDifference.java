@@ -94,18 +94,17 @@ public final class CsgDifference implements Geometry
    *  because of a bug, an intersection does not occur here, a <code>RayMissedException</code> 
    *  can be raised).  <p>
    *  
-   *  The given list of lights are the lights that are <i>actually</i> illuminating this geometry.
-   *  The lights in the list may be actual light sources, or pseudo light sources synthesised
-   *  as a result of a reflected light ray.
+   *  The given illumination records which of the candidate lights are <i>actually</i>
+   *  illuminating this geometry, along with their directions and distances.
    *  
    *  @param context The render context.
    *  @param recurseNo Recursion count.
    *  @param intersection The intersection where the light strikes the geometry.
-   *  @param lights The illuminating lights.
+   *  @param illumination The lights, and their visibility.
    *  @return The colour at this point.
    *  @throws RayMissedException If we cannot compute a colour for this point.
    */
-  public Colour getColourAt(RenderContext context, int recurseNo, Intersection intersection, List<Light> lights) throws RayMissedException
+  public Colour getColourAt(RenderContext context, int recurseNo, Intersection intersection, Illumination illumination) throws RayMissedException
   {
     Geometry g = intersection.getGeometry();
     
@@ -113,10 +112,35 @@ public final class CsgDifference implements Geometry
                               recurseNo,
                               intersection,
                               g.getSurfaceNormal(intersection).scale(-1),
-                              lights,
+                              illumination,
                               texture);
   }
   
+  /**
+   *  Get the primary geometry.
+   */
+  public Geometry getPrimary()
+  {
+    return this.primary;
+  }
+  
+  /**
+   *  Get the clip geometry.
+   */
+  public Geometry getClip()
+  {
+    return this.clip;
+  }
+  
+  /**
+   *  Get the texture the geometry is shaded with.
+   *  @return The texture.
+   */
+  public Texture getTexture()
+  {
+    return this.texture;
+  }
+  
   /**
    *  Get the surface normal at the given ray/geometry intersection point.
    *  @param intersection The intersection.
@@ -147,6 +171,53 @@ public final class CsgDifference implements Geometry
     return false;
   }
   
+  /**
+   *  Get the axis aligned bounds of the geometry.
+   *  @return The bounds of the primary geometry (clipping can only remove from it).
+   */
+  public Bounds getBounds()
+  {
+    return primary.getBounds();
+  }
+  
+  /**
+   *  Are the objects equivalent?
+   */
+  @Override
+  public boolean equals(Object o)
+  {
+    if (this == o)
+    {
+      return true;
+    }
+    else
+    {
+      if (o instanceof CsgDifference)
+      {
+        final CsgDifference that = (CsgDifference) o;
+        
+        return this.primary.equals(that.primary) &&
+               this.clip.equals(that.clip) &&
+               this.texture.equals(that.texture);
+      }
+      else
+      {
+        return false;
+      }
+    }
+  }
+  
+  /**
+   *  Compute the hashcode.
+   */
+  @Override
+  public int hashCode()
+  {
+    return 1 * this.primary.hashCode() +
+           3 * this.clip.hashCode() +
+           5 * this.texture.hashCode();
+  }
+  
   /**
    *  Get a string representation.
    */
@@ -86,18 +86,17 @@ public final class CsgIntersection implements Geometry
    *  because of a bug, an intersection does not occur here, a <code>RayMissedException</code> 
    *  can be raised).  <p>
    *  
-   *  The given list of lights are the lights that are <i>actually</i> illuminating this geometry.
-   *  The lights in the list may be actual light sources, or pseudo light sources synthesised
-   *  as a result of a reflected light ray.
+   *  The given illumination records which of the candidate lights are <i>actually</i>
+   *  illuminating this geometry, along with their directions and distances.
    *  
    *  @param context The render context.
    *  @param recurseNo Recursion count.
    *  @param intersection The intersection where the light strikes the geometry.
-   *  @param lights The illuminating lights.
+   *  @param illumination The lights, and their visibility.
    *  @return The colour at this point.
    *  @throws RayMissedException If we cannot compute a colour for this point.
    */
-  public Colour getColourAt(RenderContext context, int recurseNo, Intersection intersection, List<Light> lights) throws RayMissedException
+  public Colour getColourAt(RenderContext context, int recurseNo, Intersection intersection, Illumination illumination) throws RayMissedException
   {
     Geometry g = intersection.getGeometry();
     
@@ -105,10 +104,35 @@ public final class CsgIntersection implements Geometry
                               recurseNo,
                               intersection,
                               g.getSurfaceNormal(intersection),
-                              lights,
+                              illumination,
                               texture);
   }
   
+  /**
+   *  Get the first geometry.
+   */
+  public Geometry getFirst()
+  {
+    return this.first;
+  }
+  
+  /**
+   *  Get the second geometry.
+   */
+  public Geometry getSecond()
+  {
+    return this.second;
+  }
+  
+  /**
+   *  Get the texture the geometry is shaded with.
+   *  @return The texture.
+   */
+  public Texture getTexture()
+  {
+    return this.texture;
+  }
+  
   /**
    *  Get the surface normal at the given ray/geometry intersection point.
    *  @param intersection The intersection.
@@ -139,6 +163,67 @@ public final class CsgIntersection implements Geometry
     return false;
   }
   
+  /**
+   *  Get the axis aligned bounds of the geometry.
+   *  @return The region common to both pieces of geometry, or null if both are unbounded.
+   */
+  public Bounds getBounds()
+  {
+    final Bounds b1 = first.getBounds();
+    final Bounds b2 = second.getBounds();
+    
+    if (b1 == null)
+    {
+      return b2;
+    }
+    else if (b2 == null)
+    {
+      return b1;
+    }
+    else
+    {
+      return b1.intersection(b2);
+    }
+  }
+  
+  /**
+   *  Are the objects equivalent?
+   */
+  @Override
+  public boolean equals(Object o)
+  {
+    if (this == o)
+    {
+      return true;
+    }
+    else
+    {
+      if (o instanceof CsgIntersection)
+      {
+        final CsgIntersection that = (CsgIntersection) o;
+        
+        return this.first.equals(that.first) &&
+               this.second.equals(that.second) &&
+               this.texture.equals(that.texture);
+      }
+      else
+      {
+        return false;
+      }
+    }
+  }
+  
+  /**
+   *  Compute the hashcode.
+   */
+  @Override
+  public int hashCode()
+  {
+    return 1 * this.first.hashCode() +
+           3 * this.second.hashCode() +
+           5 * this.texture.hashCode();
+  }
+  
   /**
    *  Get a string representation.
    */
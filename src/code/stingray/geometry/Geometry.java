@@ -51,6 +51,12 @@ public interface Geometry extends Translatable
    */
   public boolean contains(Vector point);
   
+  /**
+   *  Get the axis aligned bounds of the geometry.
+   *  @return The bounds, or null if the geometry is unbounded (such as a plane).
+   */
+  public Bounds getBounds();
+  
   /**
    *  Get the surface normal at the given ray/geometry intersection point.
    *  @param intersection The intersection.
@@ -58,6 +64,12 @@ public interface Geometry extends Translatable
    */
   public Vector getSurfaceNormal(Intersection intersection);
   
+  /**
+   *  Get the texture the geometry is shaded with.
+   *  @return The texture.
+   */
+  public Texture getTexture();
+  
   /**
    *  Get the colour at the given ray/geometry intersection point.  <p>
    *  
@@ -65,16 +77,16 @@ public interface Geometry extends Translatable
    *  because of a bug, an intersection does not occur here, a <code>RayMissedException</code> 
    *  can be raised).  <p>
    *  
-   *  The given list of lights are the lights that are <i>actually</i> illuminating this geometry.
-   *  The lights in the list may be actual light sources, or pseudo light sources synthesised
-   *  as a result of a reflected light ray.
+   *  The given illumination records which of the candidate lights are <i>actually</i>
+   *  illuminating this geometry, along with their directions and distances.  If it is null,
+   *  the lights are found only if the surface is lit (mirrors are not).
    *  
    *  @param context The render context.
    *  @param recurseNo Recursion count.
    *  @param intersection The intersection where the light strikes the geometry.
-   *  @param lights The illuminating lights.
+   *  @param illumination The lights, and their visibility (or null to find them as needed).
    *  @return The colour at this point.
    *  @throws RayMissedException If we cannot compute a colour for this point.
    */
-  public Colour getColourAt(RenderContext context, int recurseNo, Intersection intersection, List<Light> lights) throws RayMissedException;
+  public Colour getColourAt(RenderContext context, int recurseNo, Intersection intersection, Illumination illumination) throws RayMissedException;
 }
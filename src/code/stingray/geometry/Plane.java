@@ -86,20 +86,28 @@ public final class Plane implements Geometry
    *  because of a bug, an intersection does not occur here, a <code>RayMissedException</code> 
    *  can be raised).  <p>
    *  
-   *  The given list of lights are the lights that are <i>actually</i> illuminating this geometry.
-   *  The lights in the list may be actual light sources, or pseudo light sources synthesised
-   *  as a result of a reflected light ray.
+   *  The given illumination records which of the candidate lights are <i>actually</i>
+   *  illuminating this geometry, along with their directions and distances.
    *  
    *  @param context The render context.
    *  @param recurseNo Recursion count.
    *  @param intersection The intersection where the light strikes the geometry.
-   *  @param lights The illuminating lights.
+   *  @param illumination The lights, and their visibility.
    *  @return The colour at this point.
    *  @throws RayMissedException If we cannot compute a colour for this point.
    */
-  public Colour getColourAt(RenderContext context, int recurseNo, Intersection intersection, List<Light> lights) throws RayMissedException
+  public Colour getColourAt(RenderContext context, int recurseNo, Intersection intersection, Illumination illumination) throws RayMissedException
   {
-    return Lighting.getColour(context, recurseNo, intersection, normal, lights, texture);
+    return Lighting.getColour(context, recurseNo, intersection, normal, illumination, texture);
+  }
+  
+  /**
+   *  Get the texture the geometry is shaded with.
+   *  @return The texture.
+   */
+  public Texture getTexture()
+  {
+    return this.texture;
   }
   
   /**
@@ -132,9 +140,67 @@ public final class Plane implements Geometry
     return false;                                                    // TODO: add a test
   }
   
+  /**
+   *  Get the axis aligned bounds of the geometry.
+   *  @return Always null, as a plane is unbounded.
+   */
+  public Bounds getBounds()
+  {
+    return null;
+  }
+  
   @Override
   public String toString()
   {
     return "Plane[normal: " + normal + "; offset: " + offset + "]"; 
   }
+  
+  /**
+   *  Are the planes equivalent?
+   */
+  @Override
+  public boolean equals(Object o)
+  {
+    if (this == o)
+    {
+      return true;
+    }
+    else
+    {
+      if (o instanceof Plane)
+      {
+        final Plane that = (Plane) o;
+        
+        return this.normal.equals(that.normal) &&
+               Double.doubleToLongBits(this.offset) == Double.doubleToLongBits(that.offset) &&
+               this.texture.equals(that.texture);
+      }
+      else
+      {
+        return false;
+      }
+    }
+  }
+  
+  /**
+   *  Compute the hashcode.
+   */
+  @Override
+  public int hashCode()
+  {
+    return 1 * this.normal.hashCode() +
+           3 * hashCode(this.offset) +
+           5 * this.texture.hashCode();
+  }
+  
+  /**
+   *  Double hash code calculation.
+   *  @param value The double value to calculate the hashcode for.
+   *  @return The hashcode for the double value.
+   */
+  private static final int hashCode(double value)
+  {
+    long bits = Double.doubleToLongBits(value);
+    return (int) (bits ^ (bits >>> 32));
+  }
 }
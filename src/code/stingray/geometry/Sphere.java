@@ -67,30 +67,43 @@ public final class Sphere implements Geometry
   public void intersect(Ray ray, IntersectionList intersections)
   {
     // Our calculations require the sphere to be centred at the origin, so
-    // we first adjust the ray's origin accordingly.
+    // we first adjust the ray's origin accordingly.  The quadratic is then solved
+    // as in QuadraticMath.solve(), but without allocating intermediate vectors.
     
-    final Vector adjustedRayOrigin;                                  // adjusted ray
-    final double[] solutions;                                        // sphere/ray intersection solutions
+    final Vector origin = ray.getOrigin();
+    final Vector direction = ray.getDirection();
+    final double ux = origin.getX() - centre.getX();                 // adjusted ray origin
+    final double uy = origin.getY() - centre.getY();
+    final double uz = origin.getZ() - centre.getZ();
+    final double dx = direction.getX();
+    final double dy = direction.getY();
+    final double dz = direction.getZ();
     
-    adjustedRayOrigin = ray.getOrigin().subtract(centre);            // adjust the ray origin
-    solutions = QuadraticMath.solve(adjustedRayOrigin,               // solve the sphere/ray intersection
-                                    ray.getDirection(), 
-                                    radius);
+    final double a = (dx * dx) + (dy * dy) + (dz * dz);
+    final double b = ((ux * 2) * dx) + ((uy * 2) * dy) + ((uz * 2) * dz);
+    final double c = ((ux * ux) + (uy * uy) + (uz * uz)) - (radius * radius);
+    final double bb = b * b;
+    final double ac4 = 4 * a * c;
+    
+    if (bb < ac4)                                                    // discriminant will be less than zero ...
+    {
+      return;                                                        // ... no intersection
+    }
+    
+    final double t1 = (b > 0) ? (-b - Math.sqrt(bb - ac4)) / (2 * a) : (-b + Math.sqrt(bb - ac4)) / (2 * a);
+    final double t2 = c / (a * t1);
     
     // Now we insepct the solutions.  The solution tells us how far down the ray an intersection occurred.
     // If the distance is negative, the intersection occurs in the "wrong" direction, and can be discarded.
     
-    if (solutions != null)                                           // if an intersection occurred ...
+    if (t1 > 0)                                                      // is the intersection in the ray's positive direction?
     {
-      if (solutions[0] > 0)                                          // is the intersection in the ray's positive direction?
-      {
-        intersections.add(this, solutions[0]);                       // ... yes, retain this intersection
-      }
-      
-      if (solutions[1] > 0)                                          // and is this in the positive direction?
-      {
-        intersections.add(this, solutions[1]);                       // ...yes, retain this intersection
-      }
+      intersections.add(this, t1);                                   // ... yes, retain this intersection
+    }
+    
+    if (t2 > 0)                                                      // and is this in the positive direction?
+    {
+      intersections.add(this, t2);                                   // ...yes, retain this intersection
     }
   }
  
@@ -101,18 +114,17 @@ public final class Sphere implements Geometry
    *  because of a bug, an intersection does not occur here, a <code>RayMissedException</code> 
    *  can be raised).  <p>
    *  
-   *  The given list of lights are the lights that are <i>actually</i> illuminating this geometry.
-   *  The lights in the list may be actual light sources, or pseudo light sources synthesised
-   *  as a result of a reflected light ray.
+   *  The given illumination records which of the candidate lights are <i>actually</i>
+   *  illuminating this geometry, along with their directions and distances.
    *  
    *  @param context The render context.
    *  @param recurseNo Recursion count.
    *  @param intersection The intersection where the light strikes the geometry.
-   *  @param lights The illuminating lights.
+   *  @param illumination The lights, and their visibility.
    *  @return The colour at this point.
    *  @throws RayMissedException If we cannot compute a colour for this point.
    */
-  public Colour getColourAt(RenderContext context, int recurseNo, Intersection intersection, List<Light> lights) throws RayMissedException
+  public Colour getColourAt(RenderContext context, int recurseNo, Intersection intersection, Illumination illumination) throws RayMissedException
   {
     final Vector intersect;                                          // intersection point
     final Vector normal;                                             // sphere surface normal
@@ -133,11 +145,20 @@ public final class Sphere implements Geometry
                               recurseNo,
                               intersection, 
                               normal, 
-                              lights, 
+                              illumination, 
                               texture);
     // }
   }
   
+  /**
+   *  Get the texture the geometry is shaded with.
+   *  @return The texture.
+   */
+  public Texture getTexture()
+  {
+    return this.texture;
+  }
+  
   /**
    *  Get the surface normal at the given ray/geometry intersection point.
    *  @param intersection The intersection.
@@ -174,6 +195,65 @@ public final class Sphere implements Geometry
     return distance - radius <= Rays.eps;
   }
   
+  /**
+   *  Get the axis aligned bounds of the geometry.
+   *  @return The bounds.
+   */
+  public Bounds getBounds()
+  {
+    return new Bounds(centre.getX() - radius, centre.getY() - radius, centre.getZ() - radius,
+                      centre.getX() + radius, centre.getY() + radius, centre.getZ() + radius);
+  }
+  
+  /**
+   *  Are the spheres equivalent?
+   */
+  @Override
+  public boolean equals(Object o)
+  {
+    if (this == o)
+    {
+      return true;
+    }
+    else
+    {
+      if (o instanceof Sphere)
+      {
+        final Sphere that = (Sphere) o;
+        
+        return this.centre.equals(that.centre) &&
+               Double.doubleToLongBits(this.radius) == Double.doubleToLongBits(that.radius) &&
+               this.texture.equals(that.texture);
+      }
+      else
+      {
+        return false;
+      }
+    }
+  }
+  
+  /**
+   *  Compute the hashcode.
+   */
+  @Override
+  public int hashCode()
+  {
+    return 1 * this.centre.hashCode() +
+           3 * hashCode(this.radius) +
+           5 * this.texture.hashCode();
+  }
+  
+  /**
+   *  Double hash code calculation.
+   *  @param value The double value to calculate the hashcode for.
+   *  @return The hashcode for the double value.
+   */
+  private static final int hashCode(double value)
+  {
+    long bits = Double.doubleToLongBits(value);
+    return (int) (bits ^ (bits >>> 32));
+  }
+  
   /**
    *  Get a string representation.
    */
@@ -0,0 +1,78 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.server;
+
+import java.util.concurrent.locks.*;
+
+import stingray.*;
+
+
+/**
+ *  A frozen stage held by the stage cache, with its content digest.
+ */
+public final class CachedStage
+{
+  /** The stage. */
+  private final Stage stage;
+  
+  /** Content digest (or null if the stage can't be digested). */
+  private final String digest;
+  
+  /** Held while the stage renders: a stage renders one image at a time. */
+  final ReentrantLock lock;
+  
+  /**
+   *  Constructor.
+   *  @param stage The stage, which is frozen.
+   */
+  CachedStage(Stage stage)
+  {
+    stage.freeze();
+    
+    this.stage = stage;
+    this.digest = SceneDigest.digest(stage);
+    this.lock = new ReentrantLock();
+  }
+  
+  /**
+   *  Get the stage.
+   */
+  public Stage getStage()
+  {
+    return this.stage;
+  }
+  
+  /**
+   *  Get the stage's content digest.
+   *  @return The digest, or null if the stage can't be digested.
+   *  @see SceneDigest
+   */
+  public String getDigest()
+  {
+    return this.digest;
+  }
+}
@@ -0,0 +1,297 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.server;
+
+import java.io.*;
+import java.util.*;
+
+
+/**
+ *  A content addressed cache of finished renders, on disk. <p>
+ *
+ *  Each render is stored as a PNG file in the cache directory, named for its key (the
+ *  renderer version, a stage's content digest and the render size), so a repeated request
+ *  is answered by reading a file.  The cache is bounded by a size in bytes; the least
+ *  recently used files are deleted to stay within it.  Use is recorded in each file's
+ *  modification time, so the order survives a restart.  Files are written to a temporary
+ *  file and renamed, so a file under its final name is always complete.
+ */
+public final class RenderCache
+{
+  /** Default size budget, in bytes. */
+  public static final long DEFAULT_BUDGET = 256L << 20;
+  
+  /**
+   *  Version of the renderer's output, which is part of every key.  Increment it whenever a
+   *  change to the renderer alters the images it produces, so that renders cached before the
+   *  change are no longer served (they age out of the cache instead).
+   */
+  public static final int VERSION = 1;
+  
+  /** Suffix of cached files. */
+  private static final String SUFFIX = ".png";
+  
+  /** Cache directory. */
+  private final File directory;
+  
+  /** Size budget, in bytes. */
+  private final long budget;
+  
+  /** File sizes, by key, least recently used first. */
+  private final LinkedHashMap<String, Long> entries;
+  
+  /** Bytes of files held. */
+  private long size;
+  
+  /** Number of lookups that found their render. */
+  private long hits;
+  
+  /** Number of lookups that didn't. */
+  private long misses;
+  
+  /**
+   *  Constructor.  Renders already in the directory are kept, within the budget.
+   *  @param directory The cache directory, which is created if need be.
+   *  @param budget The size budget, in bytes.
+   *  @throws IOException If the directory can't be created.
+   *  @throws IllegalArgumentException If the budget is not positive.
+   */
+  public RenderCache(File directory, long budget) throws IOException, IllegalArgumentException
+  {
+    if (budget <= 0)
+    {
+      throw new IllegalArgumentException("budget must be positive; was: " + budget);
+    }
+    if (! directory.isDirectory() && ! directory.mkdirs())
+    {
+      throw new IOException("cannot create cache directory: " + directory);
+    }
+    
+    this.directory = directory;
+    this.budget = budget;
+    this.entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    
+    final File[] files = directory.listFiles(new FileFilter()
+    {
+      public boolean accept(File f)
+      {
+        return f.isFile() && f.getName().endsWith(SUFFIX);
+      }
+    });
+    
+    Arrays.sort(files, new Comparator<File>()                        // least recently used first
+    {
+      public int compare(File f1, File f2)
+      {
+        final long m1 = f1.lastModified();
+        final long m2 = f2.lastModified();
+        
+        return (m1 < m2) ? -1 : (m1 == m2) ? f1.getName().compareTo(f2.getName()) : 1;
+      }
+    });
+    
+    synchronized (this)
+    {
+      for (File f : files)
+      {
+        final String name = f.getName();
+        
+        this.entries.put(name.substring(0, name.length() - SUFFIX.length()), f.length());
+        this.size += f.length();
+      }
+      evict();
+    }
+  }
+  
+  /**
+   *  Get the key of a render by this version of the renderer.
+   *  @param digest The stage's content digest.
+   *  @param width The width, in pixels.
+   *  @param height The height, in pixels.
+   *  @return The key.
+   */
+  public static String key(String digest, int width, int height)
+  {
+    return "v" + VERSION + "-" + digest + "-" + width + "x" + height;
+  }
+  
+  /**
+   *  Get a cached render.
+   *  @param key The render's key.
+   *  @return The PNG, or null if it isn't cached.
+   */
+  public byte[] get(String key)
+  {
+    final File file = getFile(key);
+    
+    synchronized (this)
+    {
+      if (this.entries.get(key) == null)
+      {
+        this.misses++;
+        return null;
+      }
+    }
+    
+    final byte[] png;
+    
+    try
+    {
+      png = read(file);
+    }
+    catch (IOException ex)                                           // evicted meanwhile, or removed by hand
+    {
+      synchronized (this)
+      {
+        final Long length = this.entries.remove(key);
+        
+        this.size -= (length == null) ? 0 : length;
+        this.misses++;
+      }
+      return null;
+    }
+    
+    synchronized (this)
+    {
+      this.hits++;
+    }
+    file.setLastModified(System.currentTimeMillis());                // record the use
+    return png;
+  }
+  
+  /**
+   *  Cache a render, evicting the least recently used renders if the budget is exceeded.
+   *  @param key The render's key.
+   *  @param png The PNG.
+   *  @throws IOException If the render can't be written.
+   */
+  public void put(String key, byte[] png) throws IOException
+  {
+    final File file = getFile(key);
+    final File temporary = File.createTempFile("render", ".tmp", this.directory);
+    boolean stored = false;
+    
+    try
+    {
+      final OutputStream out = new FileOutputStream(temporary);
+      
+      try
+      {
+        out.write(png);
+      }
+      finally
+      {
+        out.close();
+      }
+      
+      synchronized (this)
+      {
+        file.delete();                                               // (renaming over a file fails on some platforms)
+        if (! temporary.renameTo(file))
+        {
+          throw new IOException("cannot write cached render: " + file);
+        }
+        stored = true;
+        
+        final Long old = this.entries.put(key, (long) png.length);
+        
+        this.size += png.length - ((old == null) ? 0 : old);
+        evict();
+      }
+    }
+    finally
+    {
+      if (! stored)                                                  // (don't leave partial files behind)
+      {
+        temporary.delete();
+      }
+    }
+  }
+  
+  /**
+   *  Delete the least recently used renders until the cache is within its budget.
+   */
+  private void evict()
+  {
+    final Iterator<Map.Entry<String, Long>> eldest = this.entries.entrySet().iterator();
+    
+    while (this.size > this.budget && eldest.hasNext())
+    {
+      final Map.Entry<String, Long> entry = eldest.next();
+      
+      getFile(entry.getKey()).delete();
+      this.size -= entry.getValue();
+      eldest.remove();
+    }
+  }
+  
+  private File getFile(String key)
+  {
+    return new File(this.directory, key + SUFFIX);
+  }
+  
+  private static byte[] read(File file) throws IOException
+  {
+    final DataInputStream in = new DataInputStream(new FileInputStream(file));
+    
+    try
+    {
+      final byte[] bytes = new byte[(int) file.length()];
+      
+      in.readFully(bytes);
+      return bytes;
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+  
+  /**
+   *  Get the bytes of renders held.
+   */
+  public synchronized long getSize()
+  {
+    return this.size;
+  }
+  
+  /**
+   *  Get the number of lookups that found their render.
+   */
+  public synchronized long getHits()
+  {
+    return this.hits;
+  }
+  
+  /**
+   *  Get the number of lookups that didn't find their render.
+   */
+  public synchronized long getMisses()
+  {
+    return this.misses;
+  }
+}
@@ -0,0 +1,69 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.server;
+
+import java.util.concurrent.*;
+
+
+/**
+ *  A queued render.  Jobs are ordered by priority, highest first, and then in the order they
+ *  were submitted.
+ */
+final class RenderJob extends FutureTask<byte[]> implements Comparable<RenderJob>
+{
+  /** Priority (higher runs first). */
+  private final int priority;
+  
+  /** Submission order. */
+  private final long sequence;
+  
+  /**
+   *  Constructor.
+   *  @param render The render, which returns the encoded image.
+   *  @param priority The priority (higher runs first).
+   *  @param sequence The submission order.
+   */
+  RenderJob(Callable<byte[]> render, int priority, long sequence)
+  {
+    super(render);
+    this.priority = priority;
+    this.sequence = sequence;
+  }
+  
+  /**
+   *  Compare jobs: the job to run first is the lesser.
+   */
+  public int compareTo(RenderJob that)
+  {
+    if (this.priority != that.priority)
+    {
+      return (this.priority > that.priority) ? -1 : 1;
+    }
+    
+    return (this.sequence < that.sequence) ? -1 : (this.sequence == that.sequence) ? 0 : 1;
+  }
+}
@@ -0,0 +1,534 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.server;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.imageio.*;
+import javax.script.*;
+
+import com.sun.net.httpserver.*;
+
+import stingray.*;
+
+
+/**
+ *  A long running render service.  Scene scripts are posted over HTTP and rendered to PNG,
+ *  in a JVM that stays warm between renders. <p>
+ *
+ *  Frozen stages are cached by a hash of their script source (see {@link StageCache}), so
+ *  rendering a scene again skips evaluating the script and building the acceleration
+ *  structure.  Finished renders are cached on disk by the stage's content digest and the
+ *  render size (see {@link RenderCache}), so a repeated render, even from a script written
+ *  differently, is read rather than rendered.  A new render is made incrementally from the
+ *  last render of the same size where it can be: tiles that can't see what changed are
+ *  copied, not rendered again.  Renders are queued by priority, and at most
+ *  <i>concurrency</i> of them run at once, each with a share of the processors. <p>
+ *
+ *  Requests:
+ *  <ul>
+ *    <li><code>POST /render?width=800&amp;height=800&amp;priority=0&amp;name=scene</code>, with
+ *        the script source as the body: responds with the PNG.  All parameters are optional.
+ *        A failing script gets a 400 response; a full queue, 503.</li>
+ *    <li><code>GET /status</code>: responds with the queue length and cache statistics.</li>
+ *  </ul>
+ *
+ *  Usage: <code>RenderServer [port [concurrency [queue [cache directory]]]]</code>.  The
+ *  server listens on the loopback interface only.
+ */
+public final class RenderServer
+{
+  /** Default port. */
+  public static final int DEFAULT_PORT = 8808;
+  
+  /** Default image size, in pixels along each side. */
+  private static final int DEFAULT_SIZE = 800;
+  
+  /** Largest image size accepted, in pixels along each side. */
+  private static final int MAX_SIZE = 8192;
+  
+  /** Largest script accepted, in bytes. */
+  private static final int MAX_SOURCE = 1 << 20;
+  
+  /** Stages cached. */
+  private static final int CACHED_STAGES = 16;
+  
+  /** Sizes whose last rendered stage is kept, to update incrementally. */
+  private static final int LAST_RENDERED = 4;
+  
+  /** HTTP server. */
+  private final HttpServer server;
+  
+  /** Frozen stages, by script source. */
+  private final StageCache stages;
+  
+  /** Finished renders (or null to render every request). */
+  private final RenderCache results;
+  
+  /** The stage last rendered at recent sizes, by size, least recently used first. */
+  private final LinkedHashMap<String, CachedStage> lastRendered;
+  
+  /** Render threads, taking jobs by priority. */
+  private final ThreadPoolExecutor renderers;
+  
+  /** Largest number of jobs waiting to run. */
+  private final int maxQueued;
+  
+  /** Threads each render runs on. */
+  private final int threadsPerRender;
+  
+  /** Submission counter, ordering jobs of equal priority. */
+  private final AtomicLong sequence;
+  
+  /** Number of renders completed. */
+  private final AtomicLong rendered;
+  
+  /** Number of completed renders that couldn't be stored in the render cache. */
+  private final AtomicLong storesFailed;
+  
+  /**
+   *  Constructor.  The server doesn't listen until started.
+   *  @param address The address to listen on (a port of zero picks any free port).
+   *  @param concurrency The number of renders run at once.
+   *  @param maxQueued The number of renders that may wait to run; further requests are refused.
+   *  @param results The cache of finished renders (or null to render every request).
+   *  @throws IOException If the address can't be bound.
+   *  @throws IllegalArgumentException If the concurrency is not positive, or the queue
+   *                                   length is negative.
+   */
+  public RenderServer(InetSocketAddress address, int concurrency, int maxQueued, RenderCache results) throws IOException, IllegalArgumentException
+  {
+    if (concurrency <= 0)
+    {
+      throw new IllegalArgumentException("concurrency must be positive; was: " + concurrency);
+    }
+    if (maxQueued < 0)
+    {
+      throw new IllegalArgumentException("queue length must not be negative; was: " + maxQueued);
+    }
+    
+    this.stages = new StageCache(CACHED_STAGES);
+    this.results = results;
+    this.lastRendered = new LinkedHashMap<String, CachedStage>(16, 0.75f, true);
+    this.maxQueued = maxQueued;
+    this.threadsPerRender = Math.max(1, Runtime.getRuntime().availableProcessors() / concurrency);
+    this.sequence = new AtomicLong();
+    this.rendered = new AtomicLong();
+    this.storesFailed = new AtomicLong();
+    this.renderers = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.SECONDS, 
+                                            new PriorityBlockingQueue<Runnable>());
+    
+    this.server = HttpServer.create(address, 0);
+    this.server.createContext("/render", new RenderHandler());
+    this.server.createContext("/status", new StatusHandler());
+    this.server.setExecutor(Executors.newCachedThreadPool());     // (requests wait on their renders)
+  }
+  
+  /**
+   *  Start listening.
+   */
+  public void start()
+  {
+    this.server.start();
+  }
+  
+  /**
+   *  Stop listening, and abandon any queued renders.
+   */
+  public void stop()
+  {
+    this.server.stop(0);
+    this.renderers.shutdownNow();
+  }
+  
+  /**
+   *  Get the port being listened on.
+   */
+  public int getPort()
+  {
+    return this.server.getAddress().getPort();
+  }
+  
+  /**
+   *  Queue a render.
+   *  @param source The scene script source.
+   *  @param name The name for the rendering.
+   *  @param width The width, in pixels.
+   *  @param height The height, in pixels.
+   *  @param priority The priority (higher runs first).
+   *  @return The job, whose result is the rendering encoded as PNG.
+   *  @throws RejectedExecutionException If the queue is full, or the server has stopped.
+   */
+  Future<byte[]> submit(final String source, final String name, final int width, final int height, int priority) throws RejectedExecutionException
+  {
+    if (this.renderers.getQueue().size() >= this.maxQueued && this.renderers.getActiveCount() >= this.renderers.getCorePoolSize())
+    {
+      throw new RejectedExecutionException("render queue is full");
+    }
+    
+    final RenderJob job = new RenderJob(new Callable<byte[]>()
+    {
+      public byte[] call() throws ScriptException, IOException
+      {
+        return render(source, name, width, height);
+      }
+    }, priority, this.sequence.getAndIncrement());
+    
+    this.renderers.execute(job);
+    return job;
+  }
+  
+  /**
+   *  Render a scene script, or read its render from the cache.
+   *  @return The rendering encoded as PNG.
+   */
+  private byte[] render(String source, String name, int width, int height) throws ScriptException, IOException
+  {
+    final CachedStage stage = this.stages.get(source);
+    final String key = (this.results != null && stage.getDigest() != null) ? RenderCache.key(stage.getDigest(), width, height) : null;
+    
+    if (key != null)
+    {
+      final byte[] png = this.results.get(key);
+      
+      if (png != null)
+      {
+        return png;
+      }
+    }
+    
+    final Rendering r = render(stage, name, width, height);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    
+    r.writePNG(out);
+    this.rendered.incrementAndGet();
+    
+    final byte[] png = out.toByteArray();
+    
+    if (key != null)
+    {
+      try
+      {
+        this.results.put(key, png);
+      }
+      catch (IOException ex)                                         // (the render is still good)
+      {
+        this.storesFailed.incrementAndGet();
+        System.err.println("Exception: " + ex);
+      }
+    }
+    
+    return png;
+  }
+  
+  /**
+   *  Render a stage, updating the last render of the same size if that stage isn't rendering.
+   */
+  private Rendering render(CachedStage stage, String name, int width, int height)
+  {
+    final String size = width + "x" + height;
+    final CachedStage previous;
+    
+    synchronized (this.lastRendered)
+    {
+      previous = this.lastRendered.get(size);
+    }
+    
+    stage.lock.lock();                                               // a stage renders one image at a time
+    try
+    {
+      final boolean reuse = previous != null && previous.lock.tryLock();   // (never wait, so never deadlock)
+      final Rendering r;
+      
+      try
+      {
+        stage.getStage().setThreads(this.threadsPerRender);
+        r = stage.getStage().render(name, width, height, reuse ? previous.getStage() : null);
+      }
+      finally
+      {
+        if (reuse)
+        {
+          previous.lock.unlock();
+        }
+      }
+      
+      remember(size, stage);
+      return r;
+    }
+    finally
+    {
+      stage.lock.unlock();
+    }
+  }
+  
+  /**
+   *  Record the stage last rendered at a size.  Only the most recently rendered sizes are
+   *  kept, and stages the stage cache has dropped are released (a stage holds its last
+   *  rendering).
+   */
+  private void remember(String size, CachedStage stage)
+  {
+    synchronized (this.lastRendered)
+    {
+      this.lastRendered.put(size, stage);
+      
+      int excess = this.lastRendered.size() - LAST_RENDERED;
+      
+      for (Iterator<CachedStage> i = this.lastRendered.values().iterator(); i.hasNext(); )
+      {
+        final CachedStage s = i.next();
+        
+        if (excess-- > 0 || ! this.stages.contains(s))               // (least recently used first)
+        {
+          i.remove();
+        }
+      }
+    }
+  }
+  
+  /**
+   *  Get a description of the server's state.
+   */
+  String getStatus()
+  {
+    final String status = String.format("Queued: %d; Running: %d; Rendered: %d; Stages cached: %d; Stage hits: %d; Stage misses: %d",
+                                        this.renderers.getQueue().size(),
+                                        this.renderers.getActiveCount(),
+                                        this.rendered.get(),
+                                        this.stages.size(),
+                                        this.stages.getHits(),
+                                        this.stages.getMisses());
+    
+    if (this.results == null)
+    {
+      return status;
+    }
+    
+    return status + String.format("; Renders cached: %,d bytes; Render hits: %d; Render misses: %d; Render stores failed: %d",
+                                  this.results.getSize(),
+                                  this.results.getHits(),
+                                  this.results.getMisses(),
+                                  this.storesFailed.get());
+  }
+  
+  /**
+   *  Handles render requests.
+   */
+  private final class RenderHandler implements HttpHandler
+  {
+    public void handle(HttpExchange exchange) throws IOException
+    {
+      try
+      {
+        if (! "POST".equals(exchange.getRequestMethod()))
+        {
+          respond(exchange, 405, "render requests must be posted");
+          return;
+        }
+        
+        final Map<String, String> query = parseQuery(exchange.getRequestURI());
+        final int width = getInt(query, "width", DEFAULT_SIZE, 1, MAX_SIZE);
+        final int height = getInt(query, "height", DEFAULT_SIZE, 1, MAX_SIZE);
+        final int priority = getInt(query, "priority", 0, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        final String name = query.containsKey("name") ? query.get("name") : "render";
+        final String source = readSource(exchange.getRequestBody());
+        final byte[] png;
+        
+        try
+        {
+          png = submit(source, name, width, height, priority).get();
+        }
+        catch (ExecutionException ex)
+        {
+          final Throwable cause = ex.getCause();
+          
+          if (cause instanceof ScriptException)
+          {
+            respond(exchange, 400, cause.getMessage());
+          }
+          else
+          {
+            respond(exchange, 500, String.valueOf(cause));
+          }
+          return;
+        }
+        
+        exchange.getResponseHeaders().set("Content-Type", "image/png");
+        exchange.sendResponseHeaders(200, png.length);
+        exchange.getResponseBody().write(png);
+      }
+      catch (IllegalArgumentException ex)
+      {
+        respond(exchange, 400, ex.getMessage());
+      }
+      catch (RejectedExecutionException ex)
+      {
+        respond(exchange, 503, ex.getMessage());
+      }
+      catch (InterruptedException ex)
+      {
+        Thread.currentThread().interrupt();
+        respond(exchange, 503, "interrupted");
+      }
+      finally
+      {
+        exchange.close();
+      }
+    }
+  }
+  
+  /**
+   *  Handles status requests.
+   */
+  private final class StatusHandler implements HttpHandler
+  {
+    public void handle(HttpExchange exchange) throws IOException
+    {
+      try
+      {
+        respond(exchange, 200, getStatus());
+      }
+      finally
+      {
+        exchange.close();
+      }
+    }
+  }
+  
+  /**
+   *  Send a plain text response.
+   */
+  private static void respond(HttpExchange exchange, int status, String message) throws IOException
+  {
+    final byte[] body = (message + "\n").getBytes("UTF-8");
+    
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    exchange.sendResponseHeaders(status, body.length);
+    exchange.getResponseBody().write(body);
+  }
+  
+  /**
+   *  Read a script from a request body.
+   *  @throws IllegalArgumentException If the script is too long.
+   */
+  private static String readSource(InputStream in) throws IOException, IllegalArgumentException
+  {
+    final ByteArrayOutputStream source = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[8192];
+    
+    for (int n = in.read(buffer); n >= 0; n = in.read(buffer))
+    {
+      source.write(buffer, 0, n);
+      if (source.size() > MAX_SOURCE)
+      {
+        throw new IllegalArgumentException("script must be no longer than " + MAX_SOURCE + " bytes");
+      }
+    }
+    
+    return source.toString("UTF-8");
+  }
+  
+  /**
+   *  Split a request's query string into its parameters.
+   */
+  private static Map<String, String> parseQuery(URI uri) throws UnsupportedEncodingException
+  {
+    final Map<String, String> parameters = new HashMap<String, String>();
+    final String query = uri.getRawQuery();
+    
+    if (query != null)
+    {
+      for (String parameter : query.split("&"))
+      {
+        final int equals = parameter.indexOf('=');
+        
+        if (equals > 0)
+        {
+          parameters.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"), 
+                         URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+        }
+      }
+    }
+    
+    return parameters;
+  }
+  
+  /**
+   *  Get an integer parameter.
+   *  @throws IllegalArgumentException If the parameter is not an integer within the range.
+   */
+  private static int getInt(Map<String, String> parameters, String key, int otherwise, int min, int max) throws IllegalArgumentException
+  {
+    final String value = parameters.get(key);
+    
+    if (value == null)
+    {
+      return otherwise;
+    }
+    
+    final int i;
+    try
+    {
+      i = Integer.parseInt(value);
+    }
+    catch (NumberFormatException ex)
+    {
+      throw new IllegalArgumentException(key + " must be an integer; was: " + value);
+    }
+    
+    if (i < min || i > max)
+    {
+      throw new IllegalArgumentException(key + " must be from " + min + " to " + max + "; was: " + i);
+    }
+    
+    return i;
+  }
+  
+  /**
+   *  Main method.
+   *  @param args Command line arguments: the port, the number of renders run at once, the
+   *              number that may wait, and the directory to cache finished renders in.
+   */
+  public static void main(String[] args) throws IOException
+  {
+    final int port = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+    final int concurrency = (args.length > 1) ? Integer.parseInt(args[1]) : 1;
+    final int queue = (args.length > 2) ? Integer.parseInt(args[2]) : 64;
+    final File directory = (args.length > 3) ? new File(args[3]) : new File(System.getProperty("java.io.tmpdir"), "stingray-renders");
+    final RenderCache results = new RenderCache(directory, RenderCache.DEFAULT_BUDGET);
+    final RenderServer server = new RenderServer(new InetSocketAddress(InetAddress.getByName("localhost"), port), concurrency, queue, results);
+    
+    ImageIO.setUseCache(false);                                      // (encode PNGs in memory)
+    server.start();
+    System.out.println("Stingray render server listening on port " + server.getPort());
+  }
+}
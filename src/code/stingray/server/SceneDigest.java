@@ -0,0 +1,234 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.server;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.security.*;
+import java.util.*;
+
+import stingray.*;
+
+
+/**
+ *  Content digests of stages: two stages with the same digest render the same image. <p>
+ *
+ *  The digest covers the camera, the lights, the geometry (in order) and the settings that
+ *  change the image (the frame number and shadow ray budget), but not those that only change
+ *  how it is computed, such as the acceleration structure or thread count.  Scene objects are
+ *  walked by reflection, field by field; fields that are static or transient (caches, and
+ *  state derived from other fields) are skipped.  Image files are represented by their path,
+ *  length and modification time. <p>
+ *
+ *  Stages holding objects that can't be walked, such as platform classes other than strings,
+ *  boxed primitives, lists and files, have no digest.
+ */
+public abstract class SceneDigest
+{
+  /**
+   *  Get the content digest of a stage.
+   *  @param stage The stage.
+   *  @return The SHA-256 digest, in hexadecimal, or null if the stage holds an object that
+   *          can't be digested.
+   */
+  public static String digest(Stage stage)
+  {
+    try
+    {
+      final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      final DataOutputStream out = new DataOutputStream(new DigestOutputStream(new OutputStream()
+      {
+        @Override
+        public void write(int b)
+        {
+          ;                                                          // (only the digest is wanted)
+        }
+      }, digest));
+      final Set<Object> path = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+      
+      write(out, stage.getCamera(), path);
+      write(out, stage.getLights(), path);
+      write(out, stage.getGeometry(), path);
+      out.writeInt(stage.getFrame());
+      out.writeInt(stage.getShadowRayBudget());
+      out.flush();
+      
+      return toHex(digest.digest());
+    }
+    catch (IllegalArgumentException ex)                              // an object that can't be digested
+    {
+      return null;
+    }
+    catch (IOException ex)                                           // (not thrown by the digest stream)
+    {
+      throw new IllegalStateException(ex);
+    }
+    catch (NoSuchAlgorithmException ex)                              // (every Java platform has SHA-256)
+    {
+      throw new IllegalStateException(ex);
+    }
+  }
+  
+  /**
+   *  Write an object's content.
+   *  @param path The objects being written, enclosing this one (to detect cycles).
+   *  @throws IllegalArgumentException If the object can't be digested.
+   */
+  private static void write(DataOutputStream out, Object o, Set<Object> path) throws IOException, IllegalArgumentException
+  {
+    if (o == null)
+    {
+      out.writeByte('0');
+      return;
+    }
+    
+    final Class<?> type = o.getClass();
+    
+    if (o instanceof String || o instanceof Number || o instanceof Boolean || o instanceof Character)
+    {
+      out.writeByte('V');
+      out.writeUTF(type.getName() + ":" + o);                        // (exact: doubles print all their digits)
+    }
+    else if (o instanceof Enum<?>)
+    {
+      out.writeByte('E');
+      out.writeUTF(((Enum<?>) o).getDeclaringClass().getName() + ":" + ((Enum<?>) o).name());
+    }
+    else if (o instanceof File)
+    {
+      final File file = ((File) o).getAbsoluteFile();
+      
+      out.writeByte('F');
+      out.writeUTF(file.getPath());
+      out.writeLong(file.length());
+      out.writeLong(file.lastModified());
+    }
+    else if (! path.add(o))
+    {
+      throw new IllegalArgumentException("cycle through: " + type.getName());
+    }
+    else
+    {
+      if (o instanceof List<?>)
+      {
+        out.writeByte('L');
+        out.writeInt(((List<?>) o).size());
+        for (Object element : (List<?>) o)
+        {
+          write(out, element, path);
+        }
+      }
+      else if (type.isArray())
+      {
+        out.writeByte('A');
+        out.writeUTF(type.getName());
+        out.writeInt(Array.getLength(o));
+        for (int i = 0; i < Array.getLength(o); i++)
+        {
+          write(out, Array.get(o, i), path);
+        }
+      }
+      else
+      {
+        writeFields(out, o, path);
+      }
+      path.remove(o);
+    }
+  }
+  
+  /**
+   *  Write an object's fields, sorted by name, class by class from the object's own class up.
+   *  @throws IllegalArgumentException If the object is of a platform class.
+   */
+  private static void writeFields(DataOutputStream out, Object o, Set<Object> path) throws IOException, IllegalArgumentException
+  {
+    final String name = o.getClass().getName();
+    
+    if (name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.") || name.startsWith("jdk."))
+    {
+      throw new IllegalArgumentException("cannot digest: " + name);
+    }
+    
+    out.writeByte('O');
+    out.writeUTF(name);
+    
+    for (Class<?> c = o.getClass(); c != Object.class; c = c.getSuperclass())
+    {
+      final Field[] fields = c.getDeclaredFields();
+      
+      Arrays.sort(fields, new Comparator<Field>()
+      {
+        public int compare(Field f1, Field f2)
+        {
+          return f1.getName().compareTo(f2.getName());
+        }
+      });
+      
+      for (Field f : fields)
+      {
+        final int modifiers = f.getModifiers();
+        
+        if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers))
+        {
+          continue;
+        }
+        
+        try
+        {
+          f.setAccessible(true);
+          write(out, f.get(o), path);
+        }
+        catch (IllegalAccessException ex)
+        {
+          throw new IllegalArgumentException("cannot digest: " + name + "." + f.getName());
+        }
+        catch (SecurityException ex)
+        {
+          throw new IllegalArgumentException("cannot digest: " + name + "." + f.getName());
+        }
+      }
+    }
+  }
+  
+  /**
+   *  Format bytes in hexadecimal.
+   */
+  static String toHex(byte[] bytes)
+  {
+    final StringBuilder hex = new StringBuilder(bytes.length * 2);
+    
+    for (byte b : bytes)
+    {
+      hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    
+    return hex.toString();
+  }
+  
+  /** Private constructor. */
+  private SceneDigest() { ; }
+}
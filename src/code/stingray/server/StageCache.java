@@ -0,0 +1,175 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.server;
+
+import java.io.*;
+import java.security.*;
+import java.util.*;
+
+import javax.script.*;
+
+import stingray.*;
+
+
+/**
+ *  A cache of stages built from scene scripts, keyed by a hash of the script source. <p>
+ *
+ *  Evaluating a script and freezing its stage (building the acceleration structure, compiling
+ *  textures) is done once per distinct source; later requests for the same source share the
+ *  frozen stage.  The least recently used stages are dropped once the cache is full.
+ */
+public final class StageCache
+{
+  /** Maximum number of stages held. */
+  private final int capacity;
+  
+  /** Stages, by source hash, least recently used first. */
+  private final LinkedHashMap<String, CachedStage> stages;
+  
+  /** Number of lookups that found their stage in the cache. */
+  private long hits;
+  
+  /** Number of lookups that evaluated their script. */
+  private long misses;
+  
+  /**
+   *  Constructor.
+   *  @param capacity The maximum number of stages held.
+   *  @throws IllegalArgumentException If the capacity is not positive.
+   */
+  public StageCache(int capacity) throws IllegalArgumentException
+  {
+    if (capacity <= 0)
+    {
+      throw new IllegalArgumentException("capacity must be positive; was: " + capacity);
+    }
+    
+    this.capacity = capacity;
+    this.stages = new LinkedHashMap<String, CachedStage>(16, 0.75f, true);
+  }
+  
+  /**
+   *  Get the frozen stage built by a scene script, evaluating the script if it isn't cached.
+   *  Scripts are evaluated outside the cache's lock, so a slow script doesn't hold up others.
+   *  @param source The script source.
+   *  @return The stage, with its content digest.
+   *  @throws ScriptException If the script fails, or doesn't return a stage.
+   */
+  public CachedStage get(String source) throws ScriptException
+  {
+    final String key = hash(source);
+    
+    synchronized (this)
+    {
+      final CachedStage stage = this.stages.get(key);
+      
+      if (stage != null)
+      {
+        this.hits++;
+        return stage;
+      }
+      this.misses++;
+    }
+    
+    final CachedStage stage = new CachedStage(SceneScript.evaluate(source));
+    
+    synchronized (this)
+    {
+      final CachedStage raced = this.stages.get(key);                      // evaluated meanwhile by another request?
+      
+      if (raced != null)
+      {
+        return raced;
+      }
+      
+      this.stages.put(key, stage);
+      
+      final Iterator<CachedStage> eldest = this.stages.values().iterator();
+      
+      while (this.stages.size() > this.capacity)
+      {
+        eldest.next();
+        eldest.remove();
+      }
+    }
+    
+    return stage;
+  }
+  
+  /**
+   *  Is a stage still held?
+   */
+  public synchronized boolean contains(CachedStage stage)
+  {
+    return this.stages.containsValue(stage);
+  }
+  
+  /**
+   *  Get the number of stages held.
+   */
+  public synchronized int size()
+  {
+    return this.stages.size();
+  }
+  
+  /**
+   *  Get the number of lookups that found their stage in the cache.
+   */
+  public synchronized long getHits()
+  {
+    return this.hits;
+  }
+  
+  /**
+   *  Get the number of lookups that evaluated their script.
+   */
+  public synchronized long getMisses()
+  {
+    return this.misses;
+  }
+  
+  /**
+   *  Hash some text: the SHA-256 digest of its UTF-8 encoding.
+   *  @param text The text.
+   *  @return The digest, in hexadecimal.
+   */
+  static String hash(String text)
+  {
+    try
+    {
+      return SceneDigest.toHex(MessageDigest.getInstance("SHA-256").digest(text.getBytes("UTF-8")));
+    }
+    catch (NoSuchAlgorithmException ex)                              // (every Java platform has SHA-256 ...)
+    {
+      throw new IllegalStateException(ex);
+    }
+    catch (UnsupportedEncodingException ex)                          // (... and UTF-8)
+    {
+      throw new IllegalStateException(ex);
+    }
+  }
+}
@@ -43,6 +43,9 @@ public final class CheckerTexture implements Texture
   /** Checker length. */
   private final double length;
   
+  /** Evaluator for the whole texture tree, installed by the texture compiler (or null; transient, as it is derived). */
+  private transient CompiledTexture evaluator;
+  
   /**
    *  Constructor.
    */
@@ -59,7 +62,7 @@ public final class CheckerTexture implements Texture
    */
   public Pigment getPigmentAt(Vector point)
   {
-    return getTextureFor(point).getPigmentAt(point);
+    return getTextureAt(point).getPigment();
   }
   
   /**
@@ -68,7 +71,56 @@ public final class CheckerTexture implements Texture
    */
   public Finish getFinishAt(Vector point)
   {
-    return getTextureFor(point).getFinishAt(point);
+    return getTextureAt(point).getFinish();
+  }
+  
+  /**
+   *  Get the simple texture for the given point.
+   *  @return The simple texture.
+   */
+  public SimpleTexture getTextureAt(Vector point)
+  {
+    final CompiledTexture evaluator = this.evaluator;
+    
+    if (evaluator != null)
+    {
+      return evaluator.getTextureAt(point);
+    }
+    
+    return getTextureFor(point).getTextureAt(point);
+  }
+  
+  /**
+   *  Get the first texture.
+   */
+  Texture getFirst()
+  {
+    return this.t1;
+  }
+  
+  /**
+   *  Get the second texture.
+   */
+  Texture getSecond()
+  {
+    return this.t2;
+  }
+  
+  /**
+   *  Get the checker length.
+   */
+  double getLength()
+  {
+    return this.length;
+  }
+  
+  /**
+   *  Install an evaluator for the whole texture tree.  (Its fields are final, so it may be
+   *  installed while other threads are looking up the texture.)
+   */
+  void setEvaluator(CompiledTexture evaluator)
+  {
+    this.evaluator = evaluator;
   }
   
   /**
@@ -108,4 +160,53 @@ public final class CheckerTexture implements Texture
 
     return choice ? this.t1 : this.t2;
   }
+  
+  /**
+   *  Are the textures equivalent?
+   */
+  @Override
+  public boolean equals(Object o)
+  {
+    if (this == o)
+    {
+      return true;
+    }
+    else
+    {
+      if (o instanceof CheckerTexture)
+      {
+        final CheckerTexture that = (CheckerTexture) o;
+        
+        return this.t1.equals(that.t1) &&
+               this.t2.equals(that.t2) &&
+               Double.doubleToLongBits(this.length) == Double.doubleToLongBits(that.length);
+      }
+      else
+      {
+        return false;
+      }
+    }
+  }
+  
+  /**
+   *  Compute the hashcode.
+   */
+  @Override
+  public int hashCode()
+  {
+    return 1 * this.t1.hashCode() +
+           3 * this.t2.hashCode() +
+           5 * hashCode(this.length);
+  }
+  
+  /**
+   *  Double hash code calculation.
+   *  @param value The double value to calculate the hashcode for.
+   *  @return The hashcode for the double value.
+   */
+  private static final int hashCode(double value)
+  {
+    long bits = Double.doubleToLongBits(value);
+    return (int) (bits ^ (bits >>> 32));
+  }
 }
@@ -0,0 +1,74 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.texture;
+
+import stingray.*;
+
+
+/**
+ *  A table of colours blended between two, so that procedural pigments can look up a
+ *  colour rather than allocate one.  256 steps are as many as an 8-bit image can show.
+ */
+final class ColourMap
+{
+  /** Number of steps. */
+  private static final int STEPS = 256;
+  
+  /** Colours, from the first to the second. */
+  private final Colour[] colours;
+  
+  /**
+   *  Constructor.
+   *  @param from The colour at zero.
+   *  @param to The colour at one.
+   */
+  ColourMap(Colour from, Colour to)
+  {
+    this.colours = new Colour[STEPS];
+    
+    for (int i = 0; i < STEPS; i++)
+    {
+      final float t = i / (float) (STEPS - 1);
+      
+      this.colours[i] = new Colour(from.getRed() + t * (to.getRed() - from.getRed()),
+                                   from.getGreen() + t * (to.getGreen() - from.getGreen()),
+                                   from.getBlue() + t * (to.getBlue() - from.getBlue()));
+    }
+  }
+  
+  /**
+   *  Get a colour.
+   *  @param t The blend, from zero (the first colour) to one (the second); values outside
+   *           the range are clamped.
+   *  @return The colour.
+   */
+  Colour get(double t)
+  {
+    final int i = (int) (t * (STEPS - 1) + 0.5d);
+    return this.colours[(i < 0) ? 0 : (i >= STEPS) ? STEPS - 1 : i];
+  }
+}
@@ -0,0 +1,164 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.texture;
+
+import stingray.*;
+
+
+/**
+ *  A texture tree flattened into arrays, by the texture compiler. <p>
+ *  
+ *  Each checker in the tree is a node; node <i>n</i> first rotates the lookup point by its
+ *  matrix (if any rotations lay between it and its parent, folded into one), then chooses
+ *  <code>first[n]</code> or <code>second[n]</code>.  A negative choice <i>c</i> is the
+ *  leaf <code>leaves[-c - 1]</code>; otherwise it is the next node.
+ */
+final class CompiledTexture implements Texture
+{
+  /** The leaf chosen at every point (or null if the choice depends on the point). */
+  private final SimpleTexture constant;
+  
+  /** The node to start from. */
+  private final int root;
+  
+  /** Rotation matrices, nine per node, by row. */
+  private final double[] matrices;
+  
+  /** Does each node rotate the point? */
+  private final boolean[] rotated;
+  
+  /** Checker lengths, by node. */
+  private final double[] lengths;
+  
+  /** Choices, by node. */
+  private final int[] first;
+  private final int[] second;
+  
+  /** Simple textures at the leaves. */
+  private final SimpleTexture[] leaves;
+  
+  /**
+   *  Constructor, for a texture that is the same at every point.
+   *  @param constant The simple texture.
+   */
+  CompiledTexture(SimpleTexture constant)
+  {
+    this.constant = constant;
+    this.root = 0;
+    this.matrices = null;
+    this.rotated = null;
+    this.lengths = null;
+    this.first = null;
+    this.second = null;
+    this.leaves = null;
+  }
+  
+  /**
+   *  Constructor.
+   */
+  CompiledTexture(int root, double[] matrices, boolean[] rotated, double[] lengths, int[] first, int[] second, SimpleTexture[] leaves)
+  {
+    this.constant = null;
+    this.root = root;
+    this.matrices = matrices;
+    this.rotated = rotated;
+    this.lengths = lengths;
+    this.first = first;
+    this.second = second;
+    this.leaves = leaves;
+  }
+  
+  /**
+   *  Get the pigment specification for the given point.
+   *  @return The pigment.
+   */
+  public Pigment getPigmentAt(Vector point)
+  {
+    return getTextureAt(point).getPigment();
+  }
+  
+  /**
+   *  Get the finish specification for the given point.
+   *  @return The finish.
+   */
+  public Finish getFinishAt(Vector point)
+  {
+    return getTextureAt(point).getFinish();
+  }
+  
+  /**
+   *  Get the simple texture for the given point.
+   *  @return The simple texture.
+   */
+  public SimpleTexture getTextureAt(Vector point)
+  {
+    if (this.constant != null)
+    {
+      return this.constant;
+    }
+    
+    double x = point.getX();
+    double y = point.getY();
+    double z = point.getZ();
+    int node = this.root;
+    
+    while (true)
+    {
+      if (this.rotated[node])
+      {
+        final double[] m = this.matrices;
+        final int i = node * 9;
+        final double rx = m[i    ] * x + m[i + 1] * y + m[i + 2] * z;
+        final double ry = m[i + 3] * x + m[i + 4] * y + m[i + 5] * z;
+        final double rz = m[i + 6] * x + m[i + 7] * y + m[i + 8] * z;
+        
+        x = rx;
+        y = ry;
+        z = rz;
+      }
+      
+      final double length = this.lengths[node];
+      final int parity = parity(x, length) ^ parity(y, length) ^ parity(z, length);
+      final int choice = (parity == 0) ? this.first[node] : this.second[node];
+      
+      if (choice < 0)
+      {
+        return this.leaves[-choice - 1];
+      }
+      node = choice;
+    }
+  }
+  
+  /**
+   *  Get the parity of the checker cell containing a coordinate, along one axis.  Cells
+   *  meeting at zero have the same parity, as in <code>CheckerTexture</code>.
+   */
+  private static int parity(double value, double length)
+  {
+    return (((int) (value / length)) & 1) ^ ((value < 0) ? 1 : 0);
+  }
+}
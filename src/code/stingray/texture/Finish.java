@@ -103,4 +103,55 @@ public final class Finish
   {
     return this.shininess;
   }
+  
+  /**
+   *  Are the finishes equivalent?
+   */
+  @Override
+  public boolean equals(Object o)
+  {
+    if (this == o)
+    {
+      return true;
+    }
+    else
+    {
+      if (o instanceof Finish)
+      {
+        final Finish that = (Finish) o;
+        
+        return Double.doubleToLongBits(this.ambient) == Double.doubleToLongBits(that.ambient) &&
+               Double.doubleToLongBits(this.diffuse) == Double.doubleToLongBits(that.diffuse) &&
+               this.shininess == that.shininess &&
+               Double.doubleToLongBits(this.reflection) == Double.doubleToLongBits(that.reflection);
+      }
+      else
+      {
+        return false;
+      }
+    }
+  }
+  
+  /**
+   *  Compute the hashcode.
+   */
+  @Override
+  public int hashCode()
+  {
+    return 1 * hashCode(this.ambient) +
+           3 * hashCode(this.diffuse) +
+           5 * this.shininess +
+           7 * hashCode(this.reflection);
+  }
+  
+  /**
+   *  Double hash code calculation.
+   *  @param value The double value to calculate the hashcode for.
+   *  @return The hashcode for the double value.
+   */
+  private static final int hashCode(double value)
+  {
+    long bits = Double.doubleToLongBits(value);
+    return (int) (bits ^ (bits >>> 32));
+  }
 }
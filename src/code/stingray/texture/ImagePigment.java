@@ -0,0 +1,213 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.texture;
+
+import java.io.*;
+
+import stingray.*;
+
+
+/**
+ *  An image, mapped onto a plane and repeated across it. <p>
+ *  
+ *  The image's left edge lies along <code>v</code> through the origin, and its bottom edge
+ *  along <code>u</code>; the lengths of <code>u</code> and <code>v</code> are the image's
+ *  width and height in the scene.  Points off the plane take the colour of the point they
+ *  project onto.  Colours are filtered bilinearly from the level of the image's mipmap
+ *  whose pixels best match the footprint being coloured. <p>
+ *  
+ *  The mipmap is built into a tiled cache file beside the image (named for the image, with
+ *  <code>.mip</code> appended) the first time the image is used, and is rebuilt only when
+ *  the image changes.  Tiles are read on demand through a tile cache, so the image may be
+ *  far larger than the memory available.
+ */
+public final class ImagePigment implements Pigment
+{
+  /** Tile width and height, in pixels. */
+  private static final int TILE_SIZE = 64;
+  
+  /** Image file. */
+  private final File image;
+  
+  /** Point at the image's bottom left corner. */
+  private final Vector origin;
+  
+  /** Image's bottom edge. */
+  private final Vector u;
+  
+  /** Image's left edge. */
+  private final Vector v;
+  
+  /** The mipmap (transient: it is derived from the image, so isn't part of the pigment's content). */
+  private final transient MipMap map;
+  
+  /** The tile cache (transient: it holds no content of the pigment's own). */
+  private final transient TileCache cache;
+  
+  /** <code>u</code> and <code>v</code>, each divided by its length squared. */
+  private final Vector uScaled;
+  private final Vector vScaled;
+  
+  /** Image pixels per scene unit, at level 0. */
+  private final double density;
+  
+  /**
+   *  Constructor, using the default tile cache.
+   *  @param image The image file.
+   *  @param origin The point at the image's bottom left corner.
+   *  @param u The image's bottom edge.
+   *  @param v The image's left edge.
+   *  @throws IOException If the image cannot be read, or its cache file built.
+   */
+  public ImagePigment(File image, Vector origin, Vector u, Vector v) throws IOException
+  {
+    this(image, origin, u, v, TileCache.getDefault());
+  }
+  
+  /**
+   *  Constructor.
+   *  @param image The image file.
+   *  @param origin The point at the image's bottom left corner.
+   *  @param u The image's bottom edge.
+   *  @param v The image's left edge.
+   *  @param cache The tile cache.
+   *  @throws IOException If the image cannot be read, or its cache file built.
+   */
+  public ImagePigment(File image, Vector origin, Vector u, Vector v, TileCache cache) throws IOException
+  {
+    this.image = image;
+    this.origin = origin;
+    this.u = u;
+    this.v = v;
+    this.map = MipMap.open(image, new File(image.getPath() + ".mip"), TILE_SIZE);
+    this.cache = cache;
+    this.uScaled = u.scale(1.0d / u.squared());
+    this.vScaled = v.scale(1.0d / v.squared());
+    this.density = Math.max(this.map.getWidth(0) / u.length(), this.map.getHeight(0) / v.length());
+  }
+  
+  /**
+   *  Get the colour, from the full resolution image.
+   */
+  public Colour getColourAt(Vector point)
+  {
+    return getColourAt(point, 0);
+  }
+  
+  /**
+   *  Get the colour, from the mipmap level whose pixels are about the width of the footprint.
+   */
+  public Colour getColourAt(Vector point, double footprint)
+  {
+    final double pixels = footprint * this.density;                  // footprint in level 0 pixels
+    final int level = (pixels > 1) ? Math.min(this.map.getLevels() - 1, (int) (Math.log(pixels) / Math.log(2))) : 0;
+    final Vector d = point.subtract(this.origin);
+    final double s = d.dot(this.uScaled);
+    final double t = d.dot(this.vScaled);
+    final int width = this.map.getWidth(level);
+    final int height = this.map.getHeight(level);
+    final double x = (s - Math.floor(s)) * width - 0.5d;             // pixel coordinates, down from the top
+    final double y = (Math.ceil(t) - t) * height - 0.5d;
+    final int x0 = (int) Math.floor(x);
+    final int y0 = (int) Math.floor(y);
+    final float fx = (float) (x - x0);
+    final float fy = (float) (y - y0);
+    final float[] rgb = new float[3];
+    
+    add(rgb, level, x0,     y0,     (1 - fx) * (1 - fy));
+    add(rgb, level, x0 + 1, y0,     fx * (1 - fy));
+    add(rgb, level, x0,     y0 + 1, (1 - fx) * fy);
+    add(rgb, level, x0 + 1, y0 + 1, fx * fy);
+    
+    return new Colour(rgb[0], rgb[1], rgb[2]);
+  }
+  
+  /**
+   *  Add a weighted pixel, wrapping around the image's edges.
+   */
+  private void add(float[] rgb, int level, int x, int y, float weight)
+  {
+    if (weight == 0)
+    {
+      return;
+    }
+    
+    final int width = this.map.getWidth(level);
+    final int height = this.map.getHeight(level);
+    final int tileSize = this.map.getTileSize();
+    
+    x = (x % width + width) % width;
+    y = (y % height + height) % height;
+    
+    final byte[] tile = this.cache.getTile(this.map, level, x / tileSize, y / tileSize);
+    final int i = ((y % tileSize) * tileSize + x % tileSize) * 3;
+    
+    rgb[0] += weight * (tile[i    ] & 0xff) / 255.0f;
+    rgb[1] += weight * (tile[i + 1] & 0xff) / 255.0f;
+    rgb[2] += weight * (tile[i + 2] & 0xff) / 255.0f;
+  }
+  
+  /**
+   *  Are the pigments equivalent?
+   */
+  @Override
+  public boolean equals(Object o)
+  {
+    if (this == o)
+    {
+      return true;
+    }
+    else
+    {
+      if (o instanceof ImagePigment)
+      {
+        final ImagePigment that = (ImagePigment) o;
+        
+        return this.image.equals(that.image) &&
+               this.origin.equals(that.origin) &&
+               this.u.equals(that.u) &&
+               this.v.equals(that.v);
+      }
+      else
+      {
+        return false;
+      }
+    }
+  }
+  
+  /**
+   *  Compute the hashcode.
+   */
+  @Override
+  public int hashCode()
+  {
+    return 1 * this.image.hashCode() +
+           3 * this.origin.hashCode() +
+           5 * this.u.hashCode() +
+           7 * this.v.hashCode();
+  }
+}
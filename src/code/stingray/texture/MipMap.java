@@ -0,0 +1,516 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.texture;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import javax.imageio.*;
+import javax.imageio.stream.*;
+
+
+/**
+ *  A mipmapped image, stored in tiles in a cache file. <p>
+ *  
+ *  Level 0 is the image itself; each further level halves the one before (rounding up),
+ *  averaging blocks of 2x2 pixels, down to a single pixel.  Every level is cut into square
+ *  tiles of 8-bit RGB pixels, stored row by row, so that any tile can be read on its own.
+ *  The cache file records the size and modification time of the image it was built from,
+ *  and is rebuilt when the image changes. <p>
+ *  
+ *  The image is read in bands of rows while building the cache, and only the tiles of two
+ *  rows are held while building each further level, so images need not fit in memory.
+ *  Tiles may be read from several threads at once. <p>
+ *  
+ *  A mipmap is opened once for each version of its image and shared by every pigment using
+ *  it, so its cache file is held open once, and its tiles are cached once.
+ */
+final class MipMap
+{
+  /** Cache file magic number. */
+  private static final int MAGIC = 0x53544d50;                       // "STMP"
+  
+  /** Cache file format version. */
+  private static final int VERSION = 1;
+  
+  /** Cache file header size, in bytes. */
+  private static final int HEADER = 40;
+  
+  /** Source of unique ids, by which the tile cache tells mipmaps apart. */
+  private static final AtomicInteger ids = new AtomicInteger();
+  
+  /** Open mipmaps, by canonical image path and tile size. */
+  private static final Map<String, MipMap> opened = new HashMap<String, MipMap>();
+  
+  /** Unique id. */
+  private final int id;
+  
+  /** Tile width and height, in pixels. */
+  private final int tileSize;
+  
+  /** Width of each level, in pixels. */
+  private final int[] widths;
+  
+  /** Height of each level, in pixels. */
+  private final int[] heights;
+  
+  /** Offset of each level's first tile in the cache file. */
+  private final long[] offsets;
+  
+  /** The cache file. */
+  private final FileChannel channel;
+  
+  /** Size of the image the mipmap was opened for. */
+  private final long imageLength;
+  
+  /** Modification time of the image the mipmap was opened for. */
+  private final long imageModified;
+  
+  /**
+   *  Open the mipmap of an image, building its cache file if it is missing or out of date.
+   *  The mipmap already open for the image is returned unless the image has changed.
+   *  @param image The image file.
+   *  @param cache The cache file.
+   *  @param tileSize The tile width and height, in pixels.
+   *  @return The mipmap.
+   *  @throws IOException If the image or cache file cannot be read, or the cache file cannot
+   *                      be written.
+   */
+  static MipMap open(File image, File cache, int tileSize) throws IOException
+  {
+    if (tileSize <= 0)
+    {
+      throw new IllegalArgumentException("tile size must be positive; was: " + tileSize);
+    }
+    
+    final String key = image.getCanonicalPath() + "@" + tileSize;
+    final long length = image.length();
+    final long modified = image.lastModified();
+    
+    synchronized (opened)
+    {
+      final MipMap map = opened.get(key);
+      
+      if (map != null && map.imageLength == length && map.imageModified == modified)
+      {
+        return map;
+      }
+    }
+    
+    if (! isCurrent(image, cache, tileSize))                         // (built outside the lock)
+    {
+      build(image, cache, tileSize);
+    }
+    
+    final RandomAccessFile file = new RandomAccessFile(cache, "r");
+    
+    file.seek(12);
+    
+    final MipMap map = new MipMap(file.getChannel(), file.readInt(), file.readInt(), tileSize, length, modified);
+    
+    synchronized (opened)
+    {
+      final MipMap raced = opened.get(key);                          // opened meanwhile by another thread?
+      
+      if (raced != null && raced.imageLength == length && raced.imageModified == modified)
+      {
+        file.close();
+        return raced;
+      }
+      
+      opened.put(key, map);                                          // (an older version stays open for its pigments)
+      return map;
+    }
+  }
+  
+  /**
+   *  Constructor.
+   */
+  private MipMap(FileChannel channel, int width, int height, int tileSize, long imageLength, long imageModified)
+  {
+    final int levels = getLevels(width, height);
+    
+    this.id = ids.incrementAndGet();
+    this.channel = channel;
+    this.tileSize = tileSize;
+    this.imageLength = imageLength;
+    this.imageModified = imageModified;
+    this.widths = new int[levels];
+    this.heights = new int[levels];
+    this.offsets = new long[levels];
+    
+    long offset = HEADER;
+    
+    for (int level = 0; level < levels; level++)
+    {
+      this.widths[level] = width;
+      this.heights[level] = height;
+      this.offsets[level] = offset;
+      
+      offset += (long) getTilesAcross(level) * getTilesDown(level) * getTileBytes();
+      width = (width + 1) / 2;
+      height = (height + 1) / 2;
+    }
+  }
+  
+  /**
+   *  Get the number of levels in the mipmap of an image.
+   */
+  private static int getLevels(int width, int height)
+  {
+    int levels = 1;
+    
+    while (width > 1 || height > 1)
+    {
+      width = (width + 1) / 2;
+      height = (height + 1) / 2;
+      levels++;
+    }
+    
+    return levels;
+  }
+  
+  /**
+   *  Is a cache file present, complete, and built from the image as it is now?
+   */
+  private static boolean isCurrent(File image, File cache, int tileSize) throws IOException
+  {
+    if (! cache.isFile() || cache.length() < HEADER)
+    {
+      return false;
+    }
+    
+    final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cache)));
+    
+    try
+    {
+      return in.readInt() == MAGIC &&
+             in.readInt() == VERSION &&
+             in.readInt() == tileSize &&
+             in.readInt() > 0 &&
+             in.readInt() > 0 &&
+             in.readLong() == image.length() &&
+             in.readLong() == image.lastModified();
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+  
+  /**
+   *  Build a cache file.  It is written to a temporary file and then renamed, so that an
+   *  interrupted build leaves no cache file behind, and builds of the same image at once
+   *  don't write over each other.
+   */
+  private static void build(File image, File cache, int tileSize) throws IOException
+  {
+    final File temporary = File.createTempFile("mipmap", ".tmp", cache.getAbsoluteFile().getParentFile());
+    boolean built = false;
+    
+    try
+    {
+      final ImageInputStream input = ImageIO.createImageInputStream(image);
+      
+      if (input == null)
+      {
+        throw new IOException("cannot read image: " + image);
+      }
+      
+      try
+      {
+        final RandomAccessFile out = new RandomAccessFile(temporary, "rw");
+        
+        try
+        {
+          write(image, input, out, tileSize);
+        }
+        finally
+        {
+          out.close();
+        }
+      }
+      finally
+      {
+        input.close();
+      }
+      
+      if ((cache.exists() && ! cache.delete()) || ! temporary.renameTo(cache))
+      {
+        throw new IOException("cannot replace cache file: " + cache);
+      }
+      built = true;
+    }
+    finally
+    {
+      if (! built)                                                   // (don't leave partial files behind)
+      {
+        temporary.delete();
+      }
+    }
+  }
+  
+  /**
+   *  Write a cache file.
+   */
+  private static void write(File image, ImageInputStream input, RandomAccessFile out, int tileSize) throws IOException
+  {
+    final Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+    
+    if (! readers.hasNext())
+    {
+      throw new IOException("unsupported image format: " + image);
+    }
+    
+    final ImageReader reader = readers.next();
+    
+    reader.setInput(input);
+    
+    final int width = reader.getWidth(0);
+    final int height = reader.getHeight(0);
+    
+    out.setLength(0);
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(tileSize);
+    out.writeInt(width);
+    out.writeInt(height);
+    out.writeLong(0);                                                // source size and time are
+    out.writeLong(0);                                                // written last, on success
+    
+    final MipMap layout = new MipMap(out.getChannel(), width, height, tileSize, 0, 0);
+    
+    layout.writeImage(reader, out);
+    for (int level = 1; level < layout.widths.length; level++)
+    {
+      layout.writeLevel(level, out);
+    }
+    
+    reader.dispose();
+    out.seek(20);
+    out.writeLong(image.length());
+    out.writeLong(image.lastModified());
+  }
+  
+  /**
+   *  Write level 0, reading the image a band of tiles at a time.
+   */
+  private void writeImage(ImageReader reader, RandomAccessFile out) throws IOException
+  {
+    final ImageReadParam param = reader.getDefaultReadParam();
+    final byte[] tile = new byte[getTileBytes()];
+    
+    for (int ty = 0; ty < getTilesDown(0); ty++)
+    {
+      final int y0 = ty * this.tileSize;
+      final int rows = Math.min(this.tileSize, this.heights[0] - y0);
+      
+      param.setSourceRegion(new Rectangle(0, y0, this.widths[0], rows));
+      
+      final BufferedImage band = reader.read(0, param);
+      
+      for (int tx = 0; tx < getTilesAcross(0); tx++)
+      {
+        final int x0 = tx * this.tileSize;
+        
+        Arrays.fill(tile, (byte) 0);
+        for (int y = 0; y < rows; y++)
+        {
+          for (int x = 0; x < Math.min(this.tileSize, this.widths[0] - x0); x++)
+          {
+            final int rgb = band.getRGB(x0 + x, y);
+            final int i = (y * this.tileSize + x) * 3;
+            
+            tile[i    ] = (byte) (rgb >> 16);
+            tile[i + 1] = (byte) (rgb >> 8);
+            tile[i + 2] = (byte) rgb;
+          }
+        }
+        
+        out.seek(getTileOffset(0, tx, ty));
+        out.write(tile);
+      }
+    }
+  }
+  
+  /**
+   *  Write a level after the first, from the level before it, a row of tiles at a time.
+   */
+  private void writeLevel(int level, RandomAccessFile out) throws IOException
+  {
+    final int across = getTilesAcross(level - 1);
+    final int down = getTilesDown(level - 1);
+    final byte[][] above = new byte[2 * across][];                   // two rows of the level above
+    final byte[] tile = new byte[getTileBytes()];
+    
+    for (int ty = 0; ty < getTilesDown(level); ty++)
+    {
+      for (int row = 0; row < 2; row++)
+      {
+        for (int tx = 0; tx < across; tx++)
+        {
+          above[row * across + tx] = (2 * ty + row < down) ? readTile(level - 1, tx, 2 * ty + row) : null;
+        }
+      }
+      
+      for (int tx = 0; tx < getTilesAcross(level); tx++)
+      {
+        Arrays.fill(tile, (byte) 0);
+        for (int y = 0; y < this.tileSize; y++)
+        {
+          for (int x = 0; x < this.tileSize; x++)
+          {
+            final int px = tx * this.tileSize + x;                   // pixel in this level
+            final int py = ty * this.tileSize + y;
+            
+            if (px >= this.widths[level] || py >= this.heights[level])
+            {
+              continue;
+            }
+            
+            for (int c = 0; c < 3; c++)                              // average 2x2, clamped at the edges
+            {
+              final int sum = get(above, across, level - 1, 2 * px,     2 * py,     ty, c) +
+                              get(above, across, level - 1, 2 * px + 1, 2 * py,     ty, c) +
+                              get(above, across, level - 1, 2 * px,     2 * py + 1, ty, c) +
+                              get(above, across, level - 1, 2 * px + 1, 2 * py + 1, ty, c);
+              
+              tile[(y * this.tileSize + x) * 3 + c] = (byte) ((sum + 2) / 4);
+            }
+          }
+        }
+        
+        out.seek(getTileOffset(level, tx, ty));
+        out.write(tile);
+      }
+    }
+  }
+  
+  /**
+   *  Get a channel of a pixel of the level above, from its two rows of tiles.
+   */
+  private int get(byte[][] above, int across, int level, int x, int y, int ty, int channel)
+  {
+    x = Math.min(x, this.widths[level] - 1);
+    y = Math.min(y, this.heights[level] - 1);
+    
+    final byte[] tile = above[(y / this.tileSize - 2 * ty) * across + x / this.tileSize];
+    return tile[((y % this.tileSize) * this.tileSize + x % this.tileSize) * 3 + channel] & 0xff;
+  }
+  
+  /**
+   *  Read a tile.
+   *  @param level The level.
+   *  @param tx The tile's column.
+   *  @param ty The tile's row.
+   *  @return The tile's pixels: 8-bit RGB, row by row.
+   *  @throws IOException If the tile cannot be read.
+   */
+  byte[] readTile(int level, int tx, int ty) throws IOException
+  {
+    final byte[] tile = new byte[getTileBytes()];
+    final ByteBuffer buffer = ByteBuffer.wrap(tile);
+    final long offset = getTileOffset(level, tx, ty);
+    
+    while (buffer.hasRemaining())
+    {
+      if (this.channel.read(buffer, offset + buffer.position()) < 0)
+      {
+        throw new EOFException("cache file truncated");
+      }
+    }
+    
+    return tile;
+  }
+  
+  private long getTileOffset(int level, int tx, int ty)
+  {
+    return this.offsets[level] + ((long) ty * getTilesAcross(level) + tx) * getTileBytes();
+  }
+  
+  /**
+   *  Get the unique id of the mipmap.
+   */
+  int getId()
+  {
+    return this.id;
+  }
+  
+  /**
+   *  Get the number of levels.
+   */
+  int getLevels()
+  {
+    return this.widths.length;
+  }
+  
+  /**
+   *  Get the width of a level, in pixels.
+   */
+  int getWidth(int level)
+  {
+    return this.widths[level];
+  }
+  
+  /**
+   *  Get the height of a level, in pixels.
+   */
+  int getHeight(int level)
+  {
+    return this.heights[level];
+  }
+  
+  /**
+   *  Get the tile width and height, in pixels.
+   */
+  int getTileSize()
+  {
+    return this.tileSize;
+  }
+  
+  /**
+   *  Get the size of a tile, in bytes.
+   */
+  int getTileBytes()
+  {
+    return this.tileSize * this.tileSize * 3;
+  }
+  
+  private int getTilesAcross(int level)
+  {
+    return (this.widths[level] + this.tileSize - 1) / this.tileSize;
+  }
+  
+  private int getTilesDown(int level)
+  {
+    return (this.heights[level] + this.tileSize - 1) / this.tileSize;
+  }
+}
@@ -0,0 +1,208 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.texture;
+
+import java.util.*;
+
+
+/**
+ *  Gradient noise, after Perlin's improved noise. <p>
+ *  
+ *  The lattice is hashed through a permutation table, and each hash picks one of twelve
+ *  gradients from tables of their components, so evaluating noise allocates nothing.  The
+ *  permutation is fixed, so noise is the same from run to run. <p>
+ *  
+ *  Turbulence sums the absolute value of several octaves of noise, each of twice the
+ *  frequency and half the amplitude of the one before.  A batch form evaluates it for many
+ *  points at once, an octave at a time.
+ */
+public final class Noise
+{
+  /** Permutation table, repeated so that lookups need no wrapping. */
+  private static final int[] PERMUTATION = new int[512];
+  
+  /** Gradient components: the midpoints of a cube's edges. */
+  private static final double[] GX = { 1, -1,  1, -1,  1, -1,  1, -1,  0,  0,  0,  0 };
+  private static final double[] GY = { 1,  1, -1, -1,  0,  0,  0,  0,  1, -1,  1, -1 };
+  private static final double[] GZ = { 0,  0,  0,  0,  1,  1, -1, -1,  1,  1, -1, -1 };
+  
+  /** Gradient index, by hash: the twelve gradients, with four repeated to make sixteen. */
+  private static final int[] GRADIENT = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 0, 9, 1, 11 };
+  
+  static
+  {
+    final int[] values = new int[256];
+    final Random random = new Random(1985);
+    
+    for (int i = 0; i < 256; i++)
+    {
+      values[i] = i;
+    }
+    
+    for (int i = 255; i > 0; i--)                                    // shuffle
+    {
+      final int j = random.nextInt(i + 1);
+      final int swap = values[i];
+      
+      values[i] = values[j];
+      values[j] = swap;
+    }
+    
+    for (int i = 0; i < 512; i++)
+    {
+      PERMUTATION[i] = values[i & 255];
+    }
+  }
+  
+  /**
+   *  Evaluate noise at a point.
+   *  @return The noise, between about -1 and 1; zero at every lattice point.
+   */
+  public static double noise(double x, double y, double z)
+  {
+    final double fx = Math.floor(x);
+    final double fy = Math.floor(y);
+    final double fz = Math.floor(z);
+    final int ix = ((int) fx) & 255;                                 // lattice cell
+    final int iy = ((int) fy) & 255;
+    final int iz = ((int) fz) & 255;
+    
+    x -= fx;                                                         // position within the cell
+    y -= fy;
+    z -= fz;
+    
+    final double u = fade(x);
+    final double v = fade(y);
+    final double w = fade(z);
+    final int[] p = PERMUTATION;
+    final int a = p[ix] + iy;
+    final int aa = p[a] + iz;
+    final int ab = p[a + 1] + iz;
+    final int b = p[ix + 1] + iy;
+    final int ba = p[b] + iz;
+    final int bb = p[b + 1] + iz;
+    
+    return lerp(w, lerp(v, lerp(u, grad(p[aa    ], x,     y,     z    ), 
+                                    grad(p[ba    ], x - 1, y,     z    )),
+                           lerp(u, grad(p[ab    ], x,     y - 1, z    ), 
+                                   grad(p[bb    ], x - 1, y - 1, z    ))),
+                   lerp(v, lerp(u, grad(p[aa + 1], x,     y,     z - 1), 
+                                   grad(p[ba + 1], x - 1, y,     z - 1)),
+                           lerp(u, grad(p[ab + 1], x,     y - 1, z - 1), 
+                                   grad(p[bb + 1], x - 1, y - 1, z - 1))));
+  }
+  
+  /**
+   *  Evaluate turbulence at a point.
+   *  @param octaves The number of octaves to sum.
+   *  @return The turbulence: at least zero, and usually less than one.
+   */
+  public static double turbulence(double x, double y, double z, int octaves)
+  {
+    double sum = 0;
+    double scale = 1;
+    
+    for (int octave = 0; octave < octaves; octave++)
+    {
+      sum += Math.abs(noise(x * scale, y * scale, z * scale)) / scale;
+      scale *= 2;
+    }
+    
+    return sum;
+  }
+  
+  /**
+   *  Evaluate turbulence at many points.  The octaves are evaluated in turn, each for every
+   *  point, which keeps the inner loop short and free of dependencies between points.  The
+   *  results are the same as for <code>turbulence(x, y, z, octaves)</code>.
+   *  @param x The points' x coordinates.
+   *  @param y The points' y coordinates.
+   *  @param z The points' z coordinates.
+   *  @param result Receives the turbulence at each point.
+   *  @param count The number of points.
+   *  @param octaves The number of octaves to sum.
+   */
+  public static void turbulence(double[] x, double[] y, double[] z, double[] result, int count, int octaves)
+  {
+    Arrays.fill(result, 0, count, 0);
+    
+    double scale = 1;
+    
+    for (int octave = 0; octave < octaves; octave++)
+    {
+      for (int i = 0; i < count; i++)
+      {
+        result[i] += Math.abs(noise(x[i] * scale, y[i] * scale, z[i] * scale)) / scale;
+      }
+      scale *= 2;
+    }
+  }
+  
+  /**
+   *  Get the number of octaves worth summing over a footprint: octaves whose wavelength is
+   *  smaller than the footprint would only alias.
+   *  @param octaves The most octaves to sum.
+   *  @param footprint The footprint width, in noise space.
+   *  @return The number of octaves, at least one.
+   */
+  public static int getOctaves(int octaves, double footprint)
+  {
+    int limit = 1;
+    
+    for (double wavelength = 0.5d; limit < octaves && wavelength > footprint; wavelength /= 2)
+    {
+      limit++;
+    }
+    
+    return limit;
+  }
+  
+  /**
+   *  The fade curve, 6t^5 - 15t^4 + 10t^3, which has zero first and second derivatives at 0 and 1.
+   */
+  private static double fade(double t)
+  {
+    return t * t * t * (t * (t * 6 - 15) + 10);
+  }
+  
+  private static double lerp(double t, double a, double b)
+  {
+    return a + t * (b - a);
+  }
+  
+  /**
+   *  Dot product of a hashed gradient with the offset from its lattice point.
+   */
+  private static double grad(int hash, double x, double y, double z)
+  {
+    final int g = GRADIENT[hash & 15];
+    return GX[g] * x + GY[g] * y + GZ[g] * z;
+  }
+  
+  /** Private constructor. */
+  private Noise() { ; }
+}
@@ -38,4 +38,9 @@ public interface Pigment
    *  Get the colour.
    */
   public abstract Colour getColourAt(Vector v);
+
+  /**
+   *  Get the colour, averaged over a footprint of the given width (as seen by a pixel).
+   */
+  public abstract Colour getColourAt(Vector v, double footprint);
 }
@@ -0,0 +1,170 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.texture;
+
+import java.util.*;
+
+import stingray.*;
+import stingray.Vector;
+
+
+/**
+ *  Compares the cost of looking up procedural pigments against the solid pigment baseline,
+ *  and of evaluating turbulence a point at a time against evaluating it in batches. <p>
+ *
+ *  Usage: <code>PigmentBenchmark</code>.
+ */
+public final class PigmentBenchmark
+{
+  /** Number of lookup points. */
+  private static final int POINTS = 1000000;
+
+  /** Number of timed passes over the points. */
+  private static final int PASSES = 5;
+
+  /** Octaves of turbulence. */
+  private static final int OCTAVES = 6;
+
+  /**
+   *  Main method.
+   */
+  public static void main(String[] args)
+  {
+    final Random random = new Random(42);
+    final Vector[] points = new Vector[POINTS];
+    final double[] x = new double[POINTS];
+    final double[] y = new double[POINTS];
+    final double[] z = new double[POINTS];
+
+    for (int i = 0; i < POINTS; i++)
+    {
+      x[i] = random.nextDouble() * 1000 - 500;
+      y[i] = random.nextDouble() * 1000 - 500;
+      z[i] = random.nextDouble() * 1000 - 500;
+      points[i] = new Vector(x[i], y[i], z[i]);
+    }
+
+    time("solid (baseline)", new SolidPigment(Colour.WHITE), points, 0);
+    time("turbulence", new TurbulencePigment(Colour.BLACK, Colour.WHITE, 50, OCTAVES), points, 0);
+    time("marble", new MarblePigment(Colour.WHITE, Colour.DARK_GREY, 50, 2, OCTAVES), points, 0);
+    time("marble, 5 unit footprint", new MarblePigment(Colour.WHITE, Colour.DARK_GREY, 50, 2, OCTAVES), points, 5);
+    time("wood", new WoodPigment(Colour.YELLOW, Colour.RED, 20, 0.5, OCTAVES), points, 0);
+
+    time("turbulence, a point at a time", x, y, z, false);
+    time("turbulence, in batches", x, y, z, true);
+  }
+
+  /**
+   *  Time colour lookups at the points, after an untimed warm up pass.
+   */
+  private static void time(String name, Pigment pigment, Vector[] points, double footprint)
+  {
+    lookup(pigment, points, footprint);
+
+    final long start = System.nanoTime();
+    double checksum = 0;
+    for (int pass = 0; pass < PASSES; pass++)
+    {
+      checksum = lookup(pigment, points, footprint);
+    }
+
+    report(name + String.format(" (checksum %.1f)", checksum), System.nanoTime() - start);
+  }
+
+  /**
+   *  Look up the colour at each point.
+   *  @return The sum of the colours' channels.
+   */
+  private static double lookup(Pigment pigment, Vector[] points, double footprint)
+  {
+    double checksum = 0;
+
+    for (Vector point : points)
+    {
+      final Colour colour = pigment.getColourAt(point, footprint);
+      checksum += colour.getRed() + colour.getGreen() + colour.getBlue();
+    }
+
+    return checksum;
+  }
+
+  /**
+   *  Time turbulence evaluation at the points, after an untimed warm up pass.
+   */
+  private static void time(String name, double[] x, double[] y, double[] z, boolean batched)
+  {
+    final double[] result = new double[x.length];
+
+    turbulence(x, y, z, result, batched);
+
+    final long start = System.nanoTime();
+    double checksum = 0;
+    for (int pass = 0; pass < PASSES; pass++)
+    {
+      checksum = turbulence(x, y, z, result, batched);
+    }
+
+    report(name + String.format(" (checksum %.1f)", checksum), System.nanoTime() - start);
+  }
+
+  /**
+   *  Evaluate turbulence at each point.
+   *  @return The sum of the results.
+   */
+  private static double turbulence(double[] x, double[] y, double[] z, double[] result, boolean batched)
+  {
+    if (batched)
+    {
+      Noise.turbulence(x, y, z, result, x.length, OCTAVES);
+    }
+    else
+    {
+      for (int i = 0; i < x.length; i++)
+      {
+        result[i] = Noise.turbulence(x[i], y[i], z[i], OCTAVES);
+      }
+    }
+
+    double checksum = 0;
+    for (double r : result)
+    {
+      checksum += r;
+    }
+
+    return checksum;
+  }
+
+  private static void report(String what, long nanos)
+  {
+    final long lookups = (long) POINTS * PASSES;
+
+    System.out.println(String.format("  %-50s %9.1f ms  %6.1f ns/lookup", what, nanos / 1e6, (double) nanos / lookups));
+  }
+
+  /** Private constructor. */
+  private PigmentBenchmark() { ; }
+}
@@ -30,7 +30,9 @@ import stingray.*;
 
 
 /**
- *  Rotated Texture.
+ *  Rotated Texture.  The rotation matrix is computed once, on construction, so looking up
+ *  the texture costs a matrix multiply rather than the trigonometry of
+ *  <code>Vector.rotate</code>.
  */
 public final class RotatedTexture implements Texture
 {
@@ -43,6 +45,14 @@ public final class RotatedTexture implements Texture
   /** Rotation amount. */
   private final double radians;
   
+  /** Rotation matrix, by row. */
+  private final double m00, m01, m02;
+  private final double m10, m11, m12;
+  private final double m20, m21, m22;
+  
+  /** Evaluator for the whole texture tree, installed by the texture compiler (or null; transient, as it is derived). */
+  private transient CompiledTexture evaluator;
+  
   /**
    *  Constructor.
    */
@@ -51,6 +61,25 @@ public final class RotatedTexture implements Texture
     this.t = t;
     this.axis = axis.normalise();
     this.radians = Math.toRadians(degrees);
+    
+    // R = I cos(angle) + C sin(angle) + (axis axis^T)(1 - cos(angle)), where Cv = axis.cross(v),
+    // as in Vector.rotate
+    
+    final double cos = Math.cos(this.radians);
+    final double sin = Math.sin(this.radians);
+    final double x = this.axis.getX();
+    final double y = this.axis.getY();
+    final double z = this.axis.getZ();
+    
+    this.m00 = cos + x * x * (1 - cos);
+    this.m01 = z * sin + x * y * (1 - cos);
+    this.m02 = -y * sin + x * z * (1 - cos);
+    this.m10 = -z * sin + y * x * (1 - cos);
+    this.m11 = cos + y * y * (1 - cos);
+    this.m12 = x * sin + y * z * (1 - cos);
+    this.m20 = y * sin + z * x * (1 - cos);
+    this.m21 = -x * sin + z * y * (1 - cos);
+    this.m22 = cos + z * z * (1 - cos);
   }
   
   /**
@@ -59,8 +88,7 @@ public final class RotatedTexture implements Texture
    */
   public Pigment getPigmentAt(Vector point)
   {
-    final Vector adjusted = point.rotate(axis, radians);
-    return t.getPigmentAt(adjusted);
+    return getTextureAt(point).getPigment();
   }
   
   /**
@@ -69,7 +97,110 @@ public final class RotatedTexture implements Texture
    */
   public Finish getFinishAt(Vector point)
   {
-    final Vector adjusted = point.rotate(axis, radians);
-    return t.getFinishAt(adjusted);
+    return getTextureAt(point).getFinish();
+  }
+  
+  /**
+   *  Get the simple texture for the given point.
+   *  @return The simple texture.
+   */
+  public SimpleTexture getTextureAt(Vector point)
+  {
+    final CompiledTexture evaluator = this.evaluator;
+    
+    if (evaluator != null)
+    {
+      return evaluator.getTextureAt(point);
+    }
+    
+    return t.getTextureAt(rotate(point));
+  }
+  
+  /**
+   *  Get the texture being rotated.
+   */
+  Texture getTexture()
+  {
+    return this.t;
+  }
+  
+  /**
+   *  Get the rotation matrix, by row.
+   */
+  double[] getMatrix()
+  {
+    return new double[] { m00, m01, m02, m10, m11, m12, m20, m21, m22 };
+  }
+  
+  /**
+   *  Install an evaluator for the whole texture tree.  (Its fields are final, so it may be
+   *  installed while other threads are looking up the texture.)
+   */
+  void setEvaluator(CompiledTexture evaluator)
+  {
+    this.evaluator = evaluator;
+  }
+  
+  /**
+   *  Rotate a point into the texture's space.
+   */
+  private Vector rotate(Vector point)
+  {
+    final double x = point.getX();
+    final double y = point.getY();
+    final double z = point.getZ();
+    
+    return new Vector(m00 * x + m01 * y + m02 * z,
+                      m10 * x + m11 * y + m12 * z,
+                      m20 * x + m21 * y + m22 * z);
+  }
+  
+  /**
+   *  Are the textures equivalent?
+   */
+  @Override
+  public boolean equals(Object o)
+  {
+    if (this == o)
+    {
+      return true;
+    }
+    else
+    {
+      if (o instanceof RotatedTexture)
+      {
+        final RotatedTexture that = (RotatedTexture) o;
+        
+        return this.t.equals(that.t) &&
+               this.axis.equals(that.axis) &&
+               Double.doubleToLongBits(this.radians) == Double.doubleToLongBits(that.radians);
+      }
+      else
+      {
+        return false;
+      }
+    }
+  }
+  
+  /**
+   *  Compute the hashcode.
+   */
+  @Override
+  public int hashCode()
+  {
+    return 1 * this.t.hashCode() +
+           3 * this.axis.hashCode() +
+           5 * hashCode(this.radians);
+  }
+  
+  /**
+   *  Double hash code calculation.
+   *  @param value The double value to calculate the hashcode for.
+   *  @return The hashcode for the double value.
+   */
+  private static final int hashCode(double value)
+  {
+    long bits = Double.doubleToLongBits(value);
+    return (int) (bits ^ (bits >>> 32));
   }
 }
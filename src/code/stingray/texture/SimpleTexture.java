@@ -68,4 +68,65 @@ public final class SimpleTexture implements Texture
   {
     return this.finish;
   }
+
+  /**
+   *  Get the simple texture for the given point: this texture.
+   *  @return The simple texture.
+   */
+  public SimpleTexture getTextureAt(Vector point)
+  {
+    return this;
+  }
+
+  /**
+   *  Get the pigment.
+   */
+  public Pigment getPigment()
+  {
+    return this.pigment;
+  }
+
+  /**
+   *  Get the finish.
+   */
+  public Finish getFinish()
+  {
+    return this.finish;
+  }
+  
+  /**
+   *  Are the textures equivalent?
+   */
+  @Override
+  public boolean equals(Object o)
+  {
+    if (this == o)
+    {
+      return true;
+    }
+    else
+    {
+      if (o instanceof SimpleTexture)
+      {
+        final SimpleTexture that = (SimpleTexture) o;
+        
+        return this.pigment.equals(that.pigment) &&
+               this.finish.equals(that.finish);
+      }
+      else
+      {
+        return false;
+      }
+    }
+  }
+  
+  /**
+   *  Compute the hashcode.
+   */
+  @Override
+  public int hashCode()
+  {
+    return 1 * this.pigment.hashCode() +
+           3 * this.finish.hashCode();
+  }
 }
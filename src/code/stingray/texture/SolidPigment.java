@@ -44,6 +44,14 @@ public final class SolidPigment implements Pigment
     this.colour = colour;
   }
   
+  /**
+   *  Get the colour, which is the same everywhere.
+   */
+  public Colour getColour()
+  {
+    return colour;
+  }
+  
   /**
    *  Get the colour.
    */
@@ -51,4 +59,46 @@ public final class SolidPigment implements Pigment
   {
     return colour;
   }
+  
+  /**
+   *  Get the colour, which is the same over any footprint.
+   */
+  public Colour getColourAt(Vector v, double footprint)
+  {
+    return colour;
+  }
+  
+  /**
+   *  Are the pigments equivalent?
+   */
+  @Override
+  public boolean equals(Object o)
+  {
+    if (this == o)
+    {
+      return true;
+    }
+    else
+    {
+      if (o instanceof SolidPigment)
+      {
+        final SolidPigment that = (SolidPigment) o;
+        
+        return this.colour.equals(that.colour);
+      }
+      else
+      {
+        return false;
+      }
+    }
+  }
+  
+  /**
+   *  Compute the hashcode.
+   */
+  @Override
+  public int hashCode()
+  {
+    return this.colour.hashCode();
+  }
 }
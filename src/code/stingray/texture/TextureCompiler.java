@@ -0,0 +1,239 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.texture;
+
+import java.util.*;
+
+import stingray.*;
+
+
+/**
+ *  Texture compiler.  Compiling a texture tree flattens it into a single evaluator, which
+ *  the tree's root then uses for its lookups: <p>
+ *  
+ *  <ul>
+ *    <li>chains of rotations are folded into one matrix, and rotations of a simple texture
+ *        are dropped;</li>
+ *    <li>checkers become nodes in a flat decision tree, whose cell parity is found without
+ *        any branching on sign;</li>
+ *    <li>equal simple textures are shared, and a checker whose two choices are the same
+ *        simple texture is replaced by it, so a tree that is the same everywhere becomes a
+ *        constant.</li>
+ *  </ul>
+ *  
+ *  The compiled tree gives equal textures at every point (up to rounding, where rotations
+ *  are folded together).  Trees containing textures this compiler doesn't know are left as
+ *  they are.
+ */
+public final class TextureCompiler
+{
+  /** Rotation matrices, nine per node. */
+  private final List<double[]> matrices;
+  
+  /** Checker lengths, by node. */
+  private final List<Double> lengths;
+  
+  /** Choices, by node. */
+  private final List<int[]> choices;
+  
+  /** Simple textures at the leaves. */
+  private final List<SimpleTexture> leaves;
+  
+  /** Leaf indices, by value. */
+  private final Map<SimpleTexture, Integer> leafIndices;
+  
+  /**
+   *  Compile a texture tree, installing the evaluator in its root.  Simple textures are
+   *  already as cheap as they can be, and are left alone.
+   *  @param texture The root of the tree.
+   */
+  public static void compile(Texture texture)
+  {
+    if (! isCompilable(texture) || texture instanceof SimpleTexture)
+    {
+      return;
+    }
+    
+    final CompiledTexture evaluator = new TextureCompiler().build(texture);
+    
+    if (texture instanceof RotatedTexture)
+    {
+      ((RotatedTexture) texture).setEvaluator(evaluator);
+    }
+    else
+    {
+      ((CheckerTexture) texture).setEvaluator(evaluator);
+    }
+  }
+  
+  /**
+   *  Is a texture tree made only of textures the compiler knows?
+   */
+  private static boolean isCompilable(Texture texture)
+  {
+    if (texture instanceof SimpleTexture)
+    {
+      return true;
+    }
+    else if (texture instanceof RotatedTexture)
+    {
+      return isCompilable(((RotatedTexture) texture).getTexture());
+    }
+    else if (texture instanceof CheckerTexture)
+    {
+      final CheckerTexture checker = (CheckerTexture) texture;
+      return isCompilable(checker.getFirst()) && isCompilable(checker.getSecond());
+    }
+    else
+    {
+      return false;
+    }
+  }
+  
+  /**
+   *  Constructor.
+   */
+  private TextureCompiler()
+  {
+    this.matrices = new ArrayList<double[]>();
+    this.lengths = new ArrayList<Double>();
+    this.choices = new ArrayList<int[]>();
+    this.leaves = new ArrayList<SimpleTexture>();
+    this.leafIndices = new HashMap<SimpleTexture, Integer>();
+  }
+  
+  /**
+   *  Build the evaluator for a tree.
+   */
+  private CompiledTexture build(Texture texture)
+  {
+    final int root = add(texture, null);
+    
+    if (root < 0)
+    {
+      return new CompiledTexture(this.leaves.get(-root - 1));
+    }
+    
+    final int nodes = this.lengths.size();
+    final double[] matrices = new double[nodes * 9];
+    final boolean[] rotated = new boolean[nodes];
+    final double[] lengths = new double[nodes];
+    final int[] first = new int[nodes];
+    final int[] second = new int[nodes];
+    
+    for (int n = 0; n < nodes; n++)
+    {
+      if (this.matrices.get(n) != null)
+      {
+        System.arraycopy(this.matrices.get(n), 0, matrices, n * 9, 9);
+        rotated[n] = true;
+      }
+      lengths[n] = this.lengths.get(n);
+      first[n] = this.choices.get(n)[0];
+      second[n] = this.choices.get(n)[1];
+    }
+    
+    return new CompiledTexture(root, matrices, rotated, lengths, first, second, 
+                               this.leaves.toArray(new SimpleTexture[this.leaves.size()]));
+  }
+  
+  /**
+   *  Add a subtree.
+   *  @param texture The subtree's root.
+   *  @param rotation The rotation to apply to points before the subtree looks them up (or
+   *                  null if none).
+   *  @return The subtree's node index, or <code>-1 - i</code> if it is leaf <i>i</i>.
+   */
+  private int add(Texture texture, double[] rotation)
+  {
+    if (texture instanceof SimpleTexture)
+    {
+      return -1 - getLeaf((SimpleTexture) texture);
+    }
+    else if (texture instanceof RotatedTexture)
+    {
+      final RotatedTexture rotated = (RotatedTexture) texture;
+      final double[] matrix = rotated.getMatrix();
+      
+      return add(rotated.getTexture(), (rotation == null) ? matrix : multiply(matrix, rotation));
+    }
+    else
+    {
+      final CheckerTexture checker = (CheckerTexture) texture;
+      final int first = add(checker.getFirst(), null);
+      final int second = add(checker.getSecond(), null);
+      
+      if (first < 0 && first == second)                              // the same either way
+      {
+        return first;
+      }
+      
+      this.matrices.add(rotation);
+      this.lengths.add(checker.getLength());
+      this.choices.add(new int[] { first, second });
+      return this.lengths.size() - 1;
+    }
+  }
+  
+  /**
+   *  Get the index of a leaf, sharing equal simple textures.
+   */
+  private int getLeaf(SimpleTexture texture)
+  {
+    Integer index = this.leafIndices.get(texture);
+    
+    if (index == null)
+    {
+      index = this.leaves.size();
+      this.leaves.add(texture);
+      this.leafIndices.put(texture, index);
+    }
+    
+    return index;
+  }
+  
+  /**
+   *  Multiply two 3x3 matrices, stored by row.
+   *  @return The product, <code>a b</code>.
+   */
+  private static double[] multiply(double[] a, double[] b)
+  {
+    final double[] product = new double[9];
+    
+    for (int row = 0; row < 3; row++)
+    {
+      for (int column = 0; column < 3; column++)
+      {
+        product[row * 3 + column] = a[row * 3    ] * b[column    ] + 
+                                    a[row * 3 + 1] * b[column + 3] + 
+                                    a[row * 3 + 2] * b[column + 6];
+      }
+    }
+    
+    return product;
+  }
+}
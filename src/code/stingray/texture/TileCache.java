@@ -0,0 +1,182 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.texture;
+
+import java.io.*;
+import java.util.*;
+
+
+/**
+ *  A cache of image tiles, shared by image pigments and the threads rendering with them. <p>
+ *  
+ *  Tiles are read from their mipmap's cache file on first use, and the least recently used
+ *  tiles are evicted to keep the cache within its memory budget.  Tiles are read outside the
+ *  cache's lock, so a thread reading from disk holds up no other; two threads missing the
+ *  same tile at once may both read it.
+ */
+public final class TileCache
+{
+  /** Default memory budget, in bytes. */
+  public static final long DEFAULT_BUDGET = 64L << 20;
+  
+  /** The cache used by image pigments that aren't given one. */
+  private static final TileCache DEFAULT = new TileCache(DEFAULT_BUDGET);
+  
+  /** Memory budget, in bytes. */
+  private final long budget;
+  
+  /** Tiles, by key, least recently used first. */
+  private final LinkedHashMap<Long, byte[]> tiles;
+  
+  /** Bytes of tiles held. */
+  private long size;
+  
+  /** Number of lookups that found their tile in the cache. */
+  private long hits;
+  
+  /** Number of lookups that read their tile from disk. */
+  private long misses;
+  
+  /**
+   *  Constructor.
+   *  @param budget The memory budget, in bytes.
+   */
+  public TileCache(long budget)
+  {
+    if (budget <= 0)
+    {
+      throw new IllegalArgumentException("budget must be positive; was: " + budget);
+    }
+    
+    this.budget = budget;
+    this.tiles = new LinkedHashMap<Long, byte[]>(16, 0.75f, true);
+  }
+  
+  /**
+   *  Get the cache used by image pigments that aren't given one.
+   */
+  public static TileCache getDefault()
+  {
+    return DEFAULT;
+  }
+  
+  /**
+   *  Get a tile, reading it from disk if it isn't held.
+   *  @param map The mipmap.
+   *  @param level The level.
+   *  @param tx The tile's column.
+   *  @param ty The tile's row.
+   *  @return The tile's pixels.
+   *  @throws IllegalStateException If the tile cannot be read.
+   */
+  byte[] getTile(MipMap map, int level, int tx, int ty) throws IllegalStateException
+  {
+    final Long key = ((long) map.getId() << 48) | ((long) level << 40) | ((long) ty << 20) | tx;
+    
+    synchronized (this)
+    {
+      final byte[] tile = this.tiles.get(key);
+      
+      if (tile != null)
+      {
+        this.hits++;
+        return tile;
+      }
+      this.misses++;
+    }
+    
+    final byte[] tile;
+    
+    try
+    {
+      tile = map.readTile(level, tx, ty);
+    }
+    catch (IOException ex)
+    {
+      throw new IllegalStateException("cannot read texture tile", ex);
+    }
+    
+    synchronized (this)
+    {
+      if (this.tiles.put(key, tile) == null)
+      {
+        this.size += tile.length;
+      }
+      
+      final Iterator<byte[]> eldest = this.tiles.values().iterator();
+      
+      while (this.size > this.budget && this.tiles.size() > 1)
+      {
+        this.size -= eldest.next().length;
+        eldest.remove();
+      }
+    }
+    
+    return tile;
+  }
+  
+  /**
+   *  Get the bytes of tiles held.
+   */
+  public synchronized long getSize()
+  {
+    return this.size;
+  }
+  
+  /**
+   *  Get the memory budget, in bytes.
+   */
+  public long getBudget()
+  {
+    return this.budget;
+  }
+  
+  /**
+   *  Get the number of lookups that found their tile in the cache.
+   */
+  public synchronized long getHits()
+  {
+    return this.hits;
+  }
+  
+  /**
+   *  Get the number of lookups that read their tile from disk.
+   */
+  public synchronized long getMisses()
+  {
+    return this.misses;
+  }
+  
+  /**
+   *  Drop every tile.
+   */
+  public synchronized void clear()
+  {
+    this.tiles.clear();
+    this.size = 0;
+  }
+}
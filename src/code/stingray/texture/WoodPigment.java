@@ -0,0 +1,152 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.texture;
+
+import stingray.*;
+
+
+/**
+ *  Wood: rings around the Y axis, blended between two colours and disturbed by turbulence.
+ *  Each ring runs from the first colour to the second, and is the scale wide.
+ */
+public final class WoodPigment implements Pigment
+{
+  /** Colour at zero. */
+  private final Colour from;
+  
+  /** Colour at one. */
+  private final Colour to;
+  
+  /** Size of the pattern's features, in scene units. */
+  private final double scale;
+  
+  /** Strength of the turbulence. */
+  private final double turbulence;
+  
+  /** Most octaves of turbulence to sum. */
+  private final int octaves;
+  
+  /** Colours, by blend. */
+  private final ColourMap colours;
+  
+  /**
+   *  Constructor.
+   *  @param from The colour at zero.
+   *  @param to The colour at one.
+   *  @param scale The size of the pattern's features, in scene units.
+   *  @param turbulence The strength of the turbulence, in rings.
+   *  @param octaves The most octaves of turbulence to sum.
+   */
+  public WoodPigment(Colour from, Colour to, double scale, double turbulence, int octaves)
+  {
+    if (octaves < 1)
+    {
+      throw new IllegalArgumentException("octaves must be at least 1; was: " + octaves);
+    }
+    
+    this.from = from;
+    this.to = to;
+    this.scale = scale;
+    this.turbulence = turbulence;
+    this.octaves = octaves;
+    this.colours = new ColourMap(from, to);
+  }
+  
+  /**
+   *  Get the colour, with every octave of turbulence.
+   */
+  public Colour getColourAt(Vector v)
+  {
+    return getColourAt(v, 0);
+  }
+  
+  /**
+   *  Get the colour, leaving out octaves of turbulence finer than the footprint.
+   */
+  public Colour getColourAt(Vector v, double footprint)
+  {
+    final double x = v.getX() / this.scale;
+    final double y = v.getY() / this.scale;
+    final double z = v.getZ() / this.scale;
+    final double t = Math.sqrt(x * x + z * z) + this.turbulence * Noise.turbulence(x, y, z, Noise.getOctaves(this.octaves, footprint / this.scale));
+    
+    return this.colours.get(t - Math.floor(t));
+  }
+  
+  /**
+   *  Are the pigments equivalent?
+   */
+  @Override
+  public boolean equals(Object o)
+  {
+    if (this == o)
+    {
+      return true;
+    }
+    else
+    {
+      if (o instanceof WoodPigment)
+      {
+        final WoodPigment that = (WoodPigment) o;
+        
+        return this.from.equals(that.from) &&
+               this.to.equals(that.to) &&
+               Double.doubleToLongBits(this.scale) == Double.doubleToLongBits(that.scale) &&
+               Double.doubleToLongBits(this.turbulence) == Double.doubleToLongBits(that.turbulence) &&
+               this.octaves == that.octaves;
+      }
+      else
+      {
+        return false;
+      }
+    }
+  }
+  
+  /**
+   *  Compute the hashcode.
+   */
+  @Override
+  public int hashCode()
+  {
+    return 1 * this.from.hashCode() +
+           3 * this.to.hashCode() +
+           5 * hashCode(this.scale) +
+           7 * hashCode(this.turbulence) +
+           9 * this.octaves;
+  }
+  
+  /**
+   *  Double hash code calculation.
+   *  @param value The double value to calculate the hashcode for.
+   *  @return The hashcode for the double value.
+   */
+  private static final int hashCode(double value)
+  {
+    long bits = Double.doubleToLongBits(value);
+    return (int) (bits ^ (bits >>> 32));
+  }
+}
@@ -0,0 +1,58 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray;
+
+import junit.framework.*;
+
+/**
+ *  Colour accumulator tests.
+ */
+public final class ColourAccumulatorTest extends TestCase
+{
+  public void testMatchesColourArithmetic()
+  {
+    final Colour light = new Colour(0.9f, 0.7f, 0.3f);
+    final Colour pigment = new Colour(0.2f, 0.8f, 0.6f);
+    final ColourAccumulator a = new ColourAccumulator();
+    
+    a.set(pigment.multiply(0.15d));
+    a.add(light, 0.35f);
+    a.add(1.5f, 0.0f, -0.25f);
+    
+    final Colour expected = pigment.multiply(0.15d).add(light.multiply(0.35f)).add(new Colour(1.5f, 0.0f, -0.25f));
+    assertEquals(expected, a.toColour());
+  }
+  
+  public void testNoClamping()
+  {
+    final ColourAccumulator a = new ColourAccumulator();
+    
+    a.add(Colour.WHITE, 3.0f);
+    assertEquals(3.0f, a.getRed());
+    assertEquals(0xFFFFFFFF, a.toColour().asARGB());
+  }
+}
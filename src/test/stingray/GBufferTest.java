@@ -0,0 +1,132 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray;
+
+import java.awt.image.*;
+
+import junit.framework.*;
+
+import stingray.geometry.*;
+import stingray.texture.*;
+
+/**
+ *  G-buffer tests.
+ */
+public final class GBufferTest extends TestCase
+{
+  public void testIdsAndMaterialOrder()
+  {
+    final Texture red = new SimpleTexture(new SolidPigment(Colour.RED), new Finish(0.1, 0.6, 50, 0.0));
+    final Texture blue = new SimpleTexture(new SolidPigment(Colour.BLUE), new Finish(0.1, 0.6, 50, 0.0));
+    final Sphere a = new Sphere(new Vector(0, 0, 10), 1, red);
+    final Sphere b = new Sphere(new Vector(0, 0, 20), 1, blue);
+    final Sphere c = new Sphere(new Vector(0, 0, 30), 1, red);
+    final Ray ray = new Ray(new Vector(0, 0, 0), Vector.Z_NORMAL);
+    final GBuffer buffer = new GBuffer(3, 2);
+    
+    buffer.set(0, 0, new Intersection(ray, a, 9));
+    buffer.set(1, 0, new Intersection(ray, b, 19));
+    buffer.set(2, 0, new Intersection(ray, c, 29));
+    buffer.set(0, 1, new Intersection(ray, b, 19));
+    buffer.assignIds();
+    
+    assertEquals(0, buffer.getGeometryId(0));
+    assertEquals(1, buffer.getGeometryId(1));
+    assertEquals(2, buffer.getGeometryId(2));
+    assertEquals(1, buffer.getGeometryId(3));
+    assertEquals(GBuffer.MISS, buffer.getGeometryId(4));
+    assertSame(b, buffer.getGeometry(1));
+    
+    assertEquals(2, buffer.getMaterialCount());
+    assertEquals(0, buffer.getMaterialId(2));                        // a and c share a material
+    assertSame(blue, buffer.getMaterial(buffer.getMaterialId(1)));
+    assertEquals(9.0d, buffer.getDistance(0));
+    assertEquals(Double.POSITIVE_INFINITY, buffer.getDistance(5));
+    assertEquals(-1.0d, buffer.getNormal(0, 2));
+    assertEquals(Colour.BLUE, buffer.getPigment(3));
+    assertEquals(new Finish(0.1, 0.6, 50, 0.0), buffer.getFinish(3));
+    assertNull(buffer.getFinish(4));
+    
+    final int[] expected = { 4, 5, 0, 2, 1, 3 };                     // misses, then red, then blue
+    final int[] pixels = buffer.getPixelsByMaterial();
+    
+    assertEquals(expected.length, pixels.length);
+    for (int i = 0; i < expected.length; i++)
+    {
+      assertEquals(expected[i], pixels[i]);
+    }
+  }
+  
+  public void testRelitMatchesFullRender()
+  {
+    final Stage previous = stage(new Vector(0, 60, 80));
+    final Stage relit = stage(new Vector(-50, 40, 60));
+    
+    previous.setDeferred(true);
+    previous.render("previous", 64, 64);
+    
+    final Rendering r = relit.render("relit", 64, 64, previous);
+    
+    assertSame(previous.getGBuffer(), relit.getGBuffer());           // only the lights changed
+    assertSameImage(stage(new Vector(-50, 40, 60)).render("full", 64, 64), r);
+  }
+  
+  private static void assertSameImage(Rendering a, Rendering b)
+  {
+    final BufferedImage first = (BufferedImage) a.getImage();
+    final BufferedImage second = (BufferedImage) b.getImage();
+    
+    for (int x = 0; x < first.getWidth(); x++)
+    {
+      for (int y = 0; y < first.getHeight(); y++)
+      {
+        assertEquals(first.getRGB(x, y), second.getRGB(x, y));
+      }
+    }
+  }
+  
+  /**
+   *  A sphere and a mirror on a plane, lit by an area light and by more lights than the
+   *  shadow ray budget.
+   */
+  private static Stage stage(Vector light)
+  {
+    final Stage stage = new Stage(new Camera(new Vector(0, 0, 0), new Vector(0, 0, 100)));
+    final Texture texture = new SimpleTexture(new SolidPigment(Colour.WHITE), new Finish(0.1, 0.6, 50, 0.0));
+    
+    stage.addGeometry(new Plane(new Vector(0, 1, 0), -20, texture));
+    stage.addGeometry(new Sphere(new Vector(0, 0, 100), 15, new SimpleTexture(new SolidPigment(Colour.RED), new Finish(0.1, 0.6, 50, 0.0))));
+    stage.addGeometry(new Sphere(new Vector(-25, 0, 110), 10, new SimpleTexture(new SolidPigment(Colour.WHITE), new Finish(0.0, 0.0, 0, 1.0))));
+    stage.addLight(Light.spherical(light, 10, Colour.WHITE));
+    for (int l = 0; l < 8; l++)
+    {
+      stage.addLight(new Light(new Vector(-80 + l * 20, 40, 40), new Colour(0.1f, 0.1f, 0.1f)));
+    }
+    stage.setShadowRayBudget(4);
+    return stage;
+  }
+}
@@ -0,0 +1,64 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray;
+
+import junit.framework.*;
+
+/**
+ *  Illumination tests.
+ */
+public final class IlluminationTest extends TestCase
+{
+  public void testVisibilityAcrossWords()
+  {
+    final Illumination illumination = new Illumination();
+    final Light light = new Light(new Vector(0, 0, 0), Colour.WHITE);
+    
+    for (int i = 0; i < 150; i++)
+    {
+      illumination.add(light, Vector.Z_NORMAL, i, i % 7 == 0);
+    }
+    
+    assertEquals(150, illumination.size());
+    assertEquals(22, illumination.countVisible());
+    
+    int expected = 0;
+    for (int i = illumination.nextVisible(0); i >= 0; i = illumination.nextVisible(i + 1))
+    {
+      assertEquals(expected, i);
+      assertTrue(illumination.isVisible(i));
+      assertEquals((double) i, illumination.getDistance(i));
+      expected += 7;
+    }
+    assertEquals(154, expected);
+    
+    illumination.clear();
+    illumination.add(light, Vector.Z_NORMAL, 1, false);
+    assertEquals(0, illumination.countVisible());
+    assertEquals(-1, illumination.nextVisible(0));
+  }
+}
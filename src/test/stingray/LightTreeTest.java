@@ -0,0 +1,110 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray;
+
+import java.util.*;
+
+import junit.framework.*;
+
+/**
+ *  Light tree tests.
+ */
+public final class LightTreeTest extends TestCase
+{
+  private static List<Light> lights(int count)
+  {
+    final Random random = new Random(3);
+    final List<Light> lights = new ArrayList<Light>();
+    
+    for (int i = 0; i < count; i++)
+    {
+      lights.add(new Light(new Vector(random.nextDouble() * 100, random.nextDouble() * 100, random.nextDouble() * 100),
+                           new Colour(random.nextFloat(), random.nextFloat(), random.nextFloat())));
+    }
+    
+    return lights;
+  }
+  
+  private static double importance(Light light, Vector point)
+  {
+    return LightTree.power(light) / light.getPosition().subtract(point).squared();
+  }
+  
+  public void testMostSignificantLightsChosenFirst()
+  {
+    final List<Light> lights = lights(200);
+    final LightTree tree = new LightTree(lights);
+    final LightTree.Selection selection = new LightTree.Selection();
+    final Vector point = new Vector(50, 50, 50);
+    
+    tree.select(point.getX(), point.getY(), point.getZ(), 10, 0, new Random(1), selection);
+    assertEquals(10, selection.size());
+    
+    final List<Light> sorted = new ArrayList<Light>(lights);
+    Collections.sort(sorted, new Comparator<Light>()
+    {
+      @Override
+      public int compare(Light l1, Light l2)
+      {
+        return Double.compare(importance(l2, point), importance(l1, point));
+      }
+    });
+    
+    for (int i = 0; i < 10; i++)
+    {
+      assertSame(sorted.get(i), selection.getLight(i));
+      assertEquals(1.0d, selection.getWeight(i));
+    }
+  }
+  
+  public void testSamplingIsUnbiased()
+  {
+    final List<Light> lights = lights(50);
+    final LightTree tree = new LightTree(lights);
+    final LightTree.Selection selection = new LightTree.Selection();
+    final Random random = new Random(1);
+    final int trials = 20000;
+    double total = 0;
+    
+    for (int t = 0; t < trials; t++)
+    {
+      tree.select(10, 20, 30, 5, 3, random, selection);
+      for (int i = 0; i < selection.size(); i++)
+      {
+        total += selection.getWeight(i) * LightTree.power(selection.getLight(i));
+      }
+    }
+    
+    double expected = 0;
+    for (Light light : lights)
+    {
+      expected += LightTree.power(light);
+    }
+    
+    assertEquals(expected, total / trials, expected * 0.02d);
+  }
+}
@@ -0,0 +1,134 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray;
+
+import java.awt.image.*;
+import java.util.*;
+
+import junit.framework.*;
+
+import stingray.geometry.*;
+import stingray.texture.*;
+
+/**
+ *  Material table tests.
+ */
+public final class MaterialTableTest extends TestCase
+{
+  public void testEqualTexturesShareAnId()
+  {
+    final Texture red = new SimpleTexture(new SolidPigment(Colour.RED), new Finish(0.1, 0.6, 50, 0.0));
+    final Texture alsoRed = new SimpleTexture(new SolidPigment(new Colour(1, 0, 0)), new Finish(0.1, 0.6, 50, 0.0));
+    final Texture checker = new CheckerTexture(red, new SimpleTexture(new SolidPigment(Colour.BLUE), new Finish(0.1, 0.6, 50, 0.0)), 10);
+    final List<Geometry> geometry = new ArrayList<Geometry>();
+    
+    geometry.add(new Sphere(new Vector(0, 0, 10), 1, red));
+    geometry.add(new Sphere(new Vector(0, 0, 20), 1, checker));
+    geometry.add(new Sphere(new Vector(0, 0, 30), 1, alsoRed));
+    
+    final MaterialTable table = MaterialTable.build(geometry);
+    
+    assertEquals(2, table.size());
+    assertEquals(0, table.getId(geometry.get(0)));
+    assertEquals(1, table.getId(geometry.get(1)));
+    assertEquals(0, table.getId(geometry.get(2)));
+    assertEquals(MaterialTable.NONE, table.getId(new SimpleTexture(new SolidPigment(Colour.RED), new Finish(0.1, 0.6, 50, 0.0))));
+    assertSame(red, table.getTexture(0));
+    
+    assertTrue(table.isUniform(0));
+    assertFalse(table.isUniform(1));
+    assertEquals(1.0f, table.getRed(0));
+    assertEquals(0.0f, table.getBlue(0));
+    assertEquals(0.1d, table.getAmbient(0));
+    assertEquals(0.6d, table.getDiffuse(0));
+    assertEquals(50.0d, table.getShininess(0));
+    assertEquals(0.0d, table.getReflection(0));
+    
+    final GBuffer buffer = new GBuffer(2, 1);
+    final Ray ray = new Ray(new Vector(0, 0, 0), Vector.Z_NORMAL);
+    
+    buffer.set(0, 0, new Intersection(ray, geometry.get(2), 29));
+    buffer.set(1, 0, new Intersection(ray, geometry.get(0), 9));
+    buffer.assignIds(table);
+    assertSame(table, buffer.getMaterialTable());
+    assertEquals(0, buffer.getMaterialId(0));
+    assertEquals(0, buffer.getMaterialId(1));
+    assertEquals(2, buffer.getMaterialCount());
+  }
+  
+  public void testCsgOperandsInterned()
+  {
+    final Texture green = new SimpleTexture(new SolidPigment(Colour.GREEN), new Finish(0.1, 0.6, 50, 0.0));
+    final Texture magenta = new SimpleTexture(new SolidPigment(Colour.MAGENTA), new Finish(0.1, 0.6, 50, 0.0));
+    final Geometry s1 = new Sphere(new Vector(0, 0, 700), 100, green);
+    final Geometry s2 = new Sphere(new Vector(100, 0, 700), 100, new SimpleTexture(new SolidPigment(Colour.GREEN), new Finish(0.1, 0.6, 50, 0.0)));
+    final List<Geometry> geometry = new ArrayList<Geometry>();
+    
+    geometry.add(new CsgDifference(s1, s2, magenta));
+    
+    final MaterialTable table = MaterialTable.build(geometry);
+    
+    assertEquals(2, table.size());
+    assertEquals(1, table.getId(s1));
+    assertEquals(1, table.getId(s2));
+  }
+  
+  public void testDeferredCsgMatchesDepthFirst()
+  {
+    for (int csg = 0; csg < 2; csg++)
+    {
+      final BufferedImage expected = (BufferedImage) csgStage(csg, false).render("depth first", 100, 100).getImage();
+      final BufferedImage actual = (BufferedImage) csgStage(csg, true).render("deferred", 100, 100).getImage();
+      
+      for (int x = 0; x < 100; x++)
+      {
+        for (int y = 0; y < 100; y++)
+        {
+          assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+        }
+      }
+    }
+  }
+  
+  /**
+   *  A stage holding a CSG difference (0) or intersection (1) of two spheres, over a plane.
+   */
+  private static Stage csgStage(int csg, boolean deferred)
+  {
+    final Stage stage = new Stage(new Camera(new Vector(150, 10, 500), new Vector(0, 10, 700)));
+    final Finish finish = new Finish(0.1, 0.6, 50, 0.0);
+    final Geometry s1 = new Sphere(new Vector(0, 0, 700), 100, new SimpleTexture(new SolidPigment(Colour.GREEN), finish));
+    final Geometry s2 = new Sphere(new Vector(100, 0, 700), 100, new SimpleTexture(new SolidPigment(Colour.RED), finish));
+    final Texture magenta = new SimpleTexture(new SolidPigment(Colour.MAGENTA), finish);
+    
+    stage.addGeometry((csg == 0) ? new CsgDifference(s1, s2, magenta) : new CsgIntersection(s1, s2, magenta));
+    stage.addGeometry(new Plane(new Vector(0, 1, 0), -100.1, new SimpleTexture(new SolidPigment(Colour.WHITE), finish)));
+    stage.addLight(new Light(new Vector(0, 500, 0), Colour.WHITE));
+    stage.setDeferred(deferred);
+    return stage;
+  }
+}
@@ -0,0 +1,132 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray;
+
+import java.awt.image.*;
+
+import junit.framework.*;
+
+import stingray.geometry.*;
+import stingray.texture.*;
+
+/**
+ *  Per pixel random stream tests.
+ */
+public final class PixelRandomTest extends TestCase
+{
+  public void testStreamsAreIndependent()
+  {
+    final PixelRandom a = new PixelRandom(0);
+    final PixelRandom b = new PixelRandom(0);
+    
+    a.setPixel(3, 4, 0);
+    final double first = a.nextDouble();
+    final double second = a.nextDouble();
+    
+    b.setPixel(9, 9, 0);                                             // draw from another stream first
+    b.nextDouble();
+    b.setPixel(3, 4, 0);
+    assertEquals(first, b.nextDouble());
+    assertEquals(second, b.nextDouble());
+    
+    b.setPixel(4, 3, 0);
+    assertFalse(first == b.nextDouble());
+    b.setPixel(3, 4, 1);
+    assertFalse(first == b.nextDouble());
+    
+    final PixelRandom c = new PixelRandom(1);
+    c.setPixel(3, 4, 0);
+    assertFalse(first == c.nextDouble());
+  }
+  
+  public void testUniform()
+  {
+    final PixelRandom random = new PixelRandom(0);
+    final int[] buckets = new int[10];
+    
+    for (int x = 0; x < 100; x++)
+    {
+      for (int y = 0; y < 100; y++)
+      {
+        random.setPixel(x, y, 0);
+        buckets[(int) (random.nextDouble() * buckets.length)]++;
+      }
+    }
+    
+    for (int bucket : buckets)
+    {
+      assertTrue("bucket count was: " + bucket, bucket > 850 && bucket < 1150);
+    }
+  }
+  
+  public void testSameImageForAnyThreadCount()
+  {
+    assertSameImage(stage(1, false).render("one", 64, 64), stage(4, false).render("four", 64, 64));
+  }
+  
+  public void testSameImageDeferred()
+  {
+    assertSameImage(stage(1, false).render("depth first", 64, 64), stage(1, true).render("deferred", 64, 64));
+  }
+  
+  private static void assertSameImage(Rendering a, Rendering b)
+  {
+    final BufferedImage first = (BufferedImage) a.getImage();
+    final BufferedImage second = (BufferedImage) b.getImage();
+    
+    for (int x = 0; x < 64; x++)
+    {
+      for (int y = 0; y < 64; y++)
+      {
+        assertEquals(first.getRGB(x, y), second.getRGB(x, y));
+      }
+    }
+  }
+  
+  /**
+   *  A stage lit by more lights than its shadow ray budget, and by an area light, so that
+   *  shading is sampled randomly, with a mirror (which is not lit, so draws no samples).
+   */
+  private static Stage stage(int threads, boolean deferred)
+  {
+    final Stage stage = new Stage(new Camera(new Vector(0, 0, 0), new Vector(0, 0, 100)));
+    final Texture texture = new SimpleTexture(new SolidPigment(Colour.WHITE), new Finish(0.1, 0.6, 50, 0.0));
+    
+    stage.addGeometry(new Plane(new Vector(0, 1, 0), -20, texture));
+    stage.addGeometry(new Sphere(new Vector(0, 0, 100), 15, texture));
+    stage.addGeometry(new Sphere(new Vector(-25, 0, 110), 10, new SimpleTexture(new SolidPigment(Colour.WHITE), new Finish(0.0, 0.0, 0, 1.0))));
+    stage.addLight(Light.spherical(new Vector(0, 60, 80), 10, Colour.WHITE));
+    for (int l = 0; l < 8; l++)
+    {
+      stage.addLight(new Light(new Vector(-80 + l * 20, 40, 40), new Colour(0.1f, 0.1f, 0.1f)));
+    }
+    stage.setShadowRayBudget(4);
+    stage.setThreads(threads);
+    stage.setDeferred(deferred);
+    return stage;
+  }
+}
@@ -0,0 +1,57 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray;
+
+import junit.framework.*;
+
+/**
+ *  Ray queue tests.
+ */
+public final class RayQueueTest extends TestCase
+{
+  public void testSortKeepsRaysWithTheirPixels()
+  {
+    final RayQueue queue = new RayQueue();
+    final Vector[] directions = { new Vector(1, 1, -1), new Vector(1, 1, 1), new Vector(1, 1, -1), new Vector(1, 1, 1) };
+    
+    for (int i = 0; i < directions.length; i++)
+    {
+      queue.add(new Ray(new Vector(i, 0, 0), directions[i]), 10 + i, i, null);
+    }
+    queue.sort();
+    
+    final int[] expected = { 1, 3, 0, 2 };                           // octant, then origin; ties in order
+    
+    for (int k = 0; k < expected.length; k++)
+    {
+      assertEquals(expected[k], queue.getPixel(k));
+      assertEquals(10.0d + expected[k], queue.getLimit(k));
+      assertEquals((double) expected[k], queue.getRay(k).getOrigin().getX());
+      assertEquals(k, queue.getRank(expected[k]));
+    }
+  }
+}
@@ -0,0 +1,85 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray;
+
+import java.awt.image.*;
+import java.io.*;
+
+import junit.framework.*;
+
+/**
+ *  Rendering tests.
+ */
+public final class RenderingTest extends TestCase
+{
+  public void testSamplesAccumulateUnclamped()
+  {
+    final Rendering r = new Rendering("test", 2, 2);
+    
+    r.set(1, 0, new Colour(2.0f, 0.5f, 0.0f));
+    r.set(1, 0, new Colour(1.0f, 0.25f, 0.0f).add(new Colour(0.0f, 0.25f, 0.0f)));
+    
+    assertEquals(2, r.getSamples(1, 0));
+    assertEquals(0, r.getSamples(0, 0));
+    assertEquals(new Colour(1.5f, 0.5f, 0.0f), r.getColour(1, 0));
+    assertEquals(0xFFFF7F00, ((BufferedImage) r.getImage()).getRGB(1, 1));    // clamped on output, top row first
+  }
+  
+  public void testToneMapping()
+  {
+    final Rendering r = new Rendering("test", 1, 1);
+    
+    r.set(0, 0, new Colour(0.5f, 0.25f, 4.0f));
+    r.setToneMapper(new ToneMapper(1, false, false));
+    assertEquals(0xFFFF7FFF, ((BufferedImage) r.getImage()).getRGB(0, 0));
+    
+    r.setToneMapper(new ToneMapper(0, true, true));
+    final int argb = ((BufferedImage) r.getImage()).getRGB(0, 0);
+    assertEquals(156, (argb >> 16) & 0xFF);                          // sRGB of 0.5 / 1.5
+    assertEquals(231, argb & 0xFF);                                  // sRGB of 4 / 5
+  }
+  
+  public void testPFM() throws IOException
+  {
+    final Rendering r = new Rendering("test", 2, 1);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    
+    r.set(1, 0, new Colour(3.0f, 0.5f, 0.25f));
+    r.writePFM(out);
+    
+    final byte[] bytes = out.toByteArray();
+    final String header = "PF\n2 1\n-1.0\n";
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, header.length(), bytes.length - header.length()));
+    
+    assertEquals(header, new String(bytes, 0, header.length(), "US-ASCII"));
+    assertEquals(header.length() + 2 * 3 * 4, bytes.length);
+    for (float expected : new float[] { 0, 0, 0, 3.0f, 0.5f, 0.25f })
+    {
+      assertEquals(expected, Float.intBitsToFloat(Integer.reverseBytes(in.readInt())));
+    }
+  }
+}
@@ -0,0 +1,113 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray;
+
+import java.awt.image.*;
+
+import junit.framework.*;
+
+import stingray.geometry.*;
+import stingray.texture.*;
+
+/**
+ *  Tile dependency record tests.
+ */
+public final class TileDependenciesTest extends TestCase
+{
+  public void testRecordedRays()
+  {
+    final TileDependencies dependencies = new TileDependencies(64, 32, 32);
+    final Bounds box = new Bounds(-1, -1, 9, 1, 1, 11);
+    
+    assertFalse(dependencies.intersects(0, box));
+    
+    dependencies.include(0, new Ray(new Vector(0, 0, 0), Vector.Z_NORMAL), 5);
+    assertFalse(dependencies.intersects(0, box));                   // stops short of the box
+    
+    dependencies.include(0, new Ray(new Vector(0, 0, 0), Vector.Z_NORMAL), Double.POSITIVE_INFINITY);
+    assertTrue(dependencies.intersects(0, box));
+    assertFalse(dependencies.intersects(1, box));
+    
+    final TileDependencies copy = new TileDependencies(64, 32, 32);
+    copy.merge(dependencies);
+    assertTrue(copy.intersects(0, box));
+    
+    copy.clear(0);
+    assertFalse(copy.intersects(0, box));
+    assertTrue(dependencies.intersects(0, box));
+  }
+  
+  public void testOtherSizeNotCopied()
+  {
+    final Stage previous = stage(false);
+    
+    previous.render("wide", 64, 32);                                 // as many tiles as the tall render
+    assertSameImage(stage(false).render("full", 32, 64), stage(false).render("incremental", 32, 64, previous));
+  }
+  
+  public void testIncrementalMatchesFullRender()
+  {
+    final Stage previous = stage(false);
+    
+    previous.render("previous", 128, 128);
+    assertSameImage(stage(true).render("full", 128, 128), stage(true).render("incremental", 128, 128, previous));
+  }
+  
+  private static void assertSameImage(Rendering a, Rendering b)
+  {
+    final BufferedImage first = (BufferedImage) a.getImage();
+    final BufferedImage second = (BufferedImage) b.getImage();
+    
+    for (int x = 0; x < first.getWidth(); x++)
+    {
+      for (int y = 0; y < first.getHeight(); y++)
+      {
+        assertEquals(first.getRGB(x, y), second.getRGB(x, y));
+      }
+    }
+  }
+  
+  /**
+   *  A sphere and a mirror on a plane, lit by a point light; and if edited, another sphere,
+   *  which is seen in the mirror.
+   */
+  private static Stage stage(boolean edited)
+  {
+    final Stage stage = new Stage(new Camera(new Vector(0, 0, 0), new Vector(0, 0, 100)));
+    final Texture texture = new SimpleTexture(new SolidPigment(Colour.WHITE), new Finish(0.1, 0.6, 50, 0.0));
+    
+    stage.addGeometry(new Plane(new Vector(0, 1, 0), -20, texture));
+    stage.addGeometry(new Sphere(new Vector(0, 0, 100), 15, new SimpleTexture(new SolidPigment(Colour.RED), new Finish(0.1, 0.6, 50, 0.0))));
+    stage.addGeometry(new Sphere(new Vector(-25, 0, 110), 10, new SimpleTexture(new SolidPigment(Colour.WHITE), new Finish(0.0, 0.0, 0, 1.0))));
+    if (edited)
+    {
+      stage.addGeometry(new Sphere(new Vector(-30, 5, 70), 3, new SimpleTexture(new SolidPigment(Colour.GREEN), new Finish(0.1, 0.6, 50, 0.0))));
+    }
+    stage.addLight(new Light(new Vector(-40, 60, 40), Colour.WHITE));
+    return stage;
+  }
+}
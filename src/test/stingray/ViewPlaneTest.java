@@ -0,0 +1,53 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray;
+
+import junit.framework.*;
+
+/**
+ *  View plane tests.
+ */
+public final class ViewPlaneTest extends TestCase
+{
+  public void testProjectionInvertsRays()
+  {
+    final ViewPlane view = new ViewPlane(new Camera(new Vector(10, 10, 200), new Vector(0, 10, 700)), 800, 600);
+    
+    for (int x = 0; x < 800; x += 37)
+    {
+      for (int y = 0; y < 600; y += 41)
+      {
+        final double[] pixel = view.project(view.getRay(x, y).getPointAt(250 + x));
+        
+        assertEquals(x, pixel[0], 1e-6);
+        assertEquals(y, pixel[1], 1e-6);
+      }
+    }
+    
+    assertNull(view.project(new Vector(10, 10, 100)));              // behind the camera
+  }
+}
@@ -0,0 +1,94 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray;
+
+import java.awt.image.*;
+
+import junit.framework.*;
+
+import stingray.geometry.*;
+import stingray.texture.*;
+
+/**
+ *  Wavefront renderer tests.
+ */
+public final class WavefrontTest extends TestCase
+{
+  public void testWavefrontMatchesDepthFirst()
+  {
+    final Stage wavefront = stage();
+    
+    wavefront.setWavefront(true);
+    assertSameImage(stage().render("depth first", 64, 64), wavefront.render("wavefront", 64, 64));
+  }
+  
+  public void testSecondarySortingMatchesDepthFirst()
+  {
+    final Stage sorted = stage();
+    
+    sorted.setSecondarySorting(true);
+    assertSameImage(stage().render("depth first", 64, 64), sorted.render("sorted", 64, 64));
+  }
+  
+  private static void assertSameImage(Rendering a, Rendering b)
+  {
+    final BufferedImage first = (BufferedImage) a.getImage();
+    final BufferedImage second = (BufferedImage) b.getImage();
+    
+    for (int x = 0; x < first.getWidth(); x++)
+    {
+      for (int y = 0; y < first.getHeight(); y++)
+      {
+        assertEquals(first.getRGB(x, y), second.getRGB(x, y));
+      }
+    }
+  }
+  
+  /**
+   *  Spheres, one a mirror, on a plane, lit by an area light and by more lights than the
+   *  shadow ray budget, so that rays are reflected, shadow rays are sampled, and reflected
+   *  rays hit mirrors in turn.
+   */
+  private static Stage stage()
+  {
+    final Stage stage = new Stage(new Camera(new Vector(0, 0, 0), new Vector(0, 0, 100)));
+    final Texture texture = new SimpleTexture(new SolidPigment(Colour.WHITE), new Finish(0.1, 0.6, 50, 0.0));
+    final Texture mirror = new SimpleTexture(new SolidPigment(Colour.WHITE), new Finish(0.0, 0.0, 0, 1.0));
+    
+    stage.addGeometry(new Plane(new Vector(0, 1, 0), -20, texture));
+    stage.addGeometry(new Sphere(new Vector(0, 0, 100), 15, new SimpleTexture(new SolidPigment(Colour.RED), new Finish(0.1, 0.6, 50, 0.0))));
+    stage.addGeometry(new Sphere(new Vector(-25, 0, 110), 10, mirror));
+    stage.addGeometry(new Sphere(new Vector(25, 0, 110), 10, mirror));
+    stage.addLight(Light.spherical(new Vector(0, 60, 80), 10, Colour.WHITE));
+    for (int l = 0; l < 8; l++)
+    {
+      stage.addLight(new Light(new Vector(-80 + l * 20, 40, 40), new Colour(0.1f, 0.1f, 0.1f)));
+    }
+    stage.setShadowRayBudget(4);
+    return stage;
+  }
+}
@@ -0,0 +1,84 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.accel;
+
+import java.util.*;
+
+import junit.framework.*;
+
+import stingray.*;
+import stingray.Vector;
+import stingray.geometry.*;
+
+/**
+ *  Bounding volume hierarchy tests.
+ */
+public final class BvhTest extends TestCase
+{
+  public void testClosestHitMatchesBruteForce()
+  {
+    final List<Geometry> geometry = AcceleratorBenchmark.spheres(2000).getGeometry();
+    final Accelerator bvh = Bvh.build(geometry);
+    final Random random = new Random(7);
+    final Traversal traversal = new Traversal();
+
+    for (int i = 0; i < 2000; i++)
+    {
+      final Ray ray = new Ray(new Vector(0, 0, -1500), new Vector(random.nextDouble() - 0.5d,
+                                                                  random.nextDouble() - 0.5d,
+                                                                  1));
+      final IntersectionList expected = new IntersectionList(ray);
+      final IntersectionList actual = new IntersectionList(ray);
+
+      for (Geometry g : geometry)
+      {
+        g.intersect(ray, expected);
+      }
+      bvh.intersect(traversal, ray, actual);
+
+      assertEquals(expected.closestLength(), actual.closestLength());
+      if (! expected.isEmpty())
+      {
+        assertSame(expected.closest().getGeometry(), actual.closest().getGeometry());
+        assertTrue(bvh.occluded(traversal, ray, expected.closestLength()));
+        assertFalse(bvh.occluded(traversal, ray, expected.closestLength() * 0.5d));
+      }
+    }
+  }
+
+  public void testEmpty()
+  {
+    final Ray ray = new Ray(new Vector(0, 0, 0), Vector.Z_NORMAL);
+    final IntersectionList intersections = new IntersectionList(ray);
+    final Accelerator bvh = Bvh.build(new ArrayList<Geometry>());
+    final Traversal traversal = new Traversal();
+
+    bvh.intersect(traversal, ray, intersections);
+    assertTrue(intersections.isEmpty());
+    assertFalse(bvh.occluded(traversal, ray, Double.POSITIVE_INFINITY));
+  }
+}
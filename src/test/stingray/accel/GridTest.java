@@ -0,0 +1,98 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.accel;
+
+import java.util.*;
+
+import junit.framework.*;
+
+import stingray.*;
+import stingray.Vector;
+import stingray.geometry.*;
+
+/**
+ *  Uniform grid tests.
+ */
+public final class GridTest extends TestCase
+{
+  public void testClosestHitMatchesBruteForce()
+  {
+    final List<Geometry> geometry = AcceleratorBenchmark.spheres(2000).getGeometry();
+    final Accelerator grid = Grid.build(geometry);
+    final Random random = new Random(7);
+    final Traversal traversal = new Traversal();
+
+    for (int i = 0; i < 2000; i++)
+    {
+      final Ray ray = new Ray(new Vector(0, 0, -1500), new Vector(random.nextDouble() - 0.5d,
+                                                                  random.nextDouble() - 0.5d,
+                                                                  1));
+      final IntersectionList expected = new IntersectionList(ray);
+      final IntersectionList actual = new IntersectionList(ray);
+
+      for (Geometry g : geometry)
+      {
+        g.intersect(ray, expected);
+      }
+      grid.intersect(traversal, ray, actual);
+
+      assertEquals(expected.closestLength(), actual.closestLength());
+      if (! expected.isEmpty())
+      {
+        assertSame(expected.closest().getGeometry(), actual.closest().getGeometry());
+        assertTrue(grid.occluded(traversal, ray, expected.closestLength()));
+        assertFalse(grid.occluded(traversal, ray, expected.closestLength() * 0.5d));
+      }
+    }
+  }
+
+  public void testDegenerateBounds()
+  {
+    final List<Geometry> geometry = new ArrayList<Geometry>();
+    for (int i = 0; i < 10; i++)
+    {
+      geometry.add(new Sphere(new Vector(i * 10, 0, 0), 0, null));    // a row of points: zero extent in y and z
+    }
+
+    final Ray ray = new Ray(new Vector(-100, 0, 0), Vector.X_NORMAL);
+    final IntersectionList intersections = new IntersectionList(ray);
+    Grid.build(geometry).intersect(new Traversal(), ray, intersections);
+    assertEquals(100.0d, intersections.closestLength(), 1e-6);
+  }
+
+  public void testEmpty()
+  {
+    final Ray ray = new Ray(new Vector(0, 0, 0), Vector.Z_NORMAL);
+    final IntersectionList intersections = new IntersectionList(ray);
+    final Accelerator grid = Grid.build(new ArrayList<Geometry>());
+    final Traversal traversal = new Traversal();
+
+    grid.intersect(traversal, ray, intersections);
+    assertTrue(intersections.isEmpty());
+    assertFalse(grid.occluded(traversal, ray, Double.POSITIVE_INFINITY));
+  }
+}
@@ -0,0 +1,140 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.server;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.*;
+
+/**
+ *  Render cache tests.
+ */
+public final class RenderCacheTest extends TestCase
+{
+  private File directory;
+  
+  @Override
+  protected void setUp() throws IOException
+  {
+    this.directory = File.createTempFile("renders", "");
+    this.directory.delete();
+  }
+  
+  @Override
+  protected void tearDown()
+  {
+    for (File f : this.directory.listFiles())
+    {
+      f.delete();
+    }
+    this.directory.delete();
+  }
+  
+  public void testGetAndPut() throws IOException
+  {
+    final RenderCache cache = new RenderCache(this.directory, 1000);
+    final String key = RenderCache.key("abc", 800, 600);
+    
+    assertNull(cache.get(key));
+    cache.put(key, bytes(100, 7));
+    assertTrue(Arrays.equals(bytes(100, 7), cache.get(key)));
+    assertEquals(100, cache.getSize());
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+    
+    assertNull(cache.get(RenderCache.key("abc", 600, 800)));
+  }
+  
+  public void testEarlierVersionNotServed() throws IOException
+  {
+    final RenderCache cache = new RenderCache(this.directory, 1000);
+    
+    cache.put("v" + (RenderCache.VERSION - 1) + "-abc-800x600", bytes(100, 7));
+    assertNull(cache.get(RenderCache.key("abc", 800, 600)));
+  }
+  
+  public void testFailedPutLeavesNoFiles() throws IOException
+  {
+    final RenderCache cache = new RenderCache(this.directory, 1000);
+    final File blocker = new File(new File(this.directory, "a.png"), "blocker");  // (the render can't be renamed into place)
+    
+    blocker.getParentFile().mkdir();
+    blocker.createNewFile();
+    try
+    {
+      cache.put("a", bytes(10, 5));
+      fail();
+    }
+    catch (IOException ex)
+    {
+      ;
+    }
+    finally
+    {
+      blocker.delete();
+    }
+    
+    assertEquals(1, this.directory.listFiles().length);
+    assertEquals(0, cache.getSize());
+  }
+  
+  public void testLeastRecentlyUsedEvicted() throws IOException
+  {
+    final RenderCache cache = new RenderCache(this.directory, 250);
+    
+    cache.put("a", bytes(100, 1));
+    cache.put("b", bytes(100, 2));
+    assertNotNull(cache.get("a"));                                   // b is now least recently used
+    cache.put("c", bytes(100, 3));
+    
+    assertNotNull(cache.get("a"));
+    assertNull(cache.get("b"));
+    assertNotNull(cache.get("c"));
+    assertEquals(200, cache.getSize());
+    assertEquals(2, this.directory.listFiles().length);
+  }
+  
+  public void testKeptAcrossInstances() throws IOException
+  {
+    new RenderCache(this.directory, 1000).put("a", bytes(10, 5));
+    
+    final RenderCache cache = new RenderCache(this.directory, 1000);
+    assertTrue(Arrays.equals(bytes(10, 5), cache.get("a")));
+    assertEquals(10, cache.getSize());
+    
+    new RenderCache(this.directory, 5);                              // over budget: trimmed on opening
+    assertEquals(0, this.directory.listFiles().length);
+  }
+  
+  private static byte[] bytes(int length, int value)
+  {
+    final byte[] bytes = new byte[length];
+    Arrays.fill(bytes, (byte) value);
+    return bytes;
+  }
+}
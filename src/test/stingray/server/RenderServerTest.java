@@ -0,0 +1,118 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.server;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import junit.framework.*;
+
+/**
+ *  Render server tests.
+ */
+public final class RenderServerTest extends TestCase
+{
+  public void testJobOrder()
+  {
+    final List<RenderJob> jobs = new ArrayList<RenderJob>();
+    
+    jobs.add(job(0, 0));
+    jobs.add(job(5, 1));
+    jobs.add(job(0, 2));
+    jobs.add(job(5, 3));
+    jobs.add(job(-1, 4));
+    
+    final PriorityBlockingQueue<RenderJob> queue = new PriorityBlockingQueue<RenderJob>(jobs);
+    final int[] expected = { 1, 3, 0, 2, 4 };
+    
+    for (int i : expected)
+    {
+      assertSame(jobs.get(i), queue.poll());
+    }
+  }
+  
+  public void testHash()
+  {
+    assertEquals(StageCache.hash("function setup() {}"), StageCache.hash("function setup() {}"));
+    assertFalse(StageCache.hash("function setup() {}").equals(StageCache.hash("function setup() { }")));
+    assertEquals(64, StageCache.hash("").length());
+  }
+  
+  public void testRequests() throws IOException
+  {
+    final RenderServer server = new RenderServer(new InetSocketAddress(InetAddress.getByName("localhost"), 0), 1, 4, null);
+    
+    server.start();
+    try
+    {
+      final String base = "http://localhost:" + server.getPort();
+      
+      assertEquals(200, request(base + "/status", null));
+      assertEquals(405, request(base + "/render", null));
+      assertEquals(400, request(base + "/render?width=0", "function setup() {}"));
+      assertEquals(400, request(base + "/render?priority=high", "function setup() {}"));
+      assertEquals(400, request(base + "/render", "this is not a scene"));
+    }
+    finally
+    {
+      server.stop();
+    }
+  }
+  
+  private static RenderJob job(int priority, long sequence)
+  {
+    return new RenderJob(new Callable<byte[]>()
+    {
+      public byte[] call()
+      {
+        return new byte[0];
+      }
+    }, priority, sequence);
+  }
+  
+  /**
+   *  Make a request, posting the body if one is given.
+   *  @return The response status.
+   */
+  private static int request(String url, String body) throws IOException
+  {
+    final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    
+    if (body != null)
+    {
+      connection.setDoOutput(true);
+      connection.setRequestMethod("POST");
+      connection.getOutputStream().write(body.getBytes("UTF-8"));
+    }
+    
+    final int status = connection.getResponseCode();
+    connection.disconnect();
+    return status;
+  }
+}
@@ -0,0 +1,104 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.server;
+
+import java.util.*;
+
+import junit.framework.*;
+
+import stingray.*;
+import stingray.Vector;
+import stingray.geometry.*;
+import stingray.texture.*;
+
+/**
+ *  Stage content digest tests.
+ */
+public final class SceneDigestTest extends TestCase
+{
+  public void testEquivalentStages()
+  {
+    final Stage stage = stage(100);
+    final String digest = SceneDigest.digest(stage);
+    
+    assertNotNull(digest);
+    assertEquals(digest, SceneDigest.digest(stage(100)));
+    
+    stage.freeze();                                                  // (installs compiled textures, which aren't content)
+    assertEquals(digest, SceneDigest.digest(stage));
+  }
+  
+  public void testChangedStages()
+  {
+    final String digest = SceneDigest.digest(stage(100));
+    
+    assertFalse(digest.equals(SceneDigest.digest(stage(100.000001))));
+    
+    final Stage moved = stage(100);
+    moved.setFrame(1);
+    assertFalse(digest.equals(SceneDigest.digest(moved)));
+    
+    final Stage accelerated = stage(100);                            // doesn't change the image
+    accelerated.setThreads(3);
+    accelerated.setPacketSize(4);
+    assertEquals(digest, SceneDigest.digest(accelerated));
+  }
+  
+  public void testUndigestableStage()
+  {
+    final Stage stage = stage(100);
+    final Random random = new Random(1);
+    
+    stage.addGeometry(new Sphere(new Vector(0, 0, 0), 1, new SimpleTexture(new Pigment()
+    {
+      public Colour getColourAt(Vector v)
+      {
+        return new Colour(random.nextFloat(), 0, 0);
+      }
+      
+      public Colour getColourAt(Vector v, double footprint)
+      {
+        return getColourAt(v);
+      }
+    }, new Finish(0.1, 0.6, 50, 0.0))));
+    
+    assertNull(SceneDigest.digest(stage));
+  }
+  
+  private static Stage stage(double radius)
+  {
+    final Stage stage = new Stage(new Camera(new Vector(0, 0, 0), new Vector(0, 0, 100)));
+    final Finish finish = new Finish(0.1, 0.6, 50, 0.0);
+    final Texture checks = new CheckerTexture(new SimpleTexture(new SolidPigment(Colour.BLUE), finish), 
+                                              new SimpleTexture(new SolidPigment(Colour.WHITE), finish), 20);
+    
+    stage.addGeometry(new Sphere(new Vector(0, 0, 300), radius, new RotatedTexture(checks, Vector.Y_NORMAL, 35)));
+    stage.addGeometry(new Plane(new Vector(0, 1, 0), -100, checks));
+    stage.addLight(new Light(new Vector(-100, 500, 0), Colour.WHITE));
+    return stage;
+  }
+}
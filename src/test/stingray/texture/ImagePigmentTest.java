@@ -0,0 +1,142 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.texture;
+
+import java.awt.image.*;
+import java.io.*;
+import javax.imageio.*;
+
+import junit.framework.*;
+
+import stingray.*;
+
+/**
+ *  Image pigment tests.
+ */
+public final class ImagePigmentTest extends TestCase
+{
+  private File image;
+  
+  @Override
+  protected void setUp() throws IOException
+  {
+    final BufferedImage picture = new BufferedImage(150, 70, BufferedImage.TYPE_INT_RGB);
+    
+    for (int x = 0; x < 150; x++)
+    {
+      for (int y = 0; y < 70; y++)
+      {
+        picture.setRGB(x, y, (x << 16) | (y << 8) | ((x + y) % 2 == 0 ? 0xff : 0));
+      }
+    }
+    
+    this.image = File.createTempFile("stingray", ".png");
+    ImageIO.write(picture, "png", this.image);
+  }
+  
+  @Override
+  protected void tearDown()
+  {
+    new File(this.image.getPath() + ".mip").delete();
+    this.image.delete();
+  }
+  
+  public void testPixelCentres() throws IOException
+  {
+    final ImagePigment pigment = new ImagePigment(this.image, new Vector(0, 0, 0), new Vector(150, 0, 0), new Vector(0, 70, 0), new TileCache(1 << 20));
+    
+    for (int x = 0; x < 150; x += 7)
+    {
+      for (int y = 0; y < 70; y += 3)
+      {
+        final Colour colour = pigment.getColourAt(new Vector(x + 0.5, 69.5 - y, 12));
+        
+        assertEquals(x / 255.0f, colour.getRed(), 1e-5f);
+        assertEquals(y / 255.0f, colour.getGreen(), 1e-5f);
+        assertEquals((x + y) % 2 == 0 ? 1.0f : 0.0f, colour.getBlue(), 1e-5f);
+      }
+    }
+    
+    
+    final Colour once = pigment.getColourAt(new Vector(10.5, 20.5, 0));
+    final Colour repeated = pigment.getColourAt(new Vector(310.5, -49.5, 0));
+    
+    assertEquals(once.getRed(), repeated.getRed(), 1e-5f);
+    assertEquals(once.getGreen(), repeated.getGreen(), 1e-5f);
+    assertEquals(once.getBlue(), repeated.getBlue(), 1e-5f);
+  }
+  
+  public void testCoarseLevelsAverage() throws IOException
+  {
+    final ImagePigment pigment = new ImagePigment(this.image, new Vector(0, 0, 0), new Vector(150, 0, 0), new Vector(0, 70, 0));
+    
+    assertEquals(0.5f, pigment.getColourAt(new Vector(10.5, 20.5, 0), 4).getBlue(), 0.01f);
+    assertEquals(0.5f, pigment.getColourAt(new Vector(10.5, 20.5, 0), 1000).getBlue(), 0.01f);
+  }
+  
+  public void testMipMapShared() throws IOException
+  {
+    final File mip = new File(this.image.getPath() + ".mip");
+    final MipMap map = MipMap.open(this.image, mip, 64);
+    
+    assertSame(map, MipMap.open(this.image, mip, 64));
+    
+    final TileCache cache = new TileCache(1 << 20);
+    final Vector v = new Vector(10.5, 20.5, 0);
+    
+    new ImagePigment(this.image, new Vector(0, 0, 0), new Vector(150, 0, 0), new Vector(0, 70, 0), cache).getColourAt(v);
+    new ImagePigment(this.image, new Vector(0, 0, 0), new Vector(150, 0, 0), new Vector(0, 70, 0), cache).getColourAt(v);
+    assertEquals(1, cache.getMisses());                              // the second pigment reads the first's tile
+    
+    assertTrue(this.image.setLastModified(this.image.lastModified() - 10000));
+    assertNotSame(map, MipMap.open(this.image, mip, 64));            // the image changed
+  }
+  
+  public void testCacheFileReusedAndBudgetKept() throws IOException
+  {
+    new ImagePigment(this.image, new Vector(0, 0, 0), new Vector(150, 0, 0), new Vector(0, 70, 0));
+    
+    final File mip = new File(this.image.getPath() + ".mip");
+    final long built = mip.lastModified();
+    
+    assertTrue(mip.isFile());
+    assertTrue(mip.setLastModified(built - 10000));
+    
+    final TileCache cache = new TileCache(64 * 64 * 3 * 2);
+    final ImagePigment pigment = new ImagePigment(this.image, new Vector(0, 0, 0), new Vector(150, 0, 0), new Vector(0, 70, 0), cache);
+    
+    assertEquals(built - 10000, mip.lastModified());                // not rebuilt
+    
+    for (int x = 0; x < 150; x++)
+    {
+      pigment.getColourAt(new Vector(x + 0.5, 35.5, 0));
+      assertTrue(cache.getSize() <= cache.getBudget());
+    }
+    assertTrue(cache.getMisses() >= 3);
+    assertTrue(cache.getHits() > 0);
+  }
+}
@@ -0,0 +1,97 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.texture;
+
+import java.util.*;
+
+import junit.framework.*;
+
+import stingray.*;
+import stingray.Vector;
+
+/**
+ *  Noise tests.
+ */
+public final class NoiseTest extends TestCase
+{
+  public void testLatticeAndRange()
+  {
+    final Random random = new Random(3);
+    
+    assertEquals(0.0, Noise.noise(3, -7, 12), 0.0);
+    for (int i = 0; i < 10000; i++)
+    {
+      final double n = Noise.noise(random.nextDouble() * 600 - 300, random.nextDouble() * 600 - 300, random.nextDouble() * 600 - 300);
+      
+      assertTrue(n >= -1.1 && n <= 1.1);
+    }
+  }
+  
+  public void testBatchMatchesSinglePoints()
+  {
+    final Random random = new Random(5);
+    final double[] x = new double[100];
+    final double[] y = new double[100];
+    final double[] z = new double[100];
+    final double[] result = new double[100];
+    
+    for (int i = 0; i < 100; i++)
+    {
+      x[i] = random.nextDouble() * 100;
+      y[i] = random.nextDouble() * 100;
+      z[i] = random.nextDouble() * 100;
+    }
+    
+    Noise.turbulence(x, y, z, result, 100, 5);
+    for (int i = 0; i < 100; i++)
+    {
+      assertEquals(Noise.turbulence(x[i], y[i], z[i], 5), result[i], 0.0);
+    }
+  }
+  
+  public void testOctavesLimitedByFootprint()
+  {
+    assertEquals(6, Noise.getOctaves(6, 0));
+    assertEquals(1, Noise.getOctaves(6, 1));
+    assertEquals(3, Noise.getOctaves(6, 0.2));
+  }
+  
+  public void testPigmentsBlendBetweenColours()
+  {
+    final Pigment marble = new MarblePigment(Colour.BLACK, Colour.WHITE, 10, 1, 4);
+    
+    assertEquals(marble, new MarblePigment(Colour.BLACK, Colour.WHITE, 10, 1, 4));
+    assertFalse(marble.equals(new MarblePigment(Colour.BLACK, Colour.WHITE, 10, 2, 4)));
+    for (int i = 0; i < 100; i++)
+    {
+      final Colour colour = marble.getColourAt(new Vector(i * 1.3, i * 0.7, -i));
+      
+      assertTrue(colour.getRed() >= 0 && colour.getRed() <= 1);
+      assertEquals(colour.getRed(), colour.getBlue(), 0.0f);
+    }
+  }
+}
@@ -0,0 +1,56 @@
+/* **********************************************************************************
+ * Stingray
+ * 
+ * Copyright 2010 Greg Kopff
+ * All rights reserved.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * ******************************************************************************* */
+
+package stingray.texture;
+
+import junit.framework.*;
+
+import stingray.*;
+
+/**
+ *  Rotated texture tests.
+ */
+public final class RotatedTextureTest extends TestCase
+{
+  public void testMatchesVectorRotation()
+  {
+    final SimpleTexture blue = new SimpleTexture(new SolidPigment(Colour.BLUE), new Finish(0.1, 0.6, 50, 0.0));
+    final SimpleTexture white = new SimpleTexture(new SolidPigment(Colour.WHITE), new Finish(0.2, 0.7, 50, 0.0));
+    final Texture checker = new CheckerTexture(blue, white, 20);
+    final Vector axis = new Vector(1, 2, 3);
+    final Texture rotated = new RotatedTexture(checker, axis, 35);
+    
+    for (int i = 0; i < 1000; i++)
+    {
+      final Vector point = new Vector(i * 1.7 - 850, (i * 7) % 300 - 150.5, (i * 13) % 500 - 250.5);
+      final SimpleTexture expected = checker.getTextureAt(point.rotate(axis.normalise(), Math.toRadians(35)));
+      
+      assertSame(expected, rotated.getTextureAt(point));
+      assertSame(expected.getPigment(), rotated.getPigmentAt(point));
+      assertSame(expected.getFinish(), rotated.getFinishAt(point));
+    }
+  }
+}